@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent;
+
+import io.github.bmhm.nameserviceagent.agent.bootstrap.ResolverHook;
+import io.github.bmhm.nameserviceagent.agent.bytecode.InetAddressTransformer;
+import io.github.bmhm.nameserviceagent.agent.bytecode.NameServiceAdapters;
+import io.github.bmhm.nameserviceagent.api.AbstractProxyNameService;
+import io.github.bmhm.nameserviceagent.api.NameService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Installs the name service by rewriting {@link InetAddress}, see {@link InstallMode#INSTRUMENT}.
+ *
+ * <p>{@link ResolverHook} is appended to the bootstrap class path first, where {@code InetAddress} can see it.
+ * The custom name service is then called through method handles: no proxy, no reflective field write
+ * and no argument array per lookup. The JDK's address cache is bypassed, including its locks.</p>
+ */
+final class InetAddressInstrumentation {
+
+  private static final String RESOLVER_HOOK_RESOURCE = "io/github/bmhm/nameserviceagent/agent/bootstrap/ResolverHook.class";
+
+  private InetAddressInstrumentation() {
+    // util class
+  }
+
+  static void install(final Instrumentation instrumentation, final NameServicePipeline pipeline)
+      throws ReflectiveOperationException {
+    try {
+      appendResolverHookToBootstrapClassPath(instrumentation);
+    } catch (final IOException ioException) {
+      throw new IllegalStateException("Cannot append [" + RESOLVER_HOOK_RESOURCE + "] to the bootstrap class path.", ioException);
+    }
+
+    if (ResolverHook.class.getClassLoader() != null) {
+      throw new IllegalStateException("[" + ResolverHook.class.getName() + "] was loaded before it was on the bootstrap class path.");
+    }
+
+    addReadsFromJavaBase(instrumentation, ResolverHook.class);
+
+    final AbstractProxyNameService customNameService = pipeline.create(new InetAddressNameService());
+    final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+    ResolverHook.install(
+        lookup.findVirtual(NameService.class, "lookupAllHostAddr", NameServiceAdapters.LOOKUP_ALL_HOST_ADDR_TYPE).bindTo(customNameService),
+        lookup.findVirtual(NameService.class, "getHostByAddr", NameServiceAdapters.GET_HOST_BY_ADDR_TYPE).bindTo(customNameService));
+
+    final InetAddressTransformer transformer = new InetAddressTransformer();
+    instrumentation.addTransformer(transformer, true);
+
+    try {
+      instrumentation.retransformClasses(InetAddress.class);
+    } catch (final UnmodifiableClassException unmodifiableClassException) {
+      throw new IllegalStateException("Cannot rewrite [" + InetAddress.class.getName() + "].", unmodifiableClassException);
+    } finally {
+      instrumentation.removeTransformer(transformer);
+    }
+
+    if (!transformer.isTransformed()) {
+      throw new IllegalStateException("Cannot find the lookup methods of [" + InetAddress.class.getName() + "] in this JDK.");
+    }
+  }
+
+  private static void appendResolverHookToBootstrapClassPath(final Instrumentation instrumentation) throws IOException {
+    final Path bootstrapJar = Files.createTempFile("nameserviceagent-bootstrap", ".jar");
+    bootstrapJar.toFile().deleteOnExit();
+
+    try (InputStream resolverHook = InetAddressInstrumentation.class.getClassLoader().getResourceAsStream(RESOLVER_HOOK_RESOURCE);
+         JarOutputStream jar = new JarOutputStream(Files.newOutputStream(bootstrapJar))) {
+      if (resolverHook == null) {
+        throw new IOException("Resource [" + RESOLVER_HOOK_RESOURCE + "] not found.");
+      }
+
+      jar.putNextEntry(new JarEntry(RESOLVER_HOOK_RESOURCE));
+      final byte[] buffer = new byte[4096];
+
+      for (int read = resolverHook.read(buffer); read != -1; read = resolverHook.read(buffer)) {
+        jar.write(buffer, 0, read);
+      }
+
+      jar.closeEntry();
+    }
+
+    instrumentation.appendToBootstrapClassLoaderSearch(new JarFile(bootstrapJar.toFile()));
+  }
+
+  /**
+   * Lets {@code java.base} read the bootstrap class loader's unnamed module, which contains the hook. Not needed on Java 8.
+   *
+   * @param instrumentation the agent's instrumentation.
+   * @param hookClass       a class of the unnamed module.
+   * @throws ReflectiveOperationException if the module could not be redefined.
+   */
+  static void addReadsFromJavaBase(final Instrumentation instrumentation, final Class<?> hookClass)
+      throws ReflectiveOperationException {
+    final Method getModule;
+
+    try {
+      getModule = Class.class.getMethod("getModule");
+    } catch (final NoSuchMethodException javaEightException) {
+      return;
+    }
+
+    // the Java 9+ methods are looked up reflectively, as we compile for Java 8.
+    final Method redefineModule = Instrumentation.class.getMethod(
+        "redefineModule", getModule.getReturnType(), Set.class, Map.class, Map.class, Set.class, Map.class);
+    redefineModule.invoke(
+        instrumentation,
+        getModule.invoke(InetAddress.class),
+        Collections.singleton(getModule.invoke(hookClass)),
+        Collections.emptyMap(),
+        Collections.emptyMap(),
+        Collections.emptySet(),
+        Collections.emptyMap());
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent;
+
+import io.github.bmhm.nameserviceagent.agent.bootstrap.ResolverHook;
+import io.github.bmhm.nameserviceagent.api.NameService;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.StringJoiner;
+
+/**
+ * The JDK's own lookup as original name service, when {@link InetAddress} itself was rewritten to call the agent.
+ */
+final class InetAddressNameService implements NameService {
+
+  @Override
+  public InetAddress[] lookupAllHostAddr(final String host) throws UnknownHostException {
+    return ResolverHook.lookupOriginal(host);
+  }
+
+  @Override
+  public String getHostByAddr(final byte[] addr) throws UnknownHostException {
+    final String host = ResolverHook.getOriginalHostByAddr(addr);
+
+    // the JDK returns the literal if there is no host name.
+    if (host.equals(InetAddress.getByAddress(addr).getHostAddress())) {
+      throw new UnknownHostException(host);
+    }
+
+    return host;
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", InetAddressNameService.class.getSimpleName() + "[", "]")
+        .toString();
+  }
+}
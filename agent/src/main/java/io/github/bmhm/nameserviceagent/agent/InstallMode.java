@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent;
+
+import java.util.Locale;
+
+/**
+ * How the agent hooks its name service into the JDK, set by {@code nameserviceagent.install.mode}.
+ */
+enum InstallMode {
+  /** Use the resolver provider if the JDK supports it, reflection otherwise. */
+  AUTO,
+  /**
+   * Register through {@code java.net.spi.InetAddressResolverProvider}, needs Java 18+.
+   */
+  PROVIDER,
+  /**
+   * Replace the name service field of {@link java.net.InetAddress} using reflection, needs Java 17 or older.
+   */
+  REFLECTION,
+  /**
+   * Rewrite {@link java.net.InetAddress} using the agent's {@link java.lang.instrument.Instrumentation}, so it calls the name service
+   * directly instead of its own cache and name service. Never chosen by {@link #AUTO}.
+   */
+  INSTRUMENT;
+
+  static InstallMode fromString(final String mode) {
+    return InstallMode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+  }
+
+  /**
+   * Resolves {@link #AUTO} to the mode which works on this JDK.
+   *
+   * @param providerAvailable whether the JDK supports resolver providers and the agent contains one.
+   * @return the mode to install with, never {@link #AUTO}.
+   * @throws IllegalStateException if the resolver provider was requested, but is not available.
+   */
+  InstallMode resolve(final boolean providerAvailable) {
+    if (this == AUTO) {
+      return providerAvailable ? PROVIDER : REFLECTION;
+    }
+
+    if (this == PROVIDER && !providerAvailable) {
+      throw new IllegalStateException("The resolver provider needs Java 18 or newer and an agent jar built with Java 18 or newer.");
+    }
+
+    return this;
+  }
+}
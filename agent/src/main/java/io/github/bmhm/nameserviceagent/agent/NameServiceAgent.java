@@ -16,33 +16,104 @@
 
 package io.github.bmhm.nameserviceagent.agent;
 
+import io.github.bmhm.nameserviceagent.agent.nameservice.CacheSnapshot;
 import io.github.bmhm.nameserviceagent.agent.nameservice.DefaultSequentialReachableNameService;
 import io.github.bmhm.nameserviceagent.api.AbstractProxyNameService;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.lang.instrument.Instrumentation;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
 
 /**
  * NameService agent.
+ *
+ * <p>The agent arguments are a semicolon separated list of options, e.g.
+ * {@code -javaagent:nameserviceagent.jar=pipeline=cache,singleflight,reachable,doh} or
+ * {@code -javaagent:nameserviceagent.jar=config=/etc/nameserviceagent.properties}.
+ * The option {@code pipeline} is a {@link NameServicePipeline} specification. The option {@code config} names a properties file,
+ * which may contain {@code nameserviceagent.pipeline}.</p>
  */
 public final class NameServiceAgent {
 
   private static final String DEFAULT_CLASS_NAME = DefaultSequentialReachableNameService.class.getCanonicalName();
 
+  private static final String PIPELINE_PROPERTY = "nameserviceagent.pipeline";
+
   private NameServiceAgent() {
     // util
   }
 
   public static void premain(final String agentArgs, final Instrumentation inst) throws Exception {
-    installAgent();
+    installAgent(agentArgs, inst);
   }
 
   public static void agentmain(final String agentArgs, final Instrumentation inst) throws Exception {
-    installAgent();
+    installAgent(agentArgs, inst);
+  }
+
+  private static void installAgent(final String agentArgs, final Instrumentation inst) throws ReflectiveOperationException {
+    CacheSnapshot.start();
+    final NameServicePipeline pipeline = NameServicePipeline.parse(getPipelineSpecification(agentArgs));
+    NameServiceInstaller.install(pipeline, inst);
+  }
+
+  /**
+   * Determines the pipeline specification from the agent arguments, a properties file named by them,
+   * the system property {@code nameserviceagent.pipeline} or the single class {@code nameserviceagent.implementation}, in this order.
+   *
+   * @param agentArgs the agent arguments, may be {@code null}.
+   * @return the pipeline specification.
+   * @throws IllegalArgumentException if an option is unknown or the properties file cannot be read.
+   */
+  static String getPipelineSpecification(final String agentArgs) {
+    String pipeline = null;
+    String configFile = null;
+
+    for (final String option : agentArgs == null ? new String[0] : agentArgs.split(";")) {
+      final String trimmedOption = option.trim();
+
+      if (trimmedOption.isEmpty()) {
+        continue;
+      }
+
+      final int separator = trimmedOption.indexOf('=');
+      final String key = separator == -1 ? trimmedOption : trimmedOption.substring(0, separator).trim();
+      final String value = separator == -1 ? "" : trimmedOption.substring(separator + 1).trim();
+
+      if ("pipeline".equals(key)) {
+        pipeline = value;
+      } else if ("config".equals(key)) {
+        configFile = value;
+      } else {
+        throw new IllegalArgumentException("Unknown agent option [" + key + "] in [" + agentArgs + "].");
+      }
+    }
+
+    if (pipeline == null && configFile != null) {
+      pipeline = loadConfig(configFile).getProperty(PIPELINE_PROPERTY);
+    }
+
+    if (pipeline == null) {
+      pipeline = System.getProperty(PIPELINE_PROPERTY, getNameServiceClassName());
+    }
+
+    return pipeline;
   }
 
-  private static void installAgent() throws ReflectiveOperationException {
-    final Class<? extends AbstractProxyNameService> nameService = loadCustomNameServiceClass();
-    NameServiceInstaller.install(nameService);
+  private static Properties loadConfig(final String configFile) {
+    final Properties config = new Properties();
+
+    try (Reader reader = Files.newBufferedReader(Paths.get(configFile), StandardCharsets.UTF_8)) {
+      config.load(reader);
+    } catch (final IOException ioException) {
+      throw new IllegalArgumentException("Cannot read agent config [" + configFile + "].", ioException);
+    }
+
+    return config;
   }
 
   protected static Class<? extends AbstractProxyNameService> loadCustomNameServiceClass() throws ClassNotFoundException {
@@ -19,40 +19,115 @@ package io.github.bmhm.nameserviceagent.agent;
 import static io.github.bmhm.nameserviceagent.agent.util.TryingReflectionLoader.loadFirstAvailableClass;
 import static java.util.Collections.singletonList;
 
+import io.github.bmhm.nameserviceagent.agent.bytecode.NameServiceAdapters;
 import io.github.bmhm.nameserviceagent.agent.util.TryingReflectionLoader;
 import io.github.bmhm.nameserviceagent.api.AbstractProxyNameService;
 import io.github.bmhm.nameserviceagent.api.ForbiddenApiCall;
 import io.github.bmhm.nameserviceagent.api.NameService;
 
+import java.lang.instrument.Instrumentation;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.InetAddress;
 import java.util.Arrays;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public final class NameServiceInstaller {
 
+  private static final Logger LOG = Logger.getLogger(NameServiceInstaller.class.getCanonicalName());
+
+  /**
+   * Whether to connect the JDK and the name services using generated classes instead of {@link Proxy}s.
+   */
+  private static final boolean GENERATED_ADAPTERS = Boolean.parseBoolean(System.getProperty("nameserviceagent.adapters.enabled", "true"));
+
+  private static final InstallMode INSTALL_MODE = InstallMode.fromString(System.getProperty("nameserviceagent.install.mode", "auto"));
+
+  /**
+   * The multi-release part of the agent jar registers this class as {@code java.net.spi.InetAddressResolverProvider}.
+   */
+  private static final String RESOLVER_PROVIDER_CLASS_NAME = "io.github.bmhm.nameserviceagent.agent.NameServiceResolverProvider";
+
+  /**
+   * The name services the resolver provider creates, or {@code null} if it should return the built-in resolver.
+   */
+  private static volatile NameServicePipeline providedPipeline;
+
   private NameServiceInstaller() {
     // util class
   }
 
   public static void install(final Class<? extends AbstractProxyNameService> replacementClass)
       throws SecurityException, ReflectiveOperationException {
+    install(NameServicePipeline.of(replacementClass), null);
+  }
+
+  /**
+   * Installs the name services as configured by {@code nameserviceagent.install.mode}.
+   *
+   * @param pipeline        the name services to install, the first one is called by the JDK.
+   * @param instrumentation the agent's instrumentation, only needed by {@link InstallMode#INSTRUMENT}.
+   * @throws ReflectiveOperationException if the name services cannot be created or installed.
+   * @throws IllegalStateException        if the install mode is not available.
+   */
+  public static void install(final NameServicePipeline pipeline, final Instrumentation instrumentation)
+      throws SecurityException, ReflectiveOperationException {
+    switch (INSTALL_MODE.resolve(isResolverProviderAvailable())) {
+      case PROVIDER:
+        // the JDK asks the provider on the first lookup, which must not have happened before.
+        providedPipeline = pipeline;
+        LOG.log(Level.FINE, () -> "Installing [" + pipeline + "] using the resolver provider.");
+        break;
+      case INSTRUMENT:
+        if (instrumentation == null) {
+          throw new IllegalStateException("Install mode [instrument] needs the agent's instrumentation.");
+        }
+
+        InetAddressInstrumentation.install(instrumentation, pipeline);
+        break;
+      default:
+        installUsingReflection(pipeline);
+        break;
+    }
+  }
+
+  static boolean isResolverProviderAvailable() {
+    return loadFirstAvailableClass(RESOLVER_PROVIDER_CLASS_NAME).isPresent();
+  }
+
+  /**
+   * Returns the name services which the resolver provider should create.
+   *
+   * @return the pipeline, or {@code null} if the agent was not installed using the resolver provider.
+   */
+  static NameServicePipeline getProvidedPipeline() {
+    return providedPipeline;
+  }
+
+  private static void installUsingReflection(final NameServicePipeline pipeline) throws ReflectiveOperationException {
     final Field nameServiceField = determineOriginalNameServiceField();
     final Object originalNameService = nameServiceField.get(null);
-    final AbstractProxyNameService customNameService = instantiateCustomNameService(replacementClass, originalNameService);
+    final AbstractProxyNameService customNameService = pipeline.create(GENERATED_ADAPTERS
+        ? adaptOriginalNameService(originalNameService)
+        : proxyOriginalNameService(originalNameService));
+    final Object customNameServiceAdapter = GENERATED_ADAPTERS
+        ? adaptCustomService(customNameService)
+        : proxyCustomService(customNameService);
 
     final Object customNameServiceProxy;
 
     if (nameServiceField.getName().endsWith("s")) {
       // the definition for e.g. openj9@1.8:
       // private static List<NameService> nameServices
-      customNameServiceProxy = singletonList(proxyCustomService(customNameService));
+      customNameServiceProxy = singletonList(customNameServiceAdapter);
     } else {
       // the definition for e.g. adopt@1.11 and adopt-openj9@1.11:
       // private static transient NameService nameService
-      customNameServiceProxy = proxyCustomService(customNameService);
+      customNameServiceProxy = customNameServiceAdapter;
 
     }
 
@@ -83,6 +158,32 @@ public final class NameServiceInstaller {
     );
   }
 
+  /**
+   * Connects the JDK to the custom service using a generated class, which calls the custom service directly.
+   * Falls back to {@link #proxyCustomService(AbstractProxyNameService)} if no class can be generated.
+   *
+   * @param createdNameService the custom name service.
+   * @return an instance of the JDK's name service interface.
+   */
+  protected static Object adaptCustomService(final AbstractProxyNameService createdNameService) {
+    final Class<?> proxiedInterface = determineProxiedInterface();
+
+    try {
+      final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+      return NameServiceAdapters.create(
+          proxiedInterface,
+          lookup.findVirtual(NameService.class, "lookupAllHostAddr", NameServiceAdapters.LOOKUP_ALL_HOST_ADDR_TYPE)
+              .bindTo(createdNameService),
+          lookup.findVirtual(NameService.class, "getHostByAddr", NameServiceAdapters.GET_HOST_BY_ADDR_TYPE)
+              .bindTo(createdNameService));
+    } catch (final ReflectiveOperationException | RuntimeException | LinkageError adapterException) {
+      LOG.log(Level.FINE, adapterException, () -> "Cannot generate an adapter for [" + proxiedInterface + "], using a proxy.");
+
+      return proxyCustomService(createdNameService);
+    }
+  }
+
   protected static Class<?> determineProxiedInterface() {
     final String[] classes = {
         "java.net.InetAddress$NameService",
@@ -119,14 +220,47 @@ public final class NameServiceInstaller {
       throws ReflectiveOperationException {
     final NameService proxiedOriginalNameService = proxyOriginalNameService(originalNameService);
 
-    return replacementClass.getConstructor(NameService.class).newInstance(proxiedOriginalNameService);
+    return newCustomNameService(replacementClass, proxiedOriginalNameService);
   }
 
-  protected static NameService proxyOriginalNameService(final Object originalNameService) {
-    Object actualOriginalNameService = originalNameService;
+  static AbstractProxyNameService newCustomNameService(final Class<? extends AbstractProxyNameService> replacementClass,
+                                                       final NameService originalNameService)
+      throws ReflectiveOperationException {
+    return replacementClass.getConstructor(NameService.class).newInstance(originalNameService);
+  }
+
+  /**
+   * Wraps the original name service using a generated class, which calls the original name service directly.
+   * Falls back to {@link #proxyOriginalNameService(Object)} if no class can be generated.
+   *
+   * @param originalNameService the JDK's name service, or a list containing it.
+   * @return the original name service as {@link NameService}.
+   */
+  protected static NameService adaptOriginalNameService(final Object originalNameService) {
+    final Object actualOriginalNameService = unwrapOriginalNameService(originalNameService);
+
+    try {
+      return (NameService) NameServiceAdapters.create(
+          NameService.class,
+          OriginalNameServiceProxy.findBoundHandle(actualOriginalNameService, "lookupAllHostAddr", InetAddress[].class, String.class),
+          OriginalNameServiceProxy.findBoundHandle(actualOriginalNameService, "getHostByAddr", String.class, byte[].class));
+    } catch (final ReflectiveOperationException | RuntimeException | LinkageError adapterException) {
+      LOG.log(Level.FINE, adapterException, () -> "Cannot generate an adapter for [" + actualOriginalNameService + "], using a proxy.");
+
+      return proxyOriginalNameService(originalNameService);
+    }
+  }
+
+  private static Object unwrapOriginalNameService(final Object originalNameService) {
     if (originalNameService instanceof List) {
-      actualOriginalNameService = ((List<?>) originalNameService).get(0);
+      return ((List<?>) originalNameService).get(0);
     }
+
+    return originalNameService;
+  }
+
+  protected static NameService proxyOriginalNameService(final Object originalNameService) {
+    final Object actualOriginalNameService = unwrapOriginalNameService(originalNameService);
     try {
       final Method lookupAllHostAddrMethod = actualOriginalNameService.getClass().getDeclaredMethod("lookupAllHostAddr", String.class);
       final Method getHostByAddrMethod = actualOriginalNameService.getClass().getDeclaredMethod("getHostByAddr", byte[].class);
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent;
+
+import io.github.bmhm.nameserviceagent.agent.nameservice.AlwaysLocalhostLoopbackNameService;
+import io.github.bmhm.nameserviceagent.agent.nameservice.CacheSnapshot;
+import io.github.bmhm.nameserviceagent.agent.nameservice.CachingNameService;
+import io.github.bmhm.nameserviceagent.agent.nameservice.ClassicDnsNameService;
+import io.github.bmhm.nameserviceagent.agent.nameservice.DefaultSequentialReachableNameService;
+import io.github.bmhm.nameserviceagent.agent.nameservice.DnsOverHttpsNameService;
+import io.github.bmhm.nameserviceagent.agent.nameservice.DnsOverTlsNameService;
+import io.github.bmhm.nameserviceagent.agent.nameservice.RandomNameService;
+import io.github.bmhm.nameserviceagent.agent.nameservice.SingleFlightNameService;
+import io.github.bmhm.nameserviceagent.api.AbstractProxyNameService;
+import io.github.bmhm.nameserviceagent.api.NameService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * A chain of name services, each getting the next one as its original name service. The last one gets the JDK's name service.
+ *
+ * <p>The specification is a comma separated list of stages, from the first one called by the JDK to the last one,
+ * e.g. {@code cache,singleflight,reachable,doh}. A stage is either an alias or the full class name of an
+ * {@link AbstractProxyNameService} with a public {@link NameService} constructor.</p>
+ */
+public final class NameServicePipeline {
+
+  private static final Map<String, Class<? extends AbstractProxyNameService>> ALIASES = createAliases();
+
+  private final List<Class<? extends AbstractProxyNameService>> stages;
+
+  private NameServicePipeline(final List<Class<? extends AbstractProxyNameService>> stages) {
+    this.stages = Collections.unmodifiableList(stages);
+  }
+
+  private static Map<String, Class<? extends AbstractProxyNameService>> createAliases() {
+    final Map<String, Class<? extends AbstractProxyNameService>> aliases = new HashMap<>();
+    aliases.put("cache", CachingNameService.class);
+    aliases.put("singleflight", SingleFlightNameService.class);
+    aliases.put("reachable", DefaultSequentialReachableNameService.class);
+    aliases.put("random", RandomNameService.class);
+    aliases.put("localhost", AlwaysLocalhostLoopbackNameService.class);
+    aliases.put("dns", ClassicDnsNameService.class);
+    aliases.put("dot", DnsOverTlsNameService.class);
+    aliases.put("doh", DnsOverHttpsNameService.class);
+
+    return Collections.unmodifiableMap(aliases);
+  }
+
+  /**
+   * Creates a pipeline of a single name service.
+   *
+   * @param stage the name service class.
+   * @return a pipeline containing just the given class.
+   */
+  public static NameServicePipeline of(final Class<? extends AbstractProxyNameService> stage) {
+    return new NameServicePipeline(Collections.singletonList(stage));
+  }
+
+  /**
+   * Parses a pipeline specification like {@code cache,singleflight,reachable,doh}.
+   *
+   * @param specification the comma separated aliases or class names.
+   * @return the pipeline.
+   * @throws ClassNotFoundException   if a class was not found.
+   * @throws IllegalArgumentException if a class is not an {@link AbstractProxyNameService} or the specification is empty.
+   */
+  public static NameServicePipeline parse(final String specification) throws ClassNotFoundException {
+    final List<Class<? extends AbstractProxyNameService>> stages = new ArrayList<>();
+
+    for (final String stage : specification.split(",")) {
+      final String trimmedStage = stage.trim();
+
+      if (trimmedStage.isEmpty()) {
+        continue;
+      }
+
+      final Class<? extends AbstractProxyNameService> aliasedClass = ALIASES.get(trimmedStage.toLowerCase(Locale.ROOT));
+      stages.add(aliasedClass == null ? NameServiceAgent.doLoadNameServiceReplacementClass(trimmedStage) : aliasedClass);
+    }
+
+    if (stages.isEmpty()) {
+      throw new IllegalArgumentException("The name service pipeline [" + specification + "] has no stages.");
+    }
+
+    return new NameServicePipeline(stages);
+  }
+
+  /**
+   * Instantiates the stages from the last to the first one and registers their caches for the {@link CacheSnapshot}.
+   *
+   * @param originalNameService the JDK's name service, given to the last stage.
+   * @return the first stage, which the JDK should call.
+   * @throws ReflectiveOperationException if a stage cannot be instantiated.
+   */
+  public AbstractProxyNameService create(final NameService originalNameService) throws ReflectiveOperationException {
+    final List<CachingNameService> caches = new ArrayList<>(0);
+    NameService next = originalNameService;
+    AbstractProxyNameService stage = null;
+
+    for (int stageIndex = this.stages.size() - 1; stageIndex >= 0; stageIndex--) {
+      stage = NameServiceInstaller.newCustomNameService(this.stages.get(stageIndex), next);
+
+      if (stage instanceof CachingNameService) {
+        caches.add((CachingNameService) stage);
+      }
+
+      next = stage;
+    }
+
+    // only registered once constructed, so a snapshot never sees a cache under construction.
+    CacheSnapshot.register(caches);
+
+    return stage;
+  }
+
+  public List<Class<? extends AbstractProxyNameService>> getStages() {
+    return this.stages;
+  }
+
+  @Override
+  public String toString() {
+    final StringJoiner stageNames = new StringJoiner(" -> ", NameServicePipeline.class.getSimpleName() + "[", "]");
+
+    for (final Class<? extends AbstractProxyNameService> stage : this.stages) {
+      stageNames.add(stage.getName());
+    }
+
+    return stageNames.toString();
+  }
+}
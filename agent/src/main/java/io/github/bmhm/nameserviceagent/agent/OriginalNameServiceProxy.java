@@ -16,10 +16,17 @@
 
 package io.github.bmhm.nameserviceagent.agent;
 
+import io.github.bmhm.nameserviceagent.api.AddressFamily;
 import io.github.bmhm.nameserviceagent.api.ForbiddenApiCall;
+import io.github.bmhm.nameserviceagent.api.NameService;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 
 /**
  * Proxy class for the original nameService, which will have two known methods. But since we cannot reach its interface nor
@@ -27,36 +34,137 @@ import java.lang.reflect.Method;
  *
  * <p>Luckily, as the method names never changed,
  * we can just proxy it with the same methods as {@link io.github.bmhm.nameserviceagent.api.NameService} provides.</p>
+ *
+ * <p>Both methods are looked up once, as method handles bound to the original name service,
+ * so a lookup does not reflect at all.</p>
  */
 public class OriginalNameServiceProxy implements InvocationHandler {
 
+  private static final Method LOOKUP_ALL_HOST_ADDR = getNameServiceMethod("lookupAllHostAddr", String.class);
+
+  private static final Method GET_HOST_BY_ADDR = getNameServiceMethod("getHostByAddr", byte[].class);
+
   private final Object actualOriginalNameService;
 
+  private final MethodHandle lookupAllHostAddr;
+
+  private final MethodHandle getHostByAddr;
+
+  /**
+   * Creates a proxy for the given name service.
+   *
+   * @param actualOriginalNameService the name service to call.
+   * @throws IllegalArgumentException if the name service does not have both methods.
+   */
   public OriginalNameServiceProxy(final Object actualOriginalNameService) {
     this.actualOriginalNameService = actualOriginalNameService;
+    this.lookupAllHostAddr = findBoundHandle(actualOriginalNameService, "lookupAllHostAddr", InetAddress[].class, String.class);
+    this.getHostByAddr = findBoundHandle(actualOriginalNameService, "getHostByAddr", String.class, byte[].class);
+  }
+
+  private static Method getNameServiceMethod(final String methodName, final Class<?> parameterType) {
+    try {
+      return NameService.class.getMethod(methodName, parameterType);
+    } catch (final NoSuchMethodException noSuchMethodException) {
+      throw new IllegalStateException(noSuchMethodException);
+    }
+  }
+
+  /**
+   * Finds a public method of the target, even if its class is not public.
+   *
+   * @param target        the object to bind the method handle to.
+   * @param methodName    the method's name.
+   * @param returnType    the method's return type.
+   * @param parameterType the method's only parameter type.
+   * @return a method handle bound to the target, of exactly the given type.
+   * @throws IllegalArgumentException if there is no such method.
+   */
+  @ForbiddenApiCall(justification = "the original name service is not public")
+  static MethodHandle findBoundHandle(final Object target,
+                                      final String methodName,
+                                      final Class<?> returnType,
+                                      final Class<?> parameterType) {
+    try {
+      final Method method = target.getClass().getMethod(methodName, parameterType);
+      method.setAccessible(true);
+
+      return MethodHandles.lookup().unreflect(method)
+          .bindTo(target)
+          .asType(MethodType.methodType(returnType, parameterType));
+    } catch (final ReflectiveOperationException reflectiveOperationException) {
+      throw new IllegalArgumentException("method [" + methodName + "] does not exist.", reflectiveOperationException);
+    }
   }
 
   @Override
-  @ForbiddenApiCall
-  public Object invoke(final Object proxy, final Method method, final Object[] args) {
-    final Class<?> originalNameServiceClass = this.actualOriginalNameService.getClass();
+  public Object invoke(final Object proxy, final Method method, final Object[] args) throws UnknownHostException {
+    // the proxy passes the interface's methods, which are cheap to compare.
+    if (LOOKUP_ALL_HOST_ADDR.equals(method)) {
+      return this.lookupAllHostAddr((String) args[0]);
+    }
+
+    if (GET_HOST_BY_ADDR.equals(method)) {
+      return this.getHostByAddr((byte[]) args[0]);
+    }
+
+    return this.invokeByName(method, args);
+  }
+
+  private Object invokeByName(final Method method, final Object[] args) throws UnknownHostException {
+    // e.g. the same method declared by an implementing class.
+    switch (method.getName()) {
+      case "lookupAllHostAddr":
+        return this.lookupAllHostAddr(args);
+      case "getHostByAddr":
+        return this.getHostByAddr((byte[]) args[0]);
+      default:
+        throw new IllegalArgumentException("method [" + method.getName() + "] does not exist or is not accessible.");
+    }
+  }
+
+  /**
+   * Calls {@code lookupAllHostAddr} of the original name service.
+   *
+   * @param host the host to look up.
+   * @return the addresses returned by the original name service.
+   * @throws UnknownHostException if the original name service does not know the host.
+   */
+  InetAddress[] lookupAllHostAddr(final String host) throws UnknownHostException {
+    try {
+      return (InetAddress[]) this.lookupAllHostAddr.invokeExact(host);
+    } catch (final UnknownHostException | RuntimeException | Error passThroughException) {
+      throw passThroughException;
+    } catch (final Throwable checkedException) {
+      throw new IllegalStateException("Unexpected exception from [" + this.actualOriginalNameService + "].", checkedException);
+    }
+  }
+
+  private InetAddress[] lookupAllHostAddr(final Object[] args) throws UnknownHostException {
+    final String host = (String) args[0];
+
+    if (args.length == 2) {
+      // the original name service does not know about families.
+      return ((AddressFamily) args[1]).filter(host, this.lookupAllHostAddr(host));
+    }
+
+    return this.lookupAllHostAddr(host);
+  }
 
+  /**
+   * Calls {@code getHostByAddr} of the original name service.
+   *
+   * @param addr the address to look up.
+   * @return the host name returned by the original name service.
+   * @throws UnknownHostException if the original name service does not know the address.
+   */
+  String getHostByAddr(final byte[] addr) throws UnknownHostException {
     try {
-      switch (method.getName()) {
-        case "lookupAllHostAddr":
-          final Method originallookupAllHostAddr = originalNameServiceClass.getMethod(method.getName(), String.class);
-          originallookupAllHostAddr.setAccessible(true);
-          return originallookupAllHostAddr.invoke(this.actualOriginalNameService, (String) args[0]);
-        case "getHostByAddr":
-          final Method originalgetHostByAddr = originalNameServiceClass.getMethod(method.getName(), byte[].class);
-          originalgetHostByAddr.setAccessible(true);
-          //noinspection PrimitiveArrayArgumentToVarargsMethod
-          return originalgetHostByAddr.invoke(this.actualOriginalNameService, (byte[]) args[0]);
-        default:
-          throw new IllegalArgumentException("method [" + method.getName() + "] does not exist or is not accessible.");
-      }
-    } catch (final ReflectiveOperationException noSuchMethodException) {
-      throw new IllegalArgumentException("method [" + method.getName() + "] does not exist.", noSuchMethodException);
+      return (String) this.getHostByAddr.invokeExact(addr);
+    } catch (final UnknownHostException | RuntimeException | Error passThroughException) {
+      throw passThroughException;
+    } catch (final Throwable checkedException) {
+      throw new IllegalStateException("Unexpected exception from [" + this.actualOriginalNameService + "].", checkedException);
     }
   }
 }
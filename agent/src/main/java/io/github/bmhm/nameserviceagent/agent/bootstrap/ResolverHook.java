@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.bootstrap;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * The bridge between the rewritten {@link InetAddress} and the agent's name service, used by the {@code instrument} install mode.
+ *
+ * <p>{@code InetAddress} is loaded by the bootstrap class loader, so this class is appended to the bootstrap class path.
+ * It must only reference {@code java.*} types. The name service is called through method handles, which are
+ * {@code null} until installed. As long as they are, or while looking up using the JDK itself,
+ * the hooks return {@code null} and {@code InetAddress} continues as if they did not exist.</p>
+ */
+public final class ResolverHook {
+
+  private static final MethodType LOOKUP_ALL_HOST_ADDR_TYPE = MethodType.methodType(InetAddress[].class, String.class);
+
+  private static final MethodType GET_HOST_BY_ADDR_TYPE = MethodType.methodType(String.class, byte[].class);
+
+  private static final ThreadLocal<Boolean> ORIGINAL_LOOKUP = new ThreadLocal<>();
+
+  private static volatile MethodHandle lookupAllHostAddrHandle;
+
+  private static volatile MethodHandle getHostByAddrHandle;
+
+  private ResolverHook() {
+    // util class
+  }
+
+  /**
+   * Routes all further lookups of {@link InetAddress} to the given method handles.
+   *
+   * @param lookupAllHostAddr the name service's {@code lookupAllHostAddr}, of type {@code (String)InetAddress[]}.
+   * @param getHostByAddr     the name service's {@code getHostByAddr}, of type {@code (byte[])String}.
+   * @throws IllegalArgumentException if a method handle is of the wrong type.
+   */
+  public static void install(final MethodHandle lookupAllHostAddr, final MethodHandle getHostByAddr) {
+    if (!lookupAllHostAddr.type().equals(LOOKUP_ALL_HOST_ADDR_TYPE) || !getHostByAddr.type().equals(GET_HOST_BY_ADDR_TYPE)) {
+      throw new IllegalArgumentException("Wrong method handle types: [" + lookupAllHostAddr + "], [" + getHostByAddr + "].");
+    }
+
+    getHostByAddrHandle = getHostByAddr;
+    lookupAllHostAddrHandle = lookupAllHostAddr;
+  }
+
+  /**
+   * Called by {@code InetAddress.getAllByName0} before its own cache and name service.
+   *
+   * @param host the host to look up.
+   * @return the addresses, or {@code null} to let {@code InetAddress} look them up itself.
+   * @throws UnknownHostException if the name service does not know the host.
+   */
+  public static InetAddress[] lookupAllHostAddr(final String host) throws UnknownHostException {
+    final MethodHandle handle = lookupAllHostAddrHandle;
+
+    if (handle == null || ORIGINAL_LOOKUP.get() != null) {
+      return null;
+    }
+
+    try {
+      return (InetAddress[]) handle.invokeExact(host);
+    } catch (final UnknownHostException | RuntimeException | Error passThroughException) {
+      throw passThroughException;
+    } catch (final Throwable checkedException) {
+      throw new IllegalStateException("Unexpected exception looking up [" + host + "].", checkedException);
+    }
+  }
+
+  /**
+   * Called by {@code InetAddress.getHostFromNameService} before its own name service.
+   *
+   * <p>Like the JDK, the host name is only returned if the caller may connect to it and it resolves back to the address,
+   * so a forged PTR record cannot pass for another host.</p>
+   *
+   * @param address the address to look up.
+   * @return the host name, the address literal if there is none or it does not resolve back (like the JDK),
+   *     or {@code null} to let {@code InetAddress} look it up itself.
+   */
+  public static String getHostByAddr(final InetAddress address) {
+    final MethodHandle handle = getHostByAddrHandle;
+
+    if (handle == null || ORIGINAL_LOOKUP.get() != null) {
+      return null;
+    }
+
+    try {
+      final String host = (String) handle.invokeExact(address.getAddress());
+
+      return isForwardConfirmed(host, address) ? host : address.getHostAddress();
+    } catch (final UnknownHostException | SecurityException notConfirmedException) {
+      return address.getHostAddress();
+    } catch (final RuntimeException | Error passThroughException) {
+      throw passThroughException;
+    } catch (final Throwable checkedException) {
+      throw new IllegalStateException("Unexpected exception looking up [" + address.getHostAddress() + "].", checkedException);
+    }
+  }
+
+  private static boolean isForwardConfirmed(final String host, final InetAddress address) throws UnknownHostException {
+    final SecurityManager securityManager = System.getSecurityManager();
+
+    if (securityManager != null) {
+      securityManager.checkConnect(host, -1);
+    }
+
+    final InetAddress[] addresses = lookupAllHostAddr(host);
+
+    if (addresses == null) {
+      return false;
+    }
+
+    for (final InetAddress resolved : addresses) {
+      if (address.equals(resolved)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Looks up the host using the JDK itself, bypassing the hook.
+   *
+   * @param host the host to look up.
+   * @return the addresses returned by the JDK.
+   * @throws UnknownHostException if the JDK does not know the host.
+   */
+  public static InetAddress[] lookupOriginal(final String host) throws UnknownHostException {
+    ORIGINAL_LOOKUP.set(Boolean.TRUE);
+
+    try {
+      return InetAddress.getAllByName(host);
+    } finally {
+      ORIGINAL_LOOKUP.remove();
+    }
+  }
+
+  /**
+   * Looks up the host name using the JDK itself, bypassing the hook.
+   *
+   * @param addr the address to look up.
+   * @return the host name, or the address literal if the JDK does not know it.
+   * @throws UnknownHostException if the address is of illegal length.
+   */
+  public static String getOriginalHostByAddr(final byte[] addr) throws UnknownHostException {
+    final InetAddress address = InetAddress.getByAddress(addr);
+    ORIGINAL_LOOKUP.set(Boolean.TRUE);
+
+    try {
+      return address.getCanonicalHostName();
+    } finally {
+      ORIGINAL_LOOKUP.remove();
+    }
+  }
+}
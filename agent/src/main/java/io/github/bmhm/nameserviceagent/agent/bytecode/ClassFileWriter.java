@@ -0,0 +1,334 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes just enough of the class file format (Java 8, version 52) for classes with fields and straight-line methods.
+ *
+ * <p>Methods must not branch, so no stack map frames are needed. Constant pool entries are shared.</p>
+ */
+final class ClassFileWriter {
+
+  static final int ACC_PUBLIC = 0x0001;
+
+  static final int ACC_PRIVATE = 0x0002;
+
+  static final int ACC_FINAL = 0x0010;
+
+  static final int ACC_SUPER = 0x0020;
+
+  static final int ALOAD_0 = 0x2A;
+
+  static final int ALOAD_1 = 0x2B;
+
+  static final int ALOAD_2 = 0x2C;
+
+  static final int ARETURN = 0xB0;
+
+  static final int RETURN = 0xB1;
+
+  static final int GETFIELD = 0xB4;
+
+  static final int PUTFIELD = 0xB5;
+
+  static final int INVOKEVIRTUAL = 0xB6;
+
+  static final int INVOKESPECIAL = 0xB7;
+
+  private static final int MAGIC = 0xCAFE_BABE;
+
+  private static final int JAVA_8_VERSION = 52;
+
+  private static final int CONSTANT_UTF8 = 1;
+
+  private static final int CONSTANT_CLASS = 7;
+
+  private static final int CONSTANT_FIELDREF = 9;
+
+  private static final int CONSTANT_METHODREF = 10;
+
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+  private final ByteArrayOutputStream constantPoolBytes = new ByteArrayOutputStream();
+
+  private final DataOutputStream constantPool = new DataOutputStream(this.constantPoolBytes);
+
+  private final Map<String, Integer> constants = new HashMap<>();
+
+  private final List<byte[]> fields = new ArrayList<>();
+
+  private final List<byte[]> methods = new ArrayList<>();
+
+  private final int accessFlags;
+
+  private final int thisClass;
+
+  private final int superClass;
+
+  private final int[] interfaces;
+
+  private int nextConstant = 1;
+
+  /**
+   * Starts a new class.
+   *
+   * @param accessFlags   the class' access flags.
+   * @param internalName  the class' internal name, e.g. {@code java/lang/Object}.
+   * @param superName     the internal name of the super class.
+   * @param interfaceNames the internal names of the implemented interfaces.
+   */
+  ClassFileWriter(final int accessFlags, final String internalName, final String superName, final String... interfaceNames) {
+    this.accessFlags = accessFlags;
+    this.thisClass = this.classConstant(internalName);
+    this.superClass = this.classConstant(superName);
+    this.interfaces = new int[interfaceNames.length];
+
+    for (int interfaceIndex = 0; interfaceIndex < interfaceNames.length; interfaceIndex++) {
+      this.interfaces[interfaceIndex] = this.classConstant(interfaceNames[interfaceIndex]);
+    }
+  }
+
+  /**
+   * Adds a field.
+   *
+   * @param fieldAccessFlags the field's access flags.
+   * @param fieldName        the field's name.
+   * @param descriptor       the field's type descriptor.
+   */
+  void addField(final int fieldAccessFlags, final String fieldName, final String descriptor) {
+    final ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+
+    try (DataOutputStream field = new DataOutputStream(fieldBytes)) {
+      field.writeShort(fieldAccessFlags);
+      field.writeShort(this.utf8Constant(fieldName));
+      field.writeShort(this.utf8Constant(descriptor));
+      // no attributes.
+      field.writeShort(0);
+    } catch (final IOException ioException) {
+      throw new UncheckedIOException(ioException);
+    }
+
+    this.fields.add(fieldBytes.toByteArray());
+  }
+
+  /**
+   * Adds a method.
+   *
+   * @param methodAccessFlags the method's access flags.
+   * @param methodName        the method's name.
+   * @param descriptor        the method's descriptor.
+   * @param maxStack          the maximum operand stack depth.
+   * @param maxLocals         the number of local variable slots, including {@code this} and the parameters.
+   * @param code              the byte code, see {@link CodeBuilder}.
+   * @param exceptionNames    the internal names of the declared exceptions.
+   */
+  void addMethod(final int methodAccessFlags,
+                 final String methodName,
+                 final String descriptor,
+                 final int maxStack,
+                 final int maxLocals,
+                 final byte[] code,
+                 final String... exceptionNames) {
+    final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+
+    try (DataOutputStream method = new DataOutputStream(methodBytes)) {
+      method.writeShort(methodAccessFlags);
+      method.writeShort(this.utf8Constant(methodName));
+      method.writeShort(this.utf8Constant(descriptor));
+      method.writeShort(exceptionNames.length == 0 ? 1 : 2);
+
+      // Code: max_stack, max_locals, code, no exception table, no attributes.
+      method.writeShort(this.utf8Constant("Code"));
+      method.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+      method.writeShort(maxStack);
+      method.writeShort(maxLocals);
+      method.writeInt(code.length);
+      method.write(code);
+      method.writeShort(0);
+      method.writeShort(0);
+
+      if (exceptionNames.length > 0) {
+        method.writeShort(this.utf8Constant("Exceptions"));
+        method.writeInt(2 + 2 * exceptionNames.length);
+        method.writeShort(exceptionNames.length);
+
+        for (final String exceptionName : exceptionNames) {
+          method.writeShort(this.classConstant(exceptionName));
+        }
+      }
+    } catch (final IOException ioException) {
+      throw new UncheckedIOException(ioException);
+    }
+
+    this.methods.add(methodBytes.toByteArray());
+  }
+
+  /**
+   * Returns the class file.
+   *
+   * @return the class file's bytes.
+   */
+  byte[] toByteArray() {
+    final ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+
+    try (DataOutputStream classFile = new DataOutputStream(classBytes)) {
+      classFile.writeInt(MAGIC);
+      classFile.writeShort(0);
+      classFile.writeShort(JAVA_8_VERSION);
+      classFile.writeShort(this.nextConstant);
+      this.constantPool.flush();
+      this.constantPoolBytes.writeTo(classFile);
+      classFile.writeShort(this.accessFlags);
+      classFile.writeShort(this.thisClass);
+      classFile.writeShort(this.superClass);
+      classFile.writeShort(this.interfaces.length);
+
+      for (final int interfaceConstant : this.interfaces) {
+        classFile.writeShort(interfaceConstant);
+      }
+
+      writeAll(classFile, this.fields);
+      writeAll(classFile, this.methods);
+      // no class attributes.
+      classFile.writeShort(0);
+    } catch (final IOException ioException) {
+      throw new UncheckedIOException(ioException);
+    }
+
+    return classBytes.toByteArray();
+  }
+
+  private static void writeAll(final DataOutputStream classFile, final List<byte[]> members) throws IOException {
+    classFile.writeShort(members.size());
+
+    for (final byte[] member : members) {
+      classFile.write(member);
+    }
+  }
+
+  /**
+   * Returns the constant pool index of a field reference.
+   *
+   * @param owner      the internal name of the field's class.
+   * @param fieldName  the field's name.
+   * @param descriptor the field's type descriptor.
+   * @return the constant pool index.
+   */
+  int fieldConstant(final String owner, final String fieldName, final String descriptor) {
+    return this.memberConstant(CONSTANT_FIELDREF, owner, fieldName, descriptor);
+  }
+
+  /**
+   * Returns the constant pool index of a method reference.
+   *
+   * @param owner      the internal name of the method's class.
+   * @param methodName the method's name.
+   * @param descriptor the method's descriptor.
+   * @return the constant pool index.
+   */
+  int methodConstant(final String owner, final String methodName, final String descriptor) {
+    return this.memberConstant(CONSTANT_METHODREF, owner, methodName, descriptor);
+  }
+
+  private int memberConstant(final int tag, final String owner, final String memberName, final String descriptor) {
+    final int classIndex = this.classConstant(owner);
+    final int nameAndTypeIndex = this.constant("NameAndType " + memberName + " " + descriptor, CONSTANT_NAME_AND_TYPE,
+        this.utf8Constant(memberName), this.utf8Constant(descriptor));
+
+    return this.constant(tag + " " + owner + "." + memberName + " " + descriptor, tag, classIndex, nameAndTypeIndex);
+  }
+
+  private int classConstant(final String internalName) {
+    return this.constant("Class " + internalName, CONSTANT_CLASS, this.utf8Constant(internalName));
+  }
+
+  private int utf8Constant(final String value) {
+    final Integer existing = this.constants.get("Utf8 " + value);
+
+    if (existing != null) {
+      return existing;
+    }
+
+    try {
+      this.constantPool.writeByte(CONSTANT_UTF8);
+      this.constantPool.writeUTF(value);
+    } catch (final IOException ioException) {
+      throw new UncheckedIOException(ioException);
+    }
+
+    this.constants.put("Utf8 " + value, this.nextConstant);
+
+    return this.nextConstant++;
+  }
+
+  private int constant(final String key, final int tag, final int... references) {
+    final Integer existing = this.constants.get(key);
+
+    if (existing != null) {
+      return existing;
+    }
+
+    try {
+      this.constantPool.writeByte(tag);
+
+      for (final int reference : references) {
+        this.constantPool.writeShort(reference);
+      }
+    } catch (final IOException ioException) {
+      throw new UncheckedIOException(ioException);
+    }
+
+    this.constants.put(key, this.nextConstant);
+
+    return this.nextConstant++;
+  }
+
+  /**
+   * Collects the byte code of a single method.
+   */
+  static final class CodeBuilder {
+
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+    CodeBuilder op(final int opcode) {
+      this.code.write(opcode);
+
+      return this;
+    }
+
+    CodeBuilder op(final int opcode, final int constantIndex) {
+      this.code.write(opcode);
+      this.code.write(constantIndex >>> 8);
+      this.code.write(constantIndex);
+
+      return this;
+    }
+
+    byte[] toByteArray() {
+      return this.code.toByteArray();
+    }
+  }
+}
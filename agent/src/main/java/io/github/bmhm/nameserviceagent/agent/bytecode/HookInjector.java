@@ -0,0 +1,678 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.bytecode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Prepends a hook call to static methods of an existing class file, without touching the rest of the class.
+ *
+ * <p>The hook is a static method taking the method's first argument and returning the method's return type.
+ * If the hook returns something else than {@code null}, the method returns it. Otherwise the original code runs:</p>
+ *
+ * <pre>
+ *  0: aload_0
+ *  1: invokestatic hook
+ *  4: dup
+ *  5: ifnull 9
+ *  8: areturn
+ *  9: pop          // stack map frame: same locals, the hook's result on the stack
+ * 10: nop
+ * 11: nop          // keeps the alignment of switch instructions
+ * 12: original code
+ * </pre>
+ *
+ * <p>All code offsets (exception table, line numbers, local variables and stack map frames) are shifted accordingly,
+ * branches are relative and do not need to change. New constants are appended to the constant pool.</p>
+ */
+final class HookInjector {
+
+  /**
+   * The length of the prepended code, a multiple of four.
+   */
+  static final int PROLOGUE_LENGTH = 12;
+
+  private static final int FRAME_OFFSET = 9;
+
+  private static final int HOOK_FRAME_LENGTH = 4;
+
+  private static final int MAGIC = 0xCAFE_BABE;
+
+  private static final int FIRST_STACK_MAP_VERSION = 50;
+
+  private static final int ACC_STATIC = 0x0008;
+
+  private static final int CONSTANT_UTF8 = 1;
+
+  private static final int CONSTANT_INTEGER = 3;
+
+  private static final int CONSTANT_FLOAT = 4;
+
+  private static final int CONSTANT_LONG = 5;
+
+  private static final int CONSTANT_DOUBLE = 6;
+
+  private static final int CONSTANT_CLASS = 7;
+
+  private static final int CONSTANT_STRING = 8;
+
+  private static final int CONSTANT_FIELDREF = 9;
+
+  private static final int CONSTANT_METHODREF = 10;
+
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+  private static final int CONSTANT_METHOD_HANDLE = 15;
+
+  private static final int CONSTANT_METHOD_TYPE = 16;
+
+  private static final int CONSTANT_DYNAMIC = 17;
+
+  private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+
+  private static final int CONSTANT_MODULE = 19;
+
+  private static final int CONSTANT_PACKAGE = 20;
+
+  private static final int SAME_FRAME_MAX = 63;
+
+  private static final int SAME_LOCALS_1_STACK_ITEM = 64;
+
+  private static final int SAME_LOCALS_1_STACK_ITEM_MAX = 127;
+
+  private static final int SAME_LOCALS_1_STACK_ITEM_EXTENDED = 247;
+
+  private static final int CHOP_FRAME = 248;
+
+  private static final int SAME_FRAME_EXTENDED = 251;
+
+  private static final int FULL_FRAME = 255;
+
+  private static final int ITEM_OBJECT = 7;
+
+  private static final int ITEM_UNINITIALIZED = 8;
+
+  private static final int MAX_CODE_LENGTH = 65_535;
+
+  private final ByteBuffer classFile;
+
+  private final Map<String, Hook> hooks;
+
+  private final Map<Integer, String> utf8Constants = new HashMap<>();
+
+  private final Map<String, Integer> utf8Indexes = new HashMap<>();
+
+  private final ByteArrayOutputStream newConstantBytes = new ByteArrayOutputStream();
+
+  private final DataOutputStream newConstants = new DataOutputStream(this.newConstantBytes);
+
+  private int majorVersion;
+
+  private int constantCount;
+
+  private final Set<String> injectedMethods = new HashSet<>();
+
+  /**
+   * Creates an injector for a single class file.
+   *
+   * @param classFile the original class file.
+   * @param hooks     the hooks by method name and descriptor, e.g. {@code lookup(Ljava/lang/String;)[B}.
+   */
+  HookInjector(final byte[] classFile, final Map<String, Hook> hooks) {
+    this.classFile = ByteBuffer.wrap(classFile);
+    this.hooks = hooks;
+  }
+
+  /**
+   * Prepends the hooks to the methods they are registered for. Can only be called once.
+   *
+   * @return the rewritten class file, see {@link #getInjectedMethods()} for the methods actually found.
+   * @throws IllegalArgumentException if the class file is malformed or a hooked method cannot be rewritten.
+   */
+  byte[] inject() {
+    try {
+      return this.rewrite();
+    } catch (final IOException ioException) {
+      throw new UncheckedIOException(ioException);
+    } catch (final BufferUnderflowException bufferUnderflowException) {
+      throw new IllegalArgumentException("Truncated class file.", bufferUnderflowException);
+    }
+  }
+
+  /**
+   * Returns the methods the hooks were prepended to.
+   *
+   * @return the names and descriptors of the rewritten methods.
+   */
+  Set<String> getInjectedMethods() {
+    return this.injectedMethods;
+  }
+
+  private byte[] rewrite() throws IOException {
+    if (this.classFile.getInt() != MAGIC) {
+      throw new IllegalArgumentException("Not a class file.");
+    }
+
+    this.classFile.getShort();
+    this.majorVersion = u2(this.classFile);
+    this.constantCount = u2(this.classFile);
+    final int constantPoolStart = this.classFile.position();
+    this.readConstantPool();
+    final int constantPoolEnd = this.classFile.position();
+
+    // everything after the constant pool, with the new constants collected on the way.
+    final ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(this.classFile.capacity() + 256);
+    final DataOutputStream body = new DataOutputStream(bodyBytes);
+    // access flags, this class, super class.
+    this.copy(body, 6);
+    this.copy(body, 2 * this.copyU2(body));
+    this.copyMembers(body);
+    this.rewriteMethods(body);
+    // class attributes.
+    this.copy(body, this.classFile.remaining());
+    body.flush();
+
+    final ByteArrayOutputStream rewritten = new ByteArrayOutputStream(bodyBytes.size() + constantPoolEnd + 256);
+    final DataOutputStream out = new DataOutputStream(rewritten);
+    out.write(this.classFile.array(), 0, constantPoolStart - 2);
+    out.writeShort(this.constantCount);
+    out.write(this.classFile.array(), constantPoolStart, constantPoolEnd - constantPoolStart);
+    this.newConstants.flush();
+    this.newConstantBytes.writeTo(out);
+    bodyBytes.writeTo(out);
+
+    return rewritten.toByteArray();
+  }
+
+  private void readConstantPool() {
+    for (int index = 1; index < this.constantCount; index++) {
+      final int tag = u1(this.classFile);
+
+      switch (tag) {
+        case CONSTANT_UTF8:
+          this.readUtf8Constant(index);
+          break;
+        case CONSTANT_LONG:
+        case CONSTANT_DOUBLE:
+          this.skip(8);
+          // takes two entries.
+          index++;
+          break;
+        case CONSTANT_CLASS:
+        case CONSTANT_STRING:
+        case CONSTANT_METHOD_TYPE:
+        case CONSTANT_MODULE:
+        case CONSTANT_PACKAGE:
+          this.skip(2);
+          break;
+        case CONSTANT_METHOD_HANDLE:
+          this.skip(3);
+          break;
+        case CONSTANT_INTEGER:
+        case CONSTANT_FLOAT:
+        case CONSTANT_FIELDREF:
+        case CONSTANT_METHODREF:
+        case CONSTANT_INTERFACE_METHODREF:
+        case CONSTANT_NAME_AND_TYPE:
+        case CONSTANT_DYNAMIC:
+        case CONSTANT_INVOKE_DYNAMIC:
+          this.skip(4);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown constant pool tag [" + tag + "] at index [" + index + "].");
+      }
+    }
+  }
+
+  private void readUtf8Constant(final int index) {
+    final String value = readUtf8(this.classFile);
+    this.utf8Constants.put(index, value);
+    this.utf8Indexes.putIfAbsent(value, index);
+  }
+
+  private void copyMembers(final DataOutputStream body) throws IOException {
+    final int memberCount = this.copyU2(body);
+
+    for (int memberIndex = 0; memberIndex < memberCount; memberIndex++) {
+      // access flags, name, descriptor.
+      this.copy(body, 6);
+      this.copyAttributes(body);
+    }
+  }
+
+  private void copyAttributes(final DataOutputStream body) throws IOException {
+    final int attributeCount = this.copyU2(body);
+
+    for (int attributeIndex = 0; attributeIndex < attributeCount; attributeIndex++) {
+      this.copy(body, 2);
+      this.copy(body, this.copyU4(body));
+    }
+  }
+
+  private void rewriteMethods(final DataOutputStream body) throws IOException {
+    final int methodCount = this.copyU2(body);
+
+    for (int methodIndex = 0; methodIndex < methodCount; methodIndex++) {
+      final int accessFlags = this.copyU2(body);
+      final String methodName = this.utf8(this.copyU2(body));
+      final String descriptor = this.utf8(this.copyU2(body));
+      final Hook hook = this.hooks.get(methodName + descriptor);
+
+      if (hook == null) {
+        this.copyAttributes(body);
+        continue;
+      }
+
+      if ((accessFlags & ACC_STATIC) == 0 || !(descriptor.startsWith("(L") || descriptor.startsWith("(["))) {
+        throw new IllegalArgumentException("Not a static method with a reference as first parameter: [" + methodName + descriptor + "].");
+      }
+
+      this.rewriteMethodAttributes(body, hook, descriptor.substring(descriptor.indexOf(')') + 1));
+      this.injectedMethods.add(methodName + descriptor);
+    }
+  }
+
+  private void rewriteMethodAttributes(final DataOutputStream body, final Hook hook, final String returnType) throws IOException {
+    final int attributeCount = this.copyU2(body);
+
+    for (int attributeIndex = 0; attributeIndex < attributeCount; attributeIndex++) {
+      final int nameIndex = this.copyU2(body);
+      final int length = this.classFile.getInt();
+
+      if (!"Code".equals(this.utf8(nameIndex))) {
+        body.writeInt(length);
+        this.copy(body, length);
+        continue;
+      }
+
+      final byte[] code = this.rewriteCode(this.slice(length), hook, returnType);
+      body.writeInt(code.length);
+      body.write(code);
+    }
+  }
+
+  private byte[] rewriteCode(final ByteBuffer codeAttribute, final Hook hook, final String returnType) throws IOException {
+    final int hookIndex = this.addMethodref(hook.owner, hook.methodName, hook.descriptor);
+    // a class constant of an array type is its descriptor.
+    final int returnTypeIndex = this.addClass(returnType.startsWith("L") ? returnType.substring(1, returnType.length() - 1) : returnType);
+
+    final ByteArrayOutputStream rewrittenBytes = new ByteArrayOutputStream(codeAttribute.capacity() + 32);
+    final DataOutputStream rewritten = new DataOutputStream(rewrittenBytes);
+    rewritten.writeShort(Math.max(2, u2(codeAttribute)));
+    rewritten.writeShort(u2(codeAttribute));
+
+    final int codeLength = codeAttribute.getInt();
+
+    if (codeLength + PROLOGUE_LENGTH > MAX_CODE_LENGTH) {
+      throw new IllegalArgumentException("Method too large to add a hook.");
+    }
+
+    rewritten.writeInt(codeLength + PROLOGUE_LENGTH);
+    rewritten.write(new byte[] {
+        0x2A, // aload_0
+        (byte) 0xB8, (byte) (hookIndex >>> 8), (byte) hookIndex, // invokestatic
+        0x59, // dup
+        (byte) 0xC6, 0x00, 0x04, // ifnull +4
+        (byte) 0xB0, // areturn
+        0x57, // pop
+        0x00, 0x00, // nop
+    });
+    rewritten.write(codeAttribute.array(), codeAttribute.arrayOffset() + codeAttribute.position(), codeLength);
+    codeAttribute.position(codeAttribute.position() + codeLength);
+
+    final int exceptionTableLength = u2(codeAttribute);
+    rewritten.writeShort(exceptionTableLength);
+
+    for (int entry = 0; entry < exceptionTableLength; entry++) {
+      // start, end and handler offsets, catch type.
+      rewritten.writeShort(u2(codeAttribute) + PROLOGUE_LENGTH);
+      rewritten.writeShort(u2(codeAttribute) + PROLOGUE_LENGTH);
+      rewritten.writeShort(u2(codeAttribute) + PROLOGUE_LENGTH);
+      rewritten.writeShort(u2(codeAttribute));
+    }
+
+    this.rewriteCodeAttributes(codeAttribute, rewritten, returnTypeIndex);
+    rewritten.flush();
+
+    return rewrittenBytes.toByteArray();
+  }
+
+  private void rewriteCodeAttributes(final ByteBuffer codeAttribute, final DataOutputStream rewritten, final int returnTypeIndex)
+      throws IOException {
+    final int attributeCount = u2(codeAttribute);
+    final boolean addStackMapTable = this.majorVersion >= FIRST_STACK_MAP_VERSION && !this.hasStackMapTable(codeAttribute, attributeCount);
+    rewritten.writeShort(attributeCount + (addStackMapTable ? 1 : 0));
+
+    if (addStackMapTable) {
+      rewritten.writeShort(this.addUtf8("StackMapTable"));
+      rewritten.writeInt(2 + HOOK_FRAME_LENGTH);
+      rewritten.writeShort(1);
+      writeHookFrame(rewritten, returnTypeIndex);
+    }
+
+    for (int attributeIndex = 0; attributeIndex < attributeCount; attributeIndex++) {
+      final int nameIndex = u2(codeAttribute);
+      final ByteBuffer attribute = sliceOf(codeAttribute, codeAttribute.getInt());
+      final String attributeName = this.utf8(nameIndex);
+      final byte[] rewrittenAttribute;
+
+      switch (attributeName) {
+        case "LineNumberTable":
+          rewrittenAttribute = shiftLineNumbers(attribute);
+          break;
+        case "LocalVariableTable":
+        case "LocalVariableTypeTable":
+          rewrittenAttribute = shiftLocalVariables(attribute);
+          break;
+        case "StackMapTable":
+          rewrittenAttribute = this.shiftFrames(attribute, returnTypeIndex);
+          break;
+        case "RuntimeVisibleTypeAnnotations":
+        case "RuntimeInvisibleTypeAnnotations":
+          throw new IllegalArgumentException("Cannot shift the offsets of [" + attributeName + "].");
+        default:
+          rewrittenAttribute = new byte[attribute.remaining()];
+          attribute.get(rewrittenAttribute);
+          break;
+      }
+
+      rewritten.writeShort(nameIndex);
+      rewritten.writeInt(rewrittenAttribute.length);
+      rewritten.write(rewrittenAttribute);
+    }
+  }
+
+  private boolean hasStackMapTable(final ByteBuffer codeAttribute, final int attributeCount) {
+    final ByteBuffer attributes = codeAttribute.duplicate();
+
+    for (int attributeIndex = 0; attributeIndex < attributeCount; attributeIndex++) {
+      final String attributeName = this.utf8(u2(attributes));
+      final int length = attributes.getInt();
+      attributes.position(attributes.position() + length);
+
+      if ("StackMapTable".equals(attributeName)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static byte[] shiftLineNumbers(final ByteBuffer attribute) throws IOException {
+    final ByteArrayOutputStream shiftedBytes = new ByteArrayOutputStream(attribute.remaining());
+    final DataOutputStream shifted = new DataOutputStream(shiftedBytes);
+    final int entryCount = u2(attribute);
+    shifted.writeShort(entryCount);
+
+    for (int entry = 0; entry < entryCount; entry++) {
+      shifted.writeShort(u2(attribute) + PROLOGUE_LENGTH);
+      shifted.writeShort(u2(attribute));
+    }
+
+    return shiftedBytes.toByteArray();
+  }
+
+  private static byte[] shiftLocalVariables(final ByteBuffer attribute) throws IOException {
+    final ByteArrayOutputStream shiftedBytes = new ByteArrayOutputStream(attribute.remaining());
+    final DataOutputStream shifted = new DataOutputStream(shiftedBytes);
+    final int entryCount = u2(attribute);
+    shifted.writeShort(entryCount);
+
+    for (int entry = 0; entry < entryCount; entry++) {
+      final int startOffset = u2(attribute);
+      final int length = u2(attribute);
+
+      if (startOffset == 0) {
+        // e.g. the parameters, which are also valid within the hook.
+        shifted.writeShort(0);
+        shifted.writeShort(length + PROLOGUE_LENGTH);
+      } else {
+        shifted.writeShort(startOffset + PROLOGUE_LENGTH);
+        shifted.writeShort(length);
+      }
+
+      // name, descriptor or signature, slot.
+      shifted.writeShort(u2(attribute));
+      shifted.writeShort(u2(attribute));
+      shifted.writeShort(u2(attribute));
+    }
+
+    return shiftedBytes.toByteArray();
+  }
+
+  private byte[] shiftFrames(final ByteBuffer attribute, final int returnTypeIndex) throws IOException {
+    final ByteArrayOutputStream shiftedBytes = new ByteArrayOutputStream(attribute.remaining() + 8);
+    final DataOutputStream shifted = new DataOutputStream(shiftedBytes);
+    final int frameCount = u2(attribute);
+    shifted.writeShort(frameCount + 1);
+    writeHookFrame(shifted, returnTypeIndex);
+
+    for (int frame = 0; frame < frameCount; frame++) {
+      final int frameType = u1(attribute);
+      final int offsetDelta = frameType <= SAME_LOCALS_1_STACK_ITEM_MAX
+          ? frameType % SAME_LOCALS_1_STACK_ITEM
+          : u2(attribute);
+      // the first frame's offset is absolute, now it follows the hook's frame.
+      final int shiftedDelta = frame == 0 ? offsetDelta + PROLOGUE_LENGTH - FRAME_OFFSET - 1 : offsetDelta;
+
+      if (frameType <= SAME_FRAME_MAX || frameType == SAME_FRAME_EXTENDED) {
+        writeFrameType(shifted, 0, SAME_FRAME_EXTENDED, shiftedDelta);
+      } else if (frameType <= SAME_LOCALS_1_STACK_ITEM_MAX || frameType == SAME_LOCALS_1_STACK_ITEM_EXTENDED) {
+        writeFrameType(shifted, SAME_LOCALS_1_STACK_ITEM, SAME_LOCALS_1_STACK_ITEM_EXTENDED, shiftedDelta);
+        shiftVerificationTypes(attribute, shifted, 1);
+      } else if (frameType < CHOP_FRAME) {
+        throw new IllegalArgumentException("Reserved stack map frame type [" + frameType + "].");
+      } else if (frameType < SAME_FRAME_EXTENDED) {
+        // chop frame.
+        shifted.writeByte(frameType);
+        shifted.writeShort(shiftedDelta);
+      } else if (frameType < FULL_FRAME) {
+        // append frame.
+        shifted.writeByte(frameType);
+        shifted.writeShort(shiftedDelta);
+        shiftVerificationTypes(attribute, shifted, frameType - SAME_FRAME_EXTENDED);
+      } else {
+        shifted.writeByte(frameType);
+        shifted.writeShort(shiftedDelta);
+        final int localCount = u2(attribute);
+        shifted.writeShort(localCount);
+        shiftVerificationTypes(attribute, shifted, localCount);
+        final int stackCount = u2(attribute);
+        shifted.writeShort(stackCount);
+        shiftVerificationTypes(attribute, shifted, stackCount);
+      }
+    }
+
+    return shiftedBytes.toByteArray();
+  }
+
+  private static void writeHookFrame(final DataOutputStream frames, final int returnTypeIndex) throws IOException {
+    // at the pop: the parameters as locals, the hook's result on the stack.
+    frames.writeByte(SAME_LOCALS_1_STACK_ITEM + FRAME_OFFSET);
+    frames.writeByte(ITEM_OBJECT);
+    frames.writeShort(returnTypeIndex);
+  }
+
+  private static void writeFrameType(final DataOutputStream frames, final int compactType, final int extendedType, final int offsetDelta)
+      throws IOException {
+    if (offsetDelta <= SAME_FRAME_MAX) {
+      frames.writeByte(compactType + offsetDelta);
+    } else {
+      frames.writeByte(extendedType);
+      frames.writeShort(offsetDelta);
+    }
+  }
+
+  private static void shiftVerificationTypes(final ByteBuffer attribute, final DataOutputStream shifted, final int count)
+      throws IOException {
+    for (int type = 0; type < count; type++) {
+      final int tag = u1(attribute);
+      shifted.writeByte(tag);
+
+      if (tag == ITEM_OBJECT) {
+        shifted.writeShort(u2(attribute));
+      } else if (tag == ITEM_UNINITIALIZED) {
+        // the offset of the new instruction.
+        shifted.writeShort(u2(attribute) + PROLOGUE_LENGTH);
+      }
+    }
+  }
+
+  private int addMethodref(final String owner, final String methodName, final String descriptor) throws IOException {
+    final int classIndex = this.addClass(owner);
+    final int nameIndex = this.addUtf8(methodName);
+    final int descriptorIndex = this.addUtf8(descriptor);
+    this.newConstants.writeByte(CONSTANT_NAME_AND_TYPE);
+    this.newConstants.writeShort(nameIndex);
+    this.newConstants.writeShort(descriptorIndex);
+    final int nameAndTypeIndex = this.constantCount++;
+    this.newConstants.writeByte(CONSTANT_METHODREF);
+    this.newConstants.writeShort(classIndex);
+    this.newConstants.writeShort(nameAndTypeIndex);
+
+    return this.constantCount++;
+  }
+
+  private int addClass(final String internalName) throws IOException {
+    final int nameIndex = this.addUtf8(internalName);
+    this.newConstants.writeByte(CONSTANT_CLASS);
+    this.newConstants.writeShort(nameIndex);
+
+    return this.constantCount++;
+  }
+
+  private int addUtf8(final String value) throws IOException {
+    final Integer existing = this.utf8Indexes.get(value);
+
+    if (existing != null) {
+      return existing;
+    }
+
+    this.newConstants.writeByte(CONSTANT_UTF8);
+    this.newConstants.writeUTF(value);
+    this.utf8Constants.put(this.constantCount, value);
+    this.utf8Indexes.put(value, this.constantCount);
+
+    return this.constantCount++;
+  }
+
+  private String utf8(final int index) {
+    final String value = this.utf8Constants.get(index);
+
+    if (value == null) {
+      throw new IllegalArgumentException("No UTF-8 constant at index [" + index + "].");
+    }
+
+    return value;
+  }
+
+  private int copyU2(final DataOutputStream body) throws IOException {
+    final int value = u2(this.classFile);
+    body.writeShort(value);
+
+    return value;
+  }
+
+  private int copyU4(final DataOutputStream body) throws IOException {
+    final int value = this.classFile.getInt();
+    body.writeInt(value);
+
+    return value;
+  }
+
+  private void copy(final DataOutputStream body, final int length) throws IOException {
+    body.write(this.classFile.array(), this.classFile.position(), length);
+    this.skip(length);
+  }
+
+  private void skip(final int length) {
+    this.classFile.position(this.classFile.position() + length);
+  }
+
+  private ByteBuffer slice(final int length) {
+    return sliceOf(this.classFile, length);
+  }
+
+  private static ByteBuffer sliceOf(final ByteBuffer buffer, final int length) {
+    final ByteBuffer slice = ByteBuffer.wrap(buffer.array(), buffer.arrayOffset() + buffer.position(), length).slice();
+    buffer.position(buffer.position() + length);
+
+    return slice;
+  }
+
+  private static String readUtf8(final ByteBuffer buffer) {
+    final int length = u2(buffer);
+    final int start = buffer.arrayOffset() + buffer.position();
+    final byte[] modifiedUtf8 = new byte[2 + length];
+    modifiedUtf8[0] = (byte) (length >>> 8);
+    modifiedUtf8[1] = (byte) length;
+    System.arraycopy(buffer.array(), start, modifiedUtf8, 2, length);
+    buffer.position(buffer.position() + length);
+
+    try {
+      return new DataInputStream(new ByteArrayInputStream(modifiedUtf8)).readUTF();
+    } catch (final IOException ioException) {
+      throw new IllegalArgumentException("Malformed UTF-8 constant.", ioException);
+    }
+  }
+
+  private static int u1(final ByteBuffer buffer) {
+    return buffer.get() & 0xFF;
+  }
+
+  private static int u2(final ByteBuffer buffer) {
+    return buffer.getShort() & 0xFFFF;
+  }
+
+  /**
+   * A static method called at the start of a hooked method.
+   */
+  static final class Hook {
+
+    private final String owner;
+
+    private final String methodName;
+
+    private final String descriptor;
+
+    /**
+     * Creates a hook.
+     *
+     * @param owner      the internal name of the hook's class.
+     * @param methodName the hook's name.
+     * @param descriptor the hook's descriptor: the hooked method's first parameter and its return type.
+     */
+    Hook(final String owner, final String methodName, final String descriptor) {
+      this.owner = owner;
+      this.methodName = methodName;
+      this.descriptor = descriptor;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.bytecode;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Rewrites {@link java.net.InetAddress}, so that its lookups call {@code ResolverHook} first.
+ *
+ * <p>The forward lookup is hooked in the innermost {@code getAllByName0}, before the JDK's address cache and its locks.
+ * The reverse lookup is hooked in {@code getHostFromNameService}. Both methods are private and static,
+ * their known signatures are listed here, e.g. {@code getAllByName0} lost its {@code reqAddr} parameter in Java 21.</p>
+ */
+public final class InetAddressTransformer implements ClassFileTransformer {
+
+  private static final Logger LOG = Logger.getLogger(InetAddressTransformer.class.getCanonicalName());
+
+  private static final String INET_ADDRESS = "java/net/InetAddress";
+
+  private static final String RESOLVER_HOOK = "io/github/bmhm/nameserviceagent/agent/bootstrap/ResolverHook";
+
+  private static final List<String> LOOKUP_METHODS = Arrays.asList(
+      // Java 8 - 20.
+      "getAllByName0(Ljava/lang/String;Ljava/net/InetAddress;ZZ)[Ljava/net/InetAddress;",
+      // Java 21+.
+      "getAllByName0(Ljava/lang/String;ZZ)[Ljava/net/InetAddress;");
+
+  private static final Map<String, HookInjector.Hook> HOOKS = new HashMap<>();
+
+  static {
+    final HookInjector.Hook lookupHook =
+        new HookInjector.Hook(RESOLVER_HOOK, "lookupAllHostAddr", "(Ljava/lang/String;)[Ljava/net/InetAddress;");
+
+    for (final String lookupMethod : LOOKUP_METHODS) {
+      HOOKS.put(lookupMethod, lookupHook);
+    }
+
+    HOOKS.put("getHostFromNameService(Ljava/net/InetAddress;Z)Ljava/lang/String;",
+        new HookInjector.Hook(RESOLVER_HOOK, "getHostByAddr", "(Ljava/net/InetAddress;)Ljava/lang/String;"));
+  }
+
+  private volatile boolean transformed;
+
+  private volatile Set<String> injectedMethods = Collections.emptySet();
+
+  @Override
+  public byte[] transform(final ClassLoader loader,
+                          final String className,
+                          final Class<?> classBeingRedefined,
+                          final ProtectionDomain protectionDomain,
+                          final byte[] classfileBuffer) {
+    if (!INET_ADDRESS.equals(className)) {
+      return null;
+    }
+
+    try {
+      final HookInjector injector = new HookInjector(classfileBuffer, HOOKS);
+      final byte[] transformedClass = injector.inject();
+      this.injectedMethods = injector.getInjectedMethods();
+      // at least the lookup must be hooked, the reverse lookup is optional.
+      this.transformed = LOOKUP_METHODS.stream().anyMatch(this.injectedMethods::contains);
+
+      return this.transformed ? transformedClass : null;
+    } catch (final IllegalArgumentException illegalArgumentException) {
+      LOG.log(Level.WARNING, "Cannot add the resolver hook to [" + className + "].", illegalArgumentException);
+
+      return null;
+    }
+  }
+
+  /**
+   * Whether {@link java.net.InetAddress} was rewritten.
+   *
+   * @return {@code true} if the lookup of {@link java.net.InetAddress} calls {@code ResolverHook} now.
+   */
+  public boolean isTransformed() {
+    return this.transformed;
+  }
+
+  /**
+   * Returns the methods of {@link java.net.InetAddress} calling {@code ResolverHook} now.
+   *
+   * @return the name and descriptor of each hooked method, e.g. {@code getHostFromNameService(Ljava/net/InetAddress;Z)Ljava/lang/String;}.
+   */
+  Set<String> getInjectedMethods() {
+    return this.injectedMethods;
+  }
+}
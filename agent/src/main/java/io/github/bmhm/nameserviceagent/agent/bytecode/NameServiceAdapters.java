@@ -0,0 +1,242 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.bytecode;
+
+import io.github.bmhm.nameserviceagent.agent.bytecode.ClassFileWriter.CodeBuilder;
+import io.github.bmhm.nameserviceagent.api.ForbiddenApiCall;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates small classes implementing a name service interface, which call two method handles directly.
+ *
+ * <p>Unlike a {@link java.lang.reflect.Proxy}, an adapter neither boxes the arguments into an array
+ * nor dispatches on the method. The generated class only references {@code java.*} types and the interface,
+ * so it can be defined next to the interface, even in {@code java.net}:</p>
+ *
+ * <ul>
+ *   <li>Java 15+: as a hidden class, see {@code Lookup.defineHiddenClass}.</li>
+ *   <li>Java 9 - 14: using {@code Lookup.defineClass}.</li>
+ *   <li>Java 8: using a class loader of its own, as all name service interfaces are public there.</li>
+ * </ul>
+ *
+ * <p>A non-public interface needs its package to be open to this agent, just like installing the name service itself.</p>
+ */
+public final class NameServiceAdapters {
+
+  /**
+   * The method type of {@code lookupAllHostAddr}.
+   */
+  public static final MethodType LOOKUP_ALL_HOST_ADDR_TYPE = MethodType.methodType(InetAddress[].class, String.class);
+
+  /**
+   * The method type of {@code getHostByAddr}.
+   */
+  public static final MethodType GET_HOST_BY_ADDR_TYPE = MethodType.methodType(String.class, byte[].class);
+
+  private static final String METHOD_HANDLE = "java/lang/invoke/MethodHandle";
+
+  private static final String METHOD_HANDLE_DESCRIPTOR = "L" + METHOD_HANDLE + ";";
+
+  private static final String OBJECT = "java/lang/Object";
+
+  private static final String UNKNOWN_HOST_EXCEPTION = "java/net/UnknownHostException";
+
+  private static final String LOOKUP_ALL_HOST_ADDR_DESCRIPTOR = LOOKUP_ALL_HOST_ADDR_TYPE.toMethodDescriptorString();
+
+  private static final String GET_HOST_BY_ADDR_DESCRIPTOR = GET_HOST_BY_ADDR_TYPE.toMethodDescriptorString();
+
+  private static final AtomicInteger ADAPTER_COUNT = new AtomicInteger();
+
+  private NameServiceAdapters() {
+    // util class
+  }
+
+  /**
+   * Creates an adapter implementing the given name service interface.
+   *
+   * @param nameServiceInterface the interface to implement, with the methods {@code lookupAllHostAddr} and {@code getHostByAddr}.
+   * @param lookupAllHostAddr    called by {@code lookupAllHostAddr}, of type {@link #LOOKUP_ALL_HOST_ADDR_TYPE}.
+   * @param getHostByAddr        called by {@code getHostByAddr}, of type {@link #GET_HOST_BY_ADDR_TYPE}.
+   * @return an instance of the generated class.
+   * @throws ReflectiveOperationException if the class could not be defined, e.g. because the package is not open.
+   * @throws IllegalArgumentException     if a method handle is of the wrong type.
+   */
+  public static Object create(final Class<?> nameServiceInterface,
+                              final MethodHandle lookupAllHostAddr,
+                              final MethodHandle getHostByAddr) throws ReflectiveOperationException {
+    if (!lookupAllHostAddr.type().equals(LOOKUP_ALL_HOST_ADDR_TYPE) || !getHostByAddr.type().equals(GET_HOST_BY_ADDR_TYPE)) {
+      throw new IllegalArgumentException("Wrong method handle types: [" + lookupAllHostAddr + "], [" + getHostByAddr + "].");
+    }
+
+    final Class<?> adapterClass = defineAdapterClass(nameServiceInterface);
+
+    return adapterClass.getConstructor(MethodHandle.class, MethodHandle.class).newInstance(lookupAllHostAddr, getHostByAddr);
+  }
+
+  /**
+   * Generates the class file of an adapter.
+   *
+   * @param internalName          the internal name of the class to generate.
+   * @param interfaceInternalName the internal name of the interface to implement.
+   * @return the class file.
+   */
+  static byte[] generate(final String internalName, final String interfaceInternalName) {
+    final ClassFileWriter writer = new ClassFileWriter(
+        ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL | ClassFileWriter.ACC_SUPER, internalName, OBJECT, interfaceInternalName);
+    writer.addField(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_FINAL, "lookupAllHostAddr", METHOD_HANDLE_DESCRIPTOR);
+    writer.addField(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_FINAL, "getHostByAddr", METHOD_HANDLE_DESCRIPTOR);
+
+    final byte[] constructor = new CodeBuilder()
+        .op(ClassFileWriter.ALOAD_0)
+        .op(ClassFileWriter.INVOKESPECIAL, writer.methodConstant(OBJECT, "<init>", "()V"))
+        .op(ClassFileWriter.ALOAD_0)
+        .op(ClassFileWriter.ALOAD_1)
+        .op(ClassFileWriter.PUTFIELD, writer.fieldConstant(internalName, "lookupAllHostAddr", METHOD_HANDLE_DESCRIPTOR))
+        .op(ClassFileWriter.ALOAD_0)
+        .op(ClassFileWriter.ALOAD_2)
+        .op(ClassFileWriter.PUTFIELD, writer.fieldConstant(internalName, "getHostByAddr", METHOD_HANDLE_DESCRIPTOR))
+        .op(ClassFileWriter.RETURN)
+        .toByteArray();
+    final String constructorDescriptor = "(" + METHOD_HANDLE_DESCRIPTOR + METHOD_HANDLE_DESCRIPTOR + ")V";
+    writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", constructorDescriptor, 2, 3, constructor);
+
+    addDelegatingMethod(writer, internalName, "lookupAllHostAddr", LOOKUP_ALL_HOST_ADDR_DESCRIPTOR);
+    addDelegatingMethod(writer, internalName, "getHostByAddr", GET_HOST_BY_ADDR_DESCRIPTOR);
+
+    return writer.toByteArray();
+  }
+
+  private static void addDelegatingMethod(final ClassFileWriter writer,
+                                          final String internalName,
+                                          final String methodName,
+                                          final String descriptor) {
+    // this.handle.invokeExact(argument), no boxing and no cast, as the types match exactly.
+    final byte[] code = new CodeBuilder()
+        .op(ClassFileWriter.ALOAD_0)
+        .op(ClassFileWriter.GETFIELD, writer.fieldConstant(internalName, methodName, METHOD_HANDLE_DESCRIPTOR))
+        .op(ClassFileWriter.ALOAD_1)
+        .op(ClassFileWriter.INVOKEVIRTUAL, writer.methodConstant(METHOD_HANDLE, "invokeExact", descriptor))
+        .op(ClassFileWriter.ARETURN)
+        .toByteArray();
+    writer.addMethod(ClassFileWriter.ACC_PUBLIC, methodName, descriptor, 2, 2, code, UNKNOWN_HOST_EXCEPTION);
+  }
+
+  @ForbiddenApiCall(justification = "defines a class next to a possibly non-public interface")
+  private static Class<?> defineAdapterClass(final Class<?> nameServiceInterface) throws ReflectiveOperationException {
+    final MethodHandles.Lookup ownLookup = MethodHandles.lookup();
+    final String interfaceInternalName = toInternalName(nameServiceInterface);
+
+    // the Java 9+ methods are looked up reflectively, as we compile for Java 8.
+    if (hasMethod(MethodHandles.Lookup.class, "defineHiddenClass")) {
+      final String internalName = packagePrefix(nameServiceInterface) + "NameServiceAdapter";
+
+      return defineHiddenClass(privateLookupIn(nameServiceInterface, ownLookup), generate(internalName, interfaceInternalName));
+    }
+
+    if (hasMethod(MethodHandles.Lookup.class, "defineClass")) {
+      final String internalName = packagePrefix(nameServiceInterface) + "NameServiceAdapter$" + ADAPTER_COUNT.incrementAndGet();
+      final MethodHandle defineClass = MethodHandles.publicLookup().findVirtual(
+          MethodHandles.Lookup.class, "defineClass", MethodType.methodType(Class.class, byte[].class));
+
+      final MethodHandles.Lookup interfaceLookup = privateLookupIn(nameServiceInterface, ownLookup);
+
+      return (Class<?>) invoke(defineClass, interfaceLookup, generate(internalName, interfaceInternalName));
+    }
+
+    // Java 8: the interfaces are public, so the adapter can live in our package.
+    final Class<?> lookupClass = ownLookup.lookupClass();
+    final String internalName = packagePrefix(lookupClass) + "NameServiceAdapter$" + ADAPTER_COUNT.incrementAndGet();
+    final AdapterClassLoader classLoader = new AdapterClassLoader(lookupClass.getClassLoader());
+
+    return classLoader.define(internalName.replace('/', '.'), generate(internalName, interfaceInternalName));
+  }
+
+  private static MethodHandles.Lookup privateLookupIn(final Class<?> targetClass, final MethodHandles.Lookup ownLookup)
+      throws ReflectiveOperationException {
+    final MethodHandle privateLookupIn = MethodHandles.publicLookup().findStatic(
+        MethodHandles.class,
+        "privateLookupIn",
+        MethodType.methodType(MethodHandles.Lookup.class, Class.class, MethodHandles.Lookup.class));
+
+    return (MethodHandles.Lookup) invoke(privateLookupIn, targetClass, ownLookup);
+  }
+
+  private static Class<?> defineHiddenClass(final MethodHandles.Lookup interfaceLookup, final byte[] classFile)
+      throws ReflectiveOperationException {
+    final Class<?> classOptionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+    final Object noClassOptions = Array.newInstance(classOptionClass, 0);
+    final MethodHandle defineHiddenClass = MethodHandles.publicLookup().findVirtual(
+        MethodHandles.Lookup.class,
+        "defineHiddenClass",
+        MethodType.methodType(MethodHandles.Lookup.class, byte[].class, boolean.class, noClassOptions.getClass()));
+    final MethodHandles.Lookup hiddenClassLookup = (MethodHandles.Lookup) invoke(
+        defineHiddenClass.asFixedArity(), interfaceLookup, classFile, true, noClassOptions);
+
+    return hiddenClassLookup.lookupClass();
+  }
+
+  private static Object invoke(final MethodHandle methodHandle, final Object... arguments) throws ReflectiveOperationException {
+    try {
+      return methodHandle.invokeWithArguments(arguments);
+    } catch (final ReflectiveOperationException | RuntimeException | Error passThroughException) {
+      throw passThroughException;
+    } catch (final Throwable unexpectedException) {
+      throw new IllegalStateException(unexpectedException);
+    }
+  }
+
+  private static boolean hasMethod(final Class<?> type, final String methodName) {
+    for (final Method method : type.getMethods()) {
+      if (method.getName().equals(methodName)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static String packagePrefix(final Class<?> type) {
+    final String internalName = toInternalName(type);
+
+    return internalName.substring(0, internalName.lastIndexOf('/') + 1);
+  }
+
+  private static String toInternalName(final Class<?> type) {
+    return type.getName().replace('.', '/');
+  }
+
+  /**
+   * Defines a single adapter class on Java 8.
+   */
+  private static final class AdapterClassLoader extends ClassLoader {
+
+    AdapterClassLoader(final ClassLoader parent) {
+      super(parent);
+    }
+
+    Class<?> define(final String className, final byte[] classFile) {
+      return this.defineClass(className, classFile, 0, classFile.length);
+    }
+  }
+}
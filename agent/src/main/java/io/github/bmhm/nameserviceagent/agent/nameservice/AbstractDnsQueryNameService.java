@@ -0,0 +1,317 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.nameservice;
+
+import io.github.bmhm.nameserviceagent.agent.util.ExponentialBackoff;
+import io.github.bmhm.nameserviceagent.api.AbstractProxyNameService;
+import io.github.bmhm.nameserviceagent.api.AddressFamily;
+import io.github.bmhm.nameserviceagent.api.BatchLookupResult;
+import io.github.bmhm.nameserviceagent.api.LookupResult;
+import io.github.bmhm.nameserviceagent.api.NameService;
+import io.github.bmhm.nameserviceagent.api.UpstreamUnavailableException;
+import io.github.bmhm.nameserviceagent.wire.DnsWireCodec;
+
+import org.xbill.DNS.Address;
+import org.xbill.DNS.ReverseMap;
+import org.xbill.DNS.Type;
+import org.xbill.DNS.WireParseException;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Base class for name services sending DNS queries themselves. Subclasses only transport the messages.
+ *
+ * <p>A and AAAA records are queried at the same time, reverse lookups use PTR records.
+ * Host names are queried as absolute names, the search path is not applied.</p>
+ *
+ * <p>If the upstream does not answer, lookups fail with an {@link UpstreamUnavailableException} and the upstream is backed off
+ * (see {@link ExponentialBackoff}): until the delay is over, lookups fail right away instead of waiting for another timeout.</p>
+ *
+ * <p>Queries are encoded into a reused per-thread buffer and answers are decoded straight into addresses
+ * by {@link DnsWireCodec}, without building dnsjava messages and records.</p>
+ */
+abstract class AbstractDnsQueryNameService extends AbstractProxyNameService {
+
+  private static final Logger LOG = Logger.getLogger(AbstractDnsQueryNameService.class.getCanonicalName());
+
+  /**
+   * Large enough for the header and a question with the longest possible name.
+   */
+  private static final int MAX_QUERY_LENGTH = 512;
+
+  private static final ThreadLocal<ByteBuffer> QUERY_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAX_QUERY_LENGTH));
+
+  private final AddressFamily family;
+
+  private final ExponentialBackoff backoff = ExponentialBackoff.forUpstream();
+
+  AbstractDnsQueryNameService(final NameService originalNameService, final AddressFamily family) {
+    super(originalNameService);
+    this.family = family;
+  }
+
+  /**
+   * Sends the query to the upstream server(s).
+   *
+   * @param query the query to send in wire format. The transport sets its own transaction ID.
+   * @return the response in wire format.
+   */
+  abstract CompletableFuture<byte[]> send(byte[] query);
+
+  @Override
+  public InetAddress[] lookupAllHostAddr(final String host) throws UnknownHostException {
+    return this.lookup(host).getAddresses();
+  }
+
+  /**
+   * Only sends the queries for the configured family which the caller is interested in.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  @Override
+  public InetAddress[] lookupAllHostAddr(final String host, final AddressFamily requestedFamily) throws UnknownHostException {
+    return this.lookup(host, requestedFamily).getAddresses();
+  }
+
+  /**
+   * Returns the reachable addresses with the minimum TTL of their A and AAAA records.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  @Override
+  public LookupResult lookup(final String host) throws UnknownHostException {
+    return this.resolve(host, this.family);
+  }
+
+  /**
+   * Only sends the queries for the configured family which the caller is interested in.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  @Override
+  public LookupResult lookup(final String host, final AddressFamily requestedFamily) throws UnknownHostException {
+    final AddressFamily queriedFamily = this.family.narrow(requestedFamily);
+
+    if (queriedFamily == null) {
+      throw new UnknownHostException(host);
+    }
+
+    return this.resolve(host, queriedFamily);
+  }
+
+  private LookupResult resolve(final String host, final AddressFamily queriedFamily) throws UnknownHostException {
+    final List<DnsAnswers.AddressRecord> records;
+
+    try {
+      records = DnsAnswers.queryAddressRecords(queriedFamily, type -> this.queryAddresses(host, type));
+    } catch (final IllegalArgumentException illegalArgumentException) {
+      throw DnsAnswers.invalidHostName(host, illegalArgumentException);
+    }
+
+    if (records.isEmpty()) {
+      throw new UnknownHostException(host);
+    }
+
+    return DnsAnswers.toReachableAddresses(host, records, this.getClass().getName());
+  }
+
+  /**
+   * Sends the queries and probes the answers without blocking the caller.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  @Override
+  public CompletionStage<InetAddress[]> lookupAllHostAddrAsync(final String host) {
+    final CompletableFuture<List<DnsAnswers.AddressRecord>> records;
+
+    try {
+      records = DnsAnswers.queryAddressRecordsAsync(this.family, type -> this.queryAddresses(host, type));
+    } catch (final IllegalArgumentException illegalArgumentException) {
+      return DnsAnswers.failed(DnsAnswers.invalidHostName(host, illegalArgumentException));
+    }
+
+    return records
+        .thenCompose(addressRecords -> addressRecords.isEmpty()
+            ? DnsAnswers.failed(new UnknownHostException(host))
+            : DnsAnswers.toReachableAddressesAsync(host, addressRecords, this.getClass().getName()))
+        .thenApply(LookupResult::getAddresses);
+  }
+
+  /**
+   * Sends the queries for all hosts at once and probes their addresses in a single pass.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  @Override
+  public BatchLookupResult batchLookupAllHostAddr(final Collection<String> hosts) {
+    return DnsAnswers.batchLookup(hosts, host -> DnsAnswers.queryAddressRecordsAsync(this.family, type -> this.queryAddresses(host, type)));
+  }
+
+  @Override
+  public String getHostByAddr(final byte[] addr) throws UnknownHostException {
+    try {
+      return this.getHostByAddrAsync(addr).toCompletableFuture().join();
+    } catch (final CompletionException completionException) {
+      if (completionException.getCause() instanceof UnknownHostException) {
+        throw (UnknownHostException) completionException.getCause();
+      }
+
+      throw completionException;
+    }
+  }
+
+  @Override
+  public CompletionStage<String> getHostByAddrAsync(final byte[] addr) {
+    final InetAddress address;
+
+    try {
+      address = InetAddress.getByAddress(addr);
+    } catch (final UnknownHostException unknownHostException) {
+      return DnsAnswers.failed(unknownHostException);
+    }
+
+    return this.send(encodeQuery(ReverseMap.fromAddress(address).toString(), Type.PTR))
+        .handle((response, error) -> toPtrTarget(address, response, error))
+        .thenCompose(Function.identity());
+  }
+
+  private static CompletableFuture<String> toPtrTarget(final InetAddress address, final byte[] response, final Throwable error) {
+    final UnknownHostException unknownHostException = new UnknownHostException(address.getHostAddress());
+
+    if (error != null) {
+      unknownHostException.initCause(error.getCause() == null ? error : error.getCause());
+
+      return DnsAnswers.failed(unknownHostException);
+    }
+
+    try {
+      final String target = readPtrTarget(response);
+
+      return target == null ? DnsAnswers.failed(unknownHostException) : CompletableFuture.completedFuture(target);
+    } catch (final WireParseException wireParseException) {
+      unknownHostException.initCause(wireParseException);
+
+      return DnsAnswers.failed(unknownHostException);
+    }
+  }
+
+  private static String readPtrTarget(final byte[] response) throws WireParseException {
+    final String[] target = new String[1];
+
+    DnsWireCodec.readAnswers(ByteBuffer.wrap(response), (type, ttl, message, rdataOffset, rdataLength) -> {
+      if (type == Type.PTR && target[0] == null) {
+        target[0] = DnsWireCodec.readName(message, rdataOffset);
+      }
+    });
+
+    return target[0];
+  }
+
+  /**
+   * Parses an IP address with optional port. Host names are not allowed, as resolving them would need a name service.
+   *
+   * @param server      the IP address, optionally followed by a port. IPv6 addresses with port must be in brackets.
+   * @param defaultPort the port if none is given.
+   * @return the parsed address.
+   * @throws IllegalArgumentException if the address is not an IP address.
+   */
+  static InetSocketAddress parseServer(final String server, final int defaultPort) {
+    final String address;
+    int port = defaultPort;
+
+    if (server.startsWith("[")) {
+      final int closingBracket = server.indexOf(']');
+      address = server.substring(1, closingBracket);
+
+      if (server.length() > closingBracket + 1) {
+        port = Integer.parseInt(server.substring(closingBracket + 2));
+      }
+    } else if (server.indexOf(':') == server.lastIndexOf(':') && server.indexOf(':') != -1) {
+      address = server.substring(0, server.indexOf(':'));
+      port = Integer.parseInt(server.substring(server.indexOf(':') + 1));
+    } else {
+      address = server;
+    }
+
+    try {
+      return new InetSocketAddress(Address.getByAddress(address), port);
+    } catch (final UnknownHostException unknownHostException) {
+      throw new IllegalArgumentException("Not an IP address: [" + server + "].", unknownHostException);
+    }
+  }
+
+  private CompletableFuture<List<DnsAnswers.AddressRecord>> queryAddresses(final String host, final int type) {
+    final byte[] query = encodeQuery(host, type);
+    final long startNanos = System.nanoTime();
+
+    if (!this.backoff.isCallAllowed(startNanos)) {
+      return DnsAnswers.failed(new UpstreamUnavailableException("Upstream backed off after failures, not resolving [" + host + "]."));
+    }
+
+    return this.send(query)
+        .handle((response, error) -> this.getAnswers(host, response, error, type, startNanos));
+  }
+
+  private static byte[] encodeQuery(final String queryName, final int type) {
+    final ByteBuffer buffer = QUERY_BUFFER.get();
+    buffer.clear();
+    DnsWireCodec.encodeQuery(buffer, 0, queryName, type);
+
+    return Arrays.copyOf(buffer.array(), buffer.position());
+  }
+
+  private List<DnsAnswers.AddressRecord> getAnswers(final String host,
+                                                    final byte[] response,
+                                                    final Throwable error,
+                                                    final int type,
+                                                    final long startNanos) {
+    Throwable failure = error;
+    List<DnsAnswers.AddressRecord> answers = Collections.emptyList();
+
+    if (failure == null) {
+      try {
+        answers = DnsAnswers.readAnswers(host, response, type);
+      } catch (final WireParseException | UpstreamUnavailableException invalidResponseException) {
+        failure = invalidResponseException;
+      }
+    }
+
+    if (failure != null) {
+      LOG.log(Level.FINE, failure, () -> "No valid DNS server response for [" + host + "].");
+      this.backoff.recordFailure(startNanos, System.nanoTime());
+
+      throw new CompletionException(DnsAnswers.upstreamUnavailable(host, failure));
+    }
+
+    this.backoff.recordSuccess();
+
+    return answers;
+  }
+}
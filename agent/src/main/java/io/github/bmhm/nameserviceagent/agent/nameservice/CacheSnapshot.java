@@ -0,0 +1,400 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.nameservice;
+
+import io.github.bmhm.nameserviceagent.agent.util.CachedVerdict;
+import io.github.bmhm.nameserviceagent.agent.util.DaemonThreadFactory;
+import io.github.bmhm.nameserviceagent.agent.util.ReachableUtil;
+import io.github.bmhm.nameserviceagent.api.LookupResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A binary snapshot of the cached answers and reachability verdicts, so a restarted JVM does not resolve
+ * and probe the same hosts again right away.
+ *
+ * <p>If {@code nameserviceagent.snapshot.file} is set, the agent reads the file when it starts
+ * and restores the reachability verdicts. Each {@link CachingNameService} of the pipeline is pre-populated once the pipeline
+ * is created. A host cached by several of them is written once, with its latest expiry.
+ * The snapshot is written every {@code nameserviceagent.snapshot.intervalSeconds} and when the JVM shuts down.
+ * Expiry times are stored as wall clock times, so entries which expired in the meantime are skipped.</p>
+ *
+ * <p>The file is replaced atomically, so several JVMs may share it. Negative answers are not kept.</p>
+ */
+public final class CacheSnapshot {
+
+  private static final String SNAPSHOT_FILE = System.getProperty("nameserviceagent.snapshot.file", "");
+
+  private static final long INTERVAL_SECONDS = Long.getLong("nameserviceagent.snapshot.intervalSeconds", 60L);
+
+  private static final Logger LOG = Logger.getLogger(CacheSnapshot.class.getCanonicalName());
+
+  /**
+   * {@code NSAS} in ASCII.
+   */
+  private static final int MAGIC = 0x4E53_4153;
+
+  private static final int VERSION = 1;
+
+  private static final long MAX_FILE_BYTES = 64L * 1024L * 1024L;
+
+  private static final int UNSIGNED_SHORT_MASK = 0xFFFF;
+
+  private static final int UNSIGNED_BYTE_MASK = 0xFF;
+
+  private static volatile List<CachingNameService> caches = Collections.emptyList();
+
+  private static volatile CacheSnapshot loaded = new CacheSnapshot(Collections.emptyList(), Collections.emptyList());
+
+  private final List<Entry> entries;
+
+  private final List<CachedVerdict> verdicts;
+
+  CacheSnapshot(final List<Entry> entries, final List<CachedVerdict> verdicts) {
+    this.entries = entries;
+    this.verdicts = verdicts;
+  }
+
+  /**
+   * Loads the configured snapshot, restores its reachability verdicts and schedules writing the snapshot.
+   * Does nothing if {@code nameserviceagent.snapshot.file} is not set.
+   *
+   * <p>Called once when the agent starts, before the pipeline is created.</p>
+   */
+  public static void start() {
+    if (SNAPSHOT_FILE.isEmpty()) {
+      return;
+    }
+
+    final Path snapshotFile = Paths.get(SNAPSHOT_FILE);
+
+    if (Files.isRegularFile(snapshotFile)) {
+      try {
+        loaded = read(snapshotFile);
+        ReachableUtil.restoreCachedVerdicts(loaded.verdicts);
+        LOG.log(Level.FINE, () -> "Loaded snapshot " + loaded + " from [" + snapshotFile + "].");
+      } catch (final IOException ioException) {
+        LOG.log(Level.WARNING, ioException, () -> "Ignoring unreadable snapshot [" + snapshotFile + "].");
+      }
+    }
+
+    if (INTERVAL_SECONDS > 0L) {
+      Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("snapshot"))
+          .scheduleWithFixedDelay(() -> writeQuietly(snapshotFile), INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    Runtime.getRuntime().addShutdownHook(new DaemonThreadFactory("snapshot-shutdown").newThread(() -> writeQuietly(snapshotFile)));
+  }
+
+  /**
+   * Pre-populates the caches of a newly created pipeline from the loaded snapshot and includes them in all further snapshots,
+   * instead of the caches of a previous pipeline.
+   *
+   * @param pipelineCaches the fully constructed caches of the pipeline.
+   */
+  public static void register(final List<CachingNameService> pipelineCaches) {
+    if (SNAPSHOT_FILE.isEmpty()) {
+      return;
+    }
+
+    for (final CachingNameService cache : pipelineCaches) {
+      cache.preload(loaded.entries);
+    }
+
+    caches = Collections.unmodifiableList(new ArrayList<>(pipelineCaches));
+  }
+
+  private static CacheSnapshot capture() {
+    return capture(caches);
+  }
+
+  /**
+   * Captures the current state of the given caches and the reachability cache.
+   *
+   * @param cachesToCapture the caches of the pipeline.
+   * @return the current state, with one entry per host.
+   */
+  static CacheSnapshot capture(final List<CachingNameService> cachesToCapture) {
+    final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    for (final CachingNameService cache : cachesToCapture) {
+      for (final Entry entry : cache.getSnapshotEntries()) {
+        entries.merge(entry.getKey(), entry, CacheSnapshot::laterExpiring);
+      }
+    }
+
+    return new CacheSnapshot(new ArrayList<>(entries.values()), ReachableUtil.getCachedVerdicts());
+  }
+
+  private static Entry laterExpiring(final Entry entry, final Entry otherEntry) {
+    return otherEntry.getExpiresAtNanos() - entry.getExpiresAtNanos() > 0L ? otherEntry : entry;
+  }
+
+  private static void writeQuietly(final Path snapshotFile) {
+    try {
+      capture().write(snapshotFile);
+    } catch (final IOException | RuntimeException writeException) {
+      // an exception would cancel all further writes.
+      LOG.log(Level.WARNING, writeException, () -> "Cannot write snapshot [" + snapshotFile + "].");
+    }
+  }
+
+  /**
+   * Reads and decodes a snapshot. Expired entries are skipped.
+   *
+   * @param snapshotFile the file written by {@link #write(Path)}.
+   * @return the decoded snapshot.
+   * @throws IOException if the file cannot be read or is not a valid snapshot.
+   */
+  static CacheSnapshot read(final Path snapshotFile) throws IOException {
+    try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+      if (channel.size() > MAX_FILE_BYTES) {
+        throw new IOException("Snapshot [" + snapshotFile + "] is larger than [" + MAX_FILE_BYTES + "] bytes.");
+      }
+
+      // read once at startup, so a heap buffer is cheaper than a mapping which lingers until it is garbage collected.
+      final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        // read until the buffer is full or the file ended.
+      }
+
+      buffer.flip();
+
+      return decode(buffer);
+    } catch (final BufferUnderflowException | IllegalArgumentException corruptException) {
+      throw new IOException("Snapshot [" + snapshotFile + "] is corrupt.", corruptException);
+    }
+  }
+
+  /**
+   * Writes this snapshot to a temporary file next to the given one, which is then replaced.
+   *
+   * @param snapshotFile the file to write.
+   * @throws IOException if the file cannot be written.
+   */
+  void write(final Path snapshotFile) throws IOException {
+    final Path absoluteFile = snapshotFile.toAbsolutePath();
+    final Path temporaryFile = Files.createTempFile(absoluteFile.getParent(), absoluteFile.getFileName().toString(), ".tmp");
+
+    try {
+      Files.write(temporaryFile, this.encode());
+
+      try {
+        Files.move(temporaryFile, absoluteFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (final AtomicMoveNotSupportedException atomicMoveNotSupportedException) {
+        Files.move(temporaryFile, absoluteFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+  }
+
+  byte[] encode() throws IOException {
+    final long nowNanos = System.nanoTime();
+    final long nowMillis = System.currentTimeMillis();
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    try (DataOutputStream output = new DataOutputStream(bytes)) {
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeLong(nowMillis);
+
+      output.writeInt(this.entries.size());
+
+      for (final Entry entry : this.entries) {
+        final LookupResult result = entry.getResult();
+        writeString(output, entry.getKey());
+        writeString(output, result.getSource());
+        output.writeLong(result.getResolvedAt().toEpochMilli());
+        output.writeLong(result.getTtlSeconds());
+        output.writeLong(nowMillis + TimeUnit.NANOSECONDS.toMillis(entry.getExpiresAtNanos() - nowNanos));
+
+        final InetAddress[] addresses = result.getAddresses();
+        output.writeShort(addresses.length);
+
+        for (final InetAddress address : addresses) {
+          writeAddress(output, address);
+        }
+      }
+
+      output.writeInt(this.verdicts.size());
+
+      for (final CachedVerdict verdict : this.verdicts) {
+        writeAddress(output, verdict.getAddress());
+        output.writeBoolean(verdict.isReachable());
+        output.writeLong(nowMillis + verdict.getRemainingMillis());
+      }
+    }
+
+    return bytes.toByteArray();
+  }
+
+  static CacheSnapshot decode(final ByteBuffer buffer) throws IOException {
+    final long nowNanos = System.nanoTime();
+    final long nowMillis = System.currentTimeMillis();
+
+    if (buffer.getInt() != MAGIC) {
+      throw new IOException("Not a snapshot.");
+    }
+
+    final int version = buffer.getInt();
+
+    if (version != VERSION) {
+      throw new IOException("Unsupported snapshot version [" + version + "].");
+    }
+
+    final long writtenAtMillis = buffer.getLong();
+    final int entryCount = buffer.getInt();
+    final List<Entry> entries = new ArrayList<>(Math.min(entryCount, buffer.remaining()));
+
+    for (int entryIndex = 0; entryIndex < entryCount; entryIndex++) {
+      final String key = readString(buffer);
+      final String source = readString(buffer);
+      final Instant resolvedAt = Instant.ofEpochMilli(buffer.getLong());
+      final long ttlSeconds = buffer.getLong();
+      final long remainingMillis = remainingMillis(buffer.getLong(), writtenAtMillis, nowMillis);
+      final InetAddress[] addresses = new InetAddress[buffer.getShort() & UNSIGNED_SHORT_MASK];
+      final String host = DelegateNameServices.hostOf(key);
+
+      for (int addressIndex = 0; addressIndex < addresses.length; addressIndex++) {
+        addresses[addressIndex] = InetAddress.getByAddress(host, readAddress(buffer));
+      }
+
+      if (remainingMillis > 0L) {
+        final long expiresAtNanos = nowNanos + TimeUnit.MILLISECONDS.toNanos(remainingMillis);
+        entries.add(new Entry(key, new LookupResult(addresses, ttlSeconds, source, resolvedAt), expiresAtNanos));
+      }
+    }
+
+    final int verdictCount = buffer.getInt();
+    final List<CachedVerdict> verdicts = new ArrayList<>(Math.min(verdictCount, buffer.remaining()));
+
+    for (int verdictIndex = 0; verdictIndex < verdictCount; verdictIndex++) {
+      final InetAddress address = InetAddress.getByAddress(readAddress(buffer));
+      final boolean reachable = buffer.get() != 0;
+      final long remainingMillis = remainingMillis(buffer.getLong(), writtenAtMillis, nowMillis);
+
+      if (remainingMillis > 0L) {
+        verdicts.add(new CachedVerdict(address, reachable, remainingMillis));
+      }
+    }
+
+    return new CacheSnapshot(entries, verdicts);
+  }
+
+  private static long remainingMillis(final long expiresAtMillis, final long writtenAtMillis, final long nowMillis) {
+    // if the clock was set back, an entry never lives longer than it had left when it was written.
+    return Math.min(expiresAtMillis - nowMillis, expiresAtMillis - writtenAtMillis);
+  }
+
+  private static void writeString(final DataOutputStream output, final String value) throws IOException {
+    final byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+    output.writeShort(valueBytes.length);
+    output.write(valueBytes);
+  }
+
+  private static String readString(final ByteBuffer buffer) {
+    final byte[] valueBytes = new byte[buffer.getShort() & UNSIGNED_SHORT_MASK];
+    buffer.get(valueBytes);
+
+    return new String(valueBytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeAddress(final DataOutputStream output, final InetAddress address) throws IOException {
+    final byte[] addressBytes = address.getAddress();
+    output.writeByte(addressBytes.length);
+    output.write(addressBytes);
+  }
+
+  private static byte[] readAddress(final ByteBuffer buffer) {
+    final byte[] addressBytes = new byte[buffer.get() & UNSIGNED_BYTE_MASK];
+    buffer.get(addressBytes);
+
+    return addressBytes;
+  }
+
+  List<Entry> getEntries() {
+    return this.entries;
+  }
+
+  List<CachedVerdict> getVerdicts() {
+    return this.verdicts;
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", CacheSnapshot.class.getSimpleName() + "[", "]")
+        .add("entries=" + this.entries.size())
+        .add("verdicts=" + this.verdicts.size())
+        .toString();
+  }
+
+  /**
+   * A positive answer of a {@link CachingNameService}.
+   */
+  static final class Entry {
+
+    private final String key;
+
+    private final LookupResult result;
+
+    private final long expiresAtNanos;
+
+    Entry(final String key, final LookupResult result, final long expiresAtNanos) {
+      this.key = key;
+      this.result = result;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+
+    String getKey() {
+      return this.key;
+    }
+
+    LookupResult getResult() {
+      return this.result;
+    }
+
+    long getExpiresAtNanos() {
+      return this.expiresAtNanos;
+    }
+  }
+}
@@ -0,0 +1,589 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.nameservice;
+
+import io.github.bmhm.nameserviceagent.agent.util.DaemonThreadFactory;
+import io.github.bmhm.nameserviceagent.agent.util.SharedCache;
+import io.github.bmhm.nameserviceagent.api.AbstractProxyNameService;
+import io.github.bmhm.nameserviceagent.api.AddressFamily;
+import io.github.bmhm.nameserviceagent.api.LookupResult;
+import io.github.bmhm.nameserviceagent.api.NameService;
+import io.github.bmhm.nameserviceagent.api.UpstreamUnavailableException;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches the answers of the original name service, e.g. the next stage of a pipeline like {@code cache,reachable}.
+ *
+ * <p>Positive answers are kept for the TTL of the delegate's {@link LookupResult}, e.g. the DNS TTL, or
+ * for {@code nameserviceagent.cache.ttlSeconds} if the delegate does not know it.
+ * An {@link UnknownHostException}, or an answer without any address, is cached for {@code nameserviceagent.cache.negativeTtlSeconds}.
+ * {@link #lookup(String)} returns the cached result with its original source and resolution time.
+ * Lookups of a single {@link AddressFamily} are cached separately from lookups of all addresses.</p>
+ *
+ * <p>Hot entries, i.e. entries hit since they were stored, are refreshed in the background during the last
+ * {@code nameserviceagent.cache.refreshAheadPercent} of their TTL. Until the refresh finished, lookups get the cached answer,
+ * even up to {@code nameserviceagent.cache.staleSeconds} after it expired. A failed refresh keeps the cached answer,
+ * so a hot host only pays a blocking lookup once its answer is older than that.</p>
+ *
+ * <p>If the delegate fails with an {@link UpstreamUnavailableException}, the last good answer is served for another 30 seconds
+ * at a time, up to {@code nameserviceagent.cache.maxStaleSeconds} after it expired (see RFC 8767).
+ * Upstream failures themselves are not cached.</p>
+ *
+ * <p>With {@code nameserviceagent.snapshot.file}, positive answers are kept across restarts, see {@link CacheSnapshot}.
+ * With {@code nameserviceagent.shared.file}, a miss is looked up in the {@link SharedCache} of all JVMs on this machine
+ * before asking the delegate, and the delegate's answers are published there. Lookups of a single family do not use the
+ * shared cache.</p>
+ *
+ * <p>Reading a cached entry does not take any lock. The size is bounded by {@code nameserviceagent.cache.maxEntries}
+ * using a S3-FIFO like eviction: new entries go into a small probationary queue and are only promoted into the main
+ * queue if they were hit while on probation. A scan over many one-off hostnames therefore only churns the probationary
+ * queue instead of flushing the hot hosts. The main queue evicts with a second-chance (CLOCK) policy.</p>
+ */
+public class CachingNameService extends AbstractProxyNameService {
+
+  private static final long TTL_SECONDS = Long.getLong("nameserviceagent.cache.ttlSeconds", 30L);
+
+  private static final long NEGATIVE_TTL_SECONDS = Long.getLong("nameserviceagent.cache.negativeTtlSeconds", 10L);
+
+  private static final int MAX_ENTRIES = Integer.getInteger("nameserviceagent.cache.maxEntries", 1024);
+
+  private static final int REFRESH_AHEAD_PERCENT = Integer.getInteger("nameserviceagent.cache.refreshAheadPercent", 10);
+
+  private static final long STALE_SECONDS = Long.getLong("nameserviceagent.cache.staleSeconds", 5L);
+
+  private static final int REFRESH_THREADS = Integer.getInteger("nameserviceagent.cache.refreshThreads", 2);
+
+  private static final long MAX_STALE_SECONDS = Long.getLong("nameserviceagent.cache.maxStaleSeconds", 86_400L);
+
+  /**
+   * The TTL of a stale answer served after an upstream failure, as recommended by RFC 8767.
+   */
+  private static final long STALE_ANSWER_TTL_NANOS = TimeUnit.SECONDS.toNanos(30L);
+
+  private static final int MAX_PERCENT = 100;
+
+  private static final Logger LOG = Logger.getLogger(CachingNameService.class.getCanonicalName());
+
+  private final NameService delegate;
+
+  private final long ttlNanos;
+
+  private final long negativeTtlNanos;
+
+  private final int maxEntries;
+
+  private final int refreshAheadPercent;
+
+  private final long staleNanos;
+
+  private final long maxStaleNanos;
+
+  private final Executor refreshExecutor;
+
+  /**
+   * The cache shared with other JVMs on this machine, or {@code null}.
+   */
+  private final SharedCache sharedCache;
+
+  /**
+   * The keys currently refreshed in the background, so each is only refreshed once at a time.
+   */
+  private final Set<String> refreshingKeys = ConcurrentHashMap.newKeySet();
+
+  private final ConcurrentMap<String, CacheEntry> entries;
+
+  private final int probationEntries;
+
+  /**
+   * Lock for the eviction queues, which is never taken on a cache hit.
+   */
+  private final Object evictionLock = new Object();
+
+  private final Queue<CacheEntry> probation = new ArrayDeque<>();
+
+  private final Queue<CacheEntry> main = new ArrayDeque<>();
+
+  /**
+   * The original name service will get injected, its answers are cached.
+   *
+   * @param originalNameService the original name service before proxying.
+   */
+  public CachingNameService(final NameService originalNameService) {
+    this(
+        originalNameService,
+        originalNameService,
+        TimeUnit.SECONDS.toNanos(TTL_SECONDS),
+        TimeUnit.SECONDS.toNanos(NEGATIVE_TTL_SECONDS),
+        MAX_ENTRIES,
+        REFRESH_AHEAD_PERCENT,
+        TimeUnit.SECONDS.toNanos(STALE_SECONDS),
+        TimeUnit.SECONDS.toNanos(MAX_STALE_SECONDS),
+        RefreshExecutorHolder.EXECUTOR,
+        SharedCache.getInstance()
+    );
+  }
+
+  /**
+   * Creates a cache which never refreshes in the background and never returns expired answers, even on upstream failures.
+   */
+  CachingNameService(final NameService originalNameService,
+                     final NameService delegate,
+                     final long ttlNanos,
+                     final long negativeTtlNanos,
+                     final int maxEntries) {
+    this(originalNameService, delegate, ttlNanos, negativeTtlNanos, maxEntries, 0, 0L, 0L, Runnable::run, null);
+  }
+
+  CachingNameService(final NameService originalNameService,
+                     final NameService delegate,
+                     final long ttlNanos,
+                     final long negativeTtlNanos,
+                     final int maxEntries,
+                     final int refreshAheadPercent,
+                     final long staleNanos,
+                     final long maxStaleNanos,
+                     final Executor refreshExecutor,
+                     final SharedCache sharedCache) {
+    super(originalNameService);
+    this.delegate = delegate;
+    this.ttlNanos = ttlNanos;
+    this.negativeTtlNanos = negativeTtlNanos;
+    this.maxEntries = Math.max(1, maxEntries);
+    this.refreshAheadPercent = Math.max(0, Math.min(MAX_PERCENT, refreshAheadPercent));
+    this.staleNanos = Math.max(0L, staleNanos);
+    this.maxStaleNanos = Math.max(0L, maxStaleNanos);
+    this.refreshExecutor = refreshExecutor;
+    this.sharedCache = sharedCache;
+    this.probationEntries = Math.max(1, this.maxEntries / 10);
+    this.entries = new ConcurrentHashMap<>(Math.min(this.maxEntries, 1024));
+  }
+
+  @Override
+  public InetAddress[] lookupAllHostAddr(final String host) throws UnknownHostException {
+    return this.lookup(host).getAddresses();
+  }
+
+  /**
+   * Caches the addresses of the family separately from the addresses of other families.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  @Override
+  public InetAddress[] lookupAllHostAddr(final String host, final AddressFamily family) throws UnknownHostException {
+    return this.lookup(host, family).getAddresses();
+  }
+
+  @Override
+  public LookupResult lookup(final String host) throws UnknownHostException {
+    return this.lookup(host, AddressFamily.ANY);
+  }
+
+  @Override
+  public LookupResult lookup(final String host, final AddressFamily family) throws UnknownHostException {
+    final String key = DelegateNameServices.keyOf(host, family);
+    final long now = System.nanoTime();
+    final CacheEntry cached = this.entries.get(key);
+
+    if (cached != null && this.isServable(cached, now)) {
+      if (cached.isHot() && cached.isPositive() && cached.isRefreshDue(now)) {
+        this.refreshInBackground(host, family, cached);
+      }
+
+      cached.markHit();
+
+      return cached.getResult();
+    }
+
+    return this.resolveAndStore(host, family, key, cached, now).getResult();
+  }
+
+  private boolean isServable(final CacheEntry cached, final long now) {
+    if (!cached.isExpired(now)) {
+      return true;
+    }
+
+    // a just expired hot answer is still better than waiting, a refresh is started right away.
+    return cached.isHot() && cached.isPositive() && !cached.isExpired(now - this.staleNanos);
+  }
+
+  private CacheEntry resolveAndStore(final String host,
+                                     final AddressFamily family,
+                                     final String key,
+                                     final CacheEntry cached,
+                                     final long now) throws UpstreamUnavailableException {
+    CacheEntry resolved;
+
+    try {
+      resolved = this.newPositiveEntry(key, this.lookupSharedOrDelegate(host, family, key), now);
+    } catch (final UpstreamUnavailableException upstreamUnavailableException) {
+      if (cached == null || !cached.canServeStale(now)) {
+        throw upstreamUnavailableException;
+      }
+
+      LOG.log(Level.FINE, upstreamUnavailableException, () -> "Serving stale answer for [" + host + "].");
+      resolved = cached.withExpiry(now + STALE_ANSWER_TTL_NANOS);
+    } catch (final UnknownHostException unknownHostException) {
+      final long expiresAtNanos = now + this.negativeTtlNanos;
+      resolved = new CacheEntry(key, null, unknownHostException.getMessage(), expiresAtNanos, expiresAtNanos, expiresAtNanos);
+    }
+
+    this.store(resolved);
+
+    return resolved;
+  }
+
+  private LookupResult lookupSharedOrDelegate(final String host, final AddressFamily family, final String key)
+      throws UnknownHostException {
+    if (this.isShared(family)) {
+      final LookupResult sharedResult = this.sharedCache.getAnswer(key);
+
+      if (sharedResult != null) {
+        return sharedResult;
+      }
+    }
+
+    return this.lookupDelegate(host, family, key);
+  }
+
+  private LookupResult lookupDelegate(final String host, final AddressFamily family, final String key) throws UnknownHostException {
+    final LookupResult result = DelegateNameServices.lookup(this.delegate, host, family);
+
+    if (result.getAddresses().length == 0) {
+      // the JDK cannot handle an empty answer, so it must not become a positive entry.
+      throw new UnknownHostException("Unable to resolve host [" + host + "]: the name service returned no addresses.");
+    }
+
+    if (this.isShared(family)) {
+      this.sharedCache.putAnswer(key, result, TimeUnit.NANOSECONDS.toMillis(this.ttlNanosOf(result)));
+    }
+
+    return result;
+  }
+
+  private boolean isShared(final AddressFamily family) {
+    // the shared cache only knows hosts, not families.
+    return this.sharedCache != null && family == AddressFamily.ANY;
+  }
+
+  private long ttlNanosOf(final LookupResult result) {
+    return result.hasTtl() ? TimeUnit.SECONDS.toNanos(result.getTtlSeconds()) : this.ttlNanos;
+  }
+
+  private CacheEntry newPositiveEntry(final String key, final LookupResult result, final long now) {
+    return this.newPositiveEntry(key, result, now, now + this.ttlNanosOf(result));
+  }
+
+  private CacheEntry newPositiveEntry(final String key, final LookupResult result, final long now, final long expiresAtNanos) {
+    final long resultTtlNanos = expiresAtNanos - now;
+    // without refreshing ahead, a hot entry is still refreshed while it is served stale.
+    final long refreshAtNanos = expiresAtNanos - resultTtlNanos / MAX_PERCENT * this.refreshAheadPercent;
+
+    return new CacheEntry(key, result, null, expiresAtNanos, refreshAtNanos, expiresAtNanos + this.maxStaleNanos);
+  }
+
+  private void refreshInBackground(final String host, final AddressFamily family, final CacheEntry cached) {
+    if (!this.refreshingKeys.add(cached.key)) {
+      return;
+    }
+
+    try {
+      this.refreshExecutor.execute(() -> this.refresh(host, family, cached));
+    } catch (final RejectedExecutionException rejectedExecutionException) {
+      this.refreshingKeys.remove(cached.key);
+      LOG.log(Level.FINE, rejectedExecutionException, () -> "Cannot refresh [" + host + "] in the background.");
+    }
+  }
+
+  private void refresh(final String host, final AddressFamily family, final CacheEntry cached) {
+    try {
+      final CacheEntry refreshed = this.newPositiveEntry(cached.key, this.lookupDelegate(host, family, cached.key), System.nanoTime());
+      // the refreshed entry is as hot as the one it replaces.
+      refreshed.hits = cached.hits;
+      this.store(refreshed);
+    } catch (final UnknownHostException | RuntimeException refreshException) {
+      // keep the cached answer, the next lookup after it went stale resolves again.
+      LOG.log(Level.FINE, refreshException, () -> "Background refresh of [" + host + "] failed.");
+    } finally {
+      this.refreshingKeys.remove(cached.key);
+    }
+  }
+
+  private void store(final CacheEntry entry) {
+    final CacheEntry previous = this.entries.put(entry.key, entry);
+
+    synchronized (this.evictionLock) {
+      if (previous != null && previous.promoted) {
+        // a hot entry which just expired stays hot.
+        entry.promoted = true;
+        this.main.add(entry);
+      } else {
+        this.probation.add(entry);
+      }
+
+      // concurrently stored entries might not be queued yet, hence also check for empty queues.
+      while (this.entries.size() > this.maxEntries && !(this.probation.isEmpty() && this.main.isEmpty())) {
+        this.evictOne();
+      }
+
+      if (this.probation.size() + this.main.size() > 2 * this.maxEntries) {
+        // entries replaced after expiry are still queued, drop them.
+        this.probation.removeIf(this::isStale);
+        this.main.removeIf(this::isStale);
+      }
+    }
+  }
+
+  private void evictOne() {
+    if (this.probation.size() >= this.probationEntries || this.main.isEmpty()) {
+      this.evictFromProbation();
+    } else {
+      this.evictFromMain();
+    }
+  }
+
+  private void evictFromProbation() {
+    final CacheEntry candidate = this.probation.poll();
+
+    if (candidate == null || this.isStale(candidate)) {
+      return;
+    }
+
+    if (candidate.hits > 0) {
+      candidate.hits = 0;
+      candidate.promoted = true;
+      this.main.add(candidate);
+      return;
+    }
+
+    this.entries.remove(candidate.key, candidate);
+  }
+
+  private void evictFromMain() {
+    final CacheEntry candidate = this.main.poll();
+
+    if (candidate == null || this.isStale(candidate)) {
+      return;
+    }
+
+    if (candidate.hits > 0) {
+      // second chance
+      candidate.hits--;
+      this.main.add(candidate);
+      return;
+    }
+
+    this.entries.remove(candidate.key, candidate);
+  }
+
+  private boolean isStale(final CacheEntry queued) {
+    return this.entries.get(queued.key) != queued;
+  }
+
+  /**
+   * Stores answers of a previous run, unless a host was already looked up.
+   *
+   * @param snapshotEntries the answers which did not expire yet.
+   */
+  void preload(final Collection<CacheSnapshot.Entry> snapshotEntries) {
+    final long now = System.nanoTime();
+
+    for (final CacheSnapshot.Entry snapshotEntry : snapshotEntries) {
+      if (now - snapshotEntry.getExpiresAtNanos() < 0 && !this.entries.containsKey(snapshotEntry.getKey())) {
+        this.store(this.newPositiveEntry(snapshotEntry.getKey(), snapshotEntry.getResult(), now, snapshotEntry.getExpiresAtNanos()));
+      }
+    }
+  }
+
+  /**
+   * Returns the positive answers which did not expire yet.
+   *
+   * @return the answers to keep in a snapshot.
+   */
+  List<CacheSnapshot.Entry> getSnapshotEntries() {
+    final long now = System.nanoTime();
+    final List<CacheSnapshot.Entry> snapshotEntries = new ArrayList<>(this.entries.size());
+
+    for (final CacheEntry entry : this.entries.values()) {
+      if (entry.isPositive() && !entry.isExpired(now)) {
+        snapshotEntries.add(new CacheSnapshot.Entry(entry.key, entry.result, entry.expiresAtNanos));
+      }
+    }
+
+    return snapshotEntries;
+  }
+
+  int size() {
+    return this.entries.size();
+  }
+
+  @Override
+  public String getHostByAddr(final byte[] addr) throws UnknownHostException {
+    return this.delegate.getHostByAddr(addr);
+  }
+
+  public NameService getDelegate() {
+    return this.delegate;
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", CachingNameService.class.getSimpleName() + "[", "]")
+        .add("super=" + super.toString())
+        .add("delegate=" + this.delegate)
+        .add("maxEntries=" + this.maxEntries)
+        .add("refreshAheadPercent=" + this.refreshAheadPercent)
+        .toString();
+  }
+
+  private static final class CacheEntry {
+
+    private static final int MAX_HITS = 3;
+
+    private final String key;
+
+    private final LookupResult result;
+
+    private final String failureMessage;
+
+    private final long expiresAtNanos;
+
+    private final long refreshAtNanos;
+
+    private final long serveStaleUntilNanos;
+
+    /**
+     * Incremented on a cache hit (saturating), decremented by the eviction.
+     * A racy volatile write, so hits never block each other.
+     */
+    private volatile int hits;
+
+    /**
+     * Whether this entry was promoted to the main queue. Only accessed while holding the eviction lock.
+     */
+    private boolean promoted;
+
+    CacheEntry(final String key,
+               final LookupResult result,
+               final String failureMessage,
+               final long expiresAtNanos,
+               final long refreshAtNanos,
+               final long serveStaleUntilNanos) {
+      this.key = key;
+      this.result = result;
+      this.failureMessage = failureMessage;
+      this.expiresAtNanos = expiresAtNanos;
+      this.refreshAtNanos = refreshAtNanos;
+      this.serveStaleUntilNanos = serveStaleUntilNanos;
+    }
+
+    /**
+     * Creates a copy of this entry with the same answer and hits, which expires at the given time.
+     *
+     * @param newExpiresAtNanos the new expiry.
+     * @return the copy, which may still be served stale as long as this entry.
+     */
+    CacheEntry withExpiry(final long newExpiresAtNanos) {
+      final CacheEntry copy =
+          new CacheEntry(this.key, this.result, this.failureMessage, newExpiresAtNanos, newExpiresAtNanos, this.serveStaleUntilNanos);
+      copy.hits = this.hits;
+
+      return copy;
+    }
+
+    boolean canServeStale(final long now) {
+      return this.isPositive() && now - this.serveStaleUntilNanos < 0;
+    }
+
+    boolean isExpired(final long now) {
+      return now - this.expiresAtNanos >= 0;
+    }
+
+    boolean isRefreshDue(final long now) {
+      return now - this.refreshAtNanos >= 0;
+    }
+
+    boolean isPositive() {
+      return this.result != null;
+    }
+
+    boolean isHot() {
+      return this.hits > 0;
+    }
+
+    void markHit() {
+      if (this.hits < MAX_HITS) {
+        this.hits++;
+      }
+    }
+
+    /**
+     * Returns the cached result, which hands out a copy of its addresses.
+     *
+     * @return the cached result.
+     * @throws UnknownHostException if this is a negative cache entry.
+     */
+    LookupResult getResult() throws UnknownHostException {
+      if (this.result == null) {
+        throw new UnknownHostException(this.failureMessage);
+      }
+
+      return this.result;
+    }
+  }
+
+  private static final class RefreshExecutorHolder {
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private RefreshExecutorHolder() {
+      // holder class
+    }
+
+    private static ExecutorService createExecutor() {
+      final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+          REFRESH_THREADS,
+          REFRESH_THREADS,
+          60L,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(),
+          new DaemonThreadFactory("cache-refresh")
+      );
+      executor.allowCoreThreadTimeOut(true);
+
+      return executor;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.nameservice;
+
+import io.github.bmhm.nameserviceagent.agent.util.DaemonThreadFactory;
+import io.github.bmhm.nameserviceagent.api.AddressFamily;
+import io.github.bmhm.nameserviceagent.api.NameService;
+import io.github.bmhm.nameserviceagent.wire.UdpDnsClient;
+
+import org.xbill.DNS.ResolverConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Resolves hosts by sending plain DNS queries to the servers from the system configuration (e.g. {@code /etc/resolv.conf}),
+ * or to {@code nameserviceagent.dns.servers}.
+ *
+ * <p>All lookups share a single UDP channel driven by one thread, instead of blocking a thread per lookup like the JDK resolver.
+ * Truncated answers are repeated over TCP. If a server does not answer in time, the next one is tried.</p>
+ */
+public class ClassicDnsNameService extends AbstractDnsQueryNameService {
+
+  private static final int DNS_PORT = 53;
+
+  private static final AddressFamily FAMILY =
+      AddressFamily.fromString(System.getProperty("nameserviceagent.dns.family", "any"));
+
+  private static final Duration TIMEOUT = Duration.ofMillis(Long.getLong("nameserviceagent.dns.timeoutMs", 2000L));
+
+  private final List<InetSocketAddress> servers;
+
+  /**
+   * The original name service will get injected.
+   *
+   * @param originalNameService the original name service before proxying.
+   */
+  public ClassicDnsNameService(final NameService originalNameService) {
+    this(originalNameService, getConfiguredServers(System.getProperty("nameserviceagent.dns.servers", "")));
+  }
+
+  ClassicDnsNameService(final NameService originalNameService, final List<InetSocketAddress> servers) {
+    super(originalNameService, FAMILY);
+
+    if (servers.isEmpty()) {
+      throw new IllegalArgumentException("No DNS servers configured.");
+    }
+
+    this.servers = Collections.unmodifiableList(new ArrayList<>(servers));
+  }
+
+  @Override
+  CompletableFuture<byte[]> send(final byte[] query) {
+    return ClientHolder.CLIENT.query(query, this.servers, TIMEOUT);
+  }
+
+  /**
+   * Returns the configured DNS servers, or those of the system if none are configured.
+   *
+   * @param servers a comma separated list of IP addresses with optional port, e.g. {@code 192.0.2.1,[2001:db8::1]:5353}.
+   * @return the DNS servers to use.
+   */
+  static List<InetSocketAddress> getConfiguredServers(final String servers) {
+    if (servers.trim().isEmpty()) {
+      return ResolverConfig.getCurrentConfig().servers();
+    }
+
+    final List<InetSocketAddress> configuredServers = new ArrayList<>();
+
+    for (final String server : servers.split(",")) {
+      if (!server.trim().isEmpty()) {
+        configuredServers.add(parseServer(server.trim(), DNS_PORT));
+      }
+    }
+
+    return configuredServers;
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", ClassicDnsNameService.class.getSimpleName() + "[", "]")
+        .add("super=" + super.toString())
+        .add("servers=" + this.servers)
+        .toString();
+  }
+
+  /**
+   * Lazily opens the UDP client shared by all instances.
+   */
+  private static final class ClientHolder {
+
+    private static final UdpDnsClient CLIENT = openClient();
+
+    private ClientHolder() {
+      // holder class
+    }
+
+    private static UdpDnsClient openClient() {
+      try {
+        return UdpDnsClient.open(new DaemonThreadFactory("dns-udp"));
+      } catch (final IOException ioException) {
+        throw new UncheckedIOException(ioException);
+      }
+    }
+  }
+}
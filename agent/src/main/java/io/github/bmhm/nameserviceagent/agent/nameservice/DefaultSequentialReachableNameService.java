@@ -18,19 +18,27 @@ package io.github.bmhm.nameserviceagent.agent.nameservice;
 
 import io.github.bmhm.nameserviceagent.agent.util.ReachableUtil;
 import io.github.bmhm.nameserviceagent.api.AbstractProxyNameService;
+import io.github.bmhm.nameserviceagent.api.AddressFamily;
+import io.github.bmhm.nameserviceagent.api.LookupResult;
 import io.github.bmhm.nameserviceagent.api.NameService;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
- * Similar to the original dns service, but takes all returned IPs into consideration and tries each three times
- * before giving up.
+ * Similar to the original dns service, but takes all returned IPs into consideration and probes each one with every
+ * available tester (ICMP, the {@code ping} command, a TCP connect) before giving up on it.
  *
  * <p>The original service will only use the first response from the name service without any checking.</p>
+ *
+ * <p>Set {@code nameserviceagent.reachable.parallel} to probe all returned IPs concurrently instead of one after another.</p>
+ *
+ * <p>Set {@code nameserviceagent.healthcheck.enabled} to probe returned IPs in the background instead. A lookup then only
+ * probes IPs it has never seen before.</p>
  */
 public class DefaultSequentialReachableNameService extends AbstractProxyNameService {
 
@@ -40,17 +48,49 @@ public class DefaultSequentialReachableNameService extends AbstractProxyNameServ
 
   @Override
   public InetAddress[] lookupAllHostAddr(final String host) throws UnknownHostException {
-    final InetAddress[] inetAddresses = this.getOriginalNameService().lookupAllHostAddr(host);
-    // using a linked hashset, because we want to retain the original order.
-    final Set<InetAddress> reachableAddresses = new LinkedHashSet<>(inetAddresses.length);
+    return this.lookup(host).getAddresses();
+  }
 
-    for (final InetAddress inetAddress : inetAddresses) {
-      if (!ReachableUtil.isReachable(inetAddress)) {
-        continue;
-      }
+  /**
+   * Passes the family on to the original name service, so addresses of other families are neither resolved nor probed.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  @Override
+  public InetAddress[] lookupAllHostAddr(final String host, final AddressFamily family) throws UnknownHostException {
+    return this.lookup(host, family).getAddresses();
+  }
 
-      reachableAddresses.add(inetAddress);
-    }
+  /**
+   * Filters the addresses of the original name service's result, keeping its TTL, source and resolution time.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  @Override
+  public LookupResult lookup(final String host) throws UnknownHostException {
+    return this.lookup(host, AddressFamily.ANY);
+  }
+
+  /**
+   * Passes the family on to the original name service and filters the addresses of its result.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  @Override
+  public LookupResult lookup(final String host, final AddressFamily family) throws UnknownHostException {
+    final LookupResult result = DelegateNameServices.lookup(this.getOriginalNameService(), host, family);
+
+    return new LookupResult(
+        filterReachable(host, result.getAddresses()),
+        result.getTtlSeconds(),
+        result.getSource(),
+        result.getResolvedAt());
+  }
+
+  private static InetAddress[] filterReachable(final String host, final InetAddress[] inetAddresses) throws UnknownHostException {
+    // using a linked hashset, because we want to retain the original order.
+    final Set<InetAddress> resolvedAddresses = new LinkedHashSet<>(Arrays.asList(inetAddresses));
+    final List<InetAddress> reachableAddresses = ReachableUtil.filterReachable(resolvedAddresses);
 
     if (reachableAddresses.isEmpty()) {
       throw new UnknownHostException(
@@ -62,7 +102,6 @@ public class DefaultSequentialReachableNameService extends AbstractProxyNameServ
     return reachableAddresses.toArray(new InetAddress[0]);
   }
 
-
   @Override
   public String getHostByAddr(final byte[] addr) throws UnknownHostException {
     return this.getOriginalNameService().getHostByAddr(addr);
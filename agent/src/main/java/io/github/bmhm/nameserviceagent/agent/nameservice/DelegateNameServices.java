@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.nameservice;
+
+import io.github.bmhm.nameserviceagent.api.AbstractProxyNameService;
+import io.github.bmhm.nameserviceagent.api.AddressFamily;
+import io.github.bmhm.nameserviceagent.api.LookupResult;
+import io.github.bmhm.nameserviceagent.api.NameService;
+
+import java.net.UnknownHostException;
+import java.util.Locale;
+
+/**
+ * Helpers for decorating name services like the {@link CachingNameService}.
+ */
+final class DelegateNameServices {
+
+  private DelegateNameServices() {
+    // util class
+  }
+
+  /**
+   * Returns the key of a host's lookup, e.g. for caching it.
+   *
+   * @param host   the host to resolve.
+   * @param family the address family the caller is interested in.
+   * @return the lower case host, followed by the family unless it is {@link AddressFamily#ANY}.
+   */
+  static String keyOf(final String host, final AddressFamily family) {
+    final String key = host.toLowerCase(Locale.ROOT);
+
+    if (family == AddressFamily.ANY) {
+      return key;
+    }
+
+    return key + "/" + family;
+  }
+
+  /**
+   * Returns the host of a key created by {@link #keyOf(String, AddressFamily)}.
+   *
+   * @param key the key of a host's lookup.
+   * @return the lower case host.
+   */
+  static String hostOf(final String key) {
+    final int separator = key.indexOf('/');
+
+    return separator == -1 ? key : key.substring(0, separator);
+  }
+
+  /**
+   * Looks up the given host using the delegate, keeping its TTL and source if it is an {@link AbstractProxyNameService}.
+   *
+   * @param delegate the delegate of a decorating name service.
+   * @param host     the host to resolve.
+   * @return the delegate's result.
+   * @throws UnknownHostException if the delegate could not resolve the host.
+   */
+  static LookupResult lookup(final NameService delegate, final String host) throws UnknownHostException {
+    return lookup(delegate, host, AddressFamily.ANY);
+  }
+
+  /**
+   * Looks up the addresses of the given family using the delegate, keeping its TTL and source if it is an
+   * {@link AbstractProxyNameService}.
+   *
+   * @param delegate the delegate of a decorating name service.
+   * @param host     the host to resolve.
+   * @param family   the address family the caller is interested in.
+   * @return the delegate's result.
+   * @throws UnknownHostException if the delegate could not resolve the host.
+   */
+  static LookupResult lookup(final NameService delegate, final String host, final AddressFamily family) throws UnknownHostException {
+    if (family == AddressFamily.ANY) {
+      return lookupAny(delegate, host);
+    }
+
+    if (delegate instanceof AbstractProxyNameService) {
+      return ((AbstractProxyNameService) delegate).lookup(host, family);
+    }
+
+    return LookupResult.withoutTtl(delegate.lookupAllHostAddr(host, family), delegate.getClass().getName());
+  }
+
+  private static LookupResult lookupAny(final NameService delegate, final String host) throws UnknownHostException {
+    if (delegate instanceof AbstractProxyNameService) {
+      return ((AbstractProxyNameService) delegate).lookup(host);
+    }
+
+    return LookupResult.withoutTtl(delegate.lookupAllHostAddr(host), delegate.getClass().getName());
+  }
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.nameservice;
+
+import io.github.bmhm.nameserviceagent.agent.util.ReachableUtil;
+import io.github.bmhm.nameserviceagent.api.AddressFamily;
+import io.github.bmhm.nameserviceagent.api.BatchLookupResult;
+import io.github.bmhm.nameserviceagent.api.LookupResult;
+import io.github.bmhm.nameserviceagent.api.UpstreamUnavailableException;
+import io.github.bmhm.nameserviceagent.wire.DnsWireCodec;
+
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+import org.xbill.DNS.WireParseException;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Turns DNS answers into addresses, shared by the name services talking DNS themselves.
+ */
+final class DnsAnswers {
+
+  private static final boolean PREFER_IPV4 = Boolean.getBoolean("java.net.preferIPv4Stack");
+
+  private DnsAnswers() {
+    // util class
+  }
+
+  /**
+   * Sends the A and AAAA queries allowed by the policy at the same time, and merges their answers
+   * in the {@code java.net.preferIPv4Stack} order.
+   *
+   * @param policy the queries to send.
+   * @param query  sends a query for the given record type. Completes with an {@link UpstreamUnavailableException}
+   *               if the upstream did not answer.
+   * @return the A and AAAA records.
+   * @throws UnknownHostException if neither query got an answer with records, e.g. an {@link UpstreamUnavailableException}.
+   */
+  static List<AddressRecord> queryAddressRecords(final AddressFamily policy,
+                                                 final IntFunction<CompletableFuture<List<AddressRecord>>> query)
+      throws UnknownHostException {
+    try {
+      return queryAddressRecordsAsync(policy, query).join();
+    } catch (final CompletionException completionException) {
+      if (completionException.getCause() instanceof UnknownHostException) {
+        throw (UnknownHostException) completionException.getCause();
+      }
+
+      throw completionException;
+    }
+  }
+
+  /**
+   * Like {@link #queryAddressRecords(AddressFamily, IntFunction)}, but without waiting for the answers.
+   *
+   * <p>If only one of the queries failed, the records of the other one are used. If both failed, or the other one has no records,
+   * the future completes with the failure, so an unanswered query is never mistaken for an unknown host.</p>
+   *
+   * @param policy the queries to send.
+   * @param query  sends a query for the given record type. Completes with an {@link UpstreamUnavailableException}
+   *               if the upstream did not answer.
+   * @return a future completing with the A and AAAA records.
+   */
+  static CompletableFuture<List<AddressRecord>> queryAddressRecordsAsync(final AddressFamily policy,
+                                                                         final IntFunction<CompletableFuture<List<AddressRecord>>> query) {
+    final CompletableFuture<List<AddressRecord>> ipv4Records = policy == AddressFamily.IPV6
+        ? CompletableFuture.completedFuture(Collections.emptyList())
+        : query.apply(Type.A);
+    final CompletableFuture<List<AddressRecord>> ipv6Records = policy == AddressFamily.IPV4
+        ? CompletableFuture.completedFuture(Collections.emptyList())
+        : query.apply(Type.AAAA);
+
+    return ipv4Records.handle(QueryOutcome::new)
+        .thenCombine(ipv6Records.handle(QueryOutcome::new), DnsAnswers::mergeOutcomes)
+        .thenCompose(Function.identity());
+  }
+
+  private static CompletableFuture<List<AddressRecord>> mergeOutcomes(final QueryOutcome ipv4Outcome, final QueryOutcome ipv6Outcome) {
+    final Throwable error = ipv4Outcome.error == null ? ipv6Outcome.error : ipv4Outcome.error;
+
+    if (error != null && ipv4Outcome.records.isEmpty() && ipv6Outcome.records.isEmpty()) {
+      return failed(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+    }
+
+    final List<AddressRecord> records = new ArrayList<>(ipv4Outcome.records.size() + ipv6Outcome.records.size());
+
+    if (PREFER_IPV4) {
+      records.addAll(ipv4Outcome.records);
+      records.addAll(ipv6Outcome.records);
+    } else {
+      records.addAll(ipv6Outcome.records);
+      records.addAll(ipv4Outcome.records);
+    }
+
+    return CompletableFuture.completedFuture(records);
+  }
+
+  /**
+   * Creates the exception for a query which the upstream did not answer.
+   *
+   * @param host  the queried host.
+   * @param cause the failure of the transport, e.g. a timeout.
+   * @return the exception to complete the query with.
+   */
+  static UpstreamUnavailableException upstreamUnavailable(final String host, final Throwable cause) {
+    final Throwable actualCause = cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause;
+
+    return new UpstreamUnavailableException("No answer from upstream for [" + host + "].", actualCause);
+  }
+
+  /**
+   * Resolves many hosts at once. All queries are sent before any answer is awaited,
+   * and the addresses of all hosts are probed in a single pass, each address only once.
+   *
+   * @param hosts     the hosts to resolve.
+   * @param queryHost sends the A and AAAA queries for a host, see {@link #queryAddressRecordsAsync(AddressFamily, IntFunction)}.
+   *                  May throw an {@link IllegalArgumentException} for an invalid host name.
+   * @return the reachable addresses of each host. Hosts without any (reachable) A or AAAA record are failures.
+   */
+  static BatchLookupResult batchLookup(final Collection<String> hosts,
+                                       final Function<String, CompletableFuture<List<AddressRecord>>> queryHost) {
+    final Map<String, CompletableFuture<List<AddressRecord>>> queries = new LinkedHashMap<>();
+
+    for (final String host : hosts) {
+      queries.computeIfAbsent(host, key -> queryQuietly(queryHost, key));
+    }
+
+    final Set<InetAddress> allAddresses = new LinkedHashSet<>();
+
+    for (final CompletableFuture<List<AddressRecord>> query : queries.values()) {
+      final List<AddressRecord> records = query
+          .handle((answers, error) -> error == null ? answers : Collections.<AddressRecord>emptyList())
+          .join();
+      allAddresses.addAll(distinctAddresses(records));
+    }
+
+    final Set<InetAddress> reachableAddresses = new HashSet<>(ReachableUtil.filterReachableAsync(allAddresses).join());
+    final Map<String, CompletableFuture<InetAddress[]>> lookups = new LinkedHashMap<>();
+
+    for (final Map.Entry<String, CompletableFuture<List<AddressRecord>>> query : queries.entrySet()) {
+      final String host = query.getKey();
+      lookups.put(host, query.getValue().thenCompose(records -> records.isEmpty()
+          ? failed(new UnknownHostException(host))
+          : reachableOf(host, distinctAddresses(records), reachableAddresses)));
+    }
+
+    return BatchLookupResult.join(lookups);
+  }
+
+  private static CompletableFuture<InetAddress[]> reachableOf(final String host,
+                                                              final List<InetAddress> addresses,
+                                                              final Set<InetAddress> reachableAddresses) {
+    final InetAddress[] reachableOfHost = addresses.stream()
+        .filter(reachableAddresses::contains)
+        .toArray(InetAddress[]::new);
+
+    return reachableOfHost.length == 0
+        ? failed(noneReachable(host, addresses))
+        : CompletableFuture.completedFuture(reachableOfHost);
+  }
+
+  private static CompletableFuture<List<AddressRecord>> queryQuietly(
+      final Function<String, CompletableFuture<List<AddressRecord>>> queryHost,
+      final String host) {
+    try {
+      return queryHost.apply(host);
+    } catch (final IllegalArgumentException illegalArgumentException) {
+      return failed(invalidHostName(host, illegalArgumentException));
+    }
+  }
+
+  /**
+   * Creates the exception for a host name which cannot be queried, e.g. because a label is too long.
+   *
+   * @param host  the host name.
+   * @param cause the exception of the encoder.
+   * @return the exception to throw.
+   */
+  static UnknownHostException invalidHostName(final String host, final IllegalArgumentException cause) {
+    final UnknownHostException unknownHostException = new UnknownHostException("Invalid host name: [" + host + "].");
+    unknownHostException.initCause(cause);
+
+    return unknownHostException;
+  }
+
+  /**
+   * Returns an exceptionally completed future, which Java 8 has no factory for.
+   *
+   * @param cause the exception to complete with.
+   * @param <T>   the type of the future.
+   * @return an exceptionally completed future.
+   */
+  static <T> CompletableFuture<T> failed(final Throwable cause) {
+    final CompletableFuture<T> failed = new CompletableFuture<>();
+    failed.completeExceptionally(cause);
+
+    return failed;
+  }
+
+  /**
+   * Returns the answer records of the given type, e.g. skipping CNAME records.
+   *
+   * @param host     the queried host.
+   * @param response the DNS response.
+   * @param type     the record type, {@link Type#A} or {@link Type#AAAA}.
+   * @return the answer records of the given type.
+   * @throws UpstreamUnavailableException if the response is neither an answer nor {@code NXDOMAIN}, e.g. {@code SERVFAIL}.
+   */
+  static List<AddressRecord> getAnswers(final String host, final Message response, final int type) throws UpstreamUnavailableException {
+    checkAnswered(host, response.getRcode());
+    final List<Record> answerSection = response.getSection(Section.ANSWER);
+    final List<AddressRecord> addressRecords = new ArrayList<>(answerSection.size());
+
+    for (final Record answer : answerSection) {
+      if (answer.getType() != type) {
+        continue;
+      }
+
+      addressRecords.add(new AddressRecord(toInetAddress(answer), answer.getTTL()));
+    }
+
+    return addressRecords;
+  }
+
+  /**
+   * Decodes the answer records of the given type from a response in wire format,
+   * without creating any intermediate message or record objects.
+   *
+   * @param host     the queried host, which becomes the host name of the addresses.
+   * @param response the DNS response in wire format.
+   * @param type     the record type, {@link Type#A} or {@link Type#AAAA}.
+   * @return the answer records of the given type.
+   * @throws WireParseException           if the response is malformed.
+   * @throws UpstreamUnavailableException if the response is neither an answer nor {@code NXDOMAIN}, e.g. {@code SERVFAIL}.
+   */
+  static List<AddressRecord> readAnswers(final String host, final byte[] response, final int type)
+      throws WireParseException, UpstreamUnavailableException {
+    final List<AddressRecord> addressRecords = new ArrayList<>(4);
+
+    final int rcode = DnsWireCodec.readAnswers(ByteBuffer.wrap(response), (recordType, ttl, message, rdataOffset, rdataLength) -> {
+      if (recordType == type) {
+        addressRecords.add(new AddressRecord(toInetAddress(host, DnsWireCodec.readAddress(message, rdataOffset, rdataLength)), ttl));
+      }
+    });
+    checkAnswered(host, rcode);
+
+    return addressRecords;
+  }
+
+  /**
+   * Only {@code NOERROR} and {@code NXDOMAIN} are answers. Any other response code, e.g. {@code SERVFAIL} or {@code REFUSED},
+   * means the upstream could not answer, just like a timeout.
+   */
+  private static void checkAnswered(final String host, final int rcode) throws UpstreamUnavailableException {
+    if (rcode != Rcode.NOERROR && rcode != Rcode.NXDOMAIN) {
+      throw new UpstreamUnavailableException("Upstream answered [" + Rcode.string(rcode) + "] for [" + host + "].");
+    }
+  }
+
+  /**
+   * Returns the reachable addresses of the given A and AAAA records in their order, and their minimum TTL.
+   *
+   * @param host    the queried host.
+   * @param records the A and AAAA records.
+   * @param source  the name service which queried the records.
+   * @return the reachable addresses.
+   * @throws UnknownHostException if none of the addresses is reachable, as the JDK cannot handle an empty answer.
+   */
+  static LookupResult toReachableAddresses(final String host, final List<AddressRecord> records, final String source)
+      throws UnknownHostException {
+    final List<InetAddress> addresses = distinctAddresses(records);
+    final List<InetAddress> reachableAddresses = ReachableUtil.filterReachable(addresses);
+
+    if (reachableAddresses.isEmpty()) {
+      throw noneReachable(host, addresses);
+    }
+
+    return new LookupResult(reachableAddresses.toArray(new InetAddress[0]), minTtl(records), source, Instant.now());
+  }
+
+  /**
+   * Like {@link #toReachableAddresses(String, List, String)}, but without blocking the caller on probes.
+   *
+   * @param host    the queried host.
+   * @param records the A and AAAA records.
+   * @param source  the name service which queried the records.
+   * @return a future completing with the reachable addresses, or with an {@link UnknownHostException} if there are none.
+   */
+  static CompletableFuture<LookupResult> toReachableAddressesAsync(final String host,
+                                                                   final List<AddressRecord> records,
+                                                                   final String source) {
+    final long minTtl = minTtl(records);
+    final List<InetAddress> addresses = distinctAddresses(records);
+
+    return ReachableUtil.filterReachableAsync(addresses)
+        .thenCompose(reachableAddresses -> reachableAddresses.isEmpty()
+            ? failed(noneReachable(host, addresses))
+            : CompletableFuture.completedFuture(
+                new LookupResult(reachableAddresses.toArray(new InetAddress[0]), minTtl, source, Instant.now())));
+  }
+
+  private static UnknownHostException noneReachable(final String host, final List<InetAddress> addresses) {
+    return new UnknownHostException(
+        "Unable to resolve host [" + host + "]: none of the resolved IP addresses is reachable: " + addresses);
+  }
+
+  private static List<InetAddress> distinctAddresses(final List<AddressRecord> records) {
+    return records.stream()
+        .map(AddressRecord::getAddress)
+        .distinct()
+        .collect(Collectors.toList());
+  }
+
+  private static long minTtl(final List<AddressRecord> records) {
+    return records.stream()
+        .mapToLong(AddressRecord::getTtl)
+        .min()
+        .orElse(0L);
+  }
+
+  private static InetAddress toInetAddress(final Record addressRecord) {
+    switch (addressRecord.getType()) {
+      case Type.A:
+        return ((ARecord) addressRecord).getAddress();
+      case Type.AAAA:
+        return ((AAAARecord) addressRecord).getAddress();
+      default:
+        throw new IllegalArgumentException("Unknown address record type: " + addressRecord);
+    }
+  }
+
+  private static InetAddress toInetAddress(final String host, final byte[] address) {
+    try {
+      return InetAddress.getByAddress(host, address);
+    } catch (final UnknownHostException unknownHostException) {
+      // cannot happen, readAddress checked the length.
+      throw new IllegalArgumentException(unknownHostException);
+    }
+  }
+
+  /**
+   * An address from an A or AAAA record and the record's TTL.
+   */
+  static final class AddressRecord {
+
+    private final InetAddress address;
+
+    private final long ttl;
+
+    AddressRecord(final InetAddress address, final long ttl) {
+      this.address = address;
+      this.ttl = ttl;
+    }
+
+    InetAddress getAddress() {
+      return this.address;
+    }
+
+    long getTtl() {
+      return this.ttl;
+    }
+
+    @Override
+    public String toString() {
+      return new StringJoiner(", ", AddressRecord.class.getSimpleName() + "[", "]")
+          .add("address=" + this.address)
+          .add("ttl=" + this.ttl)
+          .toString();
+    }
+  }
+
+  /**
+   * The records or the failure of a single query.
+   */
+  private static final class QueryOutcome {
+
+    private final List<AddressRecord> records;
+
+    private final Throwable error;
+
+    QueryOutcome(final List<AddressRecord> records, final Throwable error) {
+      this.records = records == null ? Collections.<AddressRecord>emptyList() : records;
+      this.error = error;
+    }
+  }
+}
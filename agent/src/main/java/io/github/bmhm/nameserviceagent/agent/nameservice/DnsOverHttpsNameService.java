@@ -16,41 +16,57 @@
 
 package io.github.bmhm.nameserviceagent.agent.nameservice;
 
-import io.github.bmhm.nameserviceagent.agent.util.ReachableUtil;
+import io.github.bmhm.nameserviceagent.agent.util.ExponentialBackoff;
 import io.github.bmhm.nameserviceagent.api.AbstractProxyNameService;
+import io.github.bmhm.nameserviceagent.api.AddressFamily;
+import io.github.bmhm.nameserviceagent.api.BatchLookupResult;
+import io.github.bmhm.nameserviceagent.api.LookupResult;
 import io.github.bmhm.nameserviceagent.api.NameService;
+import io.github.bmhm.nameserviceagent.api.UpstreamUnavailableException;
 import io.github.bmhm.nameserviceagent.wire.DnsMessage;
 
-import org.xbill.DNS.AAAARecord;
-import org.xbill.DNS.ARecord;
 import org.xbill.DNS.DClass;
 import org.xbill.DNS.DohResolver;
+import org.xbill.DNS.ExtendedResolver;
 import org.xbill.DNS.Message;
 import org.xbill.DNS.Name;
 import org.xbill.DNS.Record;
 import org.xbill.DNS.Resolver;
-import org.xbill.DNS.Section;
-import org.xbill.DNS.Type;
 
 import java.io.IOException;
-import java.net.Inet4Address;
-import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Resolves hosts using DNS over HTTPS, by default using {@code https://dns.google/dns-query}.
+ *
+ * <p>All instances share one long-lived client per endpoint (see {@code nameserviceagent.doh.endpoints}), so lookups reuse
+ * warm connections. On Java 11+, dnsjava uses the JDK's {@code HttpClient}, which pools connections, multiplexes concurrent
+ * queries as HTTP/2 streams and resumes TLS sessions. On Java 8, it falls back to {@code HttpURLConnection} keep-alive.
+ * If more than one endpoint is configured, a failing endpoint is skipped.
+ * If no endpoint answers, lookups fail with an {@link UpstreamUnavailableException} and the endpoints are backed off
+ * (see {@link ExponentialBackoff}) instead of being asked again on every lookup.</p>
+ *
+ * <p>A and AAAA records are queried at the same time. Set {@code nameserviceagent.doh.family} to {@code ipv4} or {@code ipv6}
+ * to only query one of them.</p>
+ */
 public class DnsOverHttpsNameService extends AbstractProxyNameService {
 
   private static final Logger LOG = Logger.getLogger(DnsOverHttpsNameService.class.getCanonicalName());
 
-  private static final boolean PREFER_IPV4 = Boolean.getBoolean("java.net.preferIPv4Stack");
+  private static final AddressFamily FAMILY =
+      AddressFamily.fromString(System.getProperty("nameserviceagent.doh.family", "any"));
 
   /**
    * The original name service will get injected.
@@ -63,80 +79,173 @@ public class DnsOverHttpsNameService extends AbstractProxyNameService {
 
   @Override
   public InetAddress[] lookupAllHostAddr(final String host) throws UnknownHostException {
-    final Set<InetAddress> addresses = new LinkedHashSet<>();
-
-    if (PREFER_IPV4) {
-      addresses.addAll(this.lookupAllHostV4Addr(host));
-      addresses.addAll(this.lookupAllHostV6Addr(host));
-    } else {
-      addresses.addAll(this.lookupAllHostV6Addr(host));
-      addresses.addAll(this.lookupAllHostV4Addr(host));
+    return this.lookup(host).getAddresses();
+  }
+
+  /**
+   * Only sends the queries for the configured family which the caller is interested in.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  @Override
+  public InetAddress[] lookupAllHostAddr(final String host, final AddressFamily family) throws UnknownHostException {
+    return this.lookup(host, family).getAddresses();
+  }
+
+  /**
+   * Returns the reachable addresses with the minimum TTL of their A and AAAA records.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  @Override
+  public LookupResult lookup(final String host) throws UnknownHostException {
+    return this.resolve(host, FAMILY);
+  }
+
+  /**
+   * Only sends the queries for the configured family which the caller is interested in.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  @Override
+  public LookupResult lookup(final String host, final AddressFamily family) throws UnknownHostException {
+    final AddressFamily queriedFamily = FAMILY.narrow(family);
+
+    if (queriedFamily == null) {
+      throw new UnknownHostException(host);
+    }
+
+    return this.resolve(host, queriedFamily);
+  }
+
+  private LookupResult resolve(final String host, final AddressFamily queriedFamily) throws UnknownHostException {
+    final List<DnsAnswers.AddressRecord> records =
+        DnsAnswers.queryAddressRecords(queriedFamily, type -> this.doLookupAllHostRecords(host, type));
+
+    if (records.isEmpty()) {
+      throw new UnknownHostException(host);
     }
 
-    return addresses.stream()
-        .filter(ReachableUtil::isReachable)
-        .distinct()
-        .toArray(InetAddress[]::new);
+    return DnsAnswers.toReachableAddresses(host, records, this.getClass().getName());
   }
 
-  private Collection<InetAddress> lookupAllHostV4Addr(final String host) {
-    return this.doLookupAllHostAddr(host, Type.A, Inet4Address.class);
+  /**
+   * Sends the queries and probes the answers without blocking the caller.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  @Override
+  public CompletionStage<InetAddress[]> lookupAllHostAddrAsync(final String host) {
+    return DnsAnswers.queryAddressRecordsAsync(FAMILY, type -> this.doLookupAllHostRecords(host, type))
+        .thenCompose(records -> records.isEmpty()
+            ? DnsAnswers.failed(new UnknownHostException(host))
+            : DnsAnswers.toReachableAddressesAsync(host, records, this.getClass().getName()))
+        .thenApply(LookupResult::getAddresses);
   }
 
-  private Collection<InetAddress> lookupAllHostV6Addr(final String host) {
-    return this.doLookupAllHostAddr(host, Type.AAAA, Inet6Address.class);
+  /**
+   * Sends the queries for all hosts at once and probes their addresses in a single pass.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  @Override
+  public BatchLookupResult batchLookupAllHostAddr(final Collection<String> hosts) {
+    return DnsAnswers.batchLookup(
+        hosts,
+        host -> DnsAnswers.queryAddressRecordsAsync(FAMILY, type -> this.doLookupAllHostRecords(host, type)));
   }
 
-  private <T extends InetAddress> Collection<InetAddress> doLookupAllHostAddr(
+  private CompletableFuture<List<DnsAnswers.AddressRecord>> doLookupAllHostRecords(
       final String host,
-      final int type,
-      final Class<T> targetType) {
+      final int type) {
+    final DnsMessage dnsMessage;
+
     try {
       final Name hostName = Name.fromString(host + ".");
-      final Record ipv4Record = Record.newRecord(hostName, type, DClass.IN);
-      final DnsMessage dnsMessage = DnsMessage.newQuery(ipv4Record);
-
-      final Message response = this.getResolver().send(dnsMessage);
-      final List<Record> answerSection = response.getSection(Section.ANSWER);
-      final Set<InetAddress> addresses = new LinkedHashSet<>();
-
-      for (final Record answer : answerSection) {
-        if (answer.getType() != type) {
-          continue;
-        }
-
-        switch (targetType.getSimpleName()) {
-          case "Inet4Address":
-            final ARecord aRecord = (ARecord) answer;
-            final InetAddress inet4Address = aRecord.getAddress();
-            addresses.add(inet4Address);
-            break;
-          case "Inet6Address":
-            final AAAARecord aaaaRecord = (AAAARecord) answer;
-            final InetAddress inet6Address = aaaaRecord.getAddress();
-            addresses.add(inet6Address);
-            break;
-          default:
-            throw new IllegalArgumentException("Unknown target type: " + targetType);
-        }
+      final Record queryRecord = Record.newRecord(hostName, type, DClass.IN);
+      dnsMessage = DnsMessage.newQuery(queryRecord);
+    } catch (final IOException textParseException) {
+      LOG.log(Level.WARNING, "Invalid host name: [" + host + "].", textParseException);
+
+      return CompletableFuture.completedFuture(Collections.emptyList());
+    }
+
+    final long startNanos = System.nanoTime();
+
+    if (!ResolverHolder.BACKOFF.isCallAllowed(startNanos)) {
+      return DnsAnswers.failed(new UpstreamUnavailableException("DoH endpoints backed off after failures, not resolving [" + host + "]."));
+    }
+
+    return this.getResolver().sendAsync(dnsMessage)
+        .toCompletableFuture()
+        .handle((response, error) -> getAnswers(host, response, error, type, startNanos));
+  }
+
+  private static List<DnsAnswers.AddressRecord> getAnswers(final String host,
+                                                           final Message response,
+                                                           final Throwable error,
+                                                           final int type,
+                                                           final long startNanos) {
+    Throwable failure = error;
+    List<DnsAnswers.AddressRecord> answers = Collections.emptyList();
+
+    if (failure == null) {
+      try {
+        answers = DnsAnswers.getAnswers(host, response, type);
+      } catch (final UpstreamUnavailableException upstreamUnavailableException) {
+        failure = upstreamUnavailableException;
       }
+    }
 
-      return addresses;
-    } catch (final IOException javaIoIOException) {
-      LOG.log(
-          Level.WARNING,
-          "Network unreachable for DNS server response: [" + host + "].",
-          javaIoIOException);
+    if (failure != null) {
+      LOG.log(Level.FINE, failure, () -> "No valid DNS server response for [" + host + "].");
+      ResolverHolder.BACKOFF.recordFailure(startNanos, System.nanoTime());
 
-      return Collections.emptySet();
+      throw new CompletionException(DnsAnswers.upstreamUnavailable(host, failure));
     }
+
+    ResolverHolder.BACKOFF.recordSuccess();
+
+    return answers;
   }
 
   private Resolver getResolver() {
-    final DohResolver dohResolver = new DohResolver("https://dns.google/dns-query");
-    dohResolver.setTimeout(Duration.ofMillis(5000L));
+    return ResolverHolder.RESOLVER;
+  }
+
+  /**
+   * Creates the resolver for the given endpoints.
+   *
+   * @param endpoints a comma separated list of DoH URIs.
+   * @param timeout   the timeout for a single query.
+   * @return a resolver for a single endpoint, or one which fails over between all endpoints.
+   */
+  static Resolver createResolver(final String endpoints, final Duration timeout) {
+    final List<Resolver> resolvers = new ArrayList<>();
+
+    for (final String endpoint : endpoints.split(",")) {
+      if (endpoint.trim().isEmpty()) {
+        continue;
+      }
+
+      final DohResolver dohResolver = new DohResolver(endpoint.trim());
+      // sets up the http client, so do it once.
+      dohResolver.setTimeout(timeout);
+      resolvers.add(dohResolver);
+    }
+
+    if (resolvers.isEmpty()) {
+      throw new IllegalArgumentException("No DoH endpoint configured: [" + endpoints + "].");
+    }
 
-    return dohResolver;
+    if (resolvers.size() == 1) {
+      return resolvers.get(0);
+    }
+
+    final ExtendedResolver extendedResolver = new ExtendedResolver(resolvers);
+    extendedResolver.setTimeout(timeout);
+
+    return extendedResolver;
   }
 
   @Override
@@ -144,4 +253,29 @@ public class DnsOverHttpsNameService extends AbstractProxyNameService {
     throw new UnsupportedOperationException("not implemented");
   }
 
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", DnsOverHttpsNameService.class.getSimpleName() + "[", "]")
+        .add("super=" + super.toString())
+        .add("resolver=" + ResolverHolder.RESOLVER)
+        .add("backoff=" + ResolverHolder.BACKOFF)
+        .toString();
+  }
+
+  /**
+   * Lazily creates the resolver and its backoff shared by all instances.
+   */
+  private static final class ResolverHolder {
+
+    private static final Resolver RESOLVER = createResolver(
+        System.getProperty("nameserviceagent.doh.endpoints", "https://dns.google/dns-query"),
+        Duration.ofMillis(Long.getLong("nameserviceagent.doh.timeoutMs", 5000L))
+    );
+
+    private static final ExponentialBackoff BACKOFF = ExponentialBackoff.forUpstream();
+
+    private ResolverHolder() {
+      // holder class
+    }
+  }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.nameservice;
+
+import io.github.bmhm.nameserviceagent.api.AddressFamily;
+import io.github.bmhm.nameserviceagent.api.NameService;
+import io.github.bmhm.nameserviceagent.wire.TlsDnsClient;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Resolves hosts using DNS over TLS (RFC 7858), by default using {@code dns.google}.
+ *
+ * <p>All instances share a small pool of long-lived TLS connections per server (see {@code nameserviceagent.dot.servers}).
+ * Queries are pipelined on these connections and answered in any order, so a lookup on a warm connection costs one round trip
+ * without any HTTP framing. If a server fails, the next one is tried.</p>
+ */
+public class DnsOverTlsNameService extends AbstractDnsQueryNameService {
+
+  private static final int DOT_PORT = 853;
+
+  private static final AddressFamily FAMILY =
+      AddressFamily.fromString(System.getProperty("nameserviceagent.dot.family", "any"));
+
+  private static final Duration TIMEOUT = Duration.ofMillis(Long.getLong("nameserviceagent.dot.timeoutMs", 5000L));
+
+  private final List<TlsDnsClient> clients;
+
+  /**
+   * The original name service will get injected.
+   *
+   * @param originalNameService the original name service before proxying.
+   */
+  public DnsOverTlsNameService(final NameService originalNameService) {
+    this(originalNameService, ClientsHolder.CLIENTS);
+  }
+
+  DnsOverTlsNameService(final NameService originalNameService, final List<TlsDnsClient> clients) {
+    super(originalNameService, FAMILY);
+    this.clients = clients;
+  }
+
+  @Override
+  CompletableFuture<byte[]> send(final byte[] query) {
+    return this.sendFrom(query, 0);
+  }
+
+  private CompletableFuture<byte[]> sendFrom(final byte[] query, final int clientIndex) {
+    final CompletableFuture<byte[]> response = this.clients.get(clientIndex).send(query, TIMEOUT);
+
+    if (clientIndex + 1 >= this.clients.size()) {
+      return response;
+    }
+
+    // the next client connects in the background, so failing over never blocks the thread which completed the response.
+    return response.handle((message, error) -> error == null
+            ? CompletableFuture.completedFuture(message)
+            : this.sendFrom(query, clientIndex + 1))
+        .thenCompose(next -> next);
+  }
+
+  /**
+   * Creates a client per configured server.
+   *
+   * @param servers  a comma separated list of IP addresses with optional port and the name in their certificates,
+   *                 e.g. {@code 8.8.8.8:853#dns.google}.
+   * @param poolSize the number of connections per server.
+   * @return the clients in the configured order.
+   */
+  static List<TlsDnsClient> createClients(final String servers, final int poolSize) {
+    final List<TlsDnsClient> clients = new ArrayList<>();
+
+    for (final String server : servers.split(",")) {
+      if (server.trim().isEmpty()) {
+        continue;
+      }
+
+      final String[] addressAndName = server.trim().split("#", 2);
+
+      if (addressAndName.length != 2) {
+        throw new IllegalArgumentException("Missing TLS name in [" + server + "], e.g. 8.8.8.8:853#dns.google.");
+      }
+
+      final InetSocketAddress address = parseServer(addressAndName[0], DOT_PORT);
+      clients.add(TlsDnsClient.forTls(address, addressAndName[1], poolSize, TIMEOUT));
+    }
+
+    if (clients.isEmpty()) {
+      throw new IllegalArgumentException("No DoT server configured: [" + servers + "].");
+    }
+
+    return Collections.unmodifiableList(clients);
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", DnsOverTlsNameService.class.getSimpleName() + "[", "]")
+        .add("super=" + super.toString())
+        .add("clients=" + this.clients)
+        .toString();
+  }
+
+  /**
+   * Lazily creates the clients shared by all instances.
+   */
+  private static final class ClientsHolder {
+
+    private static final List<TlsDnsClient> CLIENTS = createClients(
+        System.getProperty("nameserviceagent.dot.servers", "8.8.8.8:853#dns.google,8.8.4.4:853#dns.google"),
+        Integer.getInteger("nameserviceagent.dot.connections", 2)
+    );
+
+    private ClientsHolder() {
+      // holder class
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.nameservice;
+
+import io.github.bmhm.nameserviceagent.api.AbstractProxyNameService;
+import io.github.bmhm.nameserviceagent.api.AddressFamily;
+import io.github.bmhm.nameserviceagent.api.LookupResult;
+import io.github.bmhm.nameserviceagent.api.NameService;
+import io.github.bmhm.nameserviceagent.api.UpstreamUnavailableException;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Lets concurrent lookups of the same host share a single lookup of the original name service,
+ * e.g. the next stage of a pipeline like {@code cache,singleflight,doh}.
+ *
+ * <p>The first caller does the lookup, all callers arriving while it is running wait for its result.
+ * The shared {@link LookupResult} keeps the delegate's TTL and source.
+ * An {@link UnknownHostException} is shared as well, each waiter gets its own copy.</p>
+ */
+public class SingleFlightNameService extends AbstractProxyNameService {
+
+  private final NameService delegate;
+
+  private final ConcurrentMap<String, CompletableFuture<LookupResult>> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * The original name service will get injected, its lookups are shared.
+   *
+   * @param originalNameService the original name service before proxying.
+   */
+  public SingleFlightNameService(final NameService originalNameService) {
+    this(originalNameService, originalNameService);
+  }
+
+  SingleFlightNameService(final NameService originalNameService, final NameService delegate) {
+    super(originalNameService);
+    this.delegate = delegate;
+  }
+
+  @Override
+  public InetAddress[] lookupAllHostAddr(final String host) throws UnknownHostException {
+    // each caller gets its own copy, as the JDK might reorder the returned array.
+    return this.lookup(host).getAddresses();
+  }
+
+  /**
+   * Shares the lookup of the family with concurrent lookups of the same host and family.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  @Override
+  public InetAddress[] lookupAllHostAddr(final String host, final AddressFamily family) throws UnknownHostException {
+    return this.lookup(host, family).getAddresses();
+  }
+
+  @Override
+  public LookupResult lookup(final String host) throws UnknownHostException {
+    return this.lookup(host, AddressFamily.ANY);
+  }
+
+  @Override
+  public LookupResult lookup(final String host, final AddressFamily family) throws UnknownHostException {
+    final String key = DelegateNameServices.keyOf(host, family);
+    final CompletableFuture<LookupResult> lookup = new CompletableFuture<>();
+    final CompletableFuture<LookupResult> runningLookup = this.inFlight.putIfAbsent(key, lookup);
+
+    if (runningLookup != null) {
+      return awaitLookup(runningLookup, host);
+    }
+
+    try {
+      lookup.complete(DelegateNameServices.lookup(this.delegate, host, family));
+    } catch (final UnknownHostException | RuntimeException | Error lookupException) {
+      // waiters must be woken on any failure.
+      lookup.completeExceptionally(lookupException);
+    } finally {
+      this.inFlight.remove(key, lookup);
+    }
+
+    return awaitLookup(lookup, host);
+  }
+
+  private static LookupResult awaitLookup(final CompletableFuture<LookupResult> lookup, final String host) throws UnknownHostException {
+    try {
+      return lookup.join();
+    } catch (final CompletionException completionException) {
+      final Throwable cause = completionException.getCause();
+
+      if (cause instanceof UpstreamUnavailableException) {
+        // keep the type, so a cache in front can still serve its stale answer.
+        throw new UpstreamUnavailableException(cause.getMessage(), cause);
+      }
+
+      if (cause instanceof UnknownHostException) {
+        final UnknownHostException unknownHostException = new UnknownHostException(cause.getMessage());
+        unknownHostException.initCause(cause);
+
+        throw unknownHostException;
+      }
+
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+
+      throw new IllegalStateException("Lookup of [" + host + "] failed.", cause);
+    }
+  }
+
+  int inFlightLookups() {
+    return this.inFlight.size();
+  }
+
+  @Override
+  public String getHostByAddr(final byte[] addr) throws UnknownHostException {
+    return this.delegate.getHostByAddr(addr);
+  }
+
+  public NameService getDelegate() {
+    return this.delegate;
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", SingleFlightNameService.class.getSimpleName() + "[", "]")
+        .add("super=" + super.toString())
+        .add("delegate=" + this.delegate)
+        .add("inFlight=" + this.inFlight.size())
+        .toString();
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import java.net.InetAddress;
+import java.util.StringJoiner;
+
+/**
+ * A cached reachability verdict with its remaining lifetime, e.g. to keep it across restarts.
+ */
+public final class CachedVerdict {
+
+  private final InetAddress address;
+
+  private final boolean reachable;
+
+  private final long remainingMillis;
+
+  /**
+   * Creates a verdict.
+   *
+   * @param address         the probed address.
+   * @param reachable       whether the address was reachable.
+   * @param remainingMillis the time until the verdict expires.
+   */
+  public CachedVerdict(final InetAddress address, final boolean reachable, final long remainingMillis) {
+    this.address = address;
+    this.reachable = reachable;
+    this.remainingMillis = remainingMillis;
+  }
+
+  public InetAddress getAddress() {
+    return this.address;
+  }
+
+  public boolean isReachable() {
+    return this.reachable;
+  }
+
+  public long getRemainingMillis() {
+    return this.remainingMillis;
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", CachedVerdict.class.getSimpleName() + "[", "]")
+        .add("address=" + this.address)
+        .add("reachable=" + this.reachable)
+        .add("remainingMillis=" + this.remainingMillis)
+        .toString();
+  }
+}
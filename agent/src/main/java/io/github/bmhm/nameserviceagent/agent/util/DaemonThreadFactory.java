@@ -0,0 +1,47 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads, so the agent never keeps the JVM from shutting down.
+ */
+public final class DaemonThreadFactory implements ThreadFactory {
+
+  private final String namePrefix;
+
+  private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+  /**
+   * Creates a thread factory for threads named {@code nameserviceagent-<purpose>-<number>}.
+   *
+   * @param purpose the name of the threads' purpose.
+   */
+  public DaemonThreadFactory(final String purpose) {
+    this.namePrefix = "nameserviceagent-" + purpose + "-";
+  }
+
+  @Override
+  public Thread newThread(final Runnable runnable) {
+    final Thread thread = new Thread(runnable, this.namePrefix + this.threadNumber.getAndIncrement());
+    thread.setDaemon(true);
+
+    return thread;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the failures of an upstream resolver, so it is retried with an exponentially growing delay instead of on every lookup.
+ *
+ * <p>After the first failure, calls are refused for the initial delay. Once it ended, a single trial call is let through
+ * and the others are refused for another delay, so an outage never piles up threads waiting for a timeout.
+ * Each failure of a call started after the last recorded failure doubles the delay, up to the maximum delay.
+ * Any success resets it. Checking whether a call is allowed does not take a lock.</p>
+ */
+public final class ExponentialBackoff {
+
+  private static final long INITIAL_DELAY_MS = Long.getLong("nameserviceagent.upstream.backoffInitialMs", 500L);
+
+  private static final long MAX_DELAY_MS = Long.getLong("nameserviceagent.upstream.backoffMaxMs", 30_000L);
+
+  private final long initialDelayNanos;
+
+  private final long maxDelayNanos;
+
+  private volatile int failures;
+
+  private volatile long delayNanos;
+
+  private volatile long failedAtNanos;
+
+  private final AtomicLong retryAtNanos = new AtomicLong();
+
+  /**
+   * Creates a new backoff.
+   *
+   * @param initialDelayMs the delay after the first failure.
+   * @param maxDelayMs     the maximum delay.
+   */
+  public ExponentialBackoff(final long initialDelayMs, final long maxDelayMs) {
+    this.initialDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, initialDelayMs));
+    this.maxDelayNanos = Math.max(this.initialDelayNanos, TimeUnit.MILLISECONDS.toNanos(maxDelayMs));
+  }
+
+  /**
+   * Creates a backoff configured by {@code nameserviceagent.upstream.backoffInitialMs}
+   * and {@code nameserviceagent.upstream.backoffMaxMs}.
+   *
+   * @return a new backoff for an upstream resolver.
+   */
+  public static ExponentialBackoff forUpstream() {
+    return new ExponentialBackoff(INITIAL_DELAY_MS, MAX_DELAY_MS);
+  }
+
+  /**
+   * Whether the upstream may be called now. After a failure, only one call per delay is allowed.
+   *
+   * @param nowNanos the current {@link System#nanoTime()}, also the start time to pass to {@link #recordFailure(long, long)}.
+   * @return {@code true} if the upstream did not fail, or this is the trial call after the delay.
+   */
+  public boolean isCallAllowed(final long nowNanos) {
+    if (this.failures == 0) {
+      return true;
+    }
+
+    final long retryAt = this.retryAtNanos.get();
+
+    // only the caller moving the retry time forward makes the trial call.
+    return nowNanos - retryAt >= 0 && this.retryAtNanos.compareAndSet(retryAt, nowNanos + this.delayNanos);
+  }
+
+  /**
+   * Resets the delay after the upstream answered.
+   */
+  public void recordSuccess() {
+    if (this.failures != 0) {
+      this.failures = 0;
+    }
+  }
+
+  /**
+   * Starts or grows the delay after the upstream failed. Failures of calls started before the last failure was recorded
+   * (i.e. concurrent calls failing together) do not grow it further.
+   *
+   * @param callStartNanos the {@link System#nanoTime()} when the failed call was allowed.
+   * @param nowNanos       the current {@link System#nanoTime()}.
+   */
+  public synchronized void recordFailure(final long callStartNanos, final long nowNanos) {
+    if (this.failures != 0 && callStartNanos - this.failedAtNanos < 0) {
+      return;
+    }
+
+    final int shift = Math.min(this.failures, Long.numberOfLeadingZeros(this.initialDelayNanos) - 1);
+    this.delayNanos = Math.min(this.maxDelayNanos, this.initialDelayNanos << shift);
+    this.failedAtNanos = nowNanos;
+    this.retryAtNanos.set(nowNanos + this.delayNanos);
+    this.failures = this.failures + 1;
+  }
+
+  public int getFailures() {
+    return this.failures;
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", ExponentialBackoff.class.getSimpleName() + "[", "]")
+        .add("failures=" + this.failures)
+        .add("maxDelayMs=" + TimeUnit.NANOSECONDS.toMillis(this.maxDelayNanos))
+        .toString();
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of every address seen in a lookup and re-probes them in the background,
+ * so a lookup only needs to read the health table.
+ *
+ * <p>Addresses never seen before are probed inline once. Addresses not seen in a lookup for a while are forgotten.
+ * An address whose previous background probe is still running is skipped, so at most one probe per address is queued.</p>
+ */
+final class HealthChecker {
+
+  private static final Logger LOG = Logger.getLogger(HealthChecker.class.getCanonicalName());
+
+  private final Map<InetAddress, TrackedAddress> healthTable = new ConcurrentHashMap<>();
+
+  private final Predicate<InetAddress> probe;
+
+  private final Function<Collection<InetAddress>, List<InetAddress>> inlineFilter;
+
+  private final Executor executor;
+
+  private final Executor checkExecutor;
+
+  private final long forgetAfterNanos;
+
+  private final int maxAddresses;
+
+  /**
+   * Creates a new health checker. It does not check anything before {@link #start(ScheduledExecutorService, long)} is called.
+   *
+   * @param probe           the probe used in the background, should not use any cache.
+   * @param inlineFilter    the filter for addresses seen for the first time.
+   * @param executor        the executor to probe addresses never seen before on, if called asynchronously.
+   * @param checkExecutor   the executor to run the background probes on, should have a bounded queue.
+   * @param forgetAfterMs   the time after which an address not seen in a lookup is not checked anymore.
+   * @param maxAddresses    the maximum number of tracked addresses. Further addresses are always probed inline.
+   */
+  HealthChecker(final Predicate<InetAddress> probe,
+                final Function<Collection<InetAddress>, List<InetAddress>> inlineFilter,
+                final Executor executor,
+                final Executor checkExecutor,
+                final long forgetAfterMs,
+                final int maxAddresses) {
+    this.probe = probe;
+    this.inlineFilter = inlineFilter;
+    this.executor = executor;
+    this.checkExecutor = checkExecutor;
+    this.forgetAfterNanos = TimeUnit.MILLISECONDS.toNanos(forgetAfterMs);
+    this.maxAddresses = maxAddresses;
+  }
+
+  /**
+   * Schedules the background checks.
+   *
+   * @param scheduler  the scheduler to run the checks.
+   * @param intervalMs the delay between the end of one check of all addresses and the start of the next one.
+   */
+  void start(final ScheduledExecutorService scheduler, final long intervalMs) {
+    scheduler.scheduleWithFixedDelay(() -> this.checkAllQuietly(intervalMs), intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns the healthy addresses, retaining their original order. Only addresses never seen before are probed.
+   *
+   * @param addresses the addresses returned by a lookup.
+   * @return the healthy addresses in the same order as given.
+   */
+  List<InetAddress> filterHealthy(final Collection<InetAddress> addresses) {
+    final long now = System.nanoTime();
+    final List<InetAddress> unknownAddresses = new ArrayList<>(0);
+
+    for (final InetAddress address : addresses) {
+      final TrackedAddress trackedAddress = this.healthTable.get(address);
+
+      if (trackedAddress == null) {
+        unknownAddresses.add(address);
+      } else {
+        trackedAddress.lastSeenNanos = now;
+      }
+    }
+
+    final Set<InetAddress> reachableUnknownAddresses = new HashSet<>(0);
+
+    if (!unknownAddresses.isEmpty()) {
+      reachableUnknownAddresses.addAll(this.inlineFilter.apply(unknownAddresses));
+
+      for (final InetAddress unknownAddress : unknownAddresses) {
+        this.track(unknownAddress, reachableUnknownAddresses.contains(unknownAddress), now);
+      }
+    }
+
+    final List<InetAddress> healthyAddresses = new ArrayList<>(addresses.size());
+
+    for (final InetAddress address : addresses) {
+      if (reachableUnknownAddresses.contains(address) || this.isHealthy(address)) {
+        healthyAddresses.add(address);
+      }
+    }
+
+    return healthyAddresses;
+  }
+
+  /**
+   * Like {@link #filterHealthy(Collection)}, but without blocking the caller on probes.
+   *
+   * <p>If all addresses were seen before, the result is computed right away.
+   * Otherwise the addresses never seen before are probed on the executor.</p>
+   *
+   * @param addresses the addresses returned by a lookup.
+   * @return a future completing with the healthy addresses in the same order as given.
+   */
+  CompletableFuture<List<InetAddress>> filterHealthyAsync(final Collection<InetAddress> addresses) {
+    if (this.healthTable.keySet().containsAll(addresses)) {
+      return CompletableFuture.completedFuture(this.filterHealthy(addresses));
+    }
+
+    return CompletableFuture.supplyAsync(() -> this.filterHealthy(addresses), this.executor);
+  }
+
+  private boolean isHealthy(final InetAddress address) {
+    final TrackedAddress trackedAddress = this.healthTable.get(address);
+
+    return trackedAddress != null && trackedAddress.healthy;
+  }
+
+  private void track(final InetAddress address, final boolean healthy, final long now) {
+    if (this.healthTable.size() >= this.maxAddresses) {
+      return;
+    }
+
+    this.healthTable.putIfAbsent(address, new TrackedAddress(healthy, now));
+  }
+
+  /**
+   * Forgets addresses not seen for a while and probes all others, waiting at most the given time.
+   * Addresses still being probed from a previous call are skipped, as are all remaining addresses once the executor rejects a probe.
+   *
+   * @param timeoutMs the time to wait for all probes to finish.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  void checkAll(final long timeoutMs) throws InterruptedException {
+    final long now = System.nanoTime();
+    this.healthTable.values().removeIf(trackedAddress -> now - trackedAddress.lastSeenNanos > this.forgetAfterNanos);
+
+    final List<CompletableFuture<Void>> checks = new ArrayList<>(this.healthTable.size());
+
+    for (final Map.Entry<InetAddress, TrackedAddress> entry : this.healthTable.entrySet()) {
+      final InetAddress address = entry.getKey();
+      final TrackedAddress trackedAddress = entry.getValue();
+
+      if (trackedAddress.checking) {
+        continue;
+      }
+
+      // only this thread starts checks, so there is no race between reading and setting the flag.
+      trackedAddress.checking = true;
+
+      try {
+        checks.add(CompletableFuture.runAsync(() -> this.check(address, trackedAddress), this.checkExecutor));
+      } catch (final RejectedExecutionException rejectedException) {
+        trackedAddress.checking = false;
+        LOG.log(Level.FINE, rejectedException, () -> "Health check queue is full, skipping the remaining addresses.");
+        break;
+      }
+    }
+
+    try {
+      CompletableFuture.allOf(checks.toArray(new CompletableFuture<?>[0])).get(timeoutMs, TimeUnit.MILLISECONDS);
+    } catch (final ExecutionException | TimeoutException checkException) {
+      LOG.log(Level.FINE, checkException, () -> "Not all of [" + checks.size() + "] health checks finished.");
+    }
+  }
+
+  private void check(final InetAddress address, final TrackedAddress trackedAddress) {
+    try {
+      trackedAddress.healthy = this.probe.test(address);
+    } finally {
+      trackedAddress.checking = false;
+    }
+  }
+
+  private void checkAllQuietly(final long timeoutMs) {
+    try {
+      this.checkAll(timeoutMs);
+    } catch (final InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+    } catch (final RuntimeException runtimeException) {
+      // an exception would cancel all further checks.
+      LOG.log(Level.WARNING, "Health check failed.", runtimeException);
+    }
+  }
+
+  int size() {
+    return this.healthTable.size();
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", HealthChecker.class.getSimpleName() + "[", "]")
+        .add("trackedAddresses=" + this.healthTable.size())
+        .add("maxAddresses=" + this.maxAddresses)
+        .toString();
+  }
+
+  private static final class TrackedAddress {
+
+    private volatile boolean healthy;
+
+    private volatile long lastSeenNanos;
+
+    private volatile boolean checking;
+
+    TrackedAddress(final boolean healthy, final long lastSeenNanos) {
+      this.healthy = healthy;
+      this.lastSeenNanos = lastSeenNanos;
+    }
+  }
+}
@@ -18,11 +18,78 @@ package io.github.bmhm.nameserviceagent.agent.util;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
 
+/**
+ * Sends an ICMP echo request using {@link InetAddress#isReachable(int)}.
+ *
+ * <p>Without the privilege to open a raw socket, the JDK silently connects to the TCP echo port instead and counts a refused
+ * connection as reachable. This tester is therefore only used if the privilege is there.</p>
+ */
 class IcmpTester implements ReachableTester {
 
+  private static final String OS_NAME = System.getProperty("os.name").toLowerCase(Locale.ENGLISH);
+
+  private static final Path PROC_STATUS = Paths.get("/proc/self/status");
+
+  /**
+   * The Linux capability needed to open a raw socket.
+   */
+  private static final int CAP_NET_RAW = 13;
+
+  private static final String CAP_EFFECTIVE = "CapEff:";
+
+  private static final int HEX = 16;
+
   @Override
   public boolean isReachable(final InetAddress addressToTest, final int timeoutMs) throws IOException {
     return addressToTest.isReachable(timeoutMs);
   }
+
+  /**
+   * Checks whether the JDK can send ICMP echo requests itself, i.e. may open a raw socket.
+   *
+   * <p>{@inheritDoc}</p>
+   */
+  @Override
+  public boolean isSupported() {
+    if (OS_NAME.startsWith("win")) {
+      // uses the IP helper API, which needs no privilege.
+      return true;
+    }
+
+    if (OS_NAME.startsWith("linux")) {
+      return hasCapability(PROC_STATUS, CAP_NET_RAW);
+    }
+
+    return "root".equals(System.getProperty("user.name"));
+  }
+
+  /**
+   * Checks whether this process has the given capability in its effective set.
+   *
+   * @param procStatus the status file of this process, i.e. {@code /proc/self/status}.
+   * @param capability the number of the capability.
+   * @return {@code true} if the capability is effective, or if the status file cannot be read.
+   */
+  static boolean hasCapability(final Path procStatus, final int capability) {
+    try {
+      for (final String line : Files.readAllLines(procStatus, StandardCharsets.US_ASCII)) {
+        if (line.startsWith(CAP_EFFECTIVE)) {
+          final long effective = Long.parseUnsignedLong(line.substring(CAP_EFFECTIVE.length()).trim(), HEX);
+
+          return (effective & (1L << capability)) != 0L;
+        }
+      }
+    } catch (final IOException | NumberFormatException procStatusException) {
+      // cannot tell, let the probe of loopback decide.
+      return true;
+    }
+
+    return true;
+  }
 }
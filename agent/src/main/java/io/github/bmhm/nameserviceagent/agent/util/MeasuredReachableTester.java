@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps a {@link ReachableTester} and records how often and how fast it produces a positive answer.
+ *
+ * <p>Runs which were interrupted, e.g. cancelled because another tester answered first, are not recorded.</p>
+ */
+final class MeasuredReachableTester implements ReachableTester {
+
+  /**
+   * Testers with less attempts are ranked first, so they get a chance to prove themselves.
+   */
+  static final long MIN_ATTEMPTS = 16L;
+
+  private final ReachableTester delegate;
+
+  private final LongAdder attempts = new LongAdder();
+
+  private final LongAdder positives = new LongAdder();
+
+  private final LongAdder failures = new LongAdder();
+
+  private final LongAdder totalNanos = new LongAdder();
+
+  MeasuredReachableTester(final ReachableTester delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public boolean isReachable(final InetAddress addressToTest, final int timeoutMs) throws IOException {
+    final long start = System.nanoTime();
+
+    try {
+      final boolean reachable = this.delegate.isReachable(addressToTest, timeoutMs);
+      this.record(start, reachable, false);
+
+      return reachable;
+    } catch (final ClosedByInterruptException interruptedException) {
+      // cancelled, not failed.
+      throw interruptedException;
+    } catch (final IOException ioException) {
+      this.record(start, false, true);
+
+      throw ioException;
+    }
+  }
+
+  private void record(final long start, final boolean positive, final boolean failure) {
+    if (Thread.currentThread().isInterrupted()) {
+      // the answer of a cancelled run says nothing about this tester.
+      return;
+    }
+
+    this.attempts.increment();
+    this.totalNanos.add(System.nanoTime() - start);
+
+    if (positive) {
+      this.positives.increment();
+    }
+
+    if (failure) {
+      this.failures.increment();
+    }
+  }
+
+  /**
+   * Checks whether this tester works at all in this environment, by probing an address which must be reachable.
+   *
+   * @param alwaysReachable an address which is always reachable, e.g. loopback.
+   * @param timeoutMs       the timeout for the probe.
+   * @return {@code true} if the tester is supported and could reach the given address.
+   */
+  boolean isAvailable(final InetAddress alwaysReachable, final int timeoutMs) {
+    if (!this.delegate.isSupported()) {
+      return false;
+    }
+
+    try {
+      return this.delegate.isReachable(alwaysReachable, timeoutMs);
+    } catch (final IOException ioException) {
+      return false;
+    }
+  }
+
+  /**
+   * Positive answers per second spent in this tester. Higher is better.
+   *
+   * @return the score of this tester, or {@link Double#MAX_VALUE} if there are not enough samples yet.
+   */
+  double getScore() {
+    final long attemptCount = this.attempts.sum();
+
+    if (attemptCount < MIN_ATTEMPTS) {
+      return Double.MAX_VALUE;
+    }
+
+    return this.positives.sum() * 1_000_000_000.0d / Math.max(1L, this.totalNanos.sum());
+  }
+
+  long getAttempts() {
+    return this.attempts.sum();
+  }
+
+  String getName() {
+    return this.delegate.getClass().getSimpleName();
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", MeasuredReachableTester.class.getSimpleName() + "[", "]")
+        .add("delegate=" + this.getName())
+        .add("attempts=" + this.attempts.sum())
+        .add("positives=" + this.positives.sum())
+        .add("failures=" + this.failures.sum())
+        .add("totalNanos=" + this.totalNanos.sum())
+        .toString();
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tests for open (or actively closed) TCP ports using the shared {@link SelectorProbeEngine},
+ * so no thread is blocked per connection attempt.
+ *
+ * <p>The ports are configured by {@code nameserviceagent.reachable.ports}, see {@link ProbePorts}.
+ * If more than one port is configured for a host, all are probed at once and any answering port wins.</p>
+ */
+class NioSocketTester implements ReachableTester {
+
+  private static final ProbePorts PROBE_PORTS = ProbePorts.parse(System.getProperty("nameserviceagent.reachable.ports", "80"));
+
+  private final ProbePorts probePorts;
+
+  NioSocketTester() {
+    this(PROBE_PORTS);
+  }
+
+  NioSocketTester(final ProbePorts probePorts) {
+    this.probePorts = probePorts;
+  }
+
+  @Override
+  public boolean isReachable(final InetAddress addressToTest, final int timeoutMs) throws IOException {
+    final CompletableFuture<Boolean> probe = this.probeAsync(addressToTest, timeoutMs);
+
+    try {
+      // the engine enforces the timeout itself, this is just a safety net.
+      return probe.get(2L * timeoutMs, TimeUnit.MILLISECONDS);
+    } catch (final InterruptedException interruptedException) {
+      probe.cancel(true);
+      Thread.currentThread().interrupt();
+
+      return false;
+    } catch (final TimeoutException timeoutException) {
+      probe.cancel(true);
+
+      return false;
+    } catch (final ExecutionException executionException) {
+      if (executionException.getCause() instanceof IOException) {
+        throw (IOException) executionException.getCause();
+      }
+
+      throw new IOException(executionException.getCause());
+    }
+  }
+
+  /**
+   * Probes all configured ports of the given address at once.
+   *
+   * @param addressToTest the address to probe.
+   * @param timeoutMs     the timeout for each port.
+   * @return a future completing with {@code true} as soon as any port answered.
+   * @throws IOException if the probe engine could not be started.
+   */
+  CompletableFuture<Boolean> probeAsync(final InetAddress addressToTest, final int timeoutMs) throws IOException {
+    final SelectorProbeEngine engine = SelectorProbeEngine.getInstance();
+    final int[] ports = this.probePorts.getPorts(addressToTest);
+
+    if (ports.length == 1) {
+      return engine.probe(new InetSocketAddress(addressToTest, ports[0]), timeoutMs);
+    }
+
+    final CompletableFuture<Boolean> anyReachable = new CompletableFuture<>();
+    final CompletableFuture<?>[] portProbes = new CompletableFuture<?>[ports.length];
+
+    for (int portIndex = 0; portIndex < ports.length; portIndex++) {
+      final CompletableFuture<Boolean> portProbe = engine.probe(new InetSocketAddress(addressToTest, ports[portIndex]), timeoutMs);
+      portProbe.thenAccept(reachable -> {
+        if (reachable) {
+          anyReachable.complete(true);
+        }
+      });
+      portProbes[portIndex] = portProbe;
+    }
+
+    CompletableFuture.allOf(portProbes).whenComplete((ignored, error) -> {
+      if (error != null) {
+        anyReachable.completeExceptionally(error.getCause() == null ? error : error.getCause());
+      } else {
+        anyReachable.complete(false);
+      }
+    });
+    // cancelling the combined probe aborts all port probes.
+    anyReachable.whenComplete((ignored, error) -> {
+      for (final CompletableFuture<?> portProbe : portProbes) {
+        portProbe.cancel(true);
+      }
+    });
+
+    return anyReachable;
+  }
+}
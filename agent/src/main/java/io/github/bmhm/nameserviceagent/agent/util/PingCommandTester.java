@@ -25,16 +25,22 @@ public class PingCommandTester implements ReachableTester {
 
   private static final String OS_NAME = System.getProperty("os.name").toLowerCase(Locale.ENGLISH);
 
+  /**
+   * Forks a {@code ping} process. If the calling thread gets interrupted (e.g. because another tester already succeeded),
+   * the process is destroyed.
+   *
+   * <p>{@inheritDoc}</p>
+   */
   @Override
   public boolean isReachable(final InetAddress addressToTest, final int timeoutMs) throws IOException {
+    final ProcessBuilder pingCommandBuilder =
+        new ProcessBuilder().command("ping", this.getNumberFlag(), "1", this.toStringIp(addressToTest));
+    final Process pingCommand = pingCommandBuilder.start();
+
     try {
-      final ProcessBuilder pingCommandBuilder =
-          new ProcessBuilder().command("ping", this.getNumberFlag(), "1", this.toStringIp(addressToTest));
-      final Process pingCommand = pingCommandBuilder.start();
       final boolean exited = pingCommand.waitFor(timeoutMs, TimeUnit.MILLISECONDS);
 
       if (!exited) {
-        pingCommand.destroy();
         return false;
       }
 
@@ -42,7 +48,13 @@ public class PingCommandTester implements ReachableTester {
 
       return exitValue == 0;
     } catch (final InterruptedException javaLangInterruptedException) {
+      Thread.currentThread().interrupt();
+
       return false;
+    } finally {
+      if (pingCommand.isAlive()) {
+        pingCommand.destroyForcibly();
+      }
     }
 
   }
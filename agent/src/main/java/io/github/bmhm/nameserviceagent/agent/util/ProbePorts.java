@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.logging.Logger;
+
+/**
+ * The TCP ports to probe, optionally per host.
+ *
+ * <p>The format is a semicolon separated list of port lists. A port list without a host is the default,
+ * e.g. {@code 80,443;db.example.com=5432;10.0.0.1=22}. Hosts can be given by name or by IP literal.
+ * Invalid ports are logged and ignored. A port list without any valid port falls back to port 80.</p>
+ */
+final class ProbePorts {
+
+  private static final Logger LOG = Logger.getLogger(ProbePorts.class.getCanonicalName());
+
+  private static final int[] DEFAULT_PORTS = {80};
+
+  private static final int MAX_PORT = 0xFFFF;
+
+  private final int[] defaultPorts;
+
+  private final Map<String, int[]> hostPorts;
+
+  private ProbePorts(final int[] defaultPorts, final Map<String, int[]> hostPorts) {
+    this.defaultPorts = defaultPorts;
+    this.hostPorts = hostPorts;
+  }
+
+  static ProbePorts parse(final String specification) {
+    int[] defaultPorts = DEFAULT_PORTS;
+    final Map<String, int[]> hostPorts = new HashMap<>();
+
+    for (final String entry : specification.split(";")) {
+      final String trimmedEntry = entry.trim();
+
+      if (trimmedEntry.isEmpty()) {
+        continue;
+      }
+
+      final int separator = trimmedEntry.indexOf('=');
+
+      if (separator == -1) {
+        defaultPorts = parsePorts(trimmedEntry);
+      } else {
+        final String host = trimmedEntry.substring(0, separator).trim().toLowerCase(Locale.ROOT);
+        hostPorts.put(host, parsePorts(trimmedEntry.substring(separator + 1)));
+      }
+    }
+
+    return new ProbePorts(defaultPorts, hostPorts);
+  }
+
+  private static int[] parsePorts(final String portList) {
+    final int[] ports = Arrays.stream(portList.split(","))
+        .map(String::trim)
+        .filter(port -> !port.isEmpty())
+        .mapToInt(ProbePorts::parsePort)
+        .filter(port -> port != -1)
+        .toArray();
+
+    return ports.length == 0 ? DEFAULT_PORTS : ports;
+  }
+
+  private static int parsePort(final String port) {
+    try {
+      final int parsedPort = Integer.parseInt(port);
+
+      if (parsedPort > 0 && parsedPort <= MAX_PORT) {
+        return parsedPort;
+      }
+    } catch (final NumberFormatException numberFormatException) {
+      // logged below.
+    }
+
+    LOG.warning(() -> "Ignoring invalid port [" + port + "] in nameserviceagent.reachable.ports.");
+
+    return -1;
+  }
+
+  /**
+   * Returns the ports to probe for the given address, looked up by IP literal first and then by the host name
+   * the address was resolved for. Never triggers a reverse lookup.
+   *
+   * @param address the address to probe.
+   * @return the ports to probe.
+   */
+  int[] getPorts(final InetAddress address) {
+    if (this.hostPorts.isEmpty()) {
+      return this.defaultPorts;
+    }
+
+    final int[] literalPorts = this.hostPorts.get(address.getHostAddress());
+
+    if (literalPorts != null) {
+      return literalPorts;
+    }
+
+    // toString() is "hostname/literal" and, unlike getHostName(), does not do a reverse lookup.
+    final String addressString = address.toString();
+    final int slash = addressString.indexOf('/');
+
+    if (slash > 0) {
+      return this.hostPorts.getOrDefault(addressString.substring(0, slash).toLowerCase(Locale.ROOT), this.defaultPorts);
+    }
+
+    return this.defaultPorts;
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", ProbePorts.class.getSimpleName() + "[", "]")
+        .add("defaultPorts=" + Arrays.toString(this.defaultPorts))
+        .add("hostPorts=" + this.hostPorts.keySet())
+        .toString();
+  }
+}
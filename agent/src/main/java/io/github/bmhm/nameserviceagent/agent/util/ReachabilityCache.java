@@ -0,0 +1,341 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers reachability verdicts per address, with separate TTLs for reachable and unreachable addresses.
+ *
+ * <p>IPv4 verdicts live in a direct-mapped table of packed longs (address, verdict, expiry), so neither a lookup
+ * nor an update allocates. Two addresses sharing a slot simply overwrite each other. IPv6 verdicts are kept in a map.</p>
+ *
+ * <p>Additionally, a {@link java.net.NoRouteToHostException} marks the whole prefix of the address
+ * ({@code /24} for IPv4, {@code /64} for IPv6) as unreachable for a short time.</p>
+ *
+ * <p>Expiry times are stored in ticks of 100ms since this cache was created, which lasts for years of uptime.</p>
+ */
+final class ReachabilityCache {
+
+  /**
+   * A cached verdict.
+   */
+  enum Verdict {
+    UNKNOWN,
+    REACHABLE,
+    UNREACHABLE
+  }
+
+  private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+
+  private static final long EXPIRY_MASK = 0x7FFF_FFFFL;
+
+  private static final long REACHABLE_BIT = 1L << 31;
+
+  private static final int MAX_ROUTES = 1024;
+
+  private final long epoch = System.nanoTime();
+
+  private final long reachableTtlTicks;
+
+  private final long unreachableTtlTicks;
+
+  private final long routeTtlTicks;
+
+  private final AtomicLongArray ipv4Slots;
+
+  private final int slotMask;
+
+  private final int maxIpv6Entries;
+
+  private final Map<InetAddress, Long> ipv6Entries = new ConcurrentHashMap<>();
+
+  private final Map<Integer, Long> ipv4Routes = new ConcurrentHashMap<>();
+
+  private final Map<Long, Long> ipv6Routes = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a new cache. A TTL of zero disables caching of the respective verdict.
+   *
+   * @param reachableTtlMs   how long a reachable verdict is kept.
+   * @param unreachableTtlMs how long an unreachable verdict is kept.
+   * @param routeTtlMs       how long a prefix is considered unreachable after a {@link java.net.NoRouteToHostException}.
+   * @param size             the number of IPv4 slots (rounded up to a power of two) and maximum number of IPv6 entries.
+   */
+  ReachabilityCache(final long reachableTtlMs, final long unreachableTtlMs, final long routeTtlMs, final int size) {
+    this.reachableTtlTicks = toTicks(reachableTtlMs);
+    this.unreachableTtlTicks = toTicks(unreachableTtlMs);
+    this.routeTtlTicks = toTicks(routeTtlMs);
+    final int slots = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+    this.ipv4Slots = new AtomicLongArray(slots);
+    this.slotMask = slots - 1;
+    this.maxIpv6Entries = size;
+  }
+
+  private static long toTicks(final long millis) {
+    return (TimeUnit.MILLISECONDS.toNanos(millis) + TICK_NANOS - 1) / TICK_NANOS;
+  }
+
+  /**
+   * Looks up the verdict for the given address, falling back to its route.
+   *
+   * @param address the address to look up.
+   * @param nowNanos the current {@link System#nanoTime()}.
+   * @return the cached verdict, or {@link Verdict#UNKNOWN} if there is none or it expired.
+   */
+  Verdict lookup(final InetAddress address, final long nowNanos) {
+    final long nowTicks = this.ticks(nowNanos);
+    final long entry = this.readEntry(address);
+    final long expiry = entry & EXPIRY_MASK;
+
+    if (expiry != 0L && nowTicks < expiry) {
+      return (entry & REACHABLE_BIT) != 0L ? Verdict.REACHABLE : Verdict.UNREACHABLE;
+    }
+
+    if (this.isRouteUnreachable(address, nowNanos)) {
+      return Verdict.UNREACHABLE;
+    }
+
+    return Verdict.UNKNOWN;
+  }
+
+  /**
+   * Stores the verdict for the given address.
+   *
+   * @param address   the probed address.
+   * @param reachable the probe's result.
+   * @param nowNanos  the current {@link System#nanoTime()}.
+   */
+  void put(final InetAddress address, final boolean reachable, final long nowNanos) {
+    final long ttlTicks = reachable ? this.reachableTtlTicks : this.unreachableTtlTicks;
+
+    if (ttlTicks == 0L) {
+      return;
+    }
+
+    final long nowTicks = this.ticks(nowNanos);
+    this.store(address, reachable, nowTicks, nowTicks + ttlTicks);
+  }
+
+  private void store(final InetAddress address, final boolean reachable, final long nowTicks, final long expiryTicks) {
+    final long entry = (reachable ? REACHABLE_BIT : 0L) | (expiryTicks & EXPIRY_MASK);
+
+    if (address instanceof Inet4Address) {
+      final int ipv4 = toInt(address.getAddress());
+      this.ipv4Slots.set(this.slot(ipv4), ((ipv4 & 0xFFFF_FFFFL) << 32) | entry);
+
+      return;
+    }
+
+    if (this.ipv6Entries.size() >= this.maxIpv6Entries) {
+      this.pruneIpv6Entries(nowTicks);
+    }
+
+    this.ipv6Entries.put(address, entry);
+  }
+
+  /**
+   * Stores a verdict with a remaining lifetime, e.g. from a previous run. The lifetime is capped by the configured TTL.
+   *
+   * @param verdict  the verdict to restore.
+   * @param nowNanos the current {@link System#nanoTime()}.
+   */
+  void restore(final CachedVerdict verdict, final long nowNanos) {
+    final long ttlTicks = verdict.isReachable() ? this.reachableTtlTicks : this.unreachableTtlTicks;
+    final long remainingTicks = Math.min(ttlTicks, TimeUnit.MILLISECONDS.toNanos(verdict.getRemainingMillis()) / TICK_NANOS);
+
+    if (remainingTicks <= 0L) {
+      return;
+    }
+
+    final long nowTicks = this.ticks(nowNanos);
+    this.store(verdict.getAddress(), verdict.isReachable(), nowTicks, nowTicks + remainingTicks);
+  }
+
+  /**
+   * Returns all verdicts which did not expire yet. Unreachable routes are not included.
+   *
+   * @param nowNanos the current {@link System#nanoTime()}.
+   * @return the valid verdicts with their remaining lifetime.
+   */
+  List<CachedVerdict> getVerdicts(final long nowNanos) {
+    final long nowTicks = this.ticks(nowNanos);
+    final List<CachedVerdict> verdicts = new ArrayList<>();
+
+    for (int slot = 0; slot < this.ipv4Slots.length(); slot++) {
+      final long slotValue = this.ipv4Slots.get(slot);
+
+      if ((slotValue & EXPIRY_MASK) > nowTicks) {
+        addVerdict(verdicts, toIpv4Bytes((int) (slotValue >>> 32)), slotValue, nowTicks);
+      }
+    }
+
+    for (final Map.Entry<InetAddress, Long> ipv6Entry : this.ipv6Entries.entrySet()) {
+      if ((ipv6Entry.getValue() & EXPIRY_MASK) > nowTicks) {
+        addVerdict(verdicts, ipv6Entry.getKey().getAddress(), ipv6Entry.getValue(), nowTicks);
+      }
+    }
+
+    return verdicts;
+  }
+
+  private static void addVerdict(final List<CachedVerdict> verdicts, final byte[] address, final long entry, final long nowTicks) {
+    try {
+      final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(((entry & EXPIRY_MASK) - nowTicks) * TICK_NANOS);
+      verdicts.add(new CachedVerdict(InetAddress.getByAddress(address), (entry & REACHABLE_BIT) != 0L, remainingMillis));
+    } catch (final UnknownHostException unknownHostException) {
+      // only thrown for an illegal length, which cannot happen here.
+      throw new IllegalStateException(unknownHostException);
+    }
+  }
+
+  /**
+   * Marks the prefix of the given address as unreachable, e.g. after a {@link java.net.NoRouteToHostException}.
+   *
+   * @param address  the address which could not be routed to.
+   * @param nowNanos the current {@link System#nanoTime()}.
+   */
+  void markRouteUnreachable(final InetAddress address, final long nowNanos) {
+    if (this.routeTtlTicks == 0L) {
+      return;
+    }
+
+    final long nowTicks = this.ticks(nowNanos);
+    final long expiry = nowTicks + this.routeTtlTicks;
+
+    if (address instanceof Inet4Address) {
+      if (this.ipv4Routes.size() >= MAX_ROUTES) {
+        this.ipv4Routes.values().removeIf(routeExpiry -> routeExpiry <= nowTicks);
+      }
+
+      this.ipv4Routes.put(ipv4Prefix(address.getAddress()), expiry);
+
+      return;
+    }
+
+    if (this.ipv6Routes.size() >= MAX_ROUTES) {
+      this.ipv6Routes.values().removeIf(routeExpiry -> routeExpiry <= nowTicks);
+    }
+
+    this.ipv6Routes.put(ipv6Prefix(address.getAddress()), expiry);
+  }
+
+  /**
+   * Checks whether the prefix of the given address was recently found to be unroutable.
+   *
+   * @param address  the address to check.
+   * @param nowNanos the current {@link System#nanoTime()}.
+   * @return {@code true} if there was no route to the prefix of the address recently.
+   */
+  boolean isRouteUnreachable(final InetAddress address, final long nowNanos) {
+    if (this.ipv4Routes.isEmpty() && this.ipv6Routes.isEmpty()) {
+      return false;
+    }
+
+    final Long expiry;
+
+    if (address instanceof Inet4Address) {
+      expiry = this.ipv4Routes.get(ipv4Prefix(address.getAddress()));
+    } else {
+      expiry = this.ipv6Routes.get(ipv6Prefix(address.getAddress()));
+    }
+
+    return expiry != null && this.ticks(nowNanos) < expiry;
+  }
+
+  private long readEntry(final InetAddress address) {
+    if (address instanceof Inet4Address) {
+      final int ipv4 = toInt(address.getAddress());
+      final long slotValue = this.ipv4Slots.get(this.slot(ipv4));
+
+      if ((int) (slotValue >>> 32) != ipv4) {
+        // empty or taken by another address.
+        return 0L;
+      }
+
+      return slotValue;
+    }
+
+    return this.ipv6Entries.getOrDefault(address, 0L);
+  }
+
+  private void pruneIpv6Entries(final long nowTicks) {
+    this.ipv6Entries.values().removeIf(entry -> (entry & EXPIRY_MASK) <= nowTicks);
+
+    if (this.ipv6Entries.size() >= this.maxIpv6Entries) {
+      // all still valid, start over rather than growing without bounds.
+      this.ipv6Entries.clear();
+    }
+  }
+
+  private long ticks(final long nowNanos) {
+    return (nowNanos - this.epoch) / TICK_NANOS;
+  }
+
+  private int slot(final int ipv4) {
+    // spread the bits, hosts in the same network differ in the lowest bits only.
+    final int hash = ipv4 * 0x9E37_79B9;
+
+    return (hash ^ (hash >>> 16)) & this.slotMask;
+  }
+
+  private static int toInt(final byte[] ipv4) {
+    int address = 0;
+
+    for (final byte addressByte : ipv4) {
+      address = (address << 8) | (addressByte & 0xFF);
+    }
+
+    return address;
+  }
+
+  private static byte[] toIpv4Bytes(final int ipv4) {
+    return new byte[] {(byte) (ipv4 >>> 24), (byte) (ipv4 >>> 16), (byte) (ipv4 >>> 8), (byte) ipv4};
+  }
+
+  private static Integer ipv4Prefix(final byte[] ipv4) {
+    return toInt(ipv4) >>> 8;
+  }
+
+  private static Long ipv6Prefix(final byte[] ipv6) {
+    long prefix = 0L;
+
+    for (int byteIndex = 0; byteIndex < 8; byteIndex++) {
+      prefix = (prefix << 8) | (ipv6[byteIndex] & 0xFFL);
+    }
+
+    return prefix;
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", ReachabilityCache.class.getSimpleName() + "[", "]")
+        .add("ipv4Slots=" + this.ipv4Slots.length())
+        .add("ipv6Entries=" + this.ipv6Entries.size())
+        .add("unreachableRoutes=" + (this.ipv4Routes.size() + this.ipv6Routes.size()))
+        .toString();
+  }
+}
@@ -22,4 +22,13 @@ import java.net.InetAddress;
 interface ReachableTester {
 
   boolean isReachable(InetAddress addressToTest, int timeoutMs) throws IOException;
+
+  /**
+   * Checks whether this tester can work in this environment at all, before probing anything.
+   *
+   * @return {@code false} if the tester lacks something it needs, e.g. a privilege.
+   */
+  default boolean isSupported() {
+    return true;
+  }
 }
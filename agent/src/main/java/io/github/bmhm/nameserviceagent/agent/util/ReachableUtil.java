@@ -18,40 +18,545 @@ package io.github.bmhm.nameserviceagent.agent.util;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.NoRouteToHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public final class ReachableUtil {
 
-  private static final Integer TIMEOUT_MS = Integer.getInteger("nameserviceagent.reachable.timeoutMs", 100);
+  private static final Logger LOG = Logger.getLogger(ReachableUtil.class.getCanonicalName());
+
+  private static final int TIMEOUT_MS = Integer.getInteger("nameserviceagent.reachable.timeoutMs", 100);
 
   private static final ReachableTester[] REACHABLE_TESTS = new ReachableTester[] {
       new IcmpTester(),
       new PingCommandTester(),
-      new SocketOpenTester()
+      new NioSocketTester()
   };
 
+  /**
+   * Number of probes after which the testers are reordered by their score.
+   */
+  private static final long REORDER_INTERVAL = 64L;
+
+  private static final AtomicLong PROBE_COUNTER = new AtomicLong();
+
+  private static final MeasuredReachableTester[] MEASURED_TESTS = Arrays.stream(REACHABLE_TESTS)
+      .map(MeasuredReachableTester::new)
+      .toArray(MeasuredReachableTester[]::new);
+
+  private static final boolean PARALLEL = Boolean.getBoolean("nameserviceagent.reachable.parallel");
+
+  private static final boolean RACE = Boolean.getBoolean("nameserviceagent.reachable.race");
+
+  /**
+   * Overall deadline for probing all addresses in parallel. Defaults to one sequential run of all testers plus some slack.
+   */
+  private static final int DEADLINE_MS =
+      Integer.getInteger("nameserviceagent.reachable.deadlineMs", TIMEOUT_MS * (REACHABLE_TESTS.length + 1));
+
+  private static final int THREADS = Integer.getInteger("nameserviceagent.reachable.threads", 16);
+
+  private static final long REACHABLE_TTL_MS = Long.getLong("nameserviceagent.reachable.cache.reachableTtlMs", 30_000L);
+
+  private static final long UNREACHABLE_TTL_MS = Long.getLong("nameserviceagent.reachable.cache.unreachableTtlMs", 5_000L);
+
+  private static final ReachabilityCache REACHABILITY_CACHE = new ReachabilityCache(
+      REACHABLE_TTL_MS,
+      UNREACHABLE_TTL_MS,
+      Long.getLong("nameserviceagent.reachable.cache.routeTtlMs", 2_000L),
+      Integer.getInteger("nameserviceagent.reachable.cache.size", 4096)
+  );
+
+  private static final boolean HEALTH_CHECK = Boolean.getBoolean("nameserviceagent.healthcheck.enabled");
+
   private ReachableUtil() {
     // util class
   }
 
+  /**
+   * Tests whether the given address is reachable by any of the known testers.
+   *
+   * <p>Verdicts are cached per address, see {@code nameserviceagent.reachable.cache.*}. If there was no route
+   * to a host recently, its whole network is considered unreachable without probing.
+   * With a {@link SharedCache}, verdicts of other JVMs on this machine are used as well.</p>
+   *
+   * <p>By default, the testers are tried one after another. If {@code nameserviceagent.reachable.race} is set,
+   * all testers are started at once and the first positive answer wins.</p>
+   *
+   * @param address the address to probe.
+   * @return {@code true} if any tester could reach the address.
+   */
   public static boolean isReachable(final InetAddress address) {
-    for (final ReachableTester test : REACHABLE_TESTS) {
-      final boolean isReachable = doTestInternal(address, test);
+    final ReachabilityCache.Verdict cachedVerdict = REACHABILITY_CACHE.lookup(address, System.nanoTime());
+
+    if (cachedVerdict != ReachabilityCache.Verdict.UNKNOWN) {
+      return cachedVerdict == ReachabilityCache.Verdict.REACHABLE;
+    }
+
+    final SharedCache sharedCache = SharedCache.getInstance();
+
+    if (sharedCache != null) {
+      final CachedVerdict sharedVerdict = sharedCache.getVerdict(address);
+
+      if (sharedVerdict != null) {
+        REACHABILITY_CACHE.restore(sharedVerdict, System.nanoTime());
+
+        return sharedVerdict.isReachable();
+      }
+    }
+
+    final boolean reachable = probe(address);
+    REACHABILITY_CACHE.put(address, reachable, System.nanoTime());
+    final long ttlMs = reachable ? REACHABLE_TTL_MS : UNREACHABLE_TTL_MS;
+
+    if (sharedCache != null && ttlMs > 0L) {
+      sharedCache.putVerdict(address, reachable, ttlMs);
+    }
+
+    return reachable;
+  }
+
+  /**
+   * Probes the given address, ignoring any cached verdict.
+   *
+   * @param address the address to probe.
+   * @return {@code true} if any tester could reach the address.
+   */
+  static boolean probe(final InetAddress address) {
+    final MeasuredReachableTester[] testers = ActiveTestsHolder.activeTests;
+    final boolean reachable;
+
+    if (RACE) {
+      reachable = raceReachable(address, testers, TesterExecutorHolder.EXECUTOR, TIMEOUT_MS);
+    } else {
+      reachable = testSequentially(address, testers);
+    }
+
+    if (PROBE_COUNTER.incrementAndGet() % REORDER_INTERVAL == 0L) {
+      ActiveTestsHolder.activeTests = orderByScore(ActiveTestsHolder.activeTests);
+    }
+
+    return reachable;
+  }
+
+  private static boolean testSequentially(final InetAddress address, final ReachableTester[] testers) {
+    for (final ReachableTester test : testers) {
+      final boolean isReachable = doTestInternal(address, test, TIMEOUT_MS);
 
       if (isReachable) {
         return true;
       }
+
+      if (REACHABILITY_CACHE.isRouteUnreachable(address, System.nanoTime())) {
+        // no other tester will find a route either.
+        return false;
+      }
     }
 
     return false;
   }
 
-  private static boolean doTestInternal(final InetAddress address, final ReachableTester test) {
+  /**
+   * Returns the cached verdicts which did not expire yet, e.g. to write them to a snapshot.
+   *
+   * @return the cached verdicts with their remaining lifetime.
+   */
+  public static List<CachedVerdict> getCachedVerdicts() {
+    return REACHABILITY_CACHE.getVerdicts(System.nanoTime());
+  }
+
+  /**
+   * Restores verdicts, e.g. from a snapshot of a previous run, so these addresses are not probed again right away.
+   *
+   * @param verdicts the verdicts to restore. Their lifetime is capped by {@code nameserviceagent.reachable.cache.*}.
+   */
+  public static void restoreCachedVerdicts(final Collection<CachedVerdict> verdicts) {
+    final long now = System.nanoTime();
+
+    for (final CachedVerdict verdict : verdicts) {
+      REACHABILITY_CACHE.restore(verdict, now);
+    }
+  }
+
+  /**
+   * Detects which testers work in this environment, e.g. whether a {@code ping} binary exists.
+   * Testers which cannot even reach the loopback address are not used.
+   *
+   * @param testers         the testers to check.
+   * @param alwaysReachable an address which is always reachable, e.g. loopback.
+   * @param timeoutMs       the timeout for each check.
+   * @return the available testers, or all of them if none is available.
+   */
+  static MeasuredReachableTester[] detectAvailableTesters(final MeasuredReachableTester[] testers,
+                                                          final InetAddress alwaysReachable,
+                                                          final int timeoutMs) {
+    final List<MeasuredReachableTester> availableTesters = new ArrayList<>(testers.length);
+
+    for (final MeasuredReachableTester tester : testers) {
+      if (tester.isAvailable(alwaysReachable, timeoutMs)) {
+        availableTesters.add(tester);
+      } else {
+        LOG.log(Level.INFO, () -> "Reachability test [" + tester.getName() + "] is not available in this environment.");
+      }
+    }
+
+    if (availableTesters.isEmpty()) {
+      // better try all of them than none.
+      return testers.clone();
+    }
+
+    return availableTesters.toArray(new MeasuredReachableTester[0]);
+  }
+
+  /**
+   * Orders the testers so that those producing the most positive answers per time spent come first.
+   *
+   * @param testers the testers to order.
+   * @return a new, ordered array of the testers.
+   */
+  static MeasuredReachableTester[] orderByScore(final MeasuredReachableTester[] testers) {
+    final MeasuredReachableTester[] ordered = testers.clone();
+    // stable sort: equal scores keep the configured order.
+    Arrays.sort(ordered, Comparator.comparingDouble(MeasuredReachableTester::getScore).reversed());
+
+    return ordered;
+  }
+
+  /**
+   * Returns the reachable addresses, retaining their original order.
+   *
+   * <p>If {@code nameserviceagent.reachable.parallel} is set, all addresses are probed concurrently
+   * on a shared, bounded executor. Addresses which could not be probed within {@code nameserviceagent.reachable.deadlineMs}
+   * are considered unreachable.</p>
+   *
+   * <p>If {@code nameserviceagent.healthcheck.enabled} is set, addresses seen before are not probed at all,
+   * but looked up in the table of a background health checker.</p>
+   *
+   * @param addresses the addresses to probe.
+   * @return the reachable addresses in the same order as given.
+   */
+  public static List<InetAddress> filterReachable(final Collection<InetAddress> addresses) {
+    if (HEALTH_CHECK) {
+      return HealthCheckerHolder.HEALTH_CHECKER.filterHealthy(addresses);
+    }
+
+    return filterReachableInline(addresses);
+  }
+
+  /**
+   * Like {@link #filterReachable(Collection)}, but without blocking the caller on probes.
+   *
+   * <p>If all verdicts are cached, or the health checker has seen all addresses before, the result is computed right away.
+   * Otherwise all addresses are probed at once on the probe executor, see {@code nameserviceagent.reachable.threads}.</p>
+   *
+   * @param addresses the addresses to probe.
+   * @return a future completing with the reachable addresses in the same order as given.
+   */
+  public static CompletableFuture<List<InetAddress>> filterReachableAsync(final Collection<InetAddress> addresses) {
+    if (HEALTH_CHECK) {
+      return HealthCheckerHolder.HEALTH_CHECKER.filterHealthyAsync(addresses);
+    }
+
+    if (isCached(addresses)) {
+      return CompletableFuture.completedFuture(filterReachableInline(addresses));
+    }
+
+    final List<CompletableFuture<Boolean>> probes = new ArrayList<>(addresses.size());
+
+    for (final InetAddress address : addresses) {
+      probes.add(CompletableFuture.supplyAsync(() -> isReachable(address), ProbeExecutorHolder.EXECUTOR));
+    }
+
+    return CompletableFuture.allOf(probes.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+      final List<InetAddress> reachableAddresses = new ArrayList<>(addresses.size());
+      int probeIndex = 0;
+
+      for (final InetAddress address : addresses) {
+        if (probes.get(probeIndex++).join()) {
+          reachableAddresses.add(address);
+        }
+      }
+
+      return reachableAddresses;
+    });
+  }
+
+  private static List<InetAddress> filterReachableInline(final Collection<InetAddress> addresses) {
+    if (!PARALLEL || addresses.size() <= 1 || isCached(addresses)) {
+      return filterReachableSequentially(addresses, ReachableUtil::isReachable);
+    }
+
+    return filterReachableInParallel(addresses, ReachableUtil::isReachable, ProbeExecutorHolder.EXECUTOR, DEADLINE_MS);
+  }
+
+  private static boolean isCached(final Collection<InetAddress> addresses) {
+    final long now = System.nanoTime();
+
+    for (final InetAddress address : addresses) {
+      if (REACHABILITY_CACHE.lookup(address, now) == ReachabilityCache.Verdict.UNKNOWN) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  static List<InetAddress> filterReachableSequentially(final Collection<InetAddress> addresses,
+                                                       final Predicate<InetAddress> probe) {
+    final List<InetAddress> reachableAddresses = new ArrayList<>(addresses.size());
+
+    for (final InetAddress address : addresses) {
+      if (probe.test(address)) {
+        reachableAddresses.add(address);
+      }
+    }
+
+    return reachableAddresses;
+  }
+
+  static List<InetAddress> filterReachableInParallel(final Collection<InetAddress> addresses,
+                                                     final Predicate<InetAddress> probe,
+                                                     final ExecutorService executor,
+                                                     final long deadlineMs) {
+    final List<Future<Boolean>> probes = new ArrayList<>(addresses.size());
+
+    for (final InetAddress address : addresses) {
+      probes.add(executor.submit(() -> probe.test(address)));
+    }
+
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+    final List<InetAddress> reachableAddresses = new ArrayList<>(addresses.size());
+    int probeIndex = 0;
+
+    for (final InetAddress address : addresses) {
+      final Future<Boolean> addressProbe = probes.get(probeIndex++);
+
+      if (awaitProbe(addressProbe, deadline)) {
+        reachableAddresses.add(address);
+      }
+    }
+
+    return reachableAddresses;
+  }
+
+  private static boolean awaitProbe(final Future<Boolean> addressProbe, final long deadline) {
+    try {
+      return addressProbe.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (final TimeoutException | ExecutionException probeException) {
+      addressProbe.cancel(true);
+
+      return false;
+    } catch (final InterruptedException interruptedException) {
+      addressProbe.cancel(true);
+      Thread.currentThread().interrupt();
+
+      return false;
+    }
+  }
+
+  /**
+   * Starts all testers at once and returns on the first positive answer, cancelling (interrupting) the others.
+   *
+   * @param address   the address to probe.
+   * @param testers   the testers to race against each other.
+   * @param executor  the executor to run the testers on.
+   * @param timeoutMs the overall timeout for all testers.
+   * @return {@code true} if any tester could reach the address within the timeout.
+   */
+  static boolean raceReachable(final InetAddress address,
+                               final ReachableTester[] testers,
+                               final ExecutorService executor,
+                               final int timeoutMs) {
+    final CompletionService<Boolean> race = new ExecutorCompletionService<>(executor);
+    final List<Future<Boolean>> runners = new ArrayList<>(testers.length);
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+
+    try {
+      for (final ReachableTester tester : testers) {
+        runners.add(race.submit(() -> doTestInternal(address, tester, timeoutMs)));
+      }
+
+      for (int finishedRunners = 0; finishedRunners < runners.size(); finishedRunners++) {
+        final Future<Boolean> finished = race.poll(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+
+        if (finished == null) {
+          // overall timeout
+          return false;
+        }
+
+        if (getQuietly(finished)) {
+          return true;
+        }
+      }
+
+      return false;
+    } catch (final InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+
+      return false;
+    } finally {
+      for (final Future<Boolean> runner : runners) {
+        runner.cancel(true);
+      }
+    }
+  }
+
+  private static boolean getQuietly(final Future<Boolean> finished) throws InterruptedException {
     try {
-      return test.isReachable(address, TIMEOUT_MS);
+      return finished.get();
+    } catch (final ExecutionException executionException) {
+      return false;
+    }
+  }
+
+  private static boolean doTestInternal(final InetAddress address, final ReachableTester test, final int timeoutMs) {
+    try {
+      return test.isReachable(address, timeoutMs);
+    } catch (final NoRouteToHostException noRouteToHostException) {
+      REACHABILITY_CACHE.markRouteUnreachable(address, System.nanoTime());
+
+      return false;
     } catch (final IOException ioException) {
       return false;
     }
   }
 
+  /**
+   * Lazily detects the testers which work in this environment on the first probe, so an agent without a reachability stage
+   * never probes loopback or forks {@code ping}.
+   */
+  private static final class ActiveTestsHolder {
+
+    /**
+     * The testers which work in this environment, ordered by their score. Replaced as a whole, never modified.
+     */
+    private static volatile MeasuredReachableTester[] activeTests =
+        detectAvailableTesters(MEASURED_TESTS, InetAddress.getLoopbackAddress(), TIMEOUT_MS);
+
+    private ActiveTestsHolder() {
+      // holder class
+    }
+  }
+
+  /**
+   * Lazily creates the executor for racing testers. Separate from the probe executor, as a parallel probe waits for its race.
+   */
+  private static final class TesterExecutorHolder {
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private TesterExecutorHolder() {
+      // holder class
+    }
+
+    private static ExecutorService createExecutor() {
+      final int threads = THREADS * REACHABLE_TESTS.length;
+      final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+          threads,
+          threads,
+          60L,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(),
+          new DaemonThreadFactory("reachable-race")
+      );
+      executor.allowCoreThreadTimeOut(true);
+
+      return executor;
+    }
+  }
+
+  /**
+   * Lazily creates and starts the health checker, so its thread is only started if enabled.
+   */
+  private static final class HealthCheckerHolder {
+
+    private static final HealthChecker HEALTH_CHECKER = createHealthChecker();
+
+    private HealthCheckerHolder() {
+      // holder class
+    }
+
+    private static HealthChecker createHealthChecker() {
+      final int maxAddresses = Integer.getInteger("nameserviceagent.healthcheck.maxAddresses", 4096);
+      final HealthChecker healthChecker = new HealthChecker(
+          ReachableUtil::probe,
+          ReachableUtil::filterReachableInline,
+          ProbeExecutorHolder.EXECUTOR,
+          createCheckExecutor(maxAddresses),
+          Long.getLong("nameserviceagent.healthcheck.forgetAfterMs", 600_000L),
+          maxAddresses
+      );
+      healthChecker.start(
+          Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("healthcheck")),
+          Long.getLong("nameserviceagent.healthcheck.intervalMs", 5_000L)
+      );
+
+      return healthChecker;
+    }
+
+    /**
+     * Creates the executor for the background probes. As each tracked address is queued at most once, the queue never needs
+     * to hold more than {@code maxAddresses} probes.
+     */
+    private static ExecutorService createCheckExecutor(final int maxAddresses) {
+      final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+          THREADS,
+          THREADS,
+          60L,
+          TimeUnit.SECONDS,
+          new ArrayBlockingQueue<>(Math.max(1, maxAddresses)),
+          new DaemonThreadFactory("healthcheck-probe")
+      );
+      executor.allowCoreThreadTimeOut(true);
+
+      return executor;
+    }
+  }
+
+  /**
+   * Lazily creates the probe executor, so it is only started if the parallel mode or an async lookup is actually used.
+   */
+  private static final class ProbeExecutorHolder {
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private ProbeExecutorHolder() {
+      // holder class
+    }
+
+    private static ExecutorService createExecutor() {
+      final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+          THREADS,
+          THREADS,
+          60L,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(),
+          new DaemonThreadFactory("reachable")
+      );
+      executor.allowCoreThreadTimeOut(true);
+
+      return executor;
+    }
+  }
 
 }
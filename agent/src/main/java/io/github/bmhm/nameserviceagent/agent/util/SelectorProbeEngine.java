@@ -0,0 +1,237 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs many non-blocking TCP connects from a single thread.
+ *
+ * <p>A probe completes with {@code true} if the connection could be established or was actively refused
+ * (both mean there is a host answering), with {@code false} on timeout and exceptionally on any other error,
+ * e.g. a {@link java.net.NoRouteToHostException}. The channel is always closed afterwards.</p>
+ */
+final class SelectorProbeEngine implements Runnable {
+
+  private static final Logger LOG = Logger.getLogger(SelectorProbeEngine.class.getCanonicalName());
+
+  private final Selector selector;
+
+  private final Queue<Probe> pendingProbes = new ConcurrentLinkedQueue<>();
+
+  SelectorProbeEngine() throws IOException {
+    this.selector = Selector.open();
+    final Thread selectorThread = new DaemonThreadFactory("probe-selector").newThread(this);
+    selectorThread.start();
+  }
+
+  /**
+   * Returns the shared engine, starting its selector thread on first use.
+   *
+   * @return the shared engine.
+   * @throws IOException if no selector could be opened.
+   */
+  static SelectorProbeEngine getInstance() throws IOException {
+    if (InstanceHolder.INSTANCE == null) {
+      throw new IOException("Unable to start the probe engine.", InstanceHolder.FAILURE);
+    }
+
+    return InstanceHolder.INSTANCE;
+  }
+
+  /**
+   * Starts a non-blocking connect to the given target.
+   *
+   * @param target    the address and port to connect to.
+   * @param timeoutMs the time after which the target is considered unreachable.
+   * @return a future which completes with the probe's result. Cancelling it aborts the probe.
+   */
+  CompletableFuture<Boolean> probe(final InetSocketAddress target, final int timeoutMs) {
+    final Probe probe = new Probe(target, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs));
+    this.pendingProbes.add(probe);
+    this.selector.wakeup();
+
+    return probe.result;
+  }
+
+  @Override
+  public void run() {
+    while (this.selector.isOpen()) {
+      try {
+        this.registerPendingProbes();
+        this.selector.select(this.millisUntilNextDeadline());
+        this.finishSelectedProbes();
+        this.expireProbes();
+      } catch (final IOException | RuntimeException selectorException) {
+        LOG.log(Level.WARNING, "Error in probe selector loop.", selectorException);
+      }
+    }
+  }
+
+  private void registerPendingProbes() {
+    Probe probe = this.pendingProbes.poll();
+
+    while (probe != null) {
+      this.register(probe);
+      probe = this.pendingProbes.poll();
+    }
+  }
+
+  private void register(final Probe probe) {
+    try {
+      final SocketChannel channel = SocketChannel.open();
+      probe.channel = channel;
+      channel.configureBlocking(false);
+
+      if (channel.connect(probe.target)) {
+        probe.complete(true);
+        return;
+      }
+
+      channel.register(this.selector, SelectionKey.OP_CONNECT, probe);
+    } catch (final ConnectException connectException) {
+      probe.complete(true);
+    } catch (final IOException ioException) {
+      probe.completeExceptionally(ioException);
+    }
+  }
+
+  private void finishSelectedProbes() {
+    final Iterator<SelectionKey> selectedKeys = this.selector.selectedKeys().iterator();
+
+    while (selectedKeys.hasNext()) {
+      final SelectionKey key = selectedKeys.next();
+      selectedKeys.remove();
+      final Probe probe = (Probe) key.attachment();
+
+      try {
+        probe.complete(probe.channel.finishConnect());
+      } catch (final ConnectException connectException) {
+        // actively refused, so there was a host answering.
+        probe.complete(true);
+      } catch (final IOException ioException) {
+        probe.completeExceptionally(ioException);
+      }
+    }
+  }
+
+  private void expireProbes() {
+    final long now = System.nanoTime();
+
+    for (final SelectionKey key : this.selector.keys()) {
+      final Probe probe = (Probe) key.attachment();
+
+      if (probe.result.isDone()) {
+        // cancelled from the outside.
+        probe.close();
+      } else if (now - probe.deadline >= 0) {
+        probe.complete(false);
+      }
+    }
+  }
+
+  private long millisUntilNextDeadline() {
+    long nextDeadline = Long.MAX_VALUE;
+
+    for (final SelectionKey key : this.selector.keys()) {
+      nextDeadline = Math.min(nextDeadline, ((Probe) key.attachment()).deadline - System.nanoTime());
+    }
+
+    if (nextDeadline == Long.MAX_VALUE) {
+      // no probes, wait for a wakeup.
+      return 0L;
+    }
+
+    return Math.max(1L, TimeUnit.NANOSECONDS.toMillis(nextDeadline));
+  }
+
+  private static final class Probe {
+
+    private final InetSocketAddress target;
+
+    private final long deadline;
+
+    private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+    private SocketChannel channel;
+
+    Probe(final InetSocketAddress target, final long deadline) {
+      this.target = target;
+      this.deadline = deadline;
+    }
+
+    void complete(final boolean reachable) {
+      this.close();
+      this.result.complete(reachable);
+    }
+
+    void completeExceptionally(final IOException ioException) {
+      this.close();
+      this.result.completeExceptionally(ioException);
+    }
+
+    void close() {
+      if (this.channel == null) {
+        return;
+      }
+
+      try {
+        // also cancels the selection key.
+        this.channel.close();
+      } catch (final IOException ioException) {
+        LOG.log(Level.FINE, ioException, () -> "Unable to close probe channel to [" + this.target + "].");
+      }
+    }
+  }
+
+  private static final class InstanceHolder {
+
+    private static final SelectorProbeEngine INSTANCE;
+
+    private static final IOException FAILURE;
+
+    static {
+      SelectorProbeEngine engine = null;
+      IOException failure = null;
+
+      try {
+        engine = new SelectorProbeEngine();
+      } catch (final IOException selectorException) {
+        failure = selectorException;
+      }
+
+      INSTANCE = engine;
+      FAILURE = failure;
+    }
+
+    private InstanceHolder() {
+      // holder class
+    }
+  }
+}
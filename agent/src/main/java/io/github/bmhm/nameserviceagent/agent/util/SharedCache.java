@@ -0,0 +1,488 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import io.github.bmhm.nameserviceagent.api.LookupResult;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A resolver cache shared by all agents on a machine through a memory-mapped file, similar to {@code nscd}.
+ *
+ * <p>The file named by {@code nameserviceagent.shared.file} holds a fixed-size hash table of
+ * {@code nameserviceagent.shared.slots} slots, each holding either the answer for a host or the reachability verdict
+ * for an address. A key is stored in one of {@value #PROBE_SLOTS} neighbouring slots; when all are taken,
+ * the one expiring first is overwritten.</p>
+ *
+ * <p>Readers never lock: every slot is guarded by a sequence number (seqlock), which is odd while the slot is written.
+ * A reader copies the slot and retries if the sequence number was odd or changed meanwhile. As a last line of defence
+ * against torn reads, the slot's payload carries a CRC32. Writers of different JVMs exclude each other by a {@link FileLock}
+ * on the slot. A writer which cannot get the lock right away skips publishing, the entry is just not shared then.</p>
+ *
+ * <p>Expiry times are wall clock times, as {@link System#nanoTime()} differs between JVMs.</p>
+ */
+public final class SharedCache {
+
+  private static final Logger LOG = Logger.getLogger(SharedCache.class.getCanonicalName());
+
+  /**
+   * {@code NSAC} in ASCII.
+   */
+  private static final int MAGIC = 0x4E53_4143;
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_BYTES = 64;
+
+  private static final int SLOT_BYTES = 512;
+
+  private static final int PROBE_SLOTS = 4;
+
+  private static final int READ_ATTEMPTS = 4;
+
+  private static final int MAX_KEY_BYTES = 255;
+
+  private static final int MAX_ADDRESSES = 12;
+
+  private static final int ADDRESS_BYTES = 17;
+
+  private static final byte KIND_EMPTY = 0;
+
+  private static final byte KIND_ANSWER = 1;
+
+  private static final byte KIND_VERDICT = 2;
+
+  // slot layout, the sequence number comes first and the checksum last.
+  private static final int SEQUENCE_OFFSET = 0;
+
+  private static final int EXPIRES_OFFSET = 8;
+
+  private static final int RESOLVED_OFFSET = 16;
+
+  private static final int KIND_OFFSET = 24;
+
+  private static final int REACHABLE_OFFSET = 25;
+
+  private static final int ADDRESS_COUNT_OFFSET = 26;
+
+  private static final int KEY_LENGTH_OFFSET = 27;
+
+  private static final int KEY_OFFSET = 28;
+
+  private static final int ADDRESSES_OFFSET = KEY_OFFSET + MAX_KEY_BYTES;
+
+  private static final int CHECKSUM_OFFSET = SLOT_BYTES - 8;
+
+  private static final int UNSIGNED_BYTE_MASK = 0xFF;
+
+  private final FileChannel channel;
+
+  private final MappedByteBuffer buffer;
+
+  private final int slotCount;
+
+  /**
+   * Only used for its memory effects: a volatile read or write keeps the surrounding reads or writes of the mapped slot in order.
+   */
+  private volatile int fence;
+
+  SharedCache(final FileChannel channel, final MappedByteBuffer buffer, final int slotCount) {
+    this.channel = channel;
+    this.buffer = buffer;
+    this.slotCount = slotCount;
+  }
+
+  /**
+   * Returns the cache shared by all agents on this machine, mapping its file on first use.
+   *
+   * @return the shared cache or {@code null} if {@code nameserviceagent.shared.file} is not set or cannot be opened.
+   */
+  public static SharedCache getInstance() {
+    return SharedCacheHolder.INSTANCE;
+  }
+
+  /**
+   * Maps the given file, creating and initializing it if it does not exist yet.
+   *
+   * @param file      the file shared by all agents.
+   * @param slotCount the number of slots, must match the file if it was already initialized.
+   * @return the shared cache.
+   * @throws IOException if the file cannot be mapped or was initialized with a different layout.
+   */
+  public static SharedCache open(final Path file, final int slotCount) throws IOException {
+    final long fileBytes = HEADER_BYTES + (long) slotCount * SLOT_BYTES;
+    final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+    try {
+      final MappedByteBuffer buffer;
+
+      try (FileLock ignored = channel.lock()) {
+        // mapping beyond the end grows the file, the new part reads as zeros.
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, Math.max(fileBytes, channel.size()));
+
+        if (buffer.getInt(0) == 0) {
+          buffer.putInt(4, VERSION);
+          buffer.putInt(8, slotCount);
+          buffer.putInt(12, SLOT_BYTES);
+          buffer.putInt(0, MAGIC);
+        } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+            || buffer.getInt(8) != slotCount || buffer.getInt(12) != SLOT_BYTES) {
+          throw new IOException("Shared cache [" + file + "] has a different layout, expected [" + slotCount + "] slots.");
+        }
+      }
+
+      return new SharedCache(channel, buffer, slotCount);
+    } catch (final IOException | RuntimeException openException) {
+      channel.close();
+      throw openException;
+    }
+  }
+
+  /**
+   * Returns the shared answer for the given host.
+   *
+   * @param host the host name, already in lower case.
+   * @return the answer with its remaining TTL, or {@code null} if there is none or it expired.
+   */
+  public LookupResult getAnswer(final String host) {
+    final byte[] slot = this.find(answerKey(host));
+
+    if (slot == null || slot[KIND_OFFSET] != KIND_ANSWER) {
+      return null;
+    }
+
+    final ByteBuffer slotBuffer = ByteBuffer.wrap(slot);
+    final long remainingMillis = slotBuffer.getLong(EXPIRES_OFFSET) - System.currentTimeMillis();
+    final InetAddress[] addresses = new InetAddress[slot[ADDRESS_COUNT_OFFSET]];
+
+    try {
+      for (int addressIndex = 0; addressIndex < addresses.length; addressIndex++) {
+        addresses[addressIndex] = InetAddress.getByAddress(host, readAddress(slot, addressIndex));
+      }
+    } catch (final UnknownHostException unknownHostException) {
+      // only thrown for an illegal address length, i.e. a corrupt slot.
+      return null;
+    }
+
+    return new LookupResult(
+        addresses,
+        Math.max(1L, TimeUnit.MILLISECONDS.toSeconds(remainingMillis)),
+        SharedCache.class.getName(),
+        Instant.ofEpochMilli(slotBuffer.getLong(RESOLVED_OFFSET))
+    );
+  }
+
+  /**
+   * Shares the answer for the given host with all other agents. Answers with too many addresses are not shared.
+   *
+   * @param host      the host name, already in lower case.
+   * @param result    the answer.
+   * @param ttlMillis the time the answer may be used.
+   */
+  public void putAnswer(final String host, final LookupResult result, final long ttlMillis) {
+    final InetAddress[] addresses = result.getAddresses();
+
+    if (addresses.length > MAX_ADDRESSES) {
+      return;
+    }
+
+    final long nowMillis = System.currentTimeMillis();
+    final byte[] slot = this.newSlot(answerKey(host), KIND_ANSWER, nowMillis + ttlMillis);
+
+    if (slot == null) {
+      return;
+    }
+
+    final ByteBuffer slotBuffer = ByteBuffer.wrap(slot);
+    slotBuffer.putLong(RESOLVED_OFFSET, result.getResolvedAt().toEpochMilli());
+    slot[ADDRESS_COUNT_OFFSET] = (byte) addresses.length;
+
+    for (int addressIndex = 0; addressIndex < addresses.length; addressIndex++) {
+      final byte[] address = addresses[addressIndex].getAddress();
+      final int offset = ADDRESSES_OFFSET + addressIndex * ADDRESS_BYTES;
+      slot[offset] = (byte) address.length;
+      System.arraycopy(address, 0, slot, offset + 1, address.length);
+    }
+
+    this.publish(slot, nowMillis);
+  }
+
+  /**
+   * Returns the shared reachability verdict for the given address.
+   *
+   * @param address the probed address.
+   * @return the verdict with its remaining lifetime, or {@code null} if there is none or it expired.
+   */
+  public CachedVerdict getVerdict(final InetAddress address) {
+    final byte[] slot = this.find(verdictKey(address));
+
+    if (slot == null || slot[KIND_OFFSET] != KIND_VERDICT) {
+      return null;
+    }
+
+    final long remainingMillis = ByteBuffer.wrap(slot).getLong(EXPIRES_OFFSET) - System.currentTimeMillis();
+
+    return new CachedVerdict(address, slot[REACHABLE_OFFSET] != 0, remainingMillis);
+  }
+
+  /**
+   * Shares the reachability verdict for the given address with all other agents.
+   *
+   * @param address   the probed address.
+   * @param reachable the probe's result.
+   * @param ttlMillis the time the verdict may be used.
+   */
+  public void putVerdict(final InetAddress address, final boolean reachable, final long ttlMillis) {
+    final long nowMillis = System.currentTimeMillis();
+    final byte[] slot = this.newSlot(verdictKey(address), KIND_VERDICT, nowMillis + ttlMillis);
+
+    if (slot == null) {
+      return;
+    }
+
+    slot[REACHABLE_OFFSET] = (byte) (reachable ? 1 : 0);
+    this.publish(slot, nowMillis);
+  }
+
+  private static byte[] answerKey(final String host) {
+    return ("a:" + host).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] verdictKey(final InetAddress address) {
+    return ("r:" + address.getHostAddress()).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private byte[] newSlot(final byte[] key, final byte kind, final long expiresAtMillis) {
+    if (key.length > MAX_KEY_BYTES) {
+      return null;
+    }
+
+    final byte[] slot = new byte[SLOT_BYTES];
+    ByteBuffer.wrap(slot).putLong(EXPIRES_OFFSET, expiresAtMillis);
+    slot[KIND_OFFSET] = kind;
+    slot[KEY_LENGTH_OFFSET] = (byte) key.length;
+    System.arraycopy(key, 0, slot, KEY_OFFSET, key.length);
+
+    return slot;
+  }
+
+  /**
+   * Looks for a valid slot with the given key in all slots it may be stored in.
+   */
+  private byte[] find(final byte[] key) {
+    final long nowMillis = System.currentTimeMillis();
+    final int home = this.homeSlot(key);
+
+    for (int probe = 0; probe < PROBE_SLOTS; probe++) {
+      final byte[] slot = this.readSlot((home + probe) % this.slotCount);
+
+      if (slot != null && hasKey(slot, key)) {
+        return ByteBuffer.wrap(slot).getLong(EXPIRES_OFFSET) > nowMillis ? slot : null;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Copies a slot, retrying while it is written concurrently.
+   *
+   * @return a consistent copy of the slot or {@code null} if it is empty or no consistent copy could be read.
+   */
+  private byte[] readSlot(final int slotIndex) {
+    final int offset = HEADER_BYTES + slotIndex * SLOT_BYTES;
+    final byte[] slot = new byte[SLOT_BYTES];
+
+    for (int attempt = 0; attempt < READ_ATTEMPTS; attempt++) {
+      final long sequenceBefore = this.buffer.getLong(offset + SEQUENCE_OFFSET);
+
+      if ((sequenceBefore & 1L) != 0L) {
+        Thread.yield();
+        continue;
+      }
+
+      // the volatile reads keep the copy between both reads of the sequence number.
+      int fences = this.fence;
+      final ByteBuffer slotBuffer = this.buffer.duplicate();
+      slotBuffer.position(offset);
+      slotBuffer.get(slot);
+      fences += this.fence;
+
+      if (this.buffer.getLong(offset + SEQUENCE_OFFSET) == sequenceBefore && fences == 0) {
+        return slot[KIND_OFFSET] != KIND_EMPTY && hasValidChecksum(slot) ? slot : null;
+      }
+    }
+
+    return null;
+  }
+
+  private void publish(final byte[] slot, final long nowMillis) {
+    final byte[] key = Arrays.copyOfRange(slot, KEY_OFFSET, KEY_OFFSET + (slot[KEY_LENGTH_OFFSET] & UNSIGNED_BYTE_MASK));
+    final int slotIndex = this.chooseSlot(key, nowMillis);
+    final int offset = HEADER_BYTES + slotIndex * SLOT_BYTES;
+    ByteBuffer.wrap(slot).putLong(CHECKSUM_OFFSET, checksum(slot));
+
+    // a FileLock is held by the whole JVM, so threads of this JVM take turns first.
+    synchronized (this) {
+      try (FileLock lock = this.channel.tryLock(offset, SLOT_BYTES, false)) {
+        if (lock == null) {
+          // another JVM is writing this slot, which is as good.
+          return;
+        }
+
+        // a crashed writer might have left an odd sequence number.
+        final long sequence = (this.buffer.getLong(offset + SEQUENCE_OFFSET) | 1L) + 2L;
+        this.buffer.putLong(offset + SEQUENCE_OFFSET, sequence);
+        this.fence = 0;
+
+        final ByteBuffer slotBuffer = this.buffer.duplicate();
+        slotBuffer.position(offset + EXPIRES_OFFSET);
+        slotBuffer.put(slot, EXPIRES_OFFSET, SLOT_BYTES - EXPIRES_OFFSET);
+
+        this.fence = 0;
+        this.buffer.putLong(offset + SEQUENCE_OFFSET, sequence + 1L);
+      } catch (final IOException ioException) {
+        LOG.log(Level.FINE, ioException, () -> "Cannot write shared cache slot [" + slotIndex + "].");
+      }
+    }
+  }
+
+  /**
+   * Picks the slot already holding the key, else an empty or expired one, else the one expiring first.
+   */
+  private int chooseSlot(final byte[] key, final long nowMillis) {
+    final int home = this.homeSlot(key);
+    int victim = home;
+    long victimExpiresAt = Long.MAX_VALUE;
+
+    for (int probe = 0; probe < PROBE_SLOTS; probe++) {
+      final int slotIndex = (home + probe) % this.slotCount;
+      final byte[] slot = this.readSlot(slotIndex);
+
+      if (slot == null) {
+        return slotIndex;
+      }
+
+      if (hasKey(slot, key)) {
+        return slotIndex;
+      }
+
+      final long expiresAt = ByteBuffer.wrap(slot).getLong(EXPIRES_OFFSET);
+
+      if (expiresAt <= nowMillis) {
+        return slotIndex;
+      }
+
+      if (expiresAt < victimExpiresAt) {
+        victim = slotIndex;
+        victimExpiresAt = expiresAt;
+      }
+    }
+
+    return victim;
+  }
+
+  private int homeSlot(final byte[] key) {
+    // must be stable across JVMs, hence not String.hashCode() of a possibly different string.
+    final int hash = Arrays.hashCode(key) * 0x9E37_79B9;
+
+    return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % this.slotCount;
+  }
+
+  private static boolean hasKey(final byte[] slot, final byte[] key) {
+    if ((slot[KEY_LENGTH_OFFSET] & UNSIGNED_BYTE_MASK) != key.length) {
+      return false;
+    }
+
+    for (int keyIndex = 0; keyIndex < key.length; keyIndex++) {
+      if (slot[KEY_OFFSET + keyIndex] != key[keyIndex]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static byte[] readAddress(final byte[] slot, final int addressIndex) {
+    final int offset = ADDRESSES_OFFSET + addressIndex * ADDRESS_BYTES;
+
+    return Arrays.copyOfRange(slot, offset + 1, offset + 1 + (slot[offset] & UNSIGNED_BYTE_MASK));
+  }
+
+  private static long checksum(final byte[] slot) {
+    final CRC32 crc32 = new CRC32();
+    crc32.update(slot, EXPIRES_OFFSET, CHECKSUM_OFFSET - EXPIRES_OFFSET);
+
+    return crc32.getValue();
+  }
+
+  private static boolean hasValidChecksum(final byte[] slot) {
+    return ByteBuffer.wrap(slot).getLong(CHECKSUM_OFFSET) == checksum(slot);
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", SharedCache.class.getSimpleName() + "[", "]")
+        .add("slotCount=" + this.slotCount)
+        .toString();
+  }
+
+  /**
+   * Lazily maps the shared file, so agents without a shared cache never touch it.
+   */
+  private static final class SharedCacheHolder {
+
+    private static final SharedCache INSTANCE = openConfigured();
+
+    private SharedCacheHolder() {
+      // holder class
+    }
+
+    private static SharedCache openConfigured() {
+      final String file = System.getProperty("nameserviceagent.shared.file", "");
+
+      if (file.isEmpty()) {
+        return null;
+      }
+
+      try {
+        return open(Paths.get(file), Integer.getInteger("nameserviceagent.shared.slots", 4096));
+      } catch (final IOException | RuntimeException openException) {
+        LOG.log(Level.WARNING, openException, () -> "Not using shared cache [" + file + "].");
+
+        return null;
+      }
+    }
+  }
+}
@@ -21,6 +21,7 @@ import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
@@ -29,11 +30,9 @@ class SocketOpenTester implements ReachableTester {
 
   @Override
   public boolean isReachable(final InetAddress addressToTest, final int timeoutMs) throws IOException {
-    try {
-      final Socket socket = new Socket();
+    try (Socket socket = new Socket()) {
       socket.setSoTimeout(timeoutMs);
       socket.connect(new InetSocketAddress(addressToTest, 80), timeoutMs);
-      socket.close();
 
       // no-brainer
       return true;
@@ -44,12 +43,14 @@ class SocketOpenTester implements ReachableTester {
       // this is actually a good thing, because if IO could start, there was a route available.
       // or it was actively blocked (ConnectException), which also means there was a connection attempt.
       return true;
+    } catch (final NoRouteToHostException noRouteToHostException) {
+      // let the caller know it is not just this host.
+      throw noRouteToHostException;
     } catch (final SocketException javaIoIOException) {
       /*
        * every other socket exception is not good:
        * * BindException
        * * ConnectionResetException (not sure)
-       * * NoRoutToHostException (obvious)
        * * PortUnreachableException (also not sure about this one)
        */
       return false;
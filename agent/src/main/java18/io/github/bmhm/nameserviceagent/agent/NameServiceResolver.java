@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent;
+
+import io.github.bmhm.nameserviceagent.api.AddressFamily;
+import io.github.bmhm.nameserviceagent.api.NameService;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.net.spi.InetAddressResolver;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.StringJoiner;
+import java.util.stream.Stream;
+
+/**
+ * Answers the JDK's lookups using the agent's name service.
+ *
+ * <p>The lookup policy's families are passed on, so the name services only query the families the JDK asks for.
+ * If the policy asks for one family first, the addresses are ordered accordingly, otherwise their order is kept.</p>
+ */
+final class NameServiceResolver implements InetAddressResolver {
+
+  private static final Comparator<InetAddress> IPV4_FIRST = Comparator.comparing(address -> !(address instanceof Inet4Address));
+
+  private static final Comparator<InetAddress> IPV6_FIRST = Comparator.comparing(address -> !(address instanceof Inet6Address));
+
+  private final NameService nameService;
+
+  NameServiceResolver(final NameService nameService) {
+    this.nameService = nameService;
+  }
+
+  @Override
+  public Stream<InetAddress> lookupByName(final String host, final LookupPolicy lookupPolicy) throws UnknownHostException {
+    final int characteristics = lookupPolicy.characteristics();
+    final Stream<InetAddress> addresses = Arrays.stream(this.nameService.lookupAllHostAddr(host, toAddressFamily(characteristics)));
+
+    // sorting a stream is stable, so the order within a family is kept.
+    if ((characteristics & LookupPolicy.IPV4_FIRST) != 0) {
+      return addresses.sorted(IPV4_FIRST);
+    }
+
+    if ((characteristics & LookupPolicy.IPV6_FIRST) != 0) {
+      return addresses.sorted(IPV6_FIRST);
+    }
+
+    return addresses;
+  }
+
+  static AddressFamily toAddressFamily(final int characteristics) {
+    final boolean ipv4 = (characteristics & LookupPolicy.IPV4) != 0;
+    final boolean ipv6 = (characteristics & LookupPolicy.IPV6) != 0;
+
+    if (ipv4 && !ipv6) {
+      return AddressFamily.IPV4;
+    }
+
+    if (ipv6 && !ipv4) {
+      return AddressFamily.IPV6;
+    }
+
+    return AddressFamily.ANY;
+  }
+
+  @Override
+  public String lookupByAddress(final byte[] addr) throws UnknownHostException {
+    return this.nameService.getHostByAddr(addr);
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", NameServiceResolver.class.getSimpleName() + "[", "]")
+        .add("nameService=" + this.nameService)
+        .toString();
+  }
+}
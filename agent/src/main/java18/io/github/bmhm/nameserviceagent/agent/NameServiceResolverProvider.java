@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent;
+
+import io.github.bmhm.nameserviceagent.api.AbstractProxyNameService;
+
+import java.net.spi.InetAddressResolver;
+import java.net.spi.InetAddressResolverProvider;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hooks the agent's name service into the JDK on Java 18+, without any reflection on {@link java.net.InetAddress}.
+ *
+ * <p>The JDK asks this provider once, on the first lookup. Unless the agent was installed using the resolver provider
+ * before, the built-in resolver is returned unchanged.</p>
+ */
+public class NameServiceResolverProvider extends InetAddressResolverProvider {
+
+  private static final Logger LOG = Logger.getLogger(NameServiceResolverProvider.class.getCanonicalName());
+
+  @Override
+  public InetAddressResolver get(final Configuration configuration) {
+    final InetAddressResolver builtinResolver = configuration.builtinResolver();
+    final NameServicePipeline pipeline = NameServiceInstaller.getProvidedPipeline();
+
+    if (pipeline == null) {
+      return builtinResolver;
+    }
+
+    try {
+      final AbstractProxyNameService customNameService = pipeline.create(new ResolverNameService(builtinResolver));
+
+      return new NameServiceResolver(customNameService);
+    } catch (final ReflectiveOperationException reflectiveOperationException) {
+      LOG.log(Level.SEVERE, reflectiveOperationException,
+          () -> "Cannot create [" + pipeline + "], using the built-in resolver.");
+
+      return builtinResolver;
+    }
+  }
+
+  @Override
+  public String name() {
+    return "nameserviceagent";
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent;
+
+import io.github.bmhm.nameserviceagent.api.AddressFamily;
+import io.github.bmhm.nameserviceagent.api.NameService;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.net.spi.InetAddressResolver;
+import java.net.spi.InetAddressResolver.LookupPolicy;
+import java.util.StringJoiner;
+
+/**
+ * The JDK's built-in resolver as original name service, which only queries the requested address family.
+ */
+final class ResolverNameService implements NameService {
+
+  private static final LookupPolicy ANY_POLICY = LookupPolicy.of(LookupPolicy.IPV4 | LookupPolicy.IPV6 | getPreferredOrder());
+
+  private static final LookupPolicy IPV4_POLICY = LookupPolicy.of(LookupPolicy.IPV4);
+
+  private static final LookupPolicy IPV6_POLICY = LookupPolicy.of(LookupPolicy.IPV6);
+
+  private final InetAddressResolver builtinResolver;
+
+  ResolverNameService(final InetAddressResolver builtinResolver) {
+    this.builtinResolver = builtinResolver;
+  }
+
+  private static int getPreferredOrder() {
+    // same defaults as java.net.InetAddress.
+    final String preferIpv6 = System.getProperty("java.net.preferIPv6Addresses", "false");
+
+    if ("system".equalsIgnoreCase(preferIpv6)) {
+      return 0;
+    }
+
+    return Boolean.parseBoolean(preferIpv6) ? LookupPolicy.IPV6_FIRST : LookupPolicy.IPV4_FIRST;
+  }
+
+  @Override
+  public InetAddress[] lookupAllHostAddr(final String host) throws UnknownHostException {
+    return this.lookupAllHostAddr(host, AddressFamily.ANY);
+  }
+
+  @Override
+  public InetAddress[] lookupAllHostAddr(final String host, final AddressFamily family) throws UnknownHostException {
+    return this.builtinResolver.lookupByName(host, toLookupPolicy(family)).toArray(InetAddress[]::new);
+  }
+
+  @Override
+  public String getHostByAddr(final byte[] addr) throws UnknownHostException {
+    return this.builtinResolver.lookupByAddress(addr);
+  }
+
+  private static LookupPolicy toLookupPolicy(final AddressFamily family) {
+    switch (family) {
+      case IPV4:
+        return IPV4_POLICY;
+      case IPV6:
+        return IPV6_POLICY;
+      default:
+        return ANY_POLICY;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", ResolverNameService.class.getSimpleName() + "[", "]")
+        .add("builtinResolver=" + this.builtinResolver)
+        .toString();
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import io.github.bmhm.nameserviceagent.agent.bootstrap.ResolverHook;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.util.Arrays;
+import java.util.jar.JarFile;
+
+class InetAddressInstrumentationTest {
+
+  @Test
+  void testRequiresResolverHookOnBootstrapClassPath() throws Exception {
+    // given -- the hook was already loaded by the application class loader.
+    final Instrumentation instrumentation = mock(Instrumentation.class);
+    final NameServicePipeline pipeline = NameServicePipeline.parse("localhost");
+
+    // when
+    final IllegalStateException illegalStateException =
+        assertThrows(IllegalStateException.class, () -> InetAddressInstrumentation.install(instrumentation, pipeline));
+
+    // then -- InetAddress is left alone.
+    assertThat(illegalStateException.getMessage(), containsString("bootstrap class path"));
+    verify(instrumentation).appendToBootstrapClassLoaderSearch(any(JarFile.class));
+    verify(instrumentation, never()).addTransformer(any(ClassFileTransformer.class), any(boolean.class));
+  }
+
+  @Test
+  void testLetsJavaBaseReadHookModule() throws Exception {
+    // given
+    final Instrumentation instrumentation = mock(Instrumentation.class);
+
+    // when
+    InetAddressInstrumentation.addReadsFromJavaBase(instrumentation, ResolverHook.class);
+
+    // then -- nothing to do on Java 8, else java.base is redefined.
+    final boolean hasModules = Arrays.stream(Class.class.getMethods()).anyMatch(method -> "getModule".equals(method.getName()));
+    final boolean redefined = mockingDetails(instrumentation).getInvocations().stream()
+        .anyMatch(invocation -> "redefineModule".equals(invocation.getMethod().getName()));
+    assertEquals(hasModules, redefined);
+  }
+}
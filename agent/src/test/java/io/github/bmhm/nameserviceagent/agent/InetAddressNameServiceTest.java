@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+class InetAddressNameServiceTest {
+
+  private final InetAddressNameService nameService = new InetAddressNameService();
+
+  @Test
+  void testLooksUpUsingJdk() throws UnknownHostException {
+    // when
+    final InetAddress[] addresses = this.nameService.lookupAllHostAddr("127.0.0.1");
+
+    // then
+    assertTrue(addresses[0].isLoopbackAddress());
+  }
+
+  @Test
+  void testAddressWithoutHostNameIsUnknown() {
+    // the documentation range has no host names.
+    assertThrows(UnknownHostException.class, () -> this.nameService.getHostByAddr(new byte[] {(byte) 192, 0, 2, 1}));
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class InstallModeTest {
+
+  @Test
+  void testFromString() {
+    assertEquals(InstallMode.PROVIDER, InstallMode.fromString(" Provider"));
+    assertEquals(InstallMode.INSTRUMENT, InstallMode.fromString("instrument"));
+    assertThrows(IllegalArgumentException.class, () -> InstallMode.fromString("magic"));
+  }
+
+  @Test
+  void testAutoUsesProviderIfAvailable() {
+    assertEquals(InstallMode.PROVIDER, InstallMode.AUTO.resolve(true));
+    assertEquals(InstallMode.REFLECTION, InstallMode.AUTO.resolve(false));
+  }
+
+  @Test
+  void testExplicitMode() {
+    assertEquals(InstallMode.REFLECTION, InstallMode.REFLECTION.resolve(true));
+    assertEquals(InstallMode.PROVIDER, InstallMode.PROVIDER.resolve(true));
+    assertThrows(IllegalStateException.class, () -> InstallMode.PROVIDER.resolve(false));
+    assertEquals(InstallMode.INSTRUMENT, InstallMode.INSTRUMENT.resolve(true));
+  }
+}
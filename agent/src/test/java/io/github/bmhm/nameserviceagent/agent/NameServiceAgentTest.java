@@ -27,9 +27,15 @@ import io.github.bmhm.nameserviceagent.api.AbstractProxyNameService;
 import io.github.bmhm.nameserviceagent.api.NameService;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
 
 class NameServiceAgentTest {
 
@@ -80,6 +86,41 @@ class NameServiceAgentTest {
     assertThat(serviceClass.getName(), is(DefaultSequentialReachableNameService.class.getName()));
   }
 
+  @Test
+  void testPipelineSpecificationFromAgentArgs() {
+    final String specification = NameServiceAgent.getPipelineSpecification(" pipeline = cache,doh ;config=/does/not/exist");
+
+    assertEquals("cache,doh", specification);
+  }
+
+  @Test
+  void testPipelineSpecificationFromConfigFile(@TempDir final Path tempDir) throws IOException {
+    // given
+    final Path configFile = tempDir.resolve("nameserviceagent.properties");
+    Files.write(configFile, Collections.singletonList("nameserviceagent.pipeline=singleflight,reachable"), StandardCharsets.UTF_8);
+
+    // when
+    final String specification = NameServiceAgent.getPipelineSpecification("config=" + configFile);
+
+    // then
+    assertEquals("singleflight,reachable", specification);
+  }
+
+  @Test
+  void testPipelineSpecificationDefaultsToImplementation() {
+    assertEquals(DefaultSequentialReachableNameService.class.getName(), NameServiceAgent.getPipelineSpecification(null));
+  }
+
+  @Test
+  void testPipelineSpecificationRejectsUnknownOption() {
+    final IllegalArgumentException illegalArgumentException = assertThrows(
+        IllegalArgumentException.class,
+        () -> NameServiceAgent.getPipelineSpecification("pipelines=cache")
+    );
+
+    assertThat(illegalArgumentException.getMessage(), containsString("pipelines"));
+  }
+
   static class NoopNameService extends AbstractProxyNameService {
 
     /**
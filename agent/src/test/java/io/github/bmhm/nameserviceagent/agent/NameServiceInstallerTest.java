@@ -18,9 +18,11 @@ package io.github.bmhm.nameserviceagent.agent;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import io.github.bmhm.nameserviceagent.api.AbstractProxyNameService;
 import io.github.bmhm.nameserviceagent.api.NameService;
@@ -75,6 +77,37 @@ class NameServiceInstallerTest {
     assertTrue(Proxy.isProxyClass(nameServiceProxy.getClass()));
   }
 
+  @Test
+  void testAdaptOriginalNameService() throws UnknownHostException {
+    // given
+    final NameService originalNameService = mock(NameService.class);
+    final InetAddress[] addresses = {InetAddress.getLoopbackAddress()};
+    when(originalNameService.lookupAllHostAddr("localhost")).thenReturn(addresses);
+
+    // when
+    final NameService nameService = NameServiceInstaller.adaptOriginalNameService(originalNameService);
+
+    // then
+    assertFalse(Proxy.isProxyClass(nameService.getClass()));
+    assertThat(nameService.lookupAllHostAddr("localhost"), is(addresses));
+  }
+
+  @Test
+  void testAdaptCustomService() throws Exception {
+    // given
+    final InetAddress[] addresses = {InetAddress.getLoopbackAddress()};
+    final AbstractProxyNameService customNameService = mock(AbstractProxyNameService.class);
+    when(customNameService.lookupAllHostAddr("localhost")).thenReturn(addresses);
+
+    // when
+    final Object adapter = NameServiceInstaller.adaptCustomService(customNameService);
+
+    // then
+    assertTrue(NameServiceInstaller.determineProxiedInterface().isInstance(adapter));
+    assertFalse(Proxy.isProxyClass(adapter.getClass()));
+    assertThat(adapter.getClass().getMethod("lookupAllHostAddr", String.class).invoke(adapter, "localhost"), is(addresses));
+  }
+
   /**
    * This methods gets a class name  which was already loaded by "forClass".
    */
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.github.bmhm.nameserviceagent.agent.nameservice.CachingNameService;
+import io.github.bmhm.nameserviceagent.agent.nameservice.DnsOverHttpsNameService;
+import io.github.bmhm.nameserviceagent.agent.nameservice.RandomNameService;
+import io.github.bmhm.nameserviceagent.agent.nameservice.SingleFlightNameService;
+import io.github.bmhm.nameserviceagent.api.AbstractProxyNameService;
+import io.github.bmhm.nameserviceagent.api.NameService;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+class NameServicePipelineTest {
+
+  @Test
+  void testParsesAliasesAndClassNames() throws ClassNotFoundException {
+    // when
+    final NameServicePipeline pipeline =
+        NameServicePipeline.parse(" Cache, singleflight,,  " + RandomNameService.class.getName() + ",doh");
+
+    // then
+    assertEquals(
+        Arrays.asList(CachingNameService.class, SingleFlightNameService.class, RandomNameService.class, DnsOverHttpsNameService.class),
+        pipeline.getStages());
+  }
+
+  @Test
+  void testRejectsEmptyPipeline() {
+    final IllegalArgumentException illegalArgumentException =
+        assertThrows(IllegalArgumentException.class, () -> NameServicePipeline.parse(" , "));
+
+    assertThat(illegalArgumentException.getMessage(), containsString("has no stages"));
+  }
+
+  @Test
+  void testRejectsUnknownStage() {
+    assertThrows(ClassNotFoundException.class, () -> NameServicePipeline.parse("cache,no.such.NameService"));
+  }
+
+  @Test
+  void testEachStageGetsTheNextAsOriginal() throws Exception {
+    // given
+    final NameService originalNameService = mock(NameService.class);
+    final InetAddress[] localhost = {InetAddress.getLoopbackAddress()};
+    when(originalNameService.lookupAllHostAddr("localhost")).thenReturn(localhost);
+    final NameServicePipeline pipeline = NameServicePipeline.parse("cache,singleflight");
+
+    // when
+    final AbstractProxyNameService firstStage = pipeline.create(originalNameService);
+
+    // then
+    final CachingNameService cache = (CachingNameService) firstStage;
+    final SingleFlightNameService singleFlight = (SingleFlightNameService) cache.getOriginalNameService();
+    assertSame(singleFlight, cache.getDelegate());
+    assertSame(originalNameService, singleFlight.getOriginalNameService());
+    assertArrayEquals(localhost, firstStage.lookupAllHostAddr("localhost"));
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent;
+
+import io.github.bmhm.nameserviceagent.api.NameService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-call overhead of {@link OriginalNameServiceProxy}, compared to looking up the method by reflection
+ * on every call (as it was done before) and to calling the original name service directly.
+ *
+ * <p>Not run by the build. Run it from the IDE or with the JMH runner from the test classpath.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OriginalNameServiceProxyBenchmark {
+
+  private static final String HOST = "localhost";
+
+  private final PlatformLikeNameService original = new PlatformLikeNameService();
+
+  private final NameService methodHandleProxy = (NameService) Proxy.newProxyInstance(
+      OriginalNameServiceProxyBenchmark.class.getClassLoader(),
+      new Class<?>[] {NameService.class},
+      new OriginalNameServiceProxy(this.original));
+
+  private final NameService reflectionProxy = (NameService) Proxy.newProxyInstance(
+      OriginalNameServiceProxyBenchmark.class.getClassLoader(),
+      new Class<?>[] {NameService.class},
+      (proxy, method, args) -> {
+        final Method originalMethod = this.original.getClass().getMethod(method.getName(), String.class);
+        originalMethod.setAccessible(true);
+
+        return originalMethod.invoke(this.original, args[0]);
+      });
+
+  @Benchmark
+  public InetAddress[] direct() {
+    return this.original.lookupAllHostAddr(HOST);
+  }
+
+  @Benchmark
+  public InetAddress[] methodHandle() throws Exception {
+    return this.methodHandleProxy.lookupAllHostAddr(HOST);
+  }
+
+  @Benchmark
+  public InetAddress[] reflectionPerCall() throws Exception {
+    return this.reflectionProxy.lookupAllHostAddr(HOST);
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(OriginalNameServiceProxyBenchmark.class.getSimpleName()).build()).run();
+  }
+
+  /**
+   * Like the JDK's name service: a non-public class with public methods.
+   */
+  static final class PlatformLikeNameService {
+
+    private final InetAddress[] addresses = {InetAddress.getLoopbackAddress()};
+
+    public InetAddress[] lookupAllHostAddr(final String host) {
+      return this.addresses;
+    }
+
+    public String getHostByAddr(final byte[] addr) {
+      return HOST;
+    }
+  }
+}
@@ -20,6 +20,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -74,6 +75,19 @@ class OriginalNameServiceProxyTest {
     assertEquals(returnedHostAddr, GOOGLE_DOMAIN);
   }
 
+  @Test
+  void testUnknownHostIsPassedThrough() throws Exception {
+    // given
+    final NameService originalNameServiceMock = mock(NameService.class);
+    when(originalNameServiceMock.lookupAllHostAddr("unknown.example")).thenThrow(new UnknownHostException("unknown.example"));
+    final Method lookupAllHostAddr = NameService.class.getMethod("lookupAllHostAddr", String.class);
+    final OriginalNameServiceProxy originalNameServiceProxy = new OriginalNameServiceProxy(originalNameServiceMock);
+
+    // then
+    assertThrows(UnknownHostException.class,
+        () -> originalNameServiceProxy.invoke(originalNameServiceMock, lookupAllHostAddr, new Object[] {"unknown.example"}));
+  }
+
   private NameService getOriginalNameServiceMock() throws UnknownHostException {
     final Inet4Address notGooglesIp = mock(Inet4Address.class);
     when(notGooglesIp.getAddress()).then(args -> GOOGLE_DNS_IP);
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.bootstrap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+class ResolverHookTest {
+
+  private static final InetAddress[] ANSWER = {InetAddress.getLoopbackAddress()};
+
+  private static final byte[] LOOPBACK = InetAddress.getLoopbackAddress().getAddress();
+
+  @Test
+  void testRoutesLookupsToInstalledHandles() throws Exception {
+    // given
+    ResolverHook.install(handle("lookup", InetAddress[].class, String.class), handle("reverse", String.class, byte[].class));
+
+    // when / then
+    assertArrayEquals(ANSWER, ResolverHook.lookupAllHostAddr("example.com"));
+    assertThrows(UnknownHostException.class, () -> ResolverHook.lookupAllHostAddr("unknown.invalid"));
+    assertEquals("example.com", ResolverHook.getHostByAddr(InetAddress.getByAddress(LOOPBACK)));
+    // like the JDK, an unknown address is returned as literal.
+    assertEquals("10.0.0.2", ResolverHook.getHostByAddr(InetAddress.getByAddress(new byte[] {10, 0, 0, 2})));
+  }
+
+  @Test
+  void testReturnsLiteralIfHostDoesNotResolveBack() throws Exception {
+    // given
+    ResolverHook.install(handle("lookup", InetAddress[].class, String.class), handle("reverse", String.class, byte[].class));
+
+    // when -- the PTR record of 10.0.0.3 names a host which does not resolve to 10.0.0.3.
+    final String forged = ResolverHook.getHostByAddr(InetAddress.getByAddress(new byte[] {10, 0, 0, 3}));
+    final String unresolvable = ResolverHook.getHostByAddr(InetAddress.getByAddress(new byte[] {10, 0, 0, 4}));
+
+    // then
+    assertEquals("10.0.0.3", forged);
+    assertEquals("10.0.0.4", unresolvable);
+  }
+
+  @Test
+  void testRejectsHandlesOfWrongType() throws Exception {
+    final MethodHandle reverse = handle("reverse", String.class, byte[].class);
+
+    assertThrows(IllegalArgumentException.class, () -> ResolverHook.install(reverse, reverse));
+  }
+
+  @Test
+  void testOriginalLookupUsesJdk() throws UnknownHostException {
+    // when
+    final InetAddress[] addresses = ResolverHook.lookupOriginal("127.0.0.1");
+    final String host = ResolverHook.getOriginalHostByAddr(new byte[] {(byte) 192, 0, 2, 1});
+
+    // then
+    assertTrue(addresses[0].isLoopbackAddress());
+    assertTrue(host.length() > 0);
+  }
+
+  private static MethodHandle handle(final String name, final Class<?> returnType, final Class<?> parameterType)
+      throws ReflectiveOperationException {
+    return MethodHandles.lookup().findStatic(ResolverHookTest.class, name, MethodType.methodType(returnType, parameterType));
+  }
+
+  private static InetAddress[] lookup(final String host) throws UnknownHostException {
+    if (host.endsWith(".invalid")) {
+      throw new UnknownHostException(host);
+    }
+
+    return ANSWER.clone();
+  }
+
+  private static String reverse(final byte[] addr) throws UnknownHostException {
+    switch (addr[3]) {
+      case 1:
+        return "example.com";
+      case 3:
+        return "forged.example.com";
+      case 4:
+        return "unknown.invalid";
+      default:
+        throw new UnknownHostException();
+    }
+  }
+}
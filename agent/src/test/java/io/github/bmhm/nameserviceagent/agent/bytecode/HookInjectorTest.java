@@ -0,0 +1,226 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.bytecode;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+class HookInjectorTest {
+
+  private static final String DESCRIBE = "describe(Ljava/lang/String;I)Ljava/lang/String;";
+
+  private static final String ECHO = "echo(Ljava/lang/String;)Ljava/lang/String;";
+
+  private static final Map<String, HookInjector.Hook> HOOKS = new HashMap<>();
+
+  static {
+    final HookInjector.Hook hook =
+        new HookInjector.Hook(TestHooks.class.getName().replace('.', '/'), "describe", "(Ljava/lang/String;)Ljava/lang/String;");
+    HOOKS.put(DESCRIBE, hook);
+    HOOKS.put(ECHO, hook);
+  }
+
+  @Test
+  void testHookResultIsReturned() throws Exception {
+    // given
+    final Method describe = injectedFixtureMethod("describe", String.class, int.class);
+
+    // when
+    final Object result = describe.invoke(null, "hook", 1);
+
+    // then
+    assertEquals("hooked", result);
+  }
+
+  @Test
+  void testMethodWithoutStackMapTable() throws Exception {
+    // given
+    final Method echo = injectedFixtureMethod("echo", String.class);
+
+    // then
+    assertEquals("hooked", echo.invoke(null, "hook"));
+    assertEquals("value", echo.invoke(null, "value"));
+  }
+
+  @Test
+  void testOriginalCodeRunsIfHookReturnsNull() throws Exception {
+    // given
+    final Method describe = injectedFixtureMethod("describe", String.class, int.class);
+
+    // then
+    for (int count = -1; count < 5; count++) {
+      assertEquals(Fixture.describe("value", count), describe.invoke(null, "value", count));
+    }
+
+    assertEquals(Fixture.describe(null, 2), describe.invoke(null, null, 2));
+  }
+
+  @Test
+  void testUnknownMethodsAreIgnored() throws Exception {
+    // given
+    final byte[] original = classFile(Fixture.class);
+    final HookInjector injector = new HookInjector(original, Collections.singletonMap("unknown()V", HOOKS.get(ECHO)));
+
+    // when
+    injector.inject();
+
+    // then
+    assertTrue(injector.getInjectedMethods().isEmpty());
+  }
+
+  @Test
+  void testInstanceMethodsAreRejected() throws Exception {
+    final byte[] original = classFile(Fixture.class);
+    final HookInjector injector = new HookInjector(original, Collections.singletonMap("toString()Ljava/lang/String;", HOOKS.get(DESCRIBE)));
+
+    assertThrows(IllegalArgumentException.class, injector::inject);
+  }
+
+  @Test
+  void testMalformedClassFilesAreRejected() {
+    assertThrows(IllegalArgumentException.class, () -> new HookInjector(new byte[] {1, 2, 3, 4}, HOOKS).inject());
+    assertThrows(IllegalArgumentException.class, () -> new HookInjector(new byte[] {(byte) 0xCA, (byte) 0xFE}, HOOKS).inject());
+  }
+
+  private static Method injectedFixtureMethod(final String methodName, final Class<?>... parameterTypes)
+      throws IOException, ReflectiveOperationException {
+    final HookInjector injector = new HookInjector(classFile(Fixture.class), HOOKS);
+    final byte[] injected = injector.inject();
+    assertEquals(HOOKS.keySet(), injector.getInjectedMethods());
+
+    // the class loader verifies the rewritten class, including its stack map frames.
+    final Class<?> injectedFixture = new FixtureClassLoader(injected).loadClass(Fixture.class.getName());
+    final Method method = injectedFixture.getDeclaredMethod(methodName, parameterTypes);
+    method.setAccessible(true);
+
+    return method;
+  }
+
+  private static byte[] classFile(final Class<?> type) throws IOException {
+    final ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+
+    try (InputStream resource = type.getResourceAsStream("/" + type.getName().replace('.', '/') + ".class")) {
+      final byte[] buffer = new byte[4096];
+
+      for (int read = resource.read(buffer); read != -1; read = resource.read(buffer)) {
+        classFile.write(buffer, 0, read);
+      }
+    }
+
+    return classFile.toByteArray();
+  }
+
+  /**
+   * Covers the code the offsets must be shifted for: branches, a switch, a try/catch and local variables.
+   * {@code echo} has no branches and thus no stack map table.
+   */
+  static final class Fixture {
+
+    static String echo(final String value) {
+      return value;
+    }
+
+    static String describe(final String value, final int count) {
+      if (value == null) {
+        return "null";
+      }
+
+      final StringBuilder description = new StringBuilder(value);
+
+      switch (count) {
+        case 0:
+          description.append(":zero");
+          break;
+        case 1:
+          description.append(":one");
+          break;
+        case 2:
+          description.append(":two");
+          break;
+        default:
+          description.append(':').append(count);
+          break;
+      }
+
+      try {
+        description.append(':').append(value.charAt(count));
+      } catch (final StringIndexOutOfBoundsException outOfBoundsException) {
+        description.append(":none");
+      }
+
+      for (int index = 0; index < count; index++) {
+        description.append('!');
+      }
+
+      return description.toString();
+    }
+
+    @Override
+    public String toString() {
+      return "Fixture";
+    }
+  }
+
+  public static final class TestHooks {
+
+    private TestHooks() {
+      // util class
+    }
+
+    public static String describe(final String value) {
+      return "hook".equals(value) ? "hooked" : null;
+    }
+  }
+
+  private static final class FixtureClassLoader extends ClassLoader {
+
+    private final byte[] fixture;
+
+    FixtureClassLoader(final byte[] fixture) {
+      super(HookInjectorTest.class.getClassLoader());
+      this.fixture = fixture;
+    }
+
+    @Override
+    protected Class<?> loadClass(final String className, final boolean resolve) throws ClassNotFoundException {
+      if (!Fixture.class.getName().equals(className)) {
+        return super.loadClass(className, resolve);
+      }
+
+      synchronized (this.getClassLoadingLock(className)) {
+        Class<?> fixtureClass = this.findLoadedClass(className);
+
+        if (fixtureClass == null) {
+          fixtureClass = this.defineClass(className, this.fixture, 0, this.fixture.length);
+        }
+
+        return fixtureClass;
+      }
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.bytecode;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.util.Set;
+
+class InetAddressTransformerTest {
+
+  private static final String INET_ADDRESS = "java/net/InetAddress";
+
+  private final InetAddressTransformer transformer = new InetAddressTransformer();
+
+  @Test
+  void testHooksLookupsOfRunningJdk() throws IOException {
+    // given
+    final byte[] inetAddress = classFile(INET_ADDRESS);
+
+    // when
+    final byte[] transformed = this.transformer.transform(null, INET_ADDRESS, InetAddress.class, null, inetAddress);
+
+    // then
+    assertNotNull(transformed);
+    assertTrue(this.transformer.isTransformed());
+    final Set<String> injectedMethods = this.transformer.getInjectedMethods();
+    assertTrue(injectedMethods.stream().anyMatch(method -> method.startsWith("getAllByName0(")), injectedMethods::toString);
+    assertTrue(injectedMethods.stream().anyMatch(method -> method.startsWith("getHostFromNameService(")), injectedMethods::toString);
+  }
+
+  @Test
+  void testIgnoresOtherClasses() throws IOException {
+    // when
+    final byte[] transformed = this.transformer.transform(null, "java/lang/String", String.class, null, classFile("java/lang/String"));
+
+    // then
+    assertNull(transformed);
+    assertFalse(this.transformer.isTransformed());
+  }
+
+  @Test
+  void testMalformedClassIsNotTransformed() {
+    // when
+    final byte[] transformed = this.transformer.transform(null, INET_ADDRESS, InetAddress.class, null, new byte[] {1, 2, 3, 4});
+
+    // then
+    assertNull(transformed);
+    assertFalse(this.transformer.isTransformed());
+  }
+
+  private static byte[] classFile(final String className) throws IOException {
+    final ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+
+    try (InputStream resource = ClassLoader.getSystemResourceAsStream(className + ".class")) {
+      assertNotNull(resource, className);
+      final byte[] buffer = new byte[4096];
+
+      for (int read = resource.read(buffer); read != -1; read = resource.read(buffer)) {
+        classFile.write(buffer, 0, read);
+      }
+    }
+
+    return classFile.toByteArray();
+  }
+}
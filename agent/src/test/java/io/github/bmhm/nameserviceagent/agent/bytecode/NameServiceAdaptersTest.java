@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.bytecode;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.github.bmhm.nameserviceagent.api.NameService;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+class NameServiceAdaptersTest {
+
+  private static final InetAddress[] ADDRESSES = {InetAddress.getLoopbackAddress()};
+
+  @Test
+  void testAdapterCallsHandles() throws Exception {
+    // given
+    final FixedNameService target = new FixedNameService();
+
+    // when
+    final NameService adapter = (NameService) NameServiceAdapters.create(
+        NameService.class,
+        handle(target, "lookupAllHostAddr", NameServiceAdapters.LOOKUP_ALL_HOST_ADDR_TYPE.parameterType(0)),
+        handle(target, "getHostByAddr", NameServiceAdapters.GET_HOST_BY_ADDR_TYPE.parameterType(0)));
+
+    // then
+    assertFalse(Proxy.isProxyClass(adapter.getClass()));
+    assertArrayEquals(ADDRESSES, adapter.lookupAllHostAddr("localhost"));
+    assertEquals("localhost", adapter.getHostByAddr(new byte[] {127, 0, 0, 1}));
+  }
+
+  @Test
+  void testCheckedExceptionsPassThrough() throws Exception {
+    // given
+    final FixedNameService target = new FixedNameService();
+    final NameService adapter = (NameService) NameServiceAdapters.create(
+        NameService.class,
+        handle(target, "lookupAllHostAddr", String.class),
+        handle(target, "getHostByAddr", byte[].class));
+
+    // then
+    assertThrows(UnknownHostException.class, () -> adapter.lookupAllHostAddr("unknown.example"));
+    assertThrows(UnknownHostException.class, () -> adapter.getHostByAddr(new byte[] {10, 0, 0, 1}));
+  }
+
+  @Test
+  void testWrongHandleTypesAreRejected() throws Exception {
+    final FixedNameService target = new FixedNameService();
+    final MethodHandle lookupAllHostAddr = handle(target, "lookupAllHostAddr", String.class);
+
+    assertThrows(IllegalArgumentException.class, () -> NameServiceAdapters.create(NameService.class, lookupAllHostAddr, lookupAllHostAddr));
+  }
+
+  private static MethodHandle handle(final NameService target, final String methodName, final Class<?> parameterType)
+      throws ReflectiveOperationException {
+    return MethodHandles.publicLookup()
+        .unreflect(NameService.class.getMethod(methodName, parameterType))
+        .bindTo(target);
+  }
+
+  static final class FixedNameService implements NameService {
+
+    @Override
+    public InetAddress[] lookupAllHostAddr(final String host) throws UnknownHostException {
+      if (!"localhost".equals(host)) {
+        throw new UnknownHostException(host);
+      }
+
+      return ADDRESSES;
+    }
+
+    @Override
+    public String getHostByAddr(final byte[] addr) throws UnknownHostException {
+      if (addr[0] != 127) {
+        throw new UnknownHostException();
+      }
+
+      return "localhost";
+    }
+  }
+}
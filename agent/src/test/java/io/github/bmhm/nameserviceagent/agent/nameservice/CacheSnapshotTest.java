@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.nameservice;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import io.github.bmhm.nameserviceagent.agent.util.CachedVerdict;
+import io.github.bmhm.nameserviceagent.api.LookupResult;
+import io.github.bmhm.nameserviceagent.api.NameService;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+class CacheSnapshotTest {
+
+  private static final long ONE_MINUTE = TimeUnit.MINUTES.toNanos(1L);
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void testWritesAndReadsSnapshot() throws IOException {
+    // given
+    final InetAddress address = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 1});
+    final InetAddress ipv6 = InetAddress.getByName("2001:db8::1");
+    final LookupResult result = new LookupResult(new InetAddress[] {address, ipv6}, 300L, "dns", Instant.ofEpochMilli(1_000L));
+    final CacheSnapshot snapshot = new CacheSnapshot(
+        Collections.singletonList(new CacheSnapshot.Entry("example.com", result, System.nanoTime() + ONE_MINUTE)),
+        Collections.singletonList(new CachedVerdict(address, true, 60_000L))
+    );
+    final Path snapshotFile = this.tempDir.resolve("snapshot.bin");
+
+    // when
+    snapshot.write(snapshotFile);
+    final CacheSnapshot read = CacheSnapshot.read(snapshotFile);
+
+    // then
+    final CacheSnapshot.Entry entry = read.getEntries().get(0);
+    assertEquals("example.com", entry.getKey());
+    assertArrayEquals(new InetAddress[] {address, ipv6}, entry.getResult().getAddresses());
+    assertEquals(300L, entry.getResult().getTtlSeconds());
+    assertEquals("dns", entry.getResult().getSource());
+    assertEquals(Instant.ofEpochMilli(1_000L), entry.getResult().getResolvedAt());
+    assertTrue(entry.getExpiresAtNanos() - System.nanoTime() > ONE_MINUTE - TimeUnit.SECONDS.toNanos(10L));
+
+    final CachedVerdict verdict = read.getVerdicts().get(0);
+    assertEquals(address, verdict.getAddress());
+    assertTrue(verdict.isReachable());
+  }
+
+  @Test
+  void testSkipsExpiredEntries() throws IOException {
+    // given
+    final InetAddress address = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 1});
+    final CacheSnapshot snapshot = new CacheSnapshot(
+        Collections.singletonList(new CacheSnapshot.Entry("example.com", LookupResult.withoutTtl(new InetAddress[] {address}, "dns"),
+            System.nanoTime() - 1L)),
+        Collections.singletonList(new CachedVerdict(address, false, -1L))
+    );
+    final Path snapshotFile = this.tempDir.resolve("snapshot.bin");
+    snapshot.write(snapshotFile);
+
+    // when
+    final CacheSnapshot read = CacheSnapshot.read(snapshotFile);
+
+    // then
+    assertTrue(read.getEntries().isEmpty());
+    assertTrue(read.getVerdicts().isEmpty());
+  }
+
+  @Test
+  void testRejectsCorruptSnapshot() throws IOException {
+    // given
+    final Path notASnapshot = Files.write(this.tempDir.resolve("hosts"), "127.0.0.1 localhost".getBytes(StandardCharsets.UTF_8));
+    final Path truncated = this.tempDir.resolve("truncated.bin");
+    final byte[] snapshot = new CacheSnapshot(Collections.emptyList(), Collections.emptyList()).encode();
+    Files.write(truncated, Arrays.copyOf(snapshot, snapshot.length - 1));
+
+    // then
+    assertThrows(IOException.class, () -> CacheSnapshot.read(notASnapshot));
+    assertThrows(IOException.class, () -> CacheSnapshot.read(truncated));
+  }
+
+  @Test
+  void testPreloadsCache() throws IOException {
+    // given
+    final NameService delegate = mock(NameService.class);
+    final InetAddress address = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 1});
+    final LookupResult result = new LookupResult(new InetAddress[] {address}, 300L, "dns", Instant.now());
+    final CachingNameService cachingNameService = new CachingNameService(null, delegate, ONE_MINUTE, ONE_MINUTE, 16);
+
+    // when
+    cachingNameService.preload(Collections.singletonList(new CacheSnapshot.Entry("example.com", result, System.nanoTime() + ONE_MINUTE)));
+
+    // then
+    final LookupResult cached = cachingNameService.lookup("example.com");
+    assertArrayEquals(new InetAddress[] {address}, cached.getAddresses());
+    assertEquals("dns", cached.getSource());
+    verifyNoInteractions(delegate);
+
+    final List<CacheSnapshot.Entry> snapshotEntries = cachingNameService.getSnapshotEntries();
+    assertEquals(1, snapshotEntries.size());
+    assertEquals("example.com", snapshotEntries.get(0).getKey());
+  }
+
+  @Test
+  void testCaptureWritesEachHostOnce() throws IOException {
+    // given -- two caches of a pipeline hold the same host.
+    final InetAddress address = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 1});
+    final LookupResult result = new LookupResult(new InetAddress[] {address}, 300L, "dns", Instant.now());
+    final long expiresAtNanos = System.nanoTime() + ONE_MINUTE;
+    final CachingNameService outerCache = new CachingNameService(null, mock(NameService.class), ONE_MINUTE, ONE_MINUTE, 16);
+    final CachingNameService innerCache = new CachingNameService(null, mock(NameService.class), ONE_MINUTE, ONE_MINUTE, 16);
+    outerCache.preload(Collections.singletonList(new CacheSnapshot.Entry("example.com", result, expiresAtNanos)));
+    innerCache.preload(Collections.singletonList(new CacheSnapshot.Entry("example.com", result, expiresAtNanos + ONE_MINUTE)));
+
+    // when
+    final CacheSnapshot snapshot = CacheSnapshot.capture(Arrays.asList(outerCache, innerCache));
+
+    // then
+    assertEquals(1, snapshot.getEntries().size());
+    assertEquals(expiresAtNanos + ONE_MINUTE, snapshot.getEntries().get(0).getExpiresAtNanos());
+  }
+}
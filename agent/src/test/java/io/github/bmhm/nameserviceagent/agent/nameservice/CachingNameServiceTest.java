@@ -0,0 +1,319 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.nameservice;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import io.github.bmhm.nameserviceagent.agent.util.SharedCache;
+import io.github.bmhm.nameserviceagent.api.AbstractProxyNameService;
+import io.github.bmhm.nameserviceagent.api.AddressFamily;
+import io.github.bmhm.nameserviceagent.api.LookupResult;
+import io.github.bmhm.nameserviceagent.api.NameService;
+import io.github.bmhm.nameserviceagent.api.UpstreamUnavailableException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+class CachingNameServiceTest {
+
+  private static final long ONE_MINUTE = TimeUnit.MINUTES.toNanos(1L);
+
+  private final NameService delegate = mock(NameService.class);
+
+  @Test
+  void testCachesPositiveAnswer() throws UnknownHostException {
+    // given
+    final InetAddress address = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 1});
+    when(this.delegate.lookupAllHostAddr("example.com")).thenReturn(new InetAddress[] {address});
+    final CachingNameService cachingNameService = new CachingNameService(null, this.delegate, ONE_MINUTE, ONE_MINUTE, 16);
+
+    // when
+    final InetAddress[] first = cachingNameService.lookupAllHostAddr("example.com");
+    final InetAddress[] second = cachingNameService.lookupAllHostAddr("EXAMPLE.com");
+
+    // then
+    assertArrayEquals(new InetAddress[] {address}, second);
+    assertNotSame(first, second);
+    verify(this.delegate, times(1)).lookupAllHostAddr(anyString());
+  }
+
+  @Test
+  void testCachesUnknownHost() throws UnknownHostException {
+    // given
+    when(this.delegate.lookupAllHostAddr("unknown.invalid")).thenThrow(new UnknownHostException("unknown.invalid"));
+    final CachingNameService cachingNameService = new CachingNameService(null, this.delegate, ONE_MINUTE, ONE_MINUTE, 16);
+
+    // when
+    assertThrows(UnknownHostException.class, () -> cachingNameService.lookupAllHostAddr("unknown.invalid"));
+    final UnknownHostException cached =
+        assertThrows(UnknownHostException.class, () -> cachingNameService.lookupAllHostAddr("unknown.invalid"));
+
+    // then
+    assertEquals("unknown.invalid", cached.getMessage());
+    verify(this.delegate, times(1)).lookupAllHostAddr("unknown.invalid");
+  }
+
+  @Test
+  void testDoesNotCacheEmptyAnswer() throws UnknownHostException {
+    // given
+    when(this.delegate.lookupAllHostAddr("empty.example.com")).thenReturn(new InetAddress[0]);
+    final CachingNameService cachingNameService = new CachingNameService(null, this.delegate, ONE_MINUTE, ONE_MINUTE, 16);
+
+    // when
+    assertThrows(UnknownHostException.class, () -> cachingNameService.lookupAllHostAddr("empty.example.com"));
+    final UnknownHostException cached =
+        assertThrows(UnknownHostException.class, () -> cachingNameService.lookupAllHostAddr("empty.example.com"));
+
+    // then
+    assertThat(cached.getMessage(), containsString("no addresses"));
+    verify(this.delegate, times(1)).lookupAllHostAddr("empty.example.com");
+  }
+
+  @Test
+  void testCachesFamiliesSeparately() throws UnknownHostException {
+    // given
+    final AbstractProxyNameService ttlAwareDelegate = mock(AbstractProxyNameService.class);
+    final InetAddress ipv4 = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 1});
+    final InetAddress ipv6 = InetAddress.getByName("2001:db8::1");
+    when(ttlAwareDelegate.lookup("example.com", AddressFamily.IPV4))
+        .thenReturn(new LookupResult(new InetAddress[] {ipv4}, 300L, "dns", Instant.now()));
+    when(ttlAwareDelegate.lookup("example.com"))
+        .thenReturn(new LookupResult(new InetAddress[] {ipv6, ipv4}, 300L, "dns", Instant.now()));
+    final CachingNameService cachingNameService = new CachingNameService(null, ttlAwareDelegate, ONE_MINUTE, ONE_MINUTE, 16);
+
+    // when
+    final InetAddress[] ipv4Addresses = cachingNameService.lookupAllHostAddr("example.com", AddressFamily.IPV4);
+    final InetAddress[] anyAddresses = cachingNameService.lookupAllHostAddr("example.com");
+    cachingNameService.lookupAllHostAddr("EXAMPLE.com", AddressFamily.IPV4);
+
+    // then
+    assertArrayEquals(new InetAddress[] {ipv4}, ipv4Addresses);
+    assertArrayEquals(new InetAddress[] {ipv6, ipv4}, anyAddresses);
+    verify(ttlAwareDelegate, times(1)).lookup("example.com", AddressFamily.IPV4);
+    verify(ttlAwareDelegate, times(1)).lookup("example.com");
+  }
+
+  @Test
+  void testUsesTtlOfDelegateResult() throws UnknownHostException {
+    // given
+    final AbstractProxyNameService ttlAwareDelegate = mock(AbstractProxyNameService.class);
+    final InetAddress address = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 1});
+    when(ttlAwareDelegate.lookup("example.com"))
+        .thenReturn(new LookupResult(new InetAddress[] {address}, 0L, "dns", Instant.now()));
+    final CachingNameService cachingNameService = new CachingNameService(null, ttlAwareDelegate, ONE_MINUTE, ONE_MINUTE, 16);
+
+    // when
+    cachingNameService.lookupAllHostAddr("example.com");
+    cachingNameService.lookupAllHostAddr("example.com");
+
+    // then -- a zero DNS TTL must not be cached for the configured minute.
+    verify(ttlAwareDelegate, times(2)).lookup("example.com");
+  }
+
+  @Test
+  void testReturnsCachedResultWithProvenance() throws UnknownHostException {
+    // given
+    final AbstractProxyNameService ttlAwareDelegate = mock(AbstractProxyNameService.class);
+    final InetAddress address = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 1});
+    final LookupResult result = new LookupResult(new InetAddress[] {address}, 300L, "dns", Instant.EPOCH);
+    when(ttlAwareDelegate.lookup("example.com")).thenReturn(result);
+    final CachingNameService cachingNameService = new CachingNameService(null, ttlAwareDelegate, ONE_MINUTE, ONE_MINUTE, 16);
+    cachingNameService.lookup("example.com");
+
+    // when
+    final LookupResult cached = cachingNameService.lookup("example.com");
+
+    // then
+    assertArrayEquals(new InetAddress[] {address}, cached.getAddresses());
+    assertEquals(300L, cached.getTtlSeconds());
+    assertEquals("dns", cached.getSource());
+    assertEquals(Instant.EPOCH, cached.getResolvedAt());
+    verify(ttlAwareDelegate, times(1)).lookup("example.com");
+  }
+
+  @Test
+  void testRefreshesHotEntryInBackground() throws UnknownHostException {
+    // given
+    final InetAddress oldAddress = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 1});
+    final InetAddress newAddress = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 2});
+    when(this.delegate.lookupAllHostAddr("example.com")).thenReturn(new InetAddress[] {oldAddress}, new InetAddress[] {newAddress});
+    final List<Runnable> refreshes = new ArrayList<>();
+    // refresh ahead during the whole TTL, so the second hit is due.
+    final CachingNameService cachingNameService =
+        new CachingNameService(null, this.delegate, ONE_MINUTE, ONE_MINUTE, 16, 100, 0L, 0L, refreshes::add, null);
+    cachingNameService.lookupAllHostAddr("example.com");
+    cachingNameService.lookupAllHostAddr("example.com");
+
+    // when
+    final InetAddress[] duringRefresh = cachingNameService.lookupAllHostAddr("example.com");
+    cachingNameService.lookupAllHostAddr("example.com");
+    final int queuedRefreshes = refreshes.size();
+    refreshes.remove(0).run();
+    final InetAddress[] afterRefresh = cachingNameService.lookupAllHostAddr("example.com");
+
+    // then
+    assertArrayEquals(new InetAddress[] {oldAddress}, duringRefresh);
+    assertArrayEquals(new InetAddress[] {newAddress}, afterRefresh);
+    assertEquals(1, queuedRefreshes);
+    verify(this.delegate, times(2)).lookupAllHostAddr("example.com");
+  }
+
+  @Test
+  void testServesStaleHotEntryWhileRefreshing() throws Exception {
+    // given
+    final InetAddress oldAddress = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 1});
+    final InetAddress newAddress = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 2});
+    when(this.delegate.lookupAllHostAddr("example.com")).thenReturn(new InetAddress[] {oldAddress}, new InetAddress[] {newAddress});
+    final List<Runnable> refreshes = new ArrayList<>();
+    final long shortTtl = TimeUnit.MILLISECONDS.toNanos(200L);
+    final CachingNameService cachingNameService =
+        new CachingNameService(null, this.delegate, shortTtl, shortTtl, 16, 0, ONE_MINUTE, 0L, refreshes::add, null);
+    cachingNameService.lookupAllHostAddr("example.com");
+    cachingNameService.lookupAllHostAddr("example.com");
+    Thread.sleep(300L);
+
+    // when
+    final InetAddress[] stale = cachingNameService.lookupAllHostAddr("example.com");
+
+    // then
+    assertArrayEquals(new InetAddress[] {oldAddress}, stale);
+    verify(this.delegate, times(1)).lookupAllHostAddr("example.com");
+    refreshes.forEach(Runnable::run);
+    assertArrayEquals(new InetAddress[] {newAddress}, cachingNameService.lookupAllHostAddr("example.com"));
+  }
+
+  @Test
+  void testDoesNotServeStaleColdEntry() throws Exception {
+    // given
+    when(this.delegate.lookupAllHostAddr("example.com"))
+        .thenReturn(new InetAddress[] {InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 1})});
+    final List<Runnable> refreshes = new ArrayList<>();
+    final long shortTtl = TimeUnit.MILLISECONDS.toNanos(50L);
+    final CachingNameService cachingNameService =
+        new CachingNameService(null, this.delegate, shortTtl, shortTtl, 16, 0, ONE_MINUTE, 0L, refreshes::add, null);
+    cachingNameService.lookupAllHostAddr("example.com");
+    Thread.sleep(100L);
+
+    // when
+    cachingNameService.lookupAllHostAddr("example.com");
+
+    // then
+    assertTrue(refreshes.isEmpty());
+    verify(this.delegate, times(2)).lookupAllHostAddr("example.com");
+  }
+
+  @Test
+  void testServesStaleAnswerOnUpstreamFailure() throws Exception {
+    // given
+    final InetAddress address = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 1});
+    when(this.delegate.lookupAllHostAddr("example.com"))
+        .thenReturn(new InetAddress[] {address})
+        .thenThrow(new UpstreamUnavailableException("timeout"));
+    final long shortTtl = TimeUnit.MILLISECONDS.toNanos(50L);
+    final CachingNameService cachingNameService =
+        new CachingNameService(null, this.delegate, shortTtl, shortTtl, 16, 0, 0L, ONE_MINUTE, Runnable::run, null);
+    cachingNameService.lookupAllHostAddr("example.com");
+    Thread.sleep(100L);
+
+    // when
+    final InetAddress[] stale = cachingNameService.lookupAllHostAddr("example.com");
+    final InetAddress[] staleAgain = cachingNameService.lookupAllHostAddr("example.com");
+
+    // then -- the stale answer is kept for a while, so the failing upstream is not asked again right away.
+    assertArrayEquals(new InetAddress[] {address}, stale);
+    assertArrayEquals(new InetAddress[] {address}, staleAgain);
+    verify(this.delegate, times(2)).lookupAllHostAddr("example.com");
+  }
+
+  @Test
+  void testDoesNotCacheUpstreamFailure() throws UnknownHostException {
+    // given
+    when(this.delegate.lookupAllHostAddr("example.com")).thenThrow(new UpstreamUnavailableException("timeout"));
+    final CachingNameService cachingNameService =
+        new CachingNameService(null, this.delegate, ONE_MINUTE, ONE_MINUTE, 16, 0, 0L, ONE_MINUTE, Runnable::run, null);
+
+    // when
+    assertThrows(UpstreamUnavailableException.class, () -> cachingNameService.lookupAllHostAddr("example.com"));
+    assertThrows(UpstreamUnavailableException.class, () -> cachingNameService.lookupAllHostAddr("example.com"));
+
+    // then
+    verify(this.delegate, times(2)).lookupAllHostAddr("example.com");
+  }
+
+  @Test
+  void testUsesAnswerOfOtherJvm(@TempDir final Path tempDir) throws IOException {
+    // given
+    final InetAddress address = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 1});
+    when(this.delegate.lookupAllHostAddr("example.com")).thenReturn(new InetAddress[] {address});
+    final NameService otherDelegate = mock(NameService.class);
+    final Path sharedFile = tempDir.resolve("shared.cache");
+    final CachingNameService cachingNameService = new CachingNameService(
+        null, this.delegate, ONE_MINUTE, ONE_MINUTE, 16, 0, 0L, 0L, Runnable::run, SharedCache.open(sharedFile, 64));
+    final CachingNameService otherJvm = new CachingNameService(
+        null, otherDelegate, ONE_MINUTE, ONE_MINUTE, 16, 0, 0L, 0L, Runnable::run, SharedCache.open(sharedFile, 64));
+
+    // when
+    cachingNameService.lookupAllHostAddr("example.com");
+    final InetAddress[] shared = otherJvm.lookupAllHostAddr("EXAMPLE.com");
+
+    // then
+    assertArrayEquals(new InetAddress[] {address}, shared);
+    verifyNoInteractions(otherDelegate);
+  }
+
+  @Test
+  void testScanDoesNotEvictHotEntry() throws UnknownHostException {
+    // given
+    when(this.delegate.lookupAllHostAddr(anyString())).then(args ->
+        new InetAddress[] {InetAddress.getByAddress(args.getArgument(0), new byte[] {10, 0, 0, 1})});
+    final CachingNameService cachingNameService = new CachingNameService(null, this.delegate, ONE_MINUTE, ONE_MINUTE, 4);
+    cachingNameService.lookupAllHostAddr("hot.example.com");
+    cachingNameService.lookupAllHostAddr("hot.example.com");
+
+    // when
+    for (int hostNumber = 0; hostNumber < 32; hostNumber++) {
+      cachingNameService.lookupAllHostAddr("scan" + hostNumber + ".example.com");
+    }
+    cachingNameService.lookupAllHostAddr("hot.example.com");
+
+    // then
+    assertTrue(cachingNameService.size() <= 4);
+    verify(this.delegate, times(1)).lookupAllHostAddr("hot.example.com");
+  }
+
+}
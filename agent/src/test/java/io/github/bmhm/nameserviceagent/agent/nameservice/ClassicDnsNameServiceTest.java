@@ -0,0 +1,337 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.nameservice;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.bmhm.nameserviceagent.api.AddressFamily;
+import io.github.bmhm.nameserviceagent.api.BatchLookupResult;
+import io.github.bmhm.nameserviceagent.api.UpstreamUnavailableException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+class ClassicDnsNameServiceTest {
+
+  private static final InetAddress ANSWER = InetAddress.getLoopbackAddress();
+
+  private static final InetAddress UNREACHABLE_ANSWER = unreachableAddress();
+
+  private final DatagramSocket dnsServer = newSocket();
+
+  private final DatagramSocket silentServer = newSocket();
+
+  private final Set<Integer> queriedTypes = ConcurrentHashMap.newKeySet();
+
+  @AfterEach
+  void tearDown() {
+    this.dnsServer.close();
+    this.silentServer.close();
+  }
+
+  @Test
+  void testResolvesFromServer() throws UnknownHostException {
+    // given
+    this.startAnswering();
+    final ClassicDnsNameService nameService = new ClassicDnsNameService(null, Collections.singletonList(address(this.dnsServer)));
+
+    // when
+    final InetAddress[] addresses = nameService.lookupAllHostAddr("example.com");
+
+    // then
+    assertArrayEquals(new InetAddress[] {ANSWER}, addresses);
+  }
+
+  @Test
+  void testFailsOverToNextServer() throws UnknownHostException {
+    // given
+    this.startAnswering();
+    final ClassicDnsNameService nameService =
+        new ClassicDnsNameService(null, Arrays.asList(address(this.silentServer), address(this.dnsServer)));
+
+    // when
+    final InetAddress[] addresses = nameService.lookupAllHostAddr("example.com");
+
+    // then
+    assertArrayEquals(new InetAddress[] {ANSWER}, addresses);
+  }
+
+  @Test
+  void testUnknownHost() {
+    // given
+    this.startAnswering();
+    final ClassicDnsNameService nameService = new ClassicDnsNameService(null, Collections.singletonList(address(this.dnsServer)));
+
+    // then
+    assertThrows(UnknownHostException.class, () -> nameService.lookupAllHostAddr("unknown.invalid"));
+  }
+
+  @Test
+  void testUnreachableAnswerIsUnknownHost() {
+    // given
+    this.startAnswering();
+    final ClassicDnsNameService nameService = new ClassicDnsNameService(null, Collections.singletonList(address(this.dnsServer)));
+
+    // when
+    final UnknownHostException unreachable =
+        assertThrows(UnknownHostException.class, () -> nameService.lookupAllHostAddr("unreachable.example.com"));
+    final CompletableFuture<InetAddress[]> lookup = nameService.lookupAllHostAddrAsync("unreachable.example.com").toCompletableFuture();
+
+    // then
+    assertThat(unreachable.getMessage(), containsString("none of the resolved IP addresses is reachable"));
+    final ExecutionException lookupException = assertThrows(ExecutionException.class, () -> lookup.get(5L, TimeUnit.SECONDS));
+    assertEquals(UnknownHostException.class, lookupException.getCause().getClass());
+  }
+
+  @Test
+  void testOnlyQueriesRequestedFamily() throws UnknownHostException {
+    // given
+    this.startAnswering();
+    final ClassicDnsNameService nameService = new ClassicDnsNameService(null, Collections.singletonList(address(this.dnsServer)));
+
+    // when
+    final InetAddress[] addresses = nameService.lookupAllHostAddr("example.com", AddressFamily.IPV4);
+
+    // then
+    assertArrayEquals(new InetAddress[] {ANSWER}, addresses);
+    assertEquals(Collections.singleton(Type.A), this.queriedTypes);
+  }
+
+  @Test
+  void testRequestedFamilyWithoutAnswers() {
+    // given
+    this.startAnswering();
+    final ClassicDnsNameService nameService = new ClassicDnsNameService(null, Collections.singletonList(address(this.dnsServer)));
+
+    // then
+    assertThrows(UnknownHostException.class, () -> nameService.lookupAllHostAddr("example.com", AddressFamily.IPV6));
+    assertTrue(this.queriedTypes.contains(Type.AAAA));
+  }
+
+  @Test
+  void testBacksOffSilentUpstream() {
+    // given
+    final ClassicDnsNameService nameService = new ClassicDnsNameService(null, Collections.singletonList(address(this.silentServer)));
+
+    // when
+    assertThrows(UpstreamUnavailableException.class, () -> nameService.lookupAllHostAddr("example.com"));
+    final UpstreamUnavailableException backedOff =
+        assertThrows(UpstreamUnavailableException.class, () -> nameService.lookupAllHostAddr("example.com"));
+
+    // then -- the second lookup does not wait for another timeout.
+    assertThat(backedOff.getMessage(), containsString("backed off"));
+  }
+
+  @Test
+  void testServerFailureIsNoAnswer() {
+    // given
+    this.startAnswering();
+    final ClassicDnsNameService nameService = new ClassicDnsNameService(null, Collections.singletonList(address(this.dnsServer)));
+
+    // when
+    final UpstreamUnavailableException serverFailure =
+        assertThrows(UpstreamUnavailableException.class, () -> nameService.lookupAllHostAddr("servfail.example.com"));
+    final UpstreamUnavailableException backedOff =
+        assertThrows(UpstreamUnavailableException.class, () -> nameService.lookupAllHostAddr("example.com"));
+
+    // then
+    assertThat(serverFailure.getCause().getMessage(), containsString("SERVFAIL"));
+    assertThat(backedOff.getMessage(), containsString("backed off"));
+  }
+
+  @Test
+  void testResolvesAsync() throws Exception {
+    // given
+    this.startAnswering();
+    final ClassicDnsNameService nameService = new ClassicDnsNameService(null, Collections.singletonList(address(this.dnsServer)));
+
+    // when
+    final InetAddress[] addresses = nameService.lookupAllHostAddrAsync("example.com").toCompletableFuture().get(5L, TimeUnit.SECONDS);
+
+    // then
+    assertArrayEquals(new InetAddress[] {ANSWER}, addresses);
+  }
+
+  @Test
+  void testUnknownHostAsync() {
+    // given
+    this.startAnswering();
+    final ClassicDnsNameService nameService = new ClassicDnsNameService(null, Collections.singletonList(address(this.dnsServer)));
+
+    // when
+    final CompletableFuture<InetAddress[]> lookup = nameService.lookupAllHostAddrAsync("unknown.invalid").toCompletableFuture();
+
+    // then
+    final ExecutionException lookupException = assertThrows(ExecutionException.class, () -> lookup.get(5L, TimeUnit.SECONDS));
+    assertEquals(UnknownHostException.class, lookupException.getCause().getClass());
+  }
+
+  @Test
+  void testReverseLookupWithoutAnswer() {
+    // given
+    this.startAnswering();
+    final ClassicDnsNameService nameService = new ClassicDnsNameService(null, Collections.singletonList(address(this.dnsServer)));
+    final byte[] addr = {(byte) 192, 0, 2, 1};
+
+    // then
+    assertThrows(UnknownHostException.class, () -> nameService.getHostByAddr(addr));
+    final CompletableFuture<String> lookup = nameService.getHostByAddrAsync(addr).toCompletableFuture();
+    final ExecutionException lookupException = assertThrows(ExecutionException.class, () -> lookup.get(5L, TimeUnit.SECONDS));
+    assertEquals(UnknownHostException.class, lookupException.getCause().getClass());
+  }
+
+  @Test
+  void testBatchLookup() {
+    // given
+    this.startAnswering();
+    final ClassicDnsNameService nameService = new ClassicDnsNameService(null, Collections.singletonList(address(this.dnsServer)));
+
+    // when
+    final BatchLookupResult result =
+        nameService.batchLookupAllHostAddr(Arrays.asList("example.com", "unknown.invalid", "example.org", "example.com"));
+
+    // then
+    assertEquals(new HashSet<>(Arrays.asList("example.com", "example.org")), result.getAddresses().keySet());
+    assertArrayEquals(new InetAddress[] {ANSWER}, result.getAddresses().get("example.org"));
+    assertEquals(Collections.singleton("unknown.invalid"), result.getFailures().keySet());
+  }
+
+  @Test
+  void testParseServer() throws UnknownHostException {
+    assertEquals(new InetSocketAddress(InetAddress.getByName("192.0.2.1"), 53), ClassicDnsNameService.parseServer("192.0.2.1", 53));
+    assertEquals(new InetSocketAddress(InetAddress.getByName("192.0.2.1"), 5353), ClassicDnsNameService.parseServer("192.0.2.1:5353", 53));
+    assertEquals(new InetSocketAddress(InetAddress.getByName("2001:db8::1"), 53), ClassicDnsNameService.parseServer("2001:db8::1", 53));
+    assertEquals(new InetSocketAddress(InetAddress.getByName("2001:db8::1"), 853), ClassicDnsNameService.parseServer("[2001:db8::1]:853", 53));
+    assertThrows(IllegalArgumentException.class, () -> ClassicDnsNameService.parseServer("dns.example.com", 53));
+  }
+
+  @Test
+  void testGetConfiguredServers() throws UnknownHostException {
+    // when
+    final List<InetSocketAddress> servers = ClassicDnsNameService.getConfiguredServers("192.0.2.1, ,[2001:db8::1]:5353");
+
+    // then
+    assertEquals(
+        Arrays.asList(
+            new InetSocketAddress(InetAddress.getByName("192.0.2.1"), 53),
+            new InetSocketAddress(InetAddress.getByName("2001:db8::1"), 5353)),
+        servers);
+  }
+
+  @Test
+  void testRequiresServers() {
+    assertThrows(IllegalArgumentException.class, () -> new ClassicDnsNameService(null, Collections.emptyList()));
+  }
+
+  @Test
+  void testToStringContainsServers() {
+    // given
+    final ClassicDnsNameService nameService = new ClassicDnsNameService(null, Collections.singletonList(address(this.dnsServer)));
+
+    // then
+    assertThat(nameService.toString(), containsString("servers=[" + address(this.dnsServer)));
+  }
+
+  private void startAnswering() {
+    final Thread serverThread = new Thread(() -> {
+      final byte[] buffer = new byte[512];
+
+      while (!this.dnsServer.isClosed()) {
+        try {
+          final DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+          this.dnsServer.receive(request);
+          final Message query = new Message(Arrays.copyOf(request.getData(), request.getLength()));
+          this.queriedTypes.add(query.getQuestion().getType());
+          final byte[] response = answer(query).toWire();
+          this.dnsServer.send(new DatagramPacket(response, response.length, request.getSocketAddress()));
+        } catch (final IOException ioException) {
+          // closed
+        }
+      }
+    });
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  private static Message answer(final Message query) {
+    final Message response = new Message(query.getHeader().getID());
+    response.getHeader().setFlag(Flags.QR);
+    response.addRecord(query.getQuestion(), Section.QUESTION);
+
+    if (query.getQuestion().getName().toString().startsWith("unknown.")) {
+      response.getHeader().setRcode(Rcode.NXDOMAIN);
+    } else if (query.getQuestion().getName().toString().startsWith("servfail.")) {
+      response.getHeader().setRcode(Rcode.SERVFAIL);
+    } else if (query.getQuestion().getName().toString().startsWith("unreachable.") && query.getQuestion().getType() == Type.A) {
+      response.addRecord(new ARecord(query.getQuestion().getName(), DClass.IN, 60L, UNREACHABLE_ANSWER), Section.ANSWER);
+    } else if (query.getQuestion().getType() == Type.A) {
+      response.addRecord(new ARecord(query.getQuestion().getName(), DClass.IN, 60L, ANSWER), Section.ANSWER);
+    }
+
+    return response;
+  }
+
+  private static InetSocketAddress address(final DatagramSocket socket) {
+    return new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+  }
+
+  private static InetAddress unreachableAddress() {
+    try {
+      // TEST-NET-1, never routed.
+      return InetAddress.getByAddress(new byte[] {(byte) 192, 0, 2, (byte) 222});
+    } catch (final UnknownHostException unknownHostException) {
+      throw new IllegalStateException(unknownHostException);
+    }
+  }
+
+  private static DatagramSocket newSocket() {
+    try {
+      return new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    } catch (final SocketException socketException) {
+      throw new IllegalStateException(socketException);
+    }
+  }
+}
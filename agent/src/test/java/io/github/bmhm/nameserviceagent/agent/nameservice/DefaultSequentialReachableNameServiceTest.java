@@ -17,19 +17,24 @@
 package io.github.bmhm.nameserviceagent.agent.nameservice;
 
 import static io.github.bmhm.nameserviceagent.agent.nameservice.ProxyIpv4Helper.GOOGLE_IP;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import io.github.bmhm.nameserviceagent.api.AbstractProxyNameService;
+import io.github.bmhm.nameserviceagent.api.LookupResult;
 import io.github.bmhm.nameserviceagent.api.NameService;
 
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.time.Instant;
 
 class DefaultSequentialReachableNameServiceTest {
 
@@ -66,4 +71,26 @@ class DefaultSequentialReachableNameServiceTest {
 
   }
 
+  @Test
+  void testLookupKeepsTtlAndSource() throws IOException {
+    // given
+    final AbstractProxyNameService original = mock(AbstractProxyNameService.class);
+    final DefaultSequentialReachableNameService defaultSequentialReachableNameService = new DefaultSequentialReachableNameService(original);
+    // another address than the other tests, as verdicts are cached.
+    final InetAddress fakeInetAddress = mock(Inet4Address.class);
+    when(fakeInetAddress.getAddress()).then(args -> new byte[] {(byte) 192, 0, 2, 1});
+    when(fakeInetAddress.isReachable(anyInt())).thenReturn(true);
+    final Instant resolvedAt = Instant.parse("2020-01-01T00:00:00Z");
+    when(original.lookup(GOOGLE_COM_DOMAIN)).thenReturn(new LookupResult(new InetAddress[] {fakeInetAddress}, 300L, "upstream", resolvedAt));
+
+    // when
+    final LookupResult result = defaultSequentialReachableNameService.lookup(GOOGLE_COM_DOMAIN);
+
+    // then
+    assertEquals(1, result.getAddresses().length);
+    assertEquals(300L, result.getTtlSeconds());
+    assertEquals("upstream", result.getSource());
+    assertEquals(resolvedAt, result.getResolvedAt());
+  }
+
 }
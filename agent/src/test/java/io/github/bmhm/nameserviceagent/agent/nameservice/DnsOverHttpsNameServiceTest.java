@@ -16,12 +16,18 @@
 
 package io.github.bmhm.nameserviceagent.agent.nameservice;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
+import org.xbill.DNS.DohResolver;
+import org.xbill.DNS.ExtendedResolver;
+import org.xbill.DNS.Resolver;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.time.Duration;
 
 class DnsOverHttpsNameServiceTest {
 
@@ -63,4 +69,30 @@ class DnsOverHttpsNameServiceTest {
     assertTrue(inetAddresses.length != 0);
   }
 
+  @Test
+  void testSingleEndpoint() {
+    // when
+    final Resolver resolver = DnsOverHttpsNameService.createResolver("https://dns.google/dns-query", Duration.ofSeconds(1L));
+
+    // then
+    assertTrue(resolver instanceof DohResolver);
+    assertEquals("https://dns.google/dns-query", ((DohResolver) resolver).getUriTemplate());
+  }
+
+  @Test
+  void testSeveralEndpointsFailOver() {
+    // when
+    final Resolver resolver = DnsOverHttpsNameService.createResolver(
+        "https://dns.google/dns-query, https://cloudflare-dns.com/dns-query",
+        Duration.ofSeconds(1L));
+
+    // then
+    assertTrue(resolver instanceof ExtendedResolver);
+    assertEquals(2, ((ExtendedResolver) resolver).getResolvers().length);
+  }
+
+  @Test
+  void testNoEndpoint() {
+    assertThrows(IllegalArgumentException.class, () -> DnsOverHttpsNameService.createResolver(" , ", Duration.ofSeconds(1L)));
+  }
 }
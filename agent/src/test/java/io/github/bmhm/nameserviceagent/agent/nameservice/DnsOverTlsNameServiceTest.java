@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.nameservice;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.bmhm.nameserviceagent.wire.TlsDnsClient;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+
+class DnsOverTlsNameServiceTest {
+
+  private static final InetAddress ANSWER = InetAddress.getLoopbackAddress();
+
+  private final ServerSocket dnsServer = newServerSocket();
+
+  @AfterEach
+  void tearDown() throws IOException {
+    this.dnsServer.close();
+  }
+
+  @Test
+  void testCreatesClientPerServer() {
+    // when
+    final List<TlsDnsClient> clients = DnsOverTlsNameService.createClients("8.8.8.8:853#dns.google, [2001:4860:4860::8888]#dns.google", 1);
+
+    // then
+    assertEquals(2, clients.size());
+    assertTrue(clients.get(0).toString().contains("dns.google@"));
+    assertTrue(clients.get(0).toString().endsWith("8.8.8.8:853]"));
+  }
+
+  @Test
+  void testTlsNameIsRequired() {
+    assertThrows(IllegalArgumentException.class, () -> DnsOverTlsNameService.createClients("8.8.8.8:853", 1));
+  }
+
+  @Test
+  void testFailsOverToNextServer() throws Exception {
+    // given -- the first server cannot be connected to, the second one answers.
+    this.startAnswering();
+    final TlsDnsClient unreachable = new TlsDnsClient(
+        () -> {
+          throw new ConnectException("Connection refused");
+        },
+        "unreachable",
+        1);
+    final TlsDnsClient answering = new TlsDnsClient(
+        () -> new Socket(InetAddress.getLoopbackAddress(), this.dnsServer.getLocalPort()),
+        "answering",
+        1);
+    final DnsOverTlsNameService nameService = new DnsOverTlsNameService(null, Arrays.asList(unreachable, answering));
+
+    try {
+      // when
+      final InetAddress[] addresses = nameService.lookupAllHostAddr("example.com");
+
+      // then
+      assertArrayEquals(new InetAddress[] {ANSWER}, addresses);
+    } finally {
+      unreachable.close();
+      answering.close();
+    }
+  }
+
+  private void startAnswering() {
+    final Thread serverThread = new Thread(() -> {
+      try (Socket connection = this.dnsServer.accept()) {
+        final DataInputStream in = new DataInputStream(connection.getInputStream());
+        final DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+
+        while (true) {
+          final byte[] wire = new byte[in.readUnsignedShort()];
+          in.readFully(wire);
+          final byte[] response = answer(new Message(wire)).toWire();
+
+          synchronized (out) {
+            out.writeShort(response.length);
+            out.write(response);
+            out.flush();
+          }
+        }
+      } catch (final IOException ioException) {
+        // closed
+      }
+    });
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  private static Message answer(final Message query) {
+    final Message response = new Message(query.getHeader().getID());
+    response.getHeader().setFlag(Flags.QR);
+    response.addRecord(query.getQuestion(), Section.QUESTION);
+
+    if (query.getQuestion().getType() == Type.A) {
+      response.addRecord(new ARecord(query.getQuestion().getName(), DClass.IN, 60L, ANSWER), Section.ANSWER);
+    }
+
+    return response;
+  }
+
+  private static ServerSocket newServerSocket() {
+    try {
+      return new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    } catch (final IOException ioException) {
+      throw new IllegalStateException(ioException);
+    }
+  }
+}
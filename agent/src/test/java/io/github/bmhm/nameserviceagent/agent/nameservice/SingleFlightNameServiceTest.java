@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.nameservice;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.github.bmhm.nameserviceagent.api.AddressFamily;
+import io.github.bmhm.nameserviceagent.api.NameService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+class SingleFlightNameServiceTest {
+
+  private static final int CALLERS = 8;
+
+  private final NameService delegate = mock(NameService.class);
+
+  private final SingleFlightNameService singleFlightNameService = new SingleFlightNameService(null, this.delegate);
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+  private final CountDownLatch lookupStarted = new CountDownLatch(1);
+
+  private final CountDownLatch releaseLookup = new CountDownLatch(1);
+
+  @AfterEach
+  void tearDown() {
+    this.executor.shutdownNow();
+  }
+
+  @Test
+  void testConcurrentLookupsShareOneLookup() throws Exception {
+    // given
+    final InetAddress address = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 1});
+    when(this.delegate.lookupAllHostAddr("example.com")).then(args -> {
+      this.lookupStarted.countDown();
+      this.releaseLookup.await();
+      return new InetAddress[] {address};
+    });
+
+    // when
+    final List<Future<InetAddress[]>> lookups = this.startConcurrentLookups("example.com");
+
+    // then
+    for (final Future<InetAddress[]> lookup : lookups) {
+      assertArrayEquals(new InetAddress[] {address}, lookup.get(5L, TimeUnit.SECONDS));
+    }
+
+    verify(this.delegate, times(1)).lookupAllHostAddr("example.com");
+    assertEquals(0, this.singleFlightNameService.inFlightLookups());
+  }
+
+  @Test
+  void testErrorIsShared() throws Exception {
+    // given
+    when(this.delegate.lookupAllHostAddr("unknown.invalid")).then(args -> {
+      this.lookupStarted.countDown();
+      this.releaseLookup.await();
+      throw new UnknownHostException("unknown.invalid");
+    });
+
+    // when
+    final List<Future<InetAddress[]>> lookups = this.startConcurrentLookups("unknown.invalid");
+
+    // then
+    for (final Future<InetAddress[]> lookup : lookups) {
+      final ExecutionException executionException = assertThrows(ExecutionException.class, () -> lookup.get(5L, TimeUnit.SECONDS));
+      assertTrue(executionException.getCause() instanceof UnknownHostException);
+      assertEquals("unknown.invalid", executionException.getCause().getMessage());
+    }
+
+    verify(this.delegate, times(1)).lookupAllHostAddr("unknown.invalid");
+  }
+
+  @Test
+  void testForwardsAddressFamily() throws Exception {
+    // given
+    final InetAddress address = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 1});
+    when(this.delegate.lookupAllHostAddr("example.com", AddressFamily.IPV4)).thenReturn(new InetAddress[] {address});
+
+    // when
+    final InetAddress[] addresses = this.singleFlightNameService.lookupAllHostAddr("example.com", AddressFamily.IPV4);
+
+    // then
+    assertArrayEquals(new InetAddress[] {address}, addresses);
+    verify(this.delegate, times(1)).lookupAllHostAddr("example.com", AddressFamily.IPV4);
+  }
+
+  private List<Future<InetAddress[]>> startConcurrentLookups(final String host) throws InterruptedException {
+    final List<Future<InetAddress[]>> lookups = new ArrayList<>(CALLERS);
+    lookups.add(this.executor.submit(() -> this.singleFlightNameService.lookupAllHostAddr(host)));
+    assertTrue(this.lookupStarted.await(5L, TimeUnit.SECONDS));
+
+    for (int caller = 1; caller < CALLERS; caller++) {
+      lookups.add(this.executor.submit(() -> this.singleFlightNameService.lookupAllHostAddr(host)));
+    }
+
+    // give the other callers a moment to join the running lookup.
+    Thread.sleep(200L);
+
+    this.releaseLookup.countDown();
+
+    return lookups;
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+class ExponentialBackoffTest {
+
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1L);
+
+  @Test
+  void testDelayDoublesUpToMaximum() {
+    // given
+    final ExponentialBackoff backoff = new ExponentialBackoff(100L, 300L);
+
+    // when / then
+    backoff.recordFailure(0L, 0L);
+    assertFalse(backoff.isCallAllowed(99 * MS));
+    assertTrue(backoff.isCallAllowed(100 * MS));
+
+    // the trial call failed.
+    backoff.recordFailure(100 * MS, 150 * MS);
+    assertFalse(backoff.isCallAllowed(349 * MS));
+    assertTrue(backoff.isCallAllowed(350 * MS));
+
+    backoff.recordFailure(350 * MS, 350 * MS);
+    assertFalse(backoff.isCallAllowed(649 * MS));
+    assertTrue(backoff.isCallAllowed(650 * MS));
+  }
+
+  @Test
+  void testAllowsOneTrialCallPerDelay() {
+    // given
+    final ExponentialBackoff backoff = new ExponentialBackoff(100L, 10_000L);
+    backoff.recordFailure(0L, 0L);
+
+    // when
+    final boolean trial = backoff.isCallAllowed(100 * MS);
+
+    // then -- the others wait for the trial call, or another delay if it does not finish.
+    assertTrue(trial);
+    assertFalse(backoff.isCallAllowed(100 * MS));
+    assertFalse(backoff.isCallAllowed(199 * MS));
+    assertTrue(backoff.isCallAllowed(200 * MS));
+  }
+
+  @Test
+  void testConcurrentFailuresDoNotGrowDelay() {
+    // given
+    final ExponentialBackoff backoff = new ExponentialBackoff(100L, 10_000L);
+
+    // when -- both calls started before the first failure was recorded.
+    backoff.recordFailure(0L, 50 * MS);
+    backoff.recordFailure(0L, 60 * MS);
+
+    // then
+    assertEquals(1, backoff.getFailures());
+    assertTrue(backoff.isCallAllowed(150 * MS));
+  }
+
+  @Test
+  void testSuccessResetsDelay() {
+    // given
+    final ExponentialBackoff backoff = new ExponentialBackoff(100L, 10_000L);
+    backoff.recordFailure(0L, 0L);
+
+    // when
+    backoff.recordSuccess();
+
+    // then
+    assertTrue(backoff.isCallAllowed(0L));
+    assertTrue(backoff.isCallAllowed(0L));
+    assertEquals(0, backoff.getFailures());
+  }
+}
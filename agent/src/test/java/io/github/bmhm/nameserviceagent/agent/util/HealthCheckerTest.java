@@ -0,0 +1,210 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+class HealthCheckerTest {
+
+  private final Set<InetAddress> reachableAddresses = Collections.synchronizedSet(new HashSet<>());
+
+  private final AtomicInteger inlineProbes = new AtomicInteger();
+
+  private final HealthChecker healthChecker = new HealthChecker(
+      this.reachableAddresses::contains,
+      addresses -> {
+        this.inlineProbes.addAndGet(addresses.size());
+        return addresses.stream().filter(this.reachableAddresses::contains).collect(Collectors.toList());
+      },
+      Runnable::run,
+      Runnable::run,
+      600_000L,
+      16);
+
+  @Test
+  void testKnownAddressesAreNotProbedInline() throws UnknownHostException {
+    // given
+    final List<InetAddress> addresses = addresses(3);
+    this.reachableAddresses.add(addresses.get(1));
+
+    // when
+    final List<InetAddress> firstLookup = this.healthChecker.filterHealthy(addresses);
+    final List<InetAddress> secondLookup = this.healthChecker.filterHealthy(addresses);
+
+    // then
+    assertEquals(addresses.subList(1, 2), firstLookup);
+    assertEquals(addresses.subList(1, 2), secondLookup);
+    assertEquals(3, this.inlineProbes.get());
+  }
+
+  @Test
+  void testBackgroundCheckUpdatesHealth() throws UnknownHostException, InterruptedException {
+    // given
+    final List<InetAddress> addresses = addresses(3);
+    this.reachableAddresses.add(addresses.get(1));
+    this.healthChecker.filterHealthy(addresses);
+
+    // when -- the first address comes back, the second goes away.
+    this.reachableAddresses.add(addresses.get(0));
+    this.reachableAddresses.remove(addresses.get(1));
+    this.healthChecker.checkAll(1_000L);
+
+    // then
+    assertEquals(addresses.subList(0, 1), this.healthChecker.filterHealthy(addresses));
+    assertEquals(3, this.inlineProbes.get());
+  }
+
+  @Test
+  void testStillRunningChecksAreSkipped() throws UnknownHostException, InterruptedException {
+    // given -- the background probe hangs until released.
+    final CountDownLatch probeReleased = new CountDownLatch(1);
+    final AtomicInteger backgroundProbes = new AtomicInteger();
+    final ExecutorService checkExecutor = Executors.newSingleThreadExecutor();
+    final HealthChecker hangingChecker = new HealthChecker(address -> {
+      backgroundProbes.incrementAndGet();
+      awaitQuietly(probeReleased);
+      return true;
+    }, ArrayList::new, Runnable::run, checkExecutor, 600_000L, 16);
+    hangingChecker.filterHealthy(addresses(1));
+
+    try {
+      // when
+      hangingChecker.checkAll(50L);
+      hangingChecker.checkAll(50L);
+      hangingChecker.checkAll(50L);
+
+      // then
+      assertEquals(1, backgroundProbes.get());
+    } finally {
+      probeReleased.countDown();
+      checkExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testRejectedChecksAreRetried() throws UnknownHostException, InterruptedException {
+    // given -- the queue of the executor is full on the first check.
+    final AtomicInteger backgroundProbes = new AtomicInteger();
+    final AtomicInteger submissions = new AtomicInteger();
+    final HealthChecker rejectingChecker = new HealthChecker(address -> backgroundProbes.incrementAndGet() > 0, ArrayList::new,
+        Runnable::run, command -> {
+          if (submissions.getAndIncrement() == 0) {
+            throw new RejectedExecutionException("full");
+          }
+          command.run();
+        }, 600_000L, 16);
+    final List<InetAddress> addresses = addresses(2);
+    rejectingChecker.filterHealthy(addresses);
+
+    // when
+    rejectingChecker.checkAll(1_000L);
+    final int probesAfterRejection = backgroundProbes.get();
+    rejectingChecker.checkAll(1_000L);
+
+    // then
+    assertEquals(0, probesAfterRejection);
+    assertEquals(2, backgroundProbes.get());
+    assertEquals(addresses, rejectingChecker.filterHealthy(addresses));
+  }
+
+  @Test
+  void testAsyncFilterProbesUnknownAddressesOnExecutor()
+      throws UnknownHostException, InterruptedException, ExecutionException, TimeoutException {
+    // given -- the inline probe blocks until released.
+    final CountDownLatch probeReleased = new CountDownLatch(1);
+    final AtomicReference<Thread> probingThread = new AtomicReference<>();
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    final HealthChecker asyncChecker = new HealthChecker(address -> true, unknownAddresses -> {
+      probingThread.set(Thread.currentThread());
+      awaitQuietly(probeReleased);
+      return new ArrayList<>(unknownAddresses);
+    }, executor, Runnable::run, 600_000L, 16);
+    final List<InetAddress> addresses = addresses(2);
+
+    try {
+      // when -- e.g. called on the thread receiving DNS answers, which must not block.
+      final CompletableFuture<List<InetAddress>> healthy = asyncChecker.filterHealthyAsync(addresses);
+      final boolean doneBeforeProbe = healthy.isDone();
+      probeReleased.countDown();
+
+      // then
+      assertFalse(doneBeforeProbe);
+      assertEquals(addresses, healthy.get(10L, TimeUnit.SECONDS));
+      assertNotSame(Thread.currentThread(), probingThread.get());
+      // seen before, so answered right away.
+      assertTrue(asyncChecker.filterHealthyAsync(addresses).isDone());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testUnseenAddressesAreForgotten() throws UnknownHostException, InterruptedException {
+    // given
+    final HealthChecker forgetful = new HealthChecker(address -> true, ArrayList::new, Runnable::run, Runnable::run, 0L, 16);
+    forgetful.filterHealthy(addresses(2));
+
+    // when
+    forgetful.checkAll(1_000L);
+
+    // then
+    assertEquals(0, forgetful.size());
+  }
+
+  private static void awaitQuietly(final CountDownLatch latch) {
+    try {
+      latch.await(10L, TimeUnit.SECONDS);
+    } catch (final InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static List<InetAddress> addresses(final int count) throws UnknownHostException {
+    final InetAddress[] addresses = new InetAddress[count];
+
+    for (int addressNumber = 0; addressNumber < count; addressNumber++) {
+      addresses[addressNumber] = InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) addressNumber});
+    }
+
+    return Arrays.asList(addresses);
+  }
+}
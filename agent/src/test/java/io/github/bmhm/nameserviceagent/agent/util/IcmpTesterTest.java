@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+class IcmpTesterTest {
+
+  private static final int CAP_NET_RAW = 13;
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void testCapabilityIsEffective() throws IOException {
+    // given -- the default capabilities of root
+    final Path procStatus = this.writeStatus("CapEff:\t000001ffffffffff");
+
+    // when
+    final boolean privileged = IcmpTester.hasCapability(procStatus, CAP_NET_RAW);
+
+    // then
+    assertTrue(privileged);
+  }
+
+  @Test
+  void testCapabilityIsMissing() throws IOException {
+    // given -- a regular user
+    final Path procStatus = this.writeStatus("CapEff:\t0000000000000000");
+
+    // when
+    final boolean privileged = IcmpTester.hasCapability(procStatus, CAP_NET_RAW);
+
+    // then
+    assertFalse(privileged);
+  }
+
+  @Test
+  void testUnreadableStatusKeepsTester() {
+    // when
+    final boolean privileged = IcmpTester.hasCapability(this.tempDir.resolve("missing"), CAP_NET_RAW);
+
+    // then
+    assertTrue(privileged);
+  }
+
+  private Path writeStatus(final String capEffective) throws IOException {
+    final Path procStatus = this.tempDir.resolve("status");
+    Files.write(procStatus, Arrays.asList("Name:\tjava", "CapPrm:\t0000000000000000", capEffective), StandardCharsets.US_ASCII);
+
+    return procStatus;
+  }
+}
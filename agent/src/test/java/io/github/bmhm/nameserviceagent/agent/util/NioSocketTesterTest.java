@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+class NioSocketTesterTest {
+
+  @Test
+  void testListeningPortIsReachable() throws IOException {
+    try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      // given
+      final NioSocketTester tester = new NioSocketTester(ProbePorts.parse(String.valueOf(serverSocket.getLocalPort())));
+
+      // when
+      final boolean reachable = tester.isReachable(InetAddress.getLoopbackAddress(), 1_000);
+
+      // then
+      assertTrue(reachable);
+    }
+  }
+
+  @Test
+  void testRefusedPortIsReachable() throws IOException {
+    // given -- a port nobody listens on any more, the host will actively refuse.
+    final int closedPort;
+
+    try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      closedPort = serverSocket.getLocalPort();
+    }
+
+    final NioSocketTester tester = new NioSocketTester(ProbePorts.parse(String.valueOf(closedPort)));
+
+    // when
+    final boolean reachable = tester.isReachable(InetAddress.getLoopbackAddress(), 1_000);
+
+    // then
+    assertTrue(reachable);
+  }
+
+  @Test
+  void testAnyOfSeveralPortsWins() throws IOException {
+    try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      // given
+      final String loopback = InetAddress.getLoopbackAddress().getHostAddress();
+      final NioSocketTester tester = new NioSocketTester(ProbePorts.parse("9;" + loopback + "=1," + serverSocket.getLocalPort()));
+
+      // when
+      final boolean reachable = tester.isReachable(InetAddress.getLoopbackAddress(), 1_000);
+
+      // then
+      assertTrue(reachable);
+    }
+  }
+
+  @Test
+  void testManyConcurrentProbesOnOneThread() throws Exception {
+    try (ServerSocket serverSocket = new ServerSocket(0, 500, InetAddress.getLoopbackAddress())) {
+      // given
+      final SelectorProbeEngine engine = SelectorProbeEngine.getInstance();
+      final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+      final List<CompletableFuture<Boolean>> probes = new ArrayList<>();
+
+      // when
+      for (int probeNumber = 0; probeNumber < 200; probeNumber++) {
+        probes.add(engine.probe(target, 2_000));
+      }
+
+      // then
+      for (final CompletableFuture<Boolean> probe : probes) {
+        assertTrue(probe.get(5L, TimeUnit.SECONDS));
+      }
+    }
+  }
+}
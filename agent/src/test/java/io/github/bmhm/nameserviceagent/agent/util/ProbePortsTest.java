@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+class ProbePortsTest {
+
+  private final ProbePorts probePorts = ProbePorts.parse("80, 443; DB.example.com=5432; 10.0.0.1=22");
+
+  @Test
+  void testDefaultPorts() throws UnknownHostException {
+    final InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 0, 2});
+
+    assertArrayEquals(new int[] {80, 443}, this.probePorts.getPorts(address));
+  }
+
+  @Test
+  void testPortsByLiteral() throws UnknownHostException {
+    final InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+
+    assertArrayEquals(new int[] {22}, this.probePorts.getPorts(address));
+  }
+
+  @Test
+  void testPortsByHostName() throws UnknownHostException {
+    final InetAddress address = InetAddress.getByAddress("db.example.com", new byte[] {10, 0, 0, 3});
+
+    assertArrayEquals(new int[] {5432}, this.probePorts.getPorts(address));
+  }
+
+  @Test
+  void testEmptySpecificationUsesPort80() throws UnknownHostException {
+    final InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 0, 2});
+
+    assertArrayEquals(new int[] {80}, ProbePorts.parse("").getPorts(address));
+  }
+
+  @Test
+  void testMalformedPortsAreIgnored() throws UnknownHostException {
+    // given
+    final ProbePorts malformed = ProbePorts.parse("http, 443; 10.0.0.1=ssh");
+
+    // when / then -- a list without any valid port falls back to port 80.
+    assertArrayEquals(new int[] {443}, malformed.getPorts(InetAddress.getByAddress(new byte[] {10, 0, 0, 2})));
+    assertArrayEquals(new int[] {80}, malformed.getPorts(InetAddress.getByAddress(new byte[] {10, 0, 0, 1})));
+  }
+
+  @Test
+  void testOutOfRangePortsAreIgnored() throws UnknownHostException {
+    // given
+    final ProbePorts outOfRange = ProbePorts.parse("0, 8080, 65536; 10.0.0.1=-1");
+
+    // when / then
+    assertArrayEquals(new int[] {8080}, outOfRange.getPorts(InetAddress.getByAddress(new byte[] {10, 0, 0, 2})));
+    assertArrayEquals(new int[] {80}, outOfRange.getPorts(InetAddress.getByAddress(new byte[] {10, 0, 0, 1})));
+  }
+}
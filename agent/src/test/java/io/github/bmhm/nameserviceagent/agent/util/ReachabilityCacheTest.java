@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.github.bmhm.nameserviceagent.agent.util.ReachabilityCache.Verdict;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+class ReachabilityCacheTest {
+
+  private final ReachabilityCache cache = new ReachabilityCache(10_000L, 1_000L, 500L, 64);
+
+  private final long now = System.nanoTime();
+
+  @Test
+  void testSeparateTtls() throws UnknownHostException {
+    // given
+    final InetAddress reachable = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+    final InetAddress unreachable = InetAddress.getByAddress(new byte[] {10, 0, 1, 1});
+
+    // when
+    this.cache.put(reachable, true, this.now);
+    this.cache.put(unreachable, false, this.now);
+
+    // then
+    assertEquals(Verdict.REACHABLE, this.cache.lookup(reachable, this.later(900L)));
+    assertEquals(Verdict.UNREACHABLE, this.cache.lookup(unreachable, this.later(900L)));
+    assertEquals(Verdict.REACHABLE, this.cache.lookup(reachable, this.later(2_000L)));
+    assertEquals(Verdict.UNKNOWN, this.cache.lookup(unreachable, this.later(2_000L)));
+  }
+
+  @Test
+  void testUnknownAddress() throws UnknownHostException {
+    this.cache.put(InetAddress.getByAddress(new byte[] {10, 0, 0, 1}), true, this.now);
+
+    assertEquals(Verdict.UNKNOWN, this.cache.lookup(InetAddress.getByAddress(new byte[] {10, 0, 0, 2}), this.now));
+  }
+
+  @Test
+  void testIpv6() throws UnknownHostException {
+    // given
+    final InetAddress address = InetAddress.getByName("2001:db8::1");
+
+    // when
+    this.cache.put(address, true, this.now);
+
+    // then
+    assertEquals(Verdict.REACHABLE, this.cache.lookup(InetAddress.getByName("2001:db8:0:0::1"), this.now));
+  }
+
+  @Test
+  void testRestoresExportedVerdicts() throws UnknownHostException {
+    // given
+    final InetAddress ipv4 = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+    final InetAddress ipv6 = InetAddress.getByName("2001:db8::1");
+    this.cache.put(ipv4, true, this.now);
+    this.cache.put(ipv6, false, this.now);
+    final ReachabilityCache restored = new ReachabilityCache(10_000L, 1_000L, 500L, 64);
+
+    // when
+    final List<CachedVerdict> verdicts = this.cache.getVerdicts(this.later(500L));
+    verdicts.forEach(verdict -> restored.restore(verdict, this.now));
+
+    // then -- the remaining lifetime is kept.
+    assertEquals(2, verdicts.size());
+    assertEquals(Verdict.REACHABLE, restored.lookup(ipv4, this.later(9_000L)));
+    assertEquals(Verdict.UNKNOWN, restored.lookup(ipv4, this.later(9_600L)));
+    assertEquals(Verdict.UNREACHABLE, restored.lookup(ipv6, this.later(400L)));
+    assertEquals(Verdict.UNKNOWN, restored.lookup(ipv6, this.later(600L)));
+  }
+
+  @Test
+  void testNoRouteMarksWholeNetwork() throws UnknownHostException {
+    // given
+    this.cache.markRouteUnreachable(InetAddress.getByAddress(new byte[] {10, 0, 0, 1}), this.now);
+
+    // then
+    assertEquals(Verdict.UNREACHABLE, this.cache.lookup(InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) 200}), this.now));
+    assertEquals(Verdict.UNKNOWN, this.cache.lookup(InetAddress.getByAddress(new byte[] {10, 0, 1, 1}), this.now));
+    assertEquals(Verdict.UNKNOWN, this.cache.lookup(InetAddress.getByAddress(new byte[] {10, 0, 0, 2}), this.later(1_000L)));
+  }
+
+  @Test
+  void testZeroTtlDisablesCaching() throws UnknownHostException {
+    // given
+    final ReachabilityCache disabled = new ReachabilityCache(0L, 0L, 0L, 64);
+    final InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+
+    // when
+    disabled.put(address, true, this.now);
+    disabled.markRouteUnreachable(address, this.now);
+
+    // then
+    assertEquals(Verdict.UNKNOWN, disabled.lookup(address, this.now));
+  }
+
+  private long later(final long millis) {
+    return this.now + TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+class ReachableUtilTest {
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4, new DaemonThreadFactory("test"));
+
+  @AfterEach
+  void tearDown() {
+    this.executor.shutdownNow();
+  }
+
+  @Test
+  void testParallelFilterRetainsOrder() throws UnknownHostException {
+    // given -- the first address answers last.
+    final List<InetAddress> addresses = addresses(4);
+    final Predicate<InetAddress> probe = address -> {
+      sleep(address.getAddress()[3] == 0 ? 200L : 10L);
+      return address.getAddress()[3] != 2;
+    };
+
+    // when
+    final List<InetAddress> reachable = ReachableUtil.filterReachableInParallel(addresses, probe, this.executor, 1000L);
+
+    // then
+    assertEquals(Arrays.asList(addresses.get(0), addresses.get(1), addresses.get(3)), reachable);
+  }
+
+  @Test
+  void testParallelFilterHonoursDeadline() throws UnknownHostException {
+    // given -- the first address would take way too long.
+    final List<InetAddress> addresses = addresses(3);
+    final Predicate<InetAddress> probe = address -> {
+      sleep(address.getAddress()[3] == 0 ? 10_000L : 10L);
+      return true;
+    };
+    final long start = System.nanoTime();
+
+    // when
+    final List<InetAddress> reachable = ReachableUtil.filterReachableInParallel(addresses, probe, this.executor, 200L);
+
+    // then
+    assertEquals(addresses.subList(1, 3), reachable);
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5_000L);
+  }
+
+  @Test
+  void testSequentialFilter() throws UnknownHostException {
+    // given
+    final List<InetAddress> addresses = addresses(3);
+
+    // when
+    final List<InetAddress> reachable = ReachableUtil.filterReachableSequentially(addresses, address -> address.getAddress()[3] == 1);
+
+    // then
+    assertEquals(addresses.subList(1, 2), reachable);
+  }
+
+  @Test
+  void testRaceReturnsFirstPositiveAnswerAndCancelsOthers() throws UnknownHostException, InterruptedException {
+    // given
+    final InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+    final CountDownLatch slowTesterStarted = new CountDownLatch(1);
+    final CountDownLatch slowTesterInterrupted = new CountDownLatch(1);
+    final ReachableTester slowTester = (addressToTest, timeoutMs) -> {
+      slowTesterStarted.countDown();
+      try {
+        Thread.sleep(10_000L);
+      } catch (final InterruptedException interruptedException) {
+        slowTesterInterrupted.countDown();
+      }
+      return false;
+    };
+    // only answer once the slow tester runs, otherwise it would be cancelled before even starting.
+    final ReachableTester fastTester = (addressToTest, timeoutMs) -> awaitQuietly(slowTesterStarted);
+    final long start = System.nanoTime();
+
+    // when
+    final boolean reachable = ReachableUtil.raceReachable(address, new ReachableTester[] {slowTester, fastTester}, this.executor, 5_000);
+
+    // then
+    assertTrue(reachable);
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5_000L);
+    assertTrue(slowTesterInterrupted.await(5L, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void testCancelledRunsAreNotMeasured() throws IOException {
+    // given -- like a tester which lost a race and restores the interrupt.
+    final InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+    final MeasuredReachableTester measured = new MeasuredReachableTester((addressToTest, timeoutMs) -> false);
+    final MeasuredReachableTester closedByInterrupt = new MeasuredReachableTester((addressToTest, timeoutMs) -> {
+      throw new ClosedByInterruptException();
+    });
+
+    // when
+    measured.isReachable(address, 100);
+    Thread.currentThread().interrupt();
+    final boolean cancelledReachable;
+
+    try {
+      cancelledReachable = measured.isReachable(address, 100);
+    } finally {
+      Thread.interrupted();
+    }
+
+    assertThrows(ClosedByInterruptException.class, () -> closedByInterrupt.isReachable(address, 100));
+
+    // then
+    assertFalse(cancelledReachable);
+    assertEquals(1L, measured.getAttempts());
+    assertEquals(0L, closedByInterrupt.getAttempts());
+  }
+
+  @Test
+  void testRaceTimesOut() throws UnknownHostException {
+    // given
+    final InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+    final ReachableTester failingTester = (addressToTest, timeoutMs) -> {
+      throw new IOException("unreachable");
+    };
+    final ReachableTester slowTester = (addressToTest, timeoutMs) -> {
+      sleep(10_000L);
+      return true;
+    };
+
+    // when
+    final boolean reachable = ReachableUtil.raceReachable(address, new ReachableTester[] {failingTester, slowTester}, this.executor, 100);
+
+    // then
+    assertFalse(reachable);
+  }
+
+  @Test
+  void testDetectionDropsUnavailableTesters() {
+    // given -- like a missing ping binary
+    final MeasuredReachableTester missingBinary = new MeasuredReachableTester((addressToTest, timeoutMs) -> {
+      throw new IOException("Cannot run program \"ping\"");
+    });
+    final MeasuredReachableTester working = new MeasuredReachableTester((addressToTest, timeoutMs) -> true);
+
+    // when
+    final MeasuredReachableTester[] available = ReachableUtil.detectAvailableTesters(
+        new MeasuredReachableTester[] {missingBinary, working},
+        InetAddress.getLoopbackAddress(),
+        100);
+
+    // then
+    assertArrayEquals(new MeasuredReachableTester[] {working}, available);
+  }
+
+  @Test
+  void testDetectionDropsUnsupportedTesters() {
+    // given -- like ICMP without a raw socket, where the JDK's TCP fallback still reaches loopback.
+    final MeasuredReachableTester unprivileged = new MeasuredReachableTester(new ReachableTester() {
+      @Override
+      public boolean isReachable(final InetAddress addressToTest, final int timeoutMs) {
+        return true;
+      }
+
+      @Override
+      public boolean isSupported() {
+        return false;
+      }
+    });
+    final MeasuredReachableTester working = new MeasuredReachableTester((addressToTest, timeoutMs) -> true);
+
+    // when
+    final MeasuredReachableTester[] available = ReachableUtil.detectAvailableTesters(
+        new MeasuredReachableTester[] {unprivileged, working},
+        InetAddress.getLoopbackAddress(),
+        100);
+
+    // then
+    assertArrayEquals(new MeasuredReachableTester[] {working}, available);
+  }
+
+  @Test
+  void testOrdersBySuccessPerTime() throws IOException {
+    // given
+    final InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+    final MeasuredReachableTester neverAnswering = new MeasuredReachableTester((addressToTest, timeoutMs) -> false);
+    final MeasuredReachableTester answering = new MeasuredReachableTester((addressToTest, timeoutMs) -> true);
+
+    for (long attempt = 0; attempt < MeasuredReachableTester.MIN_ATTEMPTS; attempt++) {
+      neverAnswering.isReachable(address, 100);
+      answering.isReachable(address, 100);
+    }
+
+    // when
+    final MeasuredReachableTester[] ordered = ReachableUtil.orderByScore(new MeasuredReachableTester[] {neverAnswering, answering});
+
+    // then
+    assertArrayEquals(new MeasuredReachableTester[] {answering, neverAnswering}, ordered);
+  }
+
+  private static List<InetAddress> addresses(final int count) throws UnknownHostException {
+    final InetAddress[] addresses = new InetAddress[count];
+
+    for (int addressNumber = 0; addressNumber < count; addressNumber++) {
+      addresses[addressNumber] = InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) addressNumber});
+    }
+
+    return Arrays.asList(addresses);
+  }
+
+  private static boolean awaitQuietly(final CountDownLatch latch) {
+    try {
+      return latch.await(5L, TimeUnit.SECONDS);
+    } catch (final InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static void sleep(final long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (final InterruptedException interruptedException) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.agent.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.bmhm.nameserviceagent.api.LookupResult;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.time.Instant;
+
+class SharedCacheTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void testSharesAnswerBetweenInstances() throws IOException {
+    // given
+    final Path sharedFile = this.tempDir.resolve("shared.cache");
+    final SharedCache writer = SharedCache.open(sharedFile, 64);
+    final SharedCache reader = SharedCache.open(sharedFile, 64);
+    final InetAddress ipv4 = InetAddress.getByAddress("example.com", new byte[] {10, 0, 0, 1});
+    final InetAddress ipv6 = InetAddress.getByName("2001:db8::1");
+    final Instant resolvedAt = Instant.ofEpochMilli(1_000L);
+
+    // when
+    writer.putAnswer("example.com", new LookupResult(new InetAddress[] {ipv4, ipv6}, 300L, "dns", resolvedAt), 300_000L);
+    final LookupResult shared = reader.getAnswer("example.com");
+
+    // then
+    assertNotNull(shared);
+    assertArrayEquals(new InetAddress[] {ipv4, ipv6}, shared.getAddresses());
+    assertEquals("example.com", shared.getAddresses()[1].getHostName());
+    assertTrue(shared.getTtlSeconds() > 290L);
+    assertEquals(resolvedAt, shared.getResolvedAt());
+    assertNull(reader.getAnswer("example.org"));
+  }
+
+  @Test
+  void testSharesVerdict() throws IOException {
+    // given
+    final SharedCache sharedCache = SharedCache.open(this.tempDir.resolve("shared.cache"), 64);
+    final InetAddress reachable = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+    final InetAddress unreachable = InetAddress.getByAddress(new byte[] {10, 0, 0, 2});
+
+    // when
+    sharedCache.putVerdict(reachable, true, 30_000L);
+    sharedCache.putVerdict(unreachable, false, 30_000L);
+
+    // then
+    assertTrue(sharedCache.getVerdict(reachable).isReachable());
+    assertFalse(sharedCache.getVerdict(unreachable).isReachable());
+    assertNull(sharedCache.getVerdict(InetAddress.getByAddress(new byte[] {10, 0, 0, 3})));
+  }
+
+  @Test
+  void testIgnoresExpiredEntries() throws IOException {
+    // given
+    final SharedCache sharedCache = SharedCache.open(this.tempDir.resolve("shared.cache"), 64);
+    final InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+
+    // when
+    sharedCache.putVerdict(address, true, -1L);
+
+    // then
+    assertNull(sharedCache.getVerdict(address));
+  }
+
+  @Test
+  void testOverwritesWhenFull() throws IOException {
+    // given -- a single slot, so every key collides.
+    final SharedCache sharedCache = SharedCache.open(this.tempDir.resolve("shared.cache"), 1);
+    final InetAddress first = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+    final InetAddress second = InetAddress.getByAddress(new byte[] {10, 0, 0, 2});
+
+    // when
+    sharedCache.putVerdict(first, true, 30_000L);
+    sharedCache.putVerdict(second, true, 30_000L);
+
+    // then
+    assertNull(sharedCache.getVerdict(first));
+    assertNotNull(sharedCache.getVerdict(second));
+  }
+
+  @Test
+  void testIgnoresSlotBeingWritten() throws IOException {
+    // given
+    final Path sharedFile = this.tempDir.resolve("shared.cache");
+    final SharedCache sharedCache = SharedCache.open(sharedFile, 1);
+    final InetAddress address = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+    sharedCache.putVerdict(address, true, 30_000L);
+
+    // when -- a writer which died while holding the slot leaves an odd sequence number.
+    try (RandomAccessFile file = new RandomAccessFile(sharedFile.toFile(), "rw")) {
+      file.seek(64L);
+      file.writeLong(file.readLong() + 1L);
+    }
+
+    // then
+    assertNull(sharedCache.getVerdict(address));
+    sharedCache.putVerdict(address, false, 30_000L);
+    assertFalse(sharedCache.getVerdict(address).isReachable());
+  }
+
+  @Test
+  void testRejectsDifferentLayout() throws IOException {
+    // given
+    final Path sharedFile = this.tempDir.resolve("shared.cache");
+    SharedCache.open(sharedFile, 64);
+
+    // then
+    assertThrows(IOException.class, () -> SharedCache.open(sharedFile, 128));
+  }
+}
@@ -18,10 +18,15 @@ package io.github.bmhm.nameserviceagent.api;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.StringJoiner;
 
 /**
  * The agent will only accept extensions of this class.
+ *
+ * <p>The JDK only calls the blocking lookups. Subclasses with a non-blocking transport may also override
+ * {@link #lookupAllHostAddrAsync(String)} and {@link #getHostByAddrAsync(byte[])} for callers using this class directly.</p>
  */
 public abstract class AbstractProxyNameService implements NameService, InvocationHandler {
 
@@ -49,7 +54,7 @@ public abstract class AbstractProxyNameService implements NameService, Invocatio
   public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
     switch (method.getName()) {
       case "lookupAllHostAddr":
-        return this.lookupAllHostAddr((String) args[0]);
+        return this.invokeLookupAllHostAddr(args);
       case "getHostByAddr":
         return this.getHostByAddr((byte[]) args[0]);
       default:
@@ -58,6 +63,49 @@ public abstract class AbstractProxyNameService implements NameService, Invocatio
     }
   }
 
+  private InetAddress[] invokeLookupAllHostAddr(final Object[] args) throws UnknownHostException {
+    if (args.length == 2) {
+      return this.lookupAllHostAddr((String) args[0], (AddressFamily) args[1]);
+    }
+
+    return this.lookupAllHostAddr((String) args[0]);
+  }
+
+  /**
+   * Lookup a host mapping by name, including how long the answer is valid and where it came from.
+   *
+   * <p>The default implementation calls {@link #lookupAllHostAddr(String)} and returns its addresses with an
+   * {@link LookupResult#UNKNOWN_TTL} and this class as source. Name services knowing the TTL, e.g. because they talk DNS
+   * themselves, should override it and implement {@link #lookupAllHostAddr(String)} using it.</p>
+   *
+   * @param host the specified hostname to resolve.
+   * @return the IP addresses for the requested host, their TTL and source.
+   * @throws UnknownHostException if no IP address for the {@code host} could be found
+   */
+  public LookupResult lookup(final String host) throws UnknownHostException {
+    return LookupResult.withoutTtl(this.lookupAllHostAddr(host), this.getClass().getName());
+  }
+
+  /**
+   * Lookup a host mapping by name, only returning addresses of the given family.
+   *
+   * <p>The default implementation calls {@link #lookup(String)} for {@link AddressFamily#ANY}, and
+   * {@link #lookupAllHostAddr(String, AddressFamily)} with an {@link LookupResult#UNKNOWN_TTL} otherwise.
+   * Name services knowing the TTL should override it as well.</p>
+   *
+   * @param host   the specified hostname to resolve.
+   * @param family the address family the caller is interested in.
+   * @return the IP addresses of that family for the requested host, their TTL and source.
+   * @throws UnknownHostException if no IP address of that family for the {@code host} could be found
+   */
+  public LookupResult lookup(final String host, final AddressFamily family) throws UnknownHostException {
+    if (family == AddressFamily.ANY) {
+      return this.lookup(host);
+    }
+
+    return LookupResult.withoutTtl(this.lookupAllHostAddr(host, family), this.getClass().getName());
+  }
+
   /**
    * Creates an {@link UnsupportedOperationException} which will be thrown in the unprobably case that someone extends this class
    * and overwrites the {@link #invoke(Object, Method, Object[])} method incorrectly.
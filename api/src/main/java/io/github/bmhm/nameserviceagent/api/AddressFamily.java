@@ -0,0 +1,107 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.api;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The address families a caller is interested in, e.g. taken from the JDK's {@code LookupPolicy}.
+ * Name services talking DNS themselves can use it to skip queries for records nobody asked for.
+ */
+public enum AddressFamily {
+  /** IPv4 and IPv6 addresses. */
+  ANY,
+  /** Only IPv4 addresses. */
+  IPV4,
+  /** Only IPv6 addresses. */
+  IPV6;
+
+  /**
+   * Parses the family from its (case-insensitive) name, e.g. from a system property.
+   *
+   * @param family {@code any}, {@code ipv4} or {@code ipv6}.
+   * @return the parsed family.
+   * @throws IllegalArgumentException if the family is unknown.
+   */
+  public static AddressFamily fromString(final String family) {
+    return AddressFamily.valueOf(family.trim().toUpperCase(Locale.ROOT));
+  }
+
+  /**
+   * Narrows this family by the requested one.
+   *
+   * @param requested the family requested by the caller.
+   * @return the family of addresses both accept, or {@code null} if there is none.
+   */
+  public AddressFamily narrow(final AddressFamily requested) {
+    if (this == ANY) {
+      return requested;
+    }
+
+    if (requested == ANY || requested == this) {
+      return this;
+    }
+
+    return null;
+  }
+
+  /**
+   * Checks whether the given address belongs to this family.
+   *
+   * @param address the address to check.
+   * @return {@code true} if the address is of this family.
+   */
+  public boolean matches(final InetAddress address) {
+    switch (this) {
+      case IPV4:
+        return address instanceof Inet4Address;
+      case IPV6:
+        return address instanceof Inet6Address;
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Returns the addresses of this family, keeping their order.
+   *
+   * @param host      the host the addresses were looked up for, used for the exception message.
+   * @param addresses the addresses to filter.
+   * @return the addresses of this family.
+   * @throws UnknownHostException if none of the addresses is of this family.
+   */
+  public InetAddress[] filter(final String host, final InetAddress[] addresses) throws UnknownHostException {
+    if (this == ANY) {
+      return addresses;
+    }
+
+    final InetAddress[] matchingAddresses = Arrays.stream(addresses)
+        .filter(this::matches)
+        .toArray(InetAddress[]::new);
+
+    if (matchingAddresses.length == 0) {
+      throw new UnknownHostException(host);
+    }
+
+    return matchingAddresses;
+  }
+}
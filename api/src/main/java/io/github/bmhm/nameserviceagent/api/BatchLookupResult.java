@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.api;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * The result of {@link NameService#batchLookupAllHostAddr(java.util.Collection)}: the addresses of each resolved host
+ * and the exception for each host which could not be resolved. Both maps keep the order of the requested hosts.
+ */
+public final class BatchLookupResult {
+
+  private final Map<String, InetAddress[]> addresses;
+
+  private final Map<String, UnknownHostException> failures;
+
+  /**
+   * Creates a new result.
+   *
+   * @param addresses the addresses by host.
+   * @param failures  the exceptions by host.
+   */
+  public BatchLookupResult(final Map<String, InetAddress[]> addresses, final Map<String, UnknownHostException> failures) {
+    this.addresses = Collections.unmodifiableMap(new LinkedHashMap<>(addresses));
+    this.failures = Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+  }
+
+  /**
+   * Waits for all given lookups and collects their results.
+   *
+   * @param lookups the pending lookups by host.
+   * @return the addresses and failures of all lookups. A lookup failing with anything else than an {@link UnknownHostException}
+   *     is reported as one, with the original exception as cause.
+   */
+  public static BatchLookupResult join(final Map<String, ? extends CompletionStage<InetAddress[]>> lookups) {
+    final Map<String, InetAddress[]> addresses = new LinkedHashMap<>();
+    final Map<String, UnknownHostException> failures = new LinkedHashMap<>();
+
+    for (final Map.Entry<String, ? extends CompletionStage<InetAddress[]>> lookup : lookups.entrySet()) {
+      final String host = lookup.getKey();
+
+      try {
+        addresses.put(host, lookup.getValue().toCompletableFuture().join());
+      } catch (final CompletionException | CancellationException lookupException) {
+        failures.put(host, toUnknownHostException(host, lookupException));
+      }
+    }
+
+    return new BatchLookupResult(addresses, failures);
+  }
+
+  private static UnknownHostException toUnknownHostException(final String host, final RuntimeException lookupException) {
+    final Throwable cause = lookupException.getCause() == null ? lookupException : lookupException.getCause();
+
+    if (cause instanceof UnknownHostException) {
+      return (UnknownHostException) cause;
+    }
+
+    final UnknownHostException unknownHostException = new UnknownHostException(host);
+    unknownHostException.initCause(cause);
+
+    return unknownHostException;
+  }
+
+  /**
+   * Returns the addresses of the resolved hosts.
+   *
+   * @return the addresses by host, in the order of the requested hosts.
+   */
+  public Map<String, InetAddress[]> getAddresses() {
+    return this.addresses;
+  }
+
+  /**
+   * Returns the hosts which could not be resolved.
+   *
+   * @return the exceptions by host, in the order of the requested hosts.
+   */
+  public Map<String, UnknownHostException> getFailures() {
+    return this.failures;
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", BatchLookupResult.class.getSimpleName() + "[", "]")
+        .add("addresses=" + this.addresses.size())
+        .add("failures=" + this.failures.keySet())
+        .toString();
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.api;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The default batch lookup: single lookups fanned out over a bounded executor,
+ * see {@code nameserviceagent.batch.threads}.
+ */
+final class BatchLookups {
+
+  private BatchLookups() {
+    // util class
+  }
+
+  static BatchLookupResult fanOut(final NameService nameService, final Collection<String> hosts) {
+    final Map<String, CompletableFuture<InetAddress[]>> lookups = new LinkedHashMap<>();
+
+    for (final String host : hosts) {
+      lookups.computeIfAbsent(host, key -> CompletableFuture.supplyAsync(() -> lookup(nameService, key), ExecutorHolder.EXECUTOR));
+    }
+
+    return BatchLookupResult.join(lookups);
+  }
+
+  private static InetAddress[] lookup(final NameService nameService, final String host) {
+    try {
+      return nameService.lookupAllHostAddr(host);
+    } catch (final UnknownHostException unknownHostException) {
+      throw new CompletionException(unknownHostException);
+    }
+  }
+
+  /**
+   * Lazily creates the executor, so its threads are only started if a batch lookup is actually used.
+   */
+  private static final class ExecutorHolder {
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private ExecutorHolder() {
+      // holder class
+    }
+
+    private static ExecutorService createExecutor() {
+      final int threads = Integer.getInteger("nameserviceagent.batch.threads", 16);
+      final AtomicInteger threadCounter = new AtomicInteger();
+      final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+          threads,
+          threads,
+          60L,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(),
+          runnable -> {
+            final Thread thread = new Thread(runnable, "nameserviceagent-batch-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+          }
+      );
+      executor.allowCoreThreadTimeOut(true);
+
+      return executor;
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.api;
+
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.StringJoiner;
+
+/**
+ * The answer of a forward lookup, together with how long it is valid and where it came from.
+ *
+ * <p>Returned by {@link AbstractProxyNameService#lookup(String)}, so decorating name services like caches
+ * can respect the TTL of the DNS records instead of guessing.</p>
+ */
+public final class LookupResult {
+
+  /**
+   * The TTL of an answer whose source does not know how long it is valid.
+   */
+  public static final long UNKNOWN_TTL = -1L;
+
+  private final InetAddress[] addresses;
+
+  private final long ttlSeconds;
+
+  private final String source;
+
+  private final Instant resolvedAt;
+
+  /**
+   * Creates a new result.
+   *
+   * @param addresses  the resolved addresses.
+   * @param ttlSeconds the time the addresses may be cached, usually the minimum TTL of the DNS records, or {@link #UNKNOWN_TTL}.
+   * @param source     the name service which resolved the addresses, e.g. its class name.
+   * @param resolvedAt the time the addresses were resolved.
+   */
+  public LookupResult(final InetAddress[] addresses, final long ttlSeconds, final String source, final Instant resolvedAt) {
+    this.addresses = addresses.clone();
+    this.ttlSeconds = ttlSeconds;
+    this.source = source;
+    this.resolvedAt = resolvedAt;
+  }
+
+  /**
+   * Creates a result resolved just now by a source which does not know the TTL.
+   *
+   * @param addresses the resolved addresses.
+   * @param source    the name service which resolved the addresses.
+   * @return a result with an {@link #UNKNOWN_TTL}.
+   */
+  public static LookupResult withoutTtl(final InetAddress[] addresses, final String source) {
+    return new LookupResult(addresses, UNKNOWN_TTL, source, Instant.now());
+  }
+
+  /**
+   * Returns the resolved addresses.
+   *
+   * @return a copy of the addresses, as the JDK might reorder the returned array.
+   */
+  public InetAddress[] getAddresses() {
+    return this.addresses.clone();
+  }
+
+  /**
+   * Returns the time the addresses may be cached, counted from {@link #getResolvedAt()}.
+   *
+   * @return the TTL in seconds, or {@link #UNKNOWN_TTL}.
+   */
+  public long getTtlSeconds() {
+    return this.ttlSeconds;
+  }
+
+  /**
+   * Whether the source knew how long the addresses are valid.
+   *
+   * @return {@code true} unless the TTL is {@link #UNKNOWN_TTL}.
+   */
+  public boolean hasTtl() {
+    return this.ttlSeconds != UNKNOWN_TTL;
+  }
+
+  /**
+   * Returns the name service which resolved the addresses.
+   *
+   * @return the source, e.g. the class name of the name service.
+   */
+  public String getSource() {
+    return this.source;
+  }
+
+  /**
+   * Returns the time the addresses were resolved. A cached result keeps its original time.
+   *
+   * @return the resolution time.
+   */
+  public Instant getResolvedAt() {
+    return this.resolvedAt;
+  }
+
+  @Override
+  public String toString() {
+    return new StringJoiner(", ", LookupResult.class.getSimpleName() + "[", "]")
+        .add("addresses=" + Arrays.toString(this.addresses))
+        .add("ttlSeconds=" + this.ttlSeconds)
+        .add("source=" + this.source)
+        .add("resolvedAt=" + this.resolvedAt)
+        .toString();
+  }
+}
@@ -18,6 +18,9 @@ package io.github.bmhm.nameserviceagent.api;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Basic interface for returning addresses for a host lookup or a hostname (reverse lookup) for an address.
@@ -36,6 +39,34 @@ public interface NameService {
    */
   InetAddress[] lookupAllHostAddr(final String host) throws UnknownHostException;
 
+  /**
+   * Lookup a host mapping by name, only returning addresses of the given family.
+   *
+   * <p>The default implementation filters the result of {@link #lookupAllHostAddr(String)}.
+   * Name services querying each family separately should override it to skip unneeded queries.</p>
+   *
+   * @param host   the specified hostname to resolve.
+   * @param family the address family the caller is interested in.
+   * @return array of IP addresses of the given family for the requested host
+   * @throws UnknownHostException if no IP address of the given family for the {@code host} could be found
+   */
+  default InetAddress[] lookupAllHostAddr(final String host, final AddressFamily family) throws UnknownHostException {
+    return family.filter(host, this.lookupAllHostAddr(host));
+  }
+
+  /**
+   * Lookup many hosts at once.
+   *
+   * <p>The default implementation calls {@link #lookupAllHostAddr(String)} for each host on a shared bounded executor,
+   * see {@code nameserviceagent.batch.threads}. Name services able to send many queries at once should override it.</p>
+   *
+   * @param hosts the hostnames to resolve. Duplicates are only resolved once.
+   * @return the addresses of each resolved host and the exception for each host which could not be resolved.
+   */
+  default BatchLookupResult batchLookupAllHostAddr(final Collection<String> hosts) {
+    return BatchLookups.fanOut(this, hosts);
+  }
+
   /**
    * Lookup the host corresponding to the IP address provided.
    *
@@ -47,4 +78,48 @@ public interface NameService {
    */
   String getHostByAddr(final byte[] addr) throws UnknownHostException;
 
+  /**
+   * Lookup a host mapping by name without blocking the caller, if the implementation supports it.
+   *
+   * <p>The default implementation calls {@link #lookupAllHostAddr(String)} in the calling thread and returns a completed stage.
+   * Name services with a non-blocking transport should override it.</p>
+   *
+   * @param host the specified hostname to resolve.
+   * @return a stage completing with the IP addresses for the requested host,
+   *     or exceptionally with an {@link UnknownHostException} if no IP address for the {@code host} could be found.
+   */
+  default CompletionStage<InetAddress[]> lookupAllHostAddrAsync(final String host) {
+    final CompletableFuture<InetAddress[]> addresses = new CompletableFuture<>();
+
+    try {
+      addresses.complete(this.lookupAllHostAddr(host));
+    } catch (final UnknownHostException | RuntimeException lookupException) {
+      addresses.completeExceptionally(lookupException);
+    }
+
+    return addresses;
+  }
+
+  /**
+   * Lookup the host corresponding to the IP address provided without blocking the caller, if the implementation supports it.
+   *
+   * <p>The default implementation calls {@link #getHostByAddr(byte[])} in the calling thread and returns a completed stage.
+   * Name services with a non-blocking transport should override it.</p>
+   *
+   * @param addr byte array representing an IP address
+   * @return a stage completing with the host name,
+   *     or exceptionally with an {@link UnknownHostException} if no host found for the specified IP address
+   */
+  default CompletionStage<String> getHostByAddrAsync(final byte[] addr) {
+    final CompletableFuture<String> host = new CompletableFuture<>();
+
+    try {
+      host.complete(this.getHostByAddr(addr));
+    } catch (final UnknownHostException | RuntimeException lookupException) {
+      host.completeExceptionally(lookupException);
+    }
+
+    return host;
+  }
+
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.api;
+
+import java.net.UnknownHostException;
+
+/**
+ * Thrown if a host could not be resolved because the upstream resolver did not answer, e.g. after a timeout
+ * or while it is backed off after failures. Unlike a plain {@link UnknownHostException}, it does not mean the host does not exist,
+ * so a cache may still serve the last good answer (see RFC 8767).
+ */
+public class UpstreamUnavailableException extends UnknownHostException {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Creates a new exception.
+   *
+   * @param message the detail message, e.g. containing the host which could not be resolved.
+   */
+  public UpstreamUnavailableException(final String message) {
+    super(message);
+  }
+
+  /**
+   * Creates a new exception.
+   *
+   * @param message the detail message, e.g. containing the host which could not be resolved.
+   * @param cause   the failure of the upstream resolver.
+   */
+  public UpstreamUnavailableException(final String message, final Throwable cause) {
+    super(message);
+    this.initCause(cause);
+  }
+}
@@ -18,7 +18,9 @@ package io.github.bmhm.nameserviceagent.api;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
@@ -29,6 +31,10 @@ import static org.mockito.Mockito.when;
 import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -90,6 +96,103 @@ class AbstractProxyNameServiceTest {
     verify(originalNameService).getHostByAddr(addr);
   }
 
+  @Test
+  @DisplayName("invocation with address family should only return addresses of that family")
+  void testInvocationWithAddressFamily() throws Throwable {
+    // given
+    final NameService originalNameService = mock(NameService.class);
+    final InetAddress ipv4 = InetAddress.getByName("192.0.2.1");
+    final InetAddress ipv6 = InetAddress.getByName("2001:db8::1");
+    when(originalNameService.lookupAllHostAddr("example.com")).thenReturn(new InetAddress[] {ipv6, ipv4});
+    final DelegatingNameService nameService = new DelegatingNameService(originalNameService);
+    final Method method = NameService.class.getMethod("lookupAllHostAddr", String.class, AddressFamily.class);
+
+    // when
+    final Object addresses = nameService.invoke(mock(Object.class), method, new Object[] {"example.com", AddressFamily.IPV4});
+
+    // then
+    assertArrayEquals(new InetAddress[] {ipv4}, (InetAddress[]) addresses);
+  }
+
+  @Test
+  @DisplayName("default async lookups should complete with the result of the blocking lookups")
+  void testDefaultAsyncLookups() throws Throwable {
+    // given
+    final NameService originalNameService = mock(NameService.class);
+    final InetAddress[] localhost = {InetAddress.getLoopbackAddress()};
+    when(originalNameService.lookupAllHostAddr("localhost")).thenReturn(localhost);
+    when(originalNameService.getHostByAddr(any(byte[].class))).thenThrow(new UnknownHostException("127.0.0.1"));
+    final DelegatingNameService nameService = new DelegatingNameService(originalNameService);
+
+    // when
+    final CompletableFuture<InetAddress[]> addresses = nameService.lookupAllHostAddrAsync("localhost").toCompletableFuture();
+    final CompletableFuture<String> host = nameService.getHostByAddrAsync(new byte[] {127, 0, 0, 1}).toCompletableFuture();
+
+    // then
+    assertArrayEquals(localhost, addresses.getNow(null));
+    final ExecutionException hostException = assertThrows(ExecutionException.class, host::get);
+    assertEquals(UnknownHostException.class, hostException.getCause().getClass());
+  }
+
+  @Test
+  @DisplayName("default batch lookup should resolve each host once and collect failures")
+  void testDefaultBatchLookup() throws Throwable {
+    // given
+    final NameService originalNameService = mock(NameService.class);
+    final InetAddress[] localhost = {InetAddress.getLoopbackAddress()};
+    when(originalNameService.lookupAllHostAddr("localhost")).thenReturn(localhost);
+    when(originalNameService.lookupAllHostAddr("unknown.invalid")).thenThrow(new UnknownHostException("unknown.invalid"));
+    final DelegatingNameService nameService = new DelegatingNameService(originalNameService);
+
+    // when
+    final BatchLookupResult result = nameService.batchLookupAllHostAddr(Arrays.asList("localhost", "unknown.invalid", "localhost"));
+
+    // then
+    assertEquals(Collections.singleton("localhost"), result.getAddresses().keySet());
+    assertArrayEquals(localhost, result.getAddresses().get("localhost"));
+    assertEquals(Collections.singleton("unknown.invalid"), result.getFailures().keySet());
+    verify(originalNameService).lookupAllHostAddr("localhost");
+  }
+
+  @Test
+  @DisplayName("default lookup should return the addresses without a TTL and with this class as source")
+  void testDefaultLookupResult() throws Throwable {
+    // given
+    final NameService originalNameService = mock(NameService.class);
+    final InetAddress[] localhost = {InetAddress.getLoopbackAddress()};
+    when(originalNameService.lookupAllHostAddr("localhost")).thenReturn(localhost);
+    final DelegatingNameService nameService = new DelegatingNameService(originalNameService);
+
+    // when
+    final LookupResult result = nameService.lookup("localhost");
+
+    // then
+    assertArrayEquals(localhost, result.getAddresses());
+    assertFalse(result.hasTtl());
+    assertEquals(LookupResult.UNKNOWN_TTL, result.getTtlSeconds());
+    assertEquals(DelegatingNameService.class.getName(), result.getSource());
+  }
+
+  @Test
+  @DisplayName("default lookup with address family should only return addresses of that family")
+  void testDefaultLookupResultWithAddressFamily() throws Throwable {
+    // given
+    final NameService originalNameService = mock(NameService.class);
+    final InetAddress ipv4 = InetAddress.getByName("192.0.2.1");
+    final InetAddress ipv6 = InetAddress.getByName("2001:db8::1");
+    when(originalNameService.lookupAllHostAddr("example.com")).thenReturn(new InetAddress[] {ipv6, ipv4});
+    final DelegatingNameService nameService = new DelegatingNameService(originalNameService);
+
+    // when
+    final LookupResult ipv4Result = nameService.lookup("example.com", AddressFamily.IPV4);
+    final LookupResult anyResult = nameService.lookup("example.com", AddressFamily.ANY);
+
+    // then
+    assertArrayEquals(new InetAddress[] {ipv4}, ipv4Result.getAddresses());
+    assertFalse(ipv4Result.hasTtl());
+    assertArrayEquals(new InetAddress[] {ipv6, ipv4}, anyResult.getAddresses());
+  }
+
   interface ExtendedNameService extends NameService {
     default void noop(final String ignored) {
       // noop
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.api;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.jupiter.api.Test;
+
+class AddressFamilyTest {
+
+  @Test
+  void testFromString() {
+    assertEquals(AddressFamily.IPV4, AddressFamily.fromString(" IPv4"));
+    assertThrows(IllegalArgumentException.class, () -> AddressFamily.fromString("ipv5"));
+  }
+
+  @Test
+  void testNarrow() {
+    assertEquals(AddressFamily.IPV6, AddressFamily.ANY.narrow(AddressFamily.IPV6));
+    assertEquals(AddressFamily.IPV4, AddressFamily.IPV4.narrow(AddressFamily.ANY));
+    assertEquals(AddressFamily.IPV4, AddressFamily.IPV4.narrow(AddressFamily.IPV4));
+    assertNull(AddressFamily.IPV4.narrow(AddressFamily.IPV6));
+  }
+
+  @Test
+  void testFilterKeepsOrder() throws UnknownHostException {
+    // given
+    final InetAddress ipv4 = InetAddress.getByName("192.0.2.1");
+    final InetAddress ipv6 = InetAddress.getByName("2001:db8::1");
+    final InetAddress otherIpv4 = InetAddress.getByName("192.0.2.2");
+    final InetAddress[] addresses = {ipv4, ipv6, otherIpv4};
+
+    // when
+    final InetAddress[] ipv4Addresses = AddressFamily.IPV4.filter("example.com", addresses);
+
+    // then
+    assertArrayEquals(new InetAddress[] {ipv4, otherIpv4}, ipv4Addresses);
+    assertArrayEquals(addresses, AddressFamily.ANY.filter("example.com", addresses));
+  }
+
+  @Test
+  void testFilterWithoutMatch() throws UnknownHostException {
+    // given
+    final InetAddress[] addresses = {InetAddress.getByName("192.0.2.1")};
+
+    // then
+    assertThrows(UnknownHostException.class, () -> AddressFamily.IPV6.filter("example.com", addresses));
+  }
+}
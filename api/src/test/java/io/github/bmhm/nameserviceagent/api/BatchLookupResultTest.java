@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+class BatchLookupResultTest {
+
+  @Test
+  void testJoinKeepsOrderAndWrapsFailures() {
+    // given
+    final Map<String, CompletableFuture<InetAddress[]>> lookups = new LinkedHashMap<>();
+    lookups.put("b.example", CompletableFuture.completedFuture(new InetAddress[0]));
+    lookups.put("a.example", CompletableFuture.completedFuture(new InetAddress[] {InetAddress.getLoopbackAddress()}));
+    final CompletableFuture<InetAddress[]> unknown = new CompletableFuture<>();
+    unknown.completeExceptionally(new UnknownHostException("unknown.example"));
+    lookups.put("unknown.example", unknown);
+    final IllegalStateException brokenCause = new IllegalStateException("broken");
+    final CompletableFuture<InetAddress[]> broken = new CompletableFuture<>();
+    broken.completeExceptionally(brokenCause);
+    lookups.put("broken.example", broken);
+
+    // when
+    final BatchLookupResult result = BatchLookupResult.join(lookups);
+
+    // then
+    assertEquals(Arrays.asList("b.example", "a.example"), Arrays.asList(result.getAddresses().keySet().toArray()));
+    assertEquals(Arrays.asList("unknown.example", "broken.example"), Arrays.asList(result.getFailures().keySet().toArray()));
+    assertEquals("broken.example", result.getFailures().get("broken.example").getMessage());
+    assertSame(brokenCause, result.getFailures().get("broken.example").getCause());
+  }
+
+  @Test
+  void testResultIsUnmodifiable() {
+    final BatchLookupResult result = BatchLookupResult.join(new LinkedHashMap<>());
+
+    assertThrows(UnsupportedOperationException.class, () -> result.getAddresses().put("example.com", new InetAddress[0]));
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.api;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.time.Instant;
+
+class LookupResultTest {
+
+  @Test
+  void testAddressesCannotBeModified() {
+    // given
+    final InetAddress[] addresses = {InetAddress.getLoopbackAddress()};
+    final LookupResult result = new LookupResult(addresses, 60L, "test", Instant.EPOCH);
+
+    // when
+    addresses[0] = null;
+    final InetAddress[] first = result.getAddresses();
+    first[0] = null;
+
+    // then
+    assertArrayEquals(new InetAddress[] {InetAddress.getLoopbackAddress()}, result.getAddresses());
+    assertNotSame(first, result.getAddresses());
+    assertTrue(result.hasTtl());
+  }
+}
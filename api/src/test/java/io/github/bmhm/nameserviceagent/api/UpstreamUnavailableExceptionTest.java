@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+class UpstreamUnavailableExceptionTest {
+
+  @Test
+  void testMessageOnly() {
+    // when
+    final UpstreamUnavailableException exception = new UpstreamUnavailableException("example.com");
+
+    // then
+    assertEquals("example.com", exception.getMessage());
+    assertNull(exception.getCause());
+  }
+
+  @Test
+  void testChainsCause() {
+    // given
+    final IOException timeout = new SocketTimeoutException("timeout");
+
+    // when
+    final UpstreamUnavailableException exception = new UpstreamUnavailableException("example.com", timeout);
+
+    // then
+    assertEquals("example.com", exception.getMessage());
+    assertSame(timeout, exception.getCause());
+  }
+
+  @Test
+  void testIsUnknownHostException() {
+    // when
+    final Exception exception = new UpstreamUnavailableException("example.com");
+
+    // then -- callers only handling unknown hosts still work.
+    assertTrue(exception instanceof UnknownHostException);
+  }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.wire;
+
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.WireParseException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes queries and decodes answers directly on {@link ByteBuffer}s, for the few record types a name service needs:
+ * A, AAAA, CNAME, PTR and SRV.
+ *
+ * <p>Unlike {@link org.xbill.DNS.Message}, decoding does not create any section, record or name objects.
+ * Each answer record is passed to a {@link RecordVisitor} as an offset into the message,
+ * and only the data actually used (address bytes, names) is copied out.</p>
+ *
+ * <p>A message always starts at the buffer's position. All offsets are absolute indexes into the buffer,
+ * and the position of a buffer is never changed, except by {@link #encodeQuery(ByteBuffer, int, String, int)}.</p>
+ */
+public final class DnsWireCodec {
+
+  /**
+   * The length of the fixed message header.
+   */
+  public static final int HEADER_LENGTH = 12;
+
+  private static final int FLAG_QR = 0x8000;
+
+  private static final int FLAG_TC = 0x0200;
+
+  private static final int FLAG_RD = 0x0100;
+
+  private static final int RCODE_MASK = 0x000F;
+
+  private static final int MAX_NAME_LENGTH = 255;
+
+  private static final int MAX_LABEL_LENGTH = 63;
+
+  private static final int POINTER_MASK = 0xC0;
+
+  private static final int IPV4_LENGTH = 4;
+
+  private static final int IPV6_LENGTH = 16;
+
+  private DnsWireCodec() {
+    // util class
+  }
+
+  /**
+   * Writes a recursive query with a single question of class IN at the buffer's position.
+   *
+   * @param buffer        the buffer to write to, e.g. a reused one. At most 272 bytes are written.
+   * @param transactionId the transaction ID.
+   * @param host          the host name to query, with or without trailing dot. Only ASCII names are supported.
+   * @param type          the record type, see {@link org.xbill.DNS.Type}.
+   * @throws IllegalArgumentException if the host is not a valid DNS name.
+   * @throws java.nio.BufferOverflowException if the buffer is too small.
+   */
+  public static void encodeQuery(final ByteBuffer buffer, final int transactionId, final String host, final int type) {
+    buffer.putShort((short) transactionId);
+    buffer.putShort((short) FLAG_RD);
+    // one question, no answer, authority or additional records.
+    buffer.putShort((short) 1);
+    buffer.putShort((short) 0);
+    buffer.putShort((short) 0);
+    buffer.putShort((short) 0);
+    writeName(buffer, host);
+    buffer.putShort((short) type);
+    buffer.putShort((short) DClass.IN);
+  }
+
+  private static void writeName(final ByteBuffer buffer, final String host) {
+    final int length = host.endsWith(".") ? host.length() - 1 : host.length();
+
+    if (length + 2 > MAX_NAME_LENGTH) {
+      throw new IllegalArgumentException("Name too long: [" + host + "].");
+    }
+
+    int labelStart = 0;
+
+    while (labelStart < length) {
+      int labelEnd = host.indexOf('.', labelStart);
+
+      if (labelEnd == -1 || labelEnd > length) {
+        labelEnd = length;
+      }
+
+      final int labelLength = labelEnd - labelStart;
+
+      if (labelLength == 0 || labelLength > MAX_LABEL_LENGTH) {
+        throw new IllegalArgumentException("Invalid label length in name [" + host + "].");
+      }
+
+      buffer.put((byte) labelLength);
+
+      for (int charIndex = labelStart; charIndex < labelEnd; charIndex++) {
+        final char labelChar = host.charAt(charIndex);
+
+        if (labelChar > 0x7F) {
+          throw new IllegalArgumentException("Not an ASCII name: [" + host + "].");
+        }
+
+        buffer.put((byte) labelChar);
+      }
+
+      labelStart = labelEnd + 1;
+    }
+
+    // the root label.
+    buffer.put((byte) 0);
+  }
+
+  /**
+   * Returns the transaction ID of the message.
+   *
+   * @param message the message.
+   * @return the transaction ID.
+   */
+  public static int getId(final ByteBuffer message) {
+    return readUnsignedShort(message, message.position());
+  }
+
+  /**
+   * Returns whether the response was truncated and should be repeated over TCP.
+   *
+   * @param message the response.
+   * @return {@code true} if the TC flag is set.
+   */
+  public static boolean isTruncated(final ByteBuffer message) {
+    return (readUnsignedShort(message, message.position() + 2) & FLAG_TC) != 0;
+  }
+
+  /**
+   * Returns the response code, e.g. {@link org.xbill.DNS.Rcode#NXDOMAIN}.
+   *
+   * @param message the response.
+   * @return the response code from the header, without extended bits.
+   */
+  public static int getRcode(final ByteBuffer message) {
+    return readUnsignedShort(message, message.position() + 2) & RCODE_MASK;
+  }
+
+  /**
+   * Checks whether the message is a response to the query: the ID and the single question must be the same, ignoring case.
+   *
+   * <p>A response with a compressed question is never considered matching, as no server compresses the first name.</p>
+   *
+   * @param response the received message.
+   * @param query    the sent query.
+   * @return {@code true} if the message is a response to the query.
+   */
+  public static boolean isResponseTo(final ByteBuffer response, final ByteBuffer query) {
+    final int responseStart = response.position();
+    final int queryStart = query.position();
+
+    if (response.remaining() < HEADER_LENGTH
+        || getId(response) != getId(query)
+        || (readUnsignedShort(response, responseStart + 2) & FLAG_QR) == 0
+        || readUnsignedShort(response, responseStart + 4) != 1) {
+      return false;
+    }
+
+    final int questionLength;
+
+    try {
+      // name, type and class.
+      questionLength = skipName(query, queryStart + HEADER_LENGTH) + 4 - queryStart;
+    } catch (final WireParseException | IndexOutOfBoundsException invalidQueryException) {
+      return false;
+    }
+
+    if (response.remaining() < questionLength) {
+      return false;
+    }
+
+    for (int offset = HEADER_LENGTH; offset < questionLength; offset++) {
+      if (toLowerCase(response.get(responseStart + offset)) != toLowerCase(query.get(queryStart + offset))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static int toLowerCase(final byte nameByte) {
+    return nameByte >= 'A' && nameByte <= 'Z' ? nameByte + ('a' - 'A') : nameByte;
+  }
+
+  /**
+   * Passes every record of the answer section to the visitor, in order.
+   *
+   * @param response the response to decode.
+   * @param visitor  the visitor called for each answer record.
+   * @return the response code, see {@link #getRcode(ByteBuffer)}.
+   * @throws WireParseException if the message is malformed.
+   */
+  public static int readAnswers(final ByteBuffer response, final RecordVisitor visitor) throws WireParseException {
+    final int start = response.position();
+
+    try {
+      final int questionCount = readUnsignedShort(response, start + 4);
+      final int answerCount = readUnsignedShort(response, start + 6);
+      int offset = start + HEADER_LENGTH;
+
+      for (int questionIndex = 0; questionIndex < questionCount; questionIndex++) {
+        // name, type and class.
+        offset = skipName(response, offset) + 4;
+      }
+
+      for (int answerIndex = 0; answerIndex < answerCount; answerIndex++) {
+        offset = skipName(response, offset);
+        final int type = readUnsignedShort(response, offset);
+        final long ttl = response.getInt(offset + 4) & 0xFFFF_FFFFL;
+        final int rdataLength = readUnsignedShort(response, offset + 8);
+        final int rdataOffset = offset + 10;
+
+        if (rdataOffset + rdataLength > response.limit()) {
+          throw new WireParseException("Record data exceeds the message.");
+        }
+
+        visitor.visit(type, ttl, response, rdataOffset, rdataLength);
+        offset = rdataOffset + rdataLength;
+      }
+
+      return getRcode(response);
+    } catch (final IndexOutOfBoundsException indexOutOfBoundsException) {
+      final WireParseException wireParseException = new WireParseException("Truncated message.");
+      wireParseException.initCause(indexOutOfBoundsException);
+
+      throw wireParseException;
+    }
+  }
+
+  private static int skipName(final ByteBuffer message, final int offset) throws WireParseException {
+    int current = offset;
+
+    while (true) {
+      final int labelLength = message.get(current) & 0xFF;
+
+      if (labelLength == 0) {
+        return current + 1;
+      }
+
+      if ((labelLength & POINTER_MASK) == POINTER_MASK) {
+        // a pointer always ends the name.
+        return current + 2;
+      }
+
+      if (labelLength > MAX_LABEL_LENGTH) {
+        throw new WireParseException("Invalid label length: " + labelLength + ".");
+      }
+
+      current += labelLength + 1;
+    }
+  }
+
+  /**
+   * Reads a possibly compressed name, e.g. the target of a CNAME or PTR record.
+   *
+   * @param message the message containing the name.
+   * @param offset  the absolute index of the name.
+   * @return the name without trailing dot, or an empty string for the root.
+   * @throws WireParseException if the name is malformed or runs past the message.
+   */
+  public static String readName(final ByteBuffer message, final int offset) throws WireParseException {
+    final StringBuilder name = new StringBuilder(64);
+    int current = offset;
+    int pointers = 0;
+
+    try {
+      while (true) {
+        final int labelLength = message.get(current) & 0xFF;
+
+        if (labelLength == 0) {
+          return name.toString();
+        }
+
+        if ((labelLength & POINTER_MASK) == POINTER_MASK) {
+          // pointers must go backwards, anything else could loop forever.
+          final int target = message.position() + (readUnsignedShort(message, current) & 0x3FFF);
+
+          if (target >= current || ++pointers > MAX_NAME_LENGTH / 2) {
+            throw new WireParseException("Invalid compression pointer.");
+          }
+
+          current = target;
+          continue;
+        }
+
+        if (labelLength > MAX_LABEL_LENGTH || name.length() + labelLength + 1 > MAX_NAME_LENGTH) {
+          throw new WireParseException("Invalid name.");
+        }
+
+        if (name.length() > 0) {
+          name.append('.');
+        }
+
+        for (int labelIndex = 1; labelIndex <= labelLength; labelIndex++) {
+          name.append((char) (message.get(current + labelIndex) & 0xFF));
+        }
+
+        current += labelLength + 1;
+      }
+    } catch (final IndexOutOfBoundsException indexOutOfBoundsException) {
+      final WireParseException wireParseException = new WireParseException("Name exceeds the message.");
+      wireParseException.initCause(indexOutOfBoundsException);
+
+      throw wireParseException;
+    }
+  }
+
+  /**
+   * Copies the address of an A or AAAA record.
+   *
+   * @param message     the message.
+   * @param rdataOffset the absolute index of the record data.
+   * @param rdataLength the length of the record data, 4 or 16.
+   * @return the address bytes, as accepted by {@link java.net.InetAddress#getByAddress(String, byte[])}.
+   * @throws WireParseException if the length is not the one of an address.
+   */
+  public static byte[] readAddress(final ByteBuffer message, final int rdataOffset, final int rdataLength) throws WireParseException {
+    if (rdataLength != IPV4_LENGTH && rdataLength != IPV6_LENGTH) {
+      throw new WireParseException("Invalid address length: " + rdataLength + ".");
+    }
+
+    final byte[] address = new byte[rdataLength];
+
+    for (int addressIndex = 0; addressIndex < rdataLength; addressIndex++) {
+      address[addressIndex] = message.get(rdataOffset + addressIndex);
+    }
+
+    return address;
+  }
+
+  /**
+   * Returns the port of an SRV record.
+   *
+   * @param message     the message.
+   * @param rdataOffset the absolute index of the record data.
+   * @return the port.
+   */
+  public static int readSrvPort(final ByteBuffer message, final int rdataOffset) {
+    // priority, weight, port, target.
+    return readUnsignedShort(message, rdataOffset + 4);
+  }
+
+  /**
+   * Returns the target host of an SRV record.
+   *
+   * @param message     the message.
+   * @param rdataOffset the absolute index of the record data.
+   * @return the target host without trailing dot.
+   * @throws WireParseException if the name is malformed.
+   */
+  public static String readSrvTarget(final ByteBuffer message, final int rdataOffset) throws WireParseException {
+    return readName(message, rdataOffset + 6);
+  }
+
+  private static int readUnsignedShort(final ByteBuffer message, final int offset) {
+    return message.getShort(offset) & 0xFFFF;
+  }
+
+  /**
+   * Receives the records of the answer section.
+   */
+  @FunctionalInterface
+  public interface RecordVisitor {
+
+    /**
+     * Called for each answer record. The data is only valid during the call, as the buffer might be reused.
+     *
+     * @param type        the record type, see {@link org.xbill.DNS.Type}.
+     * @param ttl         the TTL in seconds.
+     * @param message     the whole message, e.g. to resolve compressed names.
+     * @param rdataOffset the absolute index of the record data.
+     * @param rdataLength the length of the record data.
+     * @throws WireParseException if the record data is malformed.
+     */
+    void visit(int type, long ttl, ByteBuffer message, int rdataOffset, int rdataLength) throws WireParseException;
+  }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.wire;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Sends DNS queries over a small pool of long-lived connections to a single server, e.g. DNS over TLS (RFC 7858).
+ *
+ * <p>Many queries are pipelined on each connection without waiting for the previous answer (RFC 7766).
+ * Each connection has a reader thread matching responses to queries by their transaction ID, in any order.
+ * A closed connection is reopened on the next query. Connecting, including the TLS handshake, happens on a separate thread,
+ * so neither the caller nor a thread completing a previous query blocks on it.</p>
+ *
+ * <p>Queries and responses are passed in wire format, see {@link DnsWireCodec}.</p>
+ */
+public final class TlsDnsClient implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(TlsDnsClient.class.getCanonicalName());
+
+  private static final int MAX_TRANSACTION_IDS = 0x1_0000;
+
+  private static final ScheduledExecutorService TIMEOUTS = createTimeoutScheduler();
+
+  private static final ExecutorService CONNECTORS = Executors.newCachedThreadPool(runnable -> {
+    final Thread thread = new Thread(runnable, "nameserviceagent-dns-tls-connect");
+    thread.setDaemon(true);
+
+    return thread;
+  });
+
+  private final SocketOpener socketOpener;
+
+  private final String description;
+
+  private final Executor connectExecutor;
+
+  /**
+   * The pooled connections, each completed once it is connected. Replaced when a connection is closed or could not be opened.
+   */
+  private final AtomicReferenceArray<CompletableFuture<Connection>> connections;
+
+  private final AtomicInteger nextConnection = new AtomicInteger();
+
+  /**
+   * Creates a client for the given connection factory. Connections are opened on first use.
+   *
+   * @param socketOpener opens a new, connected socket.
+   * @param description  describes the server in log messages.
+   * @param poolSize     the number of connections.
+   */
+  public TlsDnsClient(final SocketOpener socketOpener, final String description, final int poolSize) {
+    this(socketOpener, description, poolSize, CONNECTORS);
+  }
+
+  TlsDnsClient(final SocketOpener socketOpener, final String description, final int poolSize, final Executor connectExecutor) {
+    this.socketOpener = socketOpener;
+    this.description = description;
+    this.connectExecutor = connectExecutor;
+    this.connections = new AtomicReferenceArray<>(Math.max(1, poolSize));
+  }
+
+  /**
+   * Creates a DNS over TLS client.
+   *
+   * @param server         the server's address, usually port 853.
+   * @param tlsName        the name in the server's certificate, sent as SNI and verified.
+   * @param poolSize       the number of connections.
+   * @param connectTimeout the timeout for connecting and the TLS handshake.
+   * @return a new client.
+   */
+  public static TlsDnsClient forTls(final InetSocketAddress server,
+                                    final String tlsName,
+                                    final int poolSize,
+                                    final Duration connectTimeout) {
+    return new TlsDnsClient(() -> openTlsSocket(server, tlsName, connectTimeout), tlsName + "@" + server, poolSize);
+  }
+
+  private static Socket openTlsSocket(final InetSocketAddress server, final String tlsName, final Duration connectTimeout)
+      throws IOException {
+    final SSLSocket socket = (SSLSocket) SSLSocketFactory.getDefault().createSocket();
+
+    try {
+      final SSLParameters sslParameters = socket.getSSLParameters();
+      sslParameters.setServerNames(Collections.singletonList(new SNIHostName(tlsName)));
+      // verifies the certificate matches the name, as we connect by IP.
+      sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+      socket.setSSLParameters(sslParameters);
+      socket.setTcpNoDelay(true);
+      socket.connect(server, (int) connectTimeout.toMillis());
+      socket.setSoTimeout((int) connectTimeout.toMillis());
+      socket.startHandshake();
+      // responses may take long, the reader must not time out.
+      socket.setSoTimeout(0);
+
+      return socket;
+    } catch (final IOException | RuntimeException connectException) {
+      socket.close();
+
+      throw connectException;
+    }
+  }
+
+  private static ScheduledExecutorService createTimeoutScheduler() {
+    final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+      final Thread thread = new Thread(runnable, "nameserviceagent-dns-tls-timeout");
+      thread.setDaemon(true);
+
+      return thread;
+    });
+    scheduler.setRemoveOnCancelPolicy(true);
+
+    return scheduler;
+  }
+
+  /**
+   * Sends the query on one of the pooled connections. If that connection is not open, it is opened in the background first.
+   *
+   * @param query   the query to send in wire format. It is not modified.
+   * @param timeout the time after which the future completes with a {@link TimeoutException}.
+   * @return the response in wire format.
+   */
+  public CompletableFuture<byte[]> send(final byte[] query, final Duration timeout) {
+    final int connectionIndex = Math.floorMod(this.nextConnection.getAndIncrement(), this.connections.length());
+
+    // runs right away on an open connection, else on the connecting thread.
+    return this.getConnection(connectionIndex).thenCompose(connection -> connection.send(query, timeout));
+  }
+
+  private CompletableFuture<Connection> getConnection(final int connectionIndex) {
+    while (true) {
+      final CompletableFuture<Connection> existing = this.connections.get(connectionIndex);
+
+      if (existing != null && (!existing.isDone() || isOpen(existing))) {
+        return existing;
+      }
+
+      final CompletableFuture<Connection> connecting = new CompletableFuture<>();
+
+      // only one caller opens the connection, the others wait for it.
+      if (this.connections.compareAndSet(connectionIndex, existing, connecting)) {
+        this.connectExecutor.execute(() -> this.connect(connecting));
+
+        return connecting;
+      }
+    }
+  }
+
+  private static boolean isOpen(final CompletableFuture<Connection> connection) {
+    return !connection.isCompletedExceptionally() && connection.join().isOpen();
+  }
+
+  private void connect(final CompletableFuture<Connection> connecting) {
+    try {
+      final Connection connection = new Connection(this.socketOpener.open(), this.description);
+      connection.startReader();
+      connecting.complete(connection);
+    } catch (final IOException | RuntimeException connectException) {
+      connecting.completeExceptionally(connectException);
+    }
+  }
+
+  @Override
+  public void close() {
+    for (int connectionIndex = 0; connectionIndex < this.connections.length(); connectionIndex++) {
+      final CompletableFuture<Connection> connection = this.connections.get(connectionIndex);
+
+      if (connection != null) {
+        connection.thenAccept(openConnection -> openConnection.close(new IOException("Client closed.")));
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return TlsDnsClient.class.getSimpleName() + "[" + this.description + "]";
+  }
+
+  /**
+   * Opens a new connected socket.
+   */
+  @FunctionalInterface
+  public interface SocketOpener {
+
+    /**
+     * Opens a new connected socket, e.g. after the TLS handshake.
+     *
+     * @return the connected socket.
+     * @throws IOException if the connection fails.
+     */
+    Socket open() throws IOException;
+  }
+
+  private static final class Connection {
+
+    private final Socket socket;
+
+    private final String description;
+
+    private final DataOutputStream out;
+
+    private final DataInputStream in;
+
+    private final ConcurrentMap<Integer, CompletableFuture<byte[]>> pendingQueries = new ConcurrentHashMap<>();
+
+    private volatile boolean open = true;
+
+    Connection(final Socket socket, final String description) throws IOException {
+      this.socket = socket;
+      this.description = description;
+      this.out = new DataOutputStream(socket.getOutputStream());
+      this.in = new DataInputStream(socket.getInputStream());
+    }
+
+    boolean isOpen() {
+      return this.open;
+    }
+
+    void startReader() {
+      final Thread reader = new Thread(this::readResponses, "nameserviceagent-dns-tls-" + this.description);
+      reader.setDaemon(true);
+      reader.start();
+    }
+
+    CompletableFuture<byte[]> send(final byte[] query, final Duration timeout) {
+      final CompletableFuture<byte[]> response = new CompletableFuture<>();
+      final int transactionId = this.register(response);
+      final byte[] wire = query.clone();
+      ByteBuffer.wrap(wire).putShort(0, (short) transactionId);
+
+      final ScheduledFuture<?> timeoutTask = TIMEOUTS.schedule(
+          () -> response.completeExceptionally(new TimeoutException("No DNS response from [" + this.description + "].")),
+          timeout.toNanos(),
+          TimeUnit.NANOSECONDS);
+      response.whenComplete((message, error) -> {
+        timeoutTask.cancel(false);
+        this.pendingQueries.remove(transactionId, response);
+      });
+
+      try {
+        // a query is written as a whole, the next one directly follows without waiting for the response.
+        synchronized (this.out) {
+          this.out.writeShort(wire.length);
+          this.out.write(wire);
+          this.out.flush();
+        }
+      } catch (final IOException ioException) {
+        this.close(ioException);
+      }
+
+      return response;
+    }
+
+    private int register(final CompletableFuture<byte[]> response) {
+      while (true) {
+        final int transactionId = ThreadLocalRandom.current().nextInt(MAX_TRANSACTION_IDS);
+
+        if (this.pendingQueries.putIfAbsent(transactionId, response) == null) {
+          return transactionId;
+        }
+      }
+    }
+
+    private void readResponses() {
+      try {
+        while (this.open) {
+          final byte[] wire = new byte[this.in.readUnsignedShort()];
+          this.in.readFully(wire);
+          final CompletableFuture<byte[]> pendingQuery = wire.length < DnsWireCodec.HEADER_LENGTH
+              ? null
+              : this.pendingQueries.get(DnsWireCodec.getId(ByteBuffer.wrap(wire)));
+
+          if (pendingQuery == null) {
+            LOG.log(Level.FINE, () -> "Ignoring unexpected DNS response from [" + this.description + "].");
+            continue;
+          }
+
+          pendingQuery.complete(wire);
+        }
+      } catch (final EOFException eofException) {
+        // idle connection closed by the server.
+        this.close(new IOException("Connection closed by [" + this.description + "].", eofException));
+      } catch (final IOException ioException) {
+        this.close(ioException);
+      }
+    }
+
+    void close(final IOException reason) {
+      this.open = false;
+
+      try {
+        this.socket.close();
+      } catch (final IOException closeException) {
+        LOG.log(Level.FINE, closeException, () -> "Unable to close connection to [" + this.description + "].");
+      }
+
+      for (final CompletableFuture<byte[]> pendingQuery : this.pendingQueries.values()) {
+        pendingQuery.completeExceptionally(reason);
+      }
+    }
+  }
+}
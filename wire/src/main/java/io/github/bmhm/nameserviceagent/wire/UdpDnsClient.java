@@ -0,0 +1,330 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.wire;
+
+import org.xbill.DNS.Message;
+import org.xbill.DNS.SimpleResolver;
+import org.xbill.DNS.WireParseException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends plain DNS queries over a single shared UDP channel.
+ *
+ * <p>Any number of queries can be in flight at once. They are told apart by their transaction ID,
+ * and a single thread receives all responses and expires queries without response.
+ * A truncated response is repeated over TCP.</p>
+ *
+ * <p>Queries and responses are passed in wire format, see {@link DnsWireCodec}.
+ * The receiving thread only reads the header and question of a response to match it to its query.</p>
+ */
+public final class UdpDnsClient implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(UdpDnsClient.class.getCanonicalName());
+
+  /**
+   * How often queries are checked for their timeout while any query is in flight.
+   */
+  private static final long EXPIRY_INTERVAL_MS = 10L;
+
+  private static final int MAX_TRANSACTION_IDS = 0x1_0000;
+
+  private final DatagramChannel channel;
+
+  private final Selector selector;
+
+  private final ConcurrentMap<Integer, PendingQuery> pendingQueries = new ConcurrentHashMap<>();
+
+  private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(Message.MAXLENGTH);
+
+  /**
+   * Whether the receiver waits without checking for timeouts, because there was no query in flight.
+   */
+  private final AtomicBoolean idle = new AtomicBoolean();
+
+  private UdpDnsClient(final DatagramChannel channel, final Selector selector) {
+    this.channel = channel;
+    this.selector = selector;
+  }
+
+  /**
+   * Opens a new client and starts its receiving thread.
+   *
+   * @param threadFactory the factory for the receiving thread, which should create daemon threads.
+   * @return a new client.
+   * @throws IOException if the channel could not be opened.
+   */
+  public static UdpDnsClient open(final ThreadFactory threadFactory) throws IOException {
+    final DatagramChannel channel = DatagramChannel.open();
+    channel.configureBlocking(false);
+    channel.bind(null);
+    final Selector selector = Selector.open();
+    channel.register(selector, SelectionKey.OP_READ);
+
+    final UdpDnsClient client = new UdpDnsClient(channel, selector);
+    threadFactory.newThread(client::receiveLoop).start();
+
+    return client;
+  }
+
+  /**
+   * Sends the query to the given servers in order until one answers in time.
+   * If the answer is truncated, the query is repeated over TCP to the same server.
+   *
+   * @param query   the query to send in wire format. It is not modified.
+   * @param servers the servers to try.
+   * @param timeout the timeout for each server.
+   * @return the response of the first answering server in wire format.
+   */
+  public CompletableFuture<byte[]> query(final byte[] query, final List<InetSocketAddress> servers, final Duration timeout) {
+    return this.queryFrom(query, servers, 0, timeout);
+  }
+
+  private CompletableFuture<byte[]> queryFrom(final byte[] query,
+                                              final List<InetSocketAddress> servers,
+                                              final int serverIndex,
+                                              final Duration timeout) {
+    final InetSocketAddress server = servers.get(serverIndex);
+    final CompletableFuture<byte[]> response = this.send(query, server, timeout)
+        .thenCompose(udpResponse -> DnsWireCodec.isTruncated(ByteBuffer.wrap(udpResponse))
+            ? sendTcp(query, server, timeout)
+            : CompletableFuture.completedFuture(udpResponse));
+
+    if (serverIndex + 1 >= servers.size()) {
+      return response;
+    }
+
+    return response.handle((message, error) -> error == null
+            ? CompletableFuture.completedFuture(message)
+            : this.queryFrom(query, servers, serverIndex + 1, timeout))
+        .thenCompose(next -> next);
+  }
+
+  /**
+   * Sends a single query over UDP.
+   *
+   * @param query   the query to send in wire format. It is not modified.
+   * @param server  the server to send it to.
+   * @param timeout the time after which the future completes with a {@link TimeoutException}.
+   * @return the response in wire format, which might be truncated.
+   *     Fails right away with an {@link IOException} if all transaction IDs are in use.
+   */
+  public CompletableFuture<byte[]> send(final byte[] query, final InetSocketAddress server, final Duration timeout) {
+    final PendingQuery pendingQuery = this.register(query, server, timeout);
+
+    if (pendingQuery.result.isDone()) {
+      return pendingQuery.result;
+    }
+
+    try {
+      if (this.channel.send(pendingQuery.query.duplicate(), server) == 0) {
+        throw new IOException("Send buffer full, cannot send query to [" + server + "].");
+      }
+    } catch (final IOException ioException) {
+      pendingQuery.result.completeExceptionally(ioException);
+    }
+
+    return pendingQuery.result;
+  }
+
+  private PendingQuery register(final byte[] query, final InetSocketAddress server, final Duration timeout) {
+    final long deadline = System.nanoTime() + timeout.toNanos();
+    final ByteBuffer idQuery = ByteBuffer.wrap(query.clone());
+
+    while (true) {
+      if (this.pendingQueries.size() >= MAX_TRANSACTION_IDS || System.nanoTime() - deadline >= 0) {
+        // do not spin searching for a free ID.
+        final PendingQuery rejectedQuery = new PendingQuery(server, idQuery, deadline);
+        rejectedQuery.result.completeExceptionally(new IOException("No free transaction ID to query [" + server + "], ["
+            + this.pendingQueries.size() + "] queries in flight."));
+
+        return rejectedQuery;
+      }
+
+      final int transactionId = ThreadLocalRandom.current().nextInt(MAX_TRANSACTION_IDS);
+      idQuery.putShort(0, (short) transactionId);
+      final PendingQuery pendingQuery = new PendingQuery(server, idQuery, deadline);
+
+      if (this.pendingQueries.putIfAbsent(transactionId, pendingQuery) == null) {
+        pendingQuery.result.whenComplete((response, error) -> this.pendingQueries.remove(transactionId, pendingQuery));
+
+        if (this.idle.get()) {
+          this.selector.wakeup();
+        }
+
+        return pendingQuery;
+      }
+    }
+  }
+
+  private static CompletableFuture<byte[]> sendTcp(final byte[] query, final InetSocketAddress server, final Duration timeout) {
+    final SimpleResolver tcpResolver = new SimpleResolver(server);
+    tcpResolver.setTCP(true);
+    tcpResolver.setTimeout(timeout);
+
+    try {
+      // rare enough to not need its own codec path.
+      return tcpResolver.sendAsync(new Message(query)).toCompletableFuture()
+          .thenApply(Message::toWire);
+    } catch (final IOException ioException) {
+      final CompletableFuture<byte[]> failed = new CompletableFuture<>();
+      failed.completeExceptionally(ioException);
+
+      return failed;
+    }
+  }
+
+  private void receiveLoop() {
+    long nextExpiry = System.nanoTime();
+
+    while (this.selector.isOpen()) {
+      try {
+        // set before checking for queries, so a query registered concurrently will wake up the selector.
+        this.idle.set(true);
+
+        if (this.pendingQueries.isEmpty()) {
+          this.selector.select();
+        } else {
+          this.idle.set(false);
+          this.selector.select(EXPIRY_INTERVAL_MS);
+        }
+
+        this.idle.set(false);
+        this.selector.selectedKeys().clear();
+        this.receiveAll();
+
+        final long now = System.nanoTime();
+
+        if (now - nextExpiry >= 0) {
+          this.expire(now);
+          nextExpiry = now + TimeUnit.MILLISECONDS.toNanos(EXPIRY_INTERVAL_MS);
+        }
+      } catch (final IOException | RuntimeException receiveException) {
+        if (this.selector.isOpen()) {
+          LOG.log(Level.WARNING, "Error receiving DNS responses.", receiveException);
+        }
+      }
+    }
+  }
+
+  private void receiveAll() throws IOException {
+    while (true) {
+      this.receiveBuffer.clear();
+      final SocketAddress source = this.channel.receive(this.receiveBuffer);
+
+      if (source == null) {
+        return;
+      }
+
+      this.receiveBuffer.flip();
+      this.handleResponse(source);
+    }
+  }
+
+  private void handleResponse(final SocketAddress source) {
+    if (this.receiveBuffer.remaining() < DnsWireCodec.HEADER_LENGTH) {
+      LOG.log(Level.FINE, () -> "Ignoring malformed DNS response from [" + source + "].");
+      return;
+    }
+
+    final PendingQuery pendingQuery = this.pendingQueries.get(DnsWireCodec.getId(this.receiveBuffer));
+
+    if (pendingQuery == null
+        || !pendingQuery.server.equals(source)
+        || !DnsWireCodec.isResponseTo(this.receiveBuffer, pendingQuery.query)) {
+      // late, spoofed or unrelated.
+      LOG.log(Level.FINE, () -> "Ignoring unexpected DNS response from [" + source + "].");
+      return;
+    }
+
+    final byte[] response = new byte[this.receiveBuffer.remaining()];
+    this.receiveBuffer.get(response);
+    pendingQuery.result.complete(response);
+  }
+
+  private void expire(final long now) {
+    for (final PendingQuery pendingQuery : this.pendingQueries.values()) {
+      if (now - pendingQuery.deadline >= 0) {
+        pendingQuery.result.completeExceptionally(
+            new TimeoutException("No DNS response from [" + pendingQuery.server + "] for [" + describe(pendingQuery.query) + "]."));
+      }
+    }
+  }
+
+  private static String describe(final ByteBuffer query) {
+    try {
+      return DnsWireCodec.readName(query, DnsWireCodec.HEADER_LENGTH);
+    } catch (final WireParseException wireParseException) {
+      return "malformed query";
+    }
+  }
+
+  /**
+   * Returns the number of queries waiting for a response.
+   *
+   * @return the number of queries in flight.
+   */
+  public int getPendingQueries() {
+    return this.pendingQueries.size();
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.selector.close();
+    this.channel.close();
+
+    for (final PendingQuery pendingQuery : this.pendingQueries.values()) {
+      pendingQuery.result.completeExceptionally(new IOException("Client closed."));
+    }
+  }
+
+  private static final class PendingQuery {
+
+    private final InetSocketAddress server;
+
+    private final ByteBuffer query;
+
+    private final long deadline;
+
+    private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+    PendingQuery(final InetSocketAddress server, final ByteBuffer query, final long deadline) {
+      this.server = server;
+      this.query = query;
+      this.deadline = deadline;
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.wire;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.CNAMERecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding a query and decoding the addresses of a typical answer (one CNAME, four A records)
+ * using {@link DnsWireCodec} and using dnsjava's {@link Message}.
+ *
+ * <p>Not run by the build. Run it from the IDE or with {@code -prof gc} to also compare the allocation rates.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DnsWireCodecBenchmark {
+
+  private static final String HOST = "www.example.com";
+
+  private final ByteBuffer queryBuffer = ByteBuffer.allocate(512);
+
+  private byte[] response;
+
+  private Name hostName;
+
+  /**
+   * Builds the response to decode.
+   *
+   * @throws IOException if the test data is invalid.
+   */
+  @Setup
+  public void setUp() throws IOException {
+    this.hostName = Name.fromString(HOST + ".");
+    final Name canonicalName = Name.fromString("web.example.com.");
+    final Message message = new Message(0x1234);
+    message.getHeader().setFlag(Flags.QR);
+    message.addRecord(Record.newRecord(this.hostName, Type.A, DClass.IN), Section.QUESTION);
+    message.addRecord(new CNAMERecord(this.hostName, DClass.IN, 300L, canonicalName), Section.ANSWER);
+
+    for (int address = 1; address <= 4; address++) {
+      message.addRecord(
+          new ARecord(canonicalName, DClass.IN, 60L, InetAddress.getByAddress(new byte[] {(byte) 192, 0, 2, (byte) address})),
+          Section.ANSWER);
+    }
+
+    this.response = message.toWire();
+  }
+
+  @Benchmark
+  public void encodeQueryCodec(final Blackhole blackhole) {
+    this.queryBuffer.clear();
+    DnsWireCodec.encodeQuery(this.queryBuffer, 0x1234, HOST, Type.A);
+    blackhole.consume(this.queryBuffer);
+  }
+
+  @Benchmark
+  public byte[] encodeQueryDnsjava() {
+    return DnsMessage.newQuery(Record.newRecord(this.hostName, Type.A, DClass.IN)).toWire();
+  }
+
+  @Benchmark
+  public void decodeAddressesCodec(final Blackhole blackhole) throws IOException {
+    DnsWireCodec.readAnswers(ByteBuffer.wrap(this.response), (type, ttl, message, rdataOffset, rdataLength) -> {
+      if (type == Type.A) {
+        blackhole.consume(DnsWireCodec.readAddress(message, rdataOffset, rdataLength));
+        blackhole.consume(ttl);
+      }
+    });
+  }
+
+  @Benchmark
+  public void decodeAddressesDnsjava(final Blackhole blackhole) throws IOException {
+    for (final Record answer : new Message(this.response).getSection(Section.ANSWER)) {
+      if (answer.getType() == Type.A) {
+        blackhole.consume(((ARecord) answer).getAddress().getAddress());
+        blackhole.consume(answer.getTTL());
+      }
+    }
+  }
+
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(DnsWireCodecBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.wire;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.CNAMERecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.PTRRecord;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SRVRecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+import org.xbill.DNS.WireParseException;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class DnsWireCodecTest {
+
+  private static final Name HOST = name("www.example.com.");
+
+  private static final Name CANONICAL_HOST = name("web.example.com.");
+
+  @Test
+  void testEncodedQueryEqualsDnsjava() throws IOException {
+    // given
+    final ByteBuffer buffer = ByteBuffer.allocate(512);
+
+    // when
+    DnsWireCodec.encodeQuery(buffer, 0x1234, "www.example.com", Type.AAAA);
+
+    // then
+    final Message query = new Message(Arrays.copyOf(buffer.array(), buffer.position()));
+    assertEquals(0x1234, query.getHeader().getID());
+    assertTrue(query.getHeader().getFlag(Flags.RD));
+    assertEquals(Record.newRecord(HOST, Type.AAAA, DClass.IN), query.getQuestion());
+    assertArrayEquals(
+        withId(DnsMessage.newQuery(Record.newRecord(HOST, Type.AAAA, DClass.IN)).toWire(), 0),
+        withId(Arrays.copyOf(buffer.array(), buffer.position()), 0));
+  }
+
+  @Test
+  void testEncodeRejectsInvalidNames() {
+    final ByteBuffer buffer = ByteBuffer.allocate(512);
+    final char[] longLabel = new char[64];
+    Arrays.fill(longLabel, 'a');
+
+    assertThrows(IllegalArgumentException.class, () -> DnsWireCodec.encodeQuery(buffer, 1, "www..example.com", Type.A));
+    assertThrows(IllegalArgumentException.class, () -> DnsWireCodec.encodeQuery(buffer, 1, new String(longLabel), Type.A));
+    assertThrows(IllegalArgumentException.class, () -> DnsWireCodec.encodeQuery(buffer, 1, "bücher.example", Type.A));
+  }
+
+  @Test
+  void testReadsAddressesBehindCname() throws IOException {
+    // given
+    final Message response = response(Type.A);
+    response.addRecord(new CNAMERecord(HOST, DClass.IN, 300L, CANONICAL_HOST), Section.ANSWER);
+    response.addRecord(new ARecord(CANONICAL_HOST, DClass.IN, 60L, InetAddress.getByName("192.0.2.1")), Section.ANSWER);
+    response.addRecord(new ARecord(CANONICAL_HOST, DClass.IN, 30L, InetAddress.getByName("192.0.2.2")), Section.ANSWER);
+    final List<String> visited = new ArrayList<>();
+
+    // when
+    final int rcode = DnsWireCodec.readAnswers(ByteBuffer.wrap(response.toWire()), (type, ttl, message, rdataOffset, rdataLength) -> {
+      if (type == Type.CNAME) {
+        visited.add("CNAME " + DnsWireCodec.readName(message, rdataOffset) + " " + ttl);
+      } else {
+        visited.add(toHostAddress(DnsWireCodec.readAddress(message, rdataOffset, rdataLength)) + " " + ttl);
+      }
+    });
+
+    // then
+    assertEquals(Rcode.NOERROR, rcode);
+    assertEquals(Arrays.asList("CNAME web.example.com 300", "192.0.2.1 60", "192.0.2.2 30"), visited);
+  }
+
+  @Test
+  void testReadsAaaaPtrAndSrv() throws IOException {
+    // given
+    final Message response = response(Type.ANY);
+    response.addRecord(new AAAARecord(HOST, DClass.IN, 60L, InetAddress.getByName("2001:db8::1")), Section.ANSWER);
+    response.addRecord(new PTRRecord(HOST, DClass.IN, 60L, CANONICAL_HOST), Section.ANSWER);
+    response.addRecord(new SRVRecord(HOST, DClass.IN, 60L, 10, 20, 5432, CANONICAL_HOST), Section.ANSWER);
+    final List<String> visited = new ArrayList<>();
+
+    // when
+    DnsWireCodec.readAnswers(ByteBuffer.wrap(response.toWire()), (type, ttl, message, rdataOffset, rdataLength) -> {
+      if (type == Type.AAAA) {
+        visited.add(toHostAddress(DnsWireCodec.readAddress(message, rdataOffset, rdataLength)));
+      } else if (type == Type.PTR) {
+        visited.add(DnsWireCodec.readName(message, rdataOffset));
+      } else {
+        visited.add(DnsWireCodec.readSrvTarget(message, rdataOffset) + ":" + DnsWireCodec.readSrvPort(message, rdataOffset));
+      }
+    });
+
+    // then
+    assertEquals(Arrays.asList("2001:db8:0:0:0:0:0:1", "web.example.com", "web.example.com:5432"), visited);
+  }
+
+  @Test
+  void testNxdomain() throws IOException {
+    // given
+    final Message response = response(Type.A);
+    response.getHeader().setRcode(Rcode.NXDOMAIN);
+
+    // when
+    final int rcode = DnsWireCodec.readAnswers(ByteBuffer.wrap(response.toWire()), (type, ttl, message, rdataOffset, rdataLength) -> {
+      throw new AssertionError("no answers expected");
+    });
+
+    // then
+    assertEquals(Rcode.NXDOMAIN, rcode);
+  }
+
+  @Test
+  void testTruncatedMessageIsRejected() throws IOException {
+    // given
+    final Message response = response(Type.A);
+    response.addRecord(new ARecord(HOST, DClass.IN, 60L, InetAddress.getByName("192.0.2.1")), Section.ANSWER);
+    final byte[] wire = response.toWire();
+
+    // then
+    assertThrows(WireParseException.class, () -> DnsWireCodec.readAnswers(
+        ByteBuffer.wrap(Arrays.copyOf(wire, wire.length - 2)),
+        (type, ttl, message, rdataOffset, rdataLength) -> { }));
+  }
+
+  @Test
+  void testCompressionLoopIsRejected() {
+    // given -- a name pointing to itself.
+    final ByteBuffer message = ByteBuffer.wrap(new byte[] {0, 0, (byte) 0xC0, 2});
+
+    // then
+    assertThrows(WireParseException.class, () -> DnsWireCodec.readName(message, 2));
+  }
+
+  @Test
+  void testIsResponseTo() throws IOException {
+    // given
+    final ByteBuffer query = ByteBuffer.allocate(512);
+    DnsWireCodec.encodeQuery(query, 0x4242, "WWW.example.com", Type.A);
+    query.flip();
+    final Message response = response(Type.A);
+    response.getHeader().setID(0x4242);
+    final Message otherResponse = response(Type.AAAA);
+    otherResponse.getHeader().setID(0x4242);
+
+    // then
+    assertTrue(DnsWireCodec.isResponseTo(ByteBuffer.wrap(response.toWire()), query));
+    assertFalse(DnsWireCodec.isResponseTo(ByteBuffer.wrap(otherResponse.toWire()), query));
+    // a query is not a response.
+    assertFalse(DnsWireCodec.isResponseTo(query, query));
+  }
+
+  private static Message response(final int type) {
+    final Message response = new Message(0x1234);
+    response.getHeader().setFlag(Flags.QR);
+    response.getHeader().setFlag(Flags.RD);
+    response.addRecord(Record.newRecord(HOST, type, DClass.IN), Section.QUESTION);
+
+    return response;
+  }
+
+  private static String toHostAddress(final byte[] address) {
+    try {
+      return InetAddress.getByAddress(address).getHostAddress();
+    } catch (final IOException ioException) {
+      throw new IllegalStateException(ioException);
+    }
+  }
+
+  private static byte[] withId(final byte[] wire, final int id) {
+    ByteBuffer.wrap(wire).putShort(0, (short) id);
+
+    return wire;
+  }
+
+  private static Name name(final String name) {
+    try {
+      return Name.fromString(name);
+    } catch (final IOException ioException) {
+      throw new IllegalStateException(ioException);
+    }
+  }
+}
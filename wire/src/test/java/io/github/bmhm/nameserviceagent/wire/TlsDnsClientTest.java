@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.wire;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+class TlsDnsClientTest {
+
+  private final ServerSocket serverSocket = newServerSocket();
+
+  private final TlsDnsClient client = new TlsDnsClient(
+      () -> new Socket(InetAddress.getLoopbackAddress(), this.serverSocket.getLocalPort()),
+      "test",
+      1);
+
+  @AfterEach
+  void tearDown() throws IOException {
+    this.client.close();
+    this.serverSocket.close();
+  }
+
+  @Test
+  void testPipelinedQueriesAnsweredOutOfOrder() throws Exception {
+    // given -- the server reads two queries before answering both in reverse order.
+    this.startServer(2);
+
+    // when
+    final CompletableFuture<byte[]> first = this.client.send(query("first.example.com."), Duration.ofSeconds(5L));
+    final CompletableFuture<byte[]> second = this.client.send(query("second.example.com."), Duration.ofSeconds(5L));
+
+    // then
+    assertEquals(Name.fromString("first.example.com."), new Message(first.get(5L, TimeUnit.SECONDS)).getQuestion().getName());
+    assertEquals(Name.fromString("second.example.com."), new Message(second.get(5L, TimeUnit.SECONDS)).getQuestion().getName());
+  }
+
+  @Test
+  void testTimeout() throws Exception {
+    // given -- a server which never answers.
+    this.startServer(Integer.MAX_VALUE);
+
+    // when
+    final CompletableFuture<byte[]> response = this.client.send(query("example.com."), Duration.ofMillis(100L));
+
+    // then
+    final ExecutionException executionException = assertThrows(ExecutionException.class, () -> response.get(5L, TimeUnit.SECONDS));
+    assertTrue(executionException.getCause() instanceof TimeoutException);
+  }
+
+  @Test
+  void testConnectsOnConnectExecutor() throws Exception {
+    // given -- connecting is deferred until the test runs it.
+    this.startServer(2);
+    final List<Runnable> connects = new ArrayList<>();
+    final TlsDnsClient deferredClient = new TlsDnsClient(
+        () -> new Socket(InetAddress.getLoopbackAddress(), this.serverSocket.getLocalPort()),
+        "deferred",
+        1,
+        connects::add);
+
+    try {
+      // when
+      final CompletableFuture<byte[]> first = deferredClient.send(query("first.example.com."), Duration.ofSeconds(5L));
+      final CompletableFuture<byte[]> second = deferredClient.send(query("second.example.com."), Duration.ofSeconds(5L));
+
+      // then -- the callers did not connect, and share a single connection.
+      assertEquals(1, connects.size());
+      assertFalse(first.isDone());
+      connects.get(0).run();
+      assertEquals(Name.fromString("first.example.com."), new Message(first.get(5L, TimeUnit.SECONDS)).getQuestion().getName());
+      assertEquals(Name.fromString("second.example.com."), new Message(second.get(5L, TimeUnit.SECONDS)).getQuestion().getName());
+    } finally {
+      deferredClient.close();
+    }
+  }
+
+  private static byte[] query(final String host) throws IOException {
+    return DnsMessage.newQuery(Record.newRecord(Name.fromString(host), Type.A, DClass.IN)).toWire();
+  }
+
+  private void startServer(final int batchSize) {
+    final Thread serverThread = new Thread(() -> {
+      try (Socket connection = this.serverSocket.accept()) {
+        final DataInputStream in = new DataInputStream(connection.getInputStream());
+        final DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+        final List<Message> queries = new ArrayList<>();
+
+        while (true) {
+          final byte[] wire = new byte[in.readUnsignedShort()];
+          in.readFully(wire);
+          queries.add(new Message(wire));
+
+          if (queries.size() == batchSize) {
+            for (int queryIndex = queries.size() - 1; queryIndex >= 0; queryIndex--) {
+              final byte[] response = answer(queries.get(queryIndex)).toWire();
+              out.writeShort(response.length);
+              out.write(response);
+            }
+
+            out.flush();
+            queries.clear();
+          }
+        }
+      } catch (final IOException ioException) {
+        // closed
+      }
+    });
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  private static Message answer(final Message query) {
+    final Message response = new Message(query.getHeader().getID());
+    response.getHeader().setFlag(Flags.QR);
+    response.addRecord(query.getQuestion(), Section.QUESTION);
+
+    return response;
+  }
+
+  private static ServerSocket newServerSocket() {
+    try {
+      return new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    } catch (final IOException ioException) {
+      throw new IllegalStateException(ioException);
+    }
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2020-2020 the nameserviceangent team
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.bmhm.nameserviceagent.wire;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+class UdpDnsClientTest {
+
+  private static final byte[] ANSWER = {(byte) 192, 0, 2, 1};
+
+  private static final byte[] FORGED_ANSWER = {(byte) 192, 0, 2, 66};
+
+  private final DatagramChannel dnsServer = newChannel();
+
+  private final DatagramChannel silentServer = newChannel();
+
+  private UdpDnsClient client;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    this.client = UdpDnsClient.open(runnable -> {
+      final Thread receiver = new Thread(runnable, "test-dns-udp");
+      receiver.setDaemon(true);
+
+      return receiver;
+    });
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    this.client.close();
+    this.dnsServer.close();
+    this.silentServer.close();
+  }
+
+  @Test
+  void testMatchesResponseToQuery() throws Exception {
+    // given
+    this.startServer((query, source) -> this.reply(answer(query, ANSWER), source));
+
+    // when
+    final CompletableFuture<byte[]> response = this.client.send(query("example.com."), address(this.dnsServer), Duration.ofSeconds(5L));
+
+    // then
+    assertArrayEquals(ANSWER, answerOf(response.get(5L, TimeUnit.SECONDS)));
+    assertEquals(0, this.client.getPendingQueries());
+  }
+
+  @Test
+  void testIgnoresUnrelatedResponses() throws Exception {
+    // given -- forged answers with the wrong ID, from the wrong source or for another question arrive first.
+    try (DatagramChannel spoofer = newChannel()) {
+      this.startServer((query, source) -> {
+        final Message wrongId = answer(query, FORGED_ANSWER);
+        wrongId.getHeader().setID((query.getHeader().getID() + 1) & 0xFFFF);
+        this.reply(wrongId, source);
+        spoofer.send(ByteBuffer.wrap(answer(query, FORGED_ANSWER).toWire()), source);
+
+        final Message otherQuestion = new Message(query.getHeader().getID());
+        otherQuestion.getHeader().setFlag(Flags.QR);
+        otherQuestion.addRecord(Record.newRecord(Name.fromString("other.example.com."), Type.A, DClass.IN), Section.QUESTION);
+        this.reply(otherQuestion, source);
+
+        this.reply(answer(query, ANSWER), source);
+      });
+
+      // when
+      final CompletableFuture<byte[]> response = this.client.send(query("example.com."), address(this.dnsServer), Duration.ofSeconds(5L));
+
+      // then
+      assertArrayEquals(ANSWER, answerOf(response.get(5L, TimeUnit.SECONDS)));
+    }
+  }
+
+  @Test
+  void testTimeout() {
+    // when
+    final CompletableFuture<byte[]> response = this.client.send(query("example.com."), address(this.silentServer), Duration.ofMillis(100L));
+
+    // then
+    final ExecutionException executionException = assertThrows(ExecutionException.class, () -> response.get(5L, TimeUnit.SECONDS));
+    assertTrue(executionException.getCause() instanceof TimeoutException);
+    assertEquals(0, this.client.getPendingQueries());
+  }
+
+  @Test
+  void testFailsIfAllTransactionIdsAreInUse() {
+    // given
+    final byte[] query = query("example.com.");
+
+    for (int queryNumber = 0; queryNumber < 0x1_0000; queryNumber++) {
+      this.client.send(query, address(this.silentServer), Duration.ofSeconds(30L));
+    }
+
+    // when
+    final CompletableFuture<byte[]> response = this.client.send(query, address(this.silentServer), Duration.ofSeconds(30L));
+
+    // then
+    assertTrue(response.isCompletedExceptionally());
+    final ExecutionException executionException = assertThrows(ExecutionException.class, response::get);
+    assertTrue(executionException.getCause() instanceof IOException);
+  }
+
+  @Test
+  void testFailsOverToNextServer() throws Exception {
+    // given
+    this.startServer((query, source) -> this.reply(answer(query, ANSWER), source));
+    final List<InetSocketAddress> servers = Arrays.asList(address(this.silentServer), address(this.dnsServer));
+
+    // when
+    final CompletableFuture<byte[]> response = this.client.query(query("example.com."), servers, Duration.ofMillis(200L));
+
+    // then
+    assertArrayEquals(ANSWER, answerOf(response.get(5L, TimeUnit.SECONDS)));
+  }
+
+  @Test
+  void testRetriesTruncatedResponseOverTcp() throws Exception {
+    // given -- the UDP answer is truncated, the TCP server on the same port has the full answer.
+    try (ServerSocket tcpServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+         DatagramChannel udpServer = DatagramChannel.open()) {
+      udpServer.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), tcpServer.getLocalPort()));
+      this.startServer(udpServer, (query, source) -> {
+        final Message truncated = answer(query, FORGED_ANSWER);
+        truncated.getHeader().setFlag(Flags.TC);
+        udpServer.send(ByteBuffer.wrap(truncated.toWire()), source);
+      });
+      startTcpServer(tcpServer);
+
+      // when
+      final CompletableFuture<byte[]> response =
+          this.client.query(query("example.com."), Collections.singletonList(address(udpServer)), Duration.ofSeconds(5L));
+
+      // then
+      assertArrayEquals(ANSWER, answerOf(response.get(5L, TimeUnit.SECONDS)));
+    }
+  }
+
+  private static byte[] query(final String host) {
+    try {
+      return DnsMessage.newQuery(Record.newRecord(Name.fromString(host), Type.A, DClass.IN)).toWire();
+    } catch (final IOException ioException) {
+      throw new IllegalStateException(ioException);
+    }
+  }
+
+  private static Message answer(final Message query, final byte[] address) throws IOException {
+    final Message response = new Message(query.getHeader().getID());
+    response.getHeader().setFlag(Flags.QR);
+    response.addRecord(query.getQuestion(), Section.QUESTION);
+    response.addRecord(
+        new ARecord(query.getQuestion().getName(), DClass.IN, 60L, InetAddress.getByAddress(address)),
+        Section.ANSWER);
+
+    return response;
+  }
+
+  private static byte[] answerOf(final byte[] response) throws IOException {
+    return ((ARecord) new Message(response).getSection(Section.ANSWER).get(0)).getAddress().getAddress();
+  }
+
+  private void reply(final Message response, final SocketAddress destination) throws IOException {
+    this.dnsServer.send(ByteBuffer.wrap(response.toWire()), destination);
+  }
+
+  private void startServer(final Responder responder) {
+    this.startServer(this.dnsServer, responder);
+  }
+
+  private void startServer(final DatagramChannel server, final Responder responder) {
+    final Thread serverThread = new Thread(() -> {
+      final ByteBuffer buffer = ByteBuffer.allocate(Message.MAXLENGTH);
+
+      try {
+        while (true) {
+          buffer.clear();
+          final SocketAddress source = server.receive(buffer);
+          buffer.flip();
+          final byte[] wire = new byte[buffer.remaining()];
+          buffer.get(wire);
+          responder.respond(new Message(wire), source);
+        }
+      } catch (final IOException ioException) {
+        // closed
+      }
+    });
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  private static void startTcpServer(final ServerSocket tcpServer) {
+    final Thread serverThread = new Thread(() -> {
+      try (Socket connection = tcpServer.accept()) {
+        final DataInputStream in = new DataInputStream(connection.getInputStream());
+        final DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+        final byte[] wire = new byte[in.readUnsignedShort()];
+        in.readFully(wire);
+        final byte[] response = answer(new Message(wire), ANSWER).toWire();
+        out.writeShort(response.length);
+        out.write(response);
+        out.flush();
+        // wait for the client to close the connection.
+        in.read();
+      } catch (final IOException ioException) {
+        // closed
+      }
+    });
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+
+  private static InetSocketAddress address(final DatagramChannel channel) {
+    try {
+      return (InetSocketAddress) channel.getLocalAddress();
+    } catch (final IOException ioException) {
+      throw new IllegalStateException(ioException);
+    }
+  }
+
+  private static DatagramChannel newChannel() {
+    try {
+      return DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    } catch (final IOException ioException) {
+      throw new IllegalStateException(ioException);
+    }
+  }
+
+  /**
+   * Answers a query received by a stub server.
+   */
+  private interface Responder {
+
+    void respond(Message query, SocketAddress source) throws IOException;
+  }
+}